@@ -0,0 +1,239 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * <h1>AiParameters</h1>
+ * <h2>The numbers that give each Enemy its personality</h2>
+ *
+ * Holds the constants the Enemies drive by, which used to be written into
+ * each of them: how close an Enemy gets to a waypoint before heading for the
+ * next, how hard Dog accelerates when trailing and when beating the player,
+ * and the range of distances from the player at which Octopus goes for them.
+ * A set of these is given to every Enemy, so the same Enemies can be made
+ * easier or harder without touching the code, and an AiTuner can try out
+ * thousands of sets to find one that races the way we want.
+ *
+ * Sets can be saved to and loaded from a properties file, with one key for
+ * each value. Any key left out keeps its default, the values the game has
+ * always used. A set is never changed once made, so one can be shared
+ * between any number of Enemies and Worlds, on any number of threads.
+ *
+ * @author Daniel Porteous porteousd 696965
+ */
+public final class AiParameters {
+
+    /** Where the game looks for a tuned set, used if it exists */
+    public static final String DEFAULT_FILE = GlobalHelper.DATA_PATH
+            + "ai.properties";
+
+    /** The values the game has always used */
+    public static final AiParameters DEFAULT = new AiParameters(250, 0.00055,
+            0.00045, 100, 250);
+
+    /** Number of values in a set, the length of toArray() */
+    public static final int NUM_VALUES = 5;
+
+    /** Keys of each value in a saved set, in the order of toArray() */
+    private static final String[] KEYS = { "waypointRadius",
+            "dogTrailingAcceleration", "dogBeatingAcceleration",
+            "octopusChaseMin", "octopusChaseMax" };
+
+    /** In pixels. How close to a waypoint counts as having reached it */
+    private final double waypointRadius;
+
+    /** Dog's acceleration while behind and while ahead of the player */
+    private final double dogTrailingAcceleration;
+    private final double dogBeatingAcceleration;
+
+    /** In pixels. The distances from the player Octopus chases them within */
+    private final double octopusChaseMin;
+    private final double octopusChaseMax;
+
+    /**
+     * Creates a set of parameters.
+     *
+     * @param waypointRadius
+     *            In pixels. How close to a waypoint an Enemy has to get
+     *            before heading for the next.
+     * @param dogTrailingAcceleration
+     *            Dog's acceleration while behind the player.
+     * @param dogBeatingAcceleration
+     *            Dog's acceleration while ahead of the player.
+     * @param octopusChaseMin
+     *            In pixels. The distance from the player within which
+     *            Octopus stops chasing them.
+     * @param octopusChaseMax
+     *            In pixels. The distance from the player beyond which
+     *            Octopus stops chasing them.
+     */
+    public AiParameters(double waypointRadius,
+            double dogTrailingAcceleration, double dogBeatingAcceleration,
+            double octopusChaseMin, double octopusChaseMax) {
+        if (waypointRadius <= 0 || dogTrailingAcceleration < 0
+                || dogBeatingAcceleration < 0 || octopusChaseMin < 0
+                || octopusChaseMax < octopusChaseMin) {
+            throw new IllegalArgumentException(
+                    "AiParameters: values out of range");
+        }
+        this.waypointRadius = waypointRadius;
+        this.dogTrailingAcceleration = dogTrailingAcceleration;
+        this.dogBeatingAcceleration = dogBeatingAcceleration;
+        this.octopusChaseMin = octopusChaseMin;
+        this.octopusChaseMax = octopusChaseMax;
+    }
+
+    /**
+     * Creates a set of parameters from an array of values, as given by
+     * toArray().
+     *
+     * @param values
+     *            The values, in the order of the constructor's arguments.
+     * @return The set.
+     */
+    public static AiParameters fromArray(double[] values) {
+        if (values.length != NUM_VALUES) {
+            throw new IllegalArgumentException(
+                    "AiParameters: expected " + NUM_VALUES + " values");
+        }
+        return new AiParameters(values[0], values[1], values[2], values[3],
+                values[4]);
+    }
+
+    /**
+     * @return The values of the set, in the order of the constructor's
+     *         arguments.
+     */
+    public double[] toArray() {
+        return new double[] { waypointRadius, dogTrailingAcceleration,
+                dogBeatingAcceleration, octopusChaseMin, octopusChaseMax };
+    }
+
+    /**
+     * Loads a saved set of parameters. Any value missing from the file keeps
+     * its default.
+     *
+     * @param file
+     *            The properties file the set was saved to.
+     * @return The set.
+     * @throws IOException
+     *             If the file can't be read, or a value isn't a number.
+     */
+    public static AiParameters load(File file) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            properties.load(in);
+        }
+        double[] values = DEFAULT.toArray();
+        for (int i = 0; i < NUM_VALUES; i++) {
+            String value = properties.getProperty(KEYS[i]);
+            if (value == null) {
+                continue;
+            }
+            try {
+                values[i] = Double.parseDouble(value.trim());
+            } catch (NumberFormatException e) {
+                throw new IOException(
+                        file + ": " + KEYS[i] + " is not a number");
+            }
+        }
+        try {
+            return fromArray(values);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(file + ": values out of range");
+        }
+    }
+
+    /**
+     * Loads the set of parameters the game should use: the one in
+     * DEFAULT_FILE if there is one and it can be read, otherwise DEFAULT.
+     *
+     * @return The set.
+     */
+    public static AiParameters loadDefault() {
+        File file = new File(DEFAULT_FILE);
+        if (!file.exists()) {
+            return DEFAULT;
+        }
+        try {
+            return load(file);
+        } catch (IOException e) {
+            System.err.println(
+                    "Couldn't load the AI parameters: " + e.getMessage());
+            return DEFAULT;
+        }
+    }
+
+    /**
+     * Saves the set of parameters.
+     *
+     * @param file
+     *            The file to save to, replaced if it exists.
+     * @param comment
+     *            A line written at the top of the file, or null for none.
+     * @throws IOException
+     */
+    public void save(File file, String comment) throws IOException {
+        Properties properties = new Properties();
+        double[] values = toArray();
+        for (int i = 0; i < NUM_VALUES; i++) {
+            properties.setProperty(KEYS[i], Double.toString(values[i]));
+        }
+        try (OutputStream out = new FileOutputStream(file)) {
+            properties.store(out, comment);
+        }
+    }
+
+    /**
+     * @return In pixels. How close to a waypoint an Enemy has to get before
+     *         heading for the next.
+     */
+    public double getWaypointRadius() {
+        return waypointRadius;
+    }
+
+    /**
+     * @return Dog's acceleration while behind the player.
+     */
+    public double getDogTrailingAcceleration() {
+        return dogTrailingAcceleration;
+    }
+
+    /**
+     * @return Dog's acceleration while ahead of the player.
+     */
+    public double getDogBeatingAcceleration() {
+        return dogBeatingAcceleration;
+    }
+
+    /**
+     * @return In pixels. The distance from the player within which Octopus
+     *         stops chasing them.
+     */
+    public double getOctopusChaseMin() {
+        return octopusChaseMin;
+    }
+
+    /**
+     * @return In pixels. The distance from the player beyond which Octopus
+     *         stops chasing them.
+     */
+    public double getOctopusChaseMax() {
+        return octopusChaseMax;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        double[] values = toArray();
+        for (int i = 0; i < NUM_VALUES; i++) {
+            builder.append(i == 0 ? "" : ", ").append(KEYS[i]).append('=')
+                    .append(values[i]);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,518 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * <h1>AiTuner</h1>
+ * <h2>Searches for AiParameters that give the races we want</h2>
+ *
+ * Tunes the Enemies by racing them, headless, against recorded player runs
+ * over and over with different AiParameters, keeping whichever sets score
+ * best under a RaceFitness. The search is a genetic algorithm over the
+ * parameters scaled to between 0 and 1 within the ranges below: each
+ * generation keeps the best few sets as they are, and fills the rest of the
+ * population with children of sets picked by tournament, blended together
+ * and then nudged at random by less and less as the generations go on. The
+ * first population includes the default set, so the result is never worse
+ * than what the game already has.
+ *
+ * Every race in a generation is independent of every other, so they are
+ * handed out to a pool of threads, one per core by default. Setting up a
+ * World means loading the map, so each thread only does it once, saves the
+ * World at the start of the race into a WorldSnapshot, and restores that
+ * before each race, which takes microseconds. A race then costs no more than
+ * ticking the World, so the speed scales with the number of cores.
+ *
+ * The player is moved along a GhostRecording of a real run each tick rather
+ * than driven by the keys pressed in it. Replaying keys only retraces the
+ * run while everything else does exactly what it did then, and the first
+ * time a differently tuned Enemy bumps the player, the rest of the keys
+ * drive them into a wall. Moved along the run, the player still gets in the
+ * Enemies' way, and Dog and Octopus still react to them, but they always
+ * finish when the player really did.
+ *
+ * The arguments, all optional, are the fitness function and its target, the
+ * number of generations, the population, the number of threads, the tick
+ * rate, and then any number of runs saved by GhostRecording, such as the
+ * GhostRecording.LAST_FILE the game saves whenever the player finishes.
+ * Without any, a few runs are recorded first from an autopilot following
+ * the waypoints, with a little noise in its steering and throttle. Any Racer
+ * that doesn't finish counts against the set. The best set found is printed,
+ * and saved to AiParameters.DEFAULT_FILE, where the game picks it up.
+ *
+ * @author Daniel Porteous porteousd 696965
+ */
+public class AiTuner {
+
+    /**
+     * Lowest and highest value searched for each parameter. Enemies turn too
+     * wide to hit waypoints much under 250 pixels across, and cut corners
+     * into walls much over, so the waypoint radius is kept close to it.
+     */
+    private static final double[] LOWER = { 225, 0.0004, 0.0003, 0, 150 };
+    private static final double[] UPPER = { 325, 0.0007, 0.0006, 200, 400 };
+
+    /** Number of the best sets kept as they are each generation */
+    private static final int NUM_ELITE = 2;
+
+    /** Number of sets competing for each place as a parent */
+    private static final int TOURNAMENT_SIZE = 3;
+
+    /** How far past either parent a child's values may be blended */
+    private static final double BLEND_MARGIN = 0.25;
+
+    /** Chance of nudging each value of a child */
+    private static final double MUTATION_RATE = 0.3;
+
+    /** Size of the nudges in the first and in the last generation */
+    private static final double FIRST_MUTATION = 0.15;
+    private static final double LAST_MUTATION = 0.02;
+
+    /** In seconds. How long a race may go on after the player finishes */
+    private static final int EXTRA_SECONDS = 30;
+
+    /** In pixels. How far over the line a finished player is left */
+    private static final double FINISH_OVERRUN = 36;
+
+    /**
+     * Added to the cost of a race for each Racer that didn't finish, so that
+     * a set can't do well by leaving everyone stuck at the same time.
+     */
+    private static final double UNFINISHED_COST = 10.0;
+
+    /** Ticks per second of the races, unless told otherwise */
+    private static final int DEFAULT_TICK_RATE = 250;
+
+    /** Number and length in seconds of the autopilot's runs */
+    private static final int NUM_AUTOPILOT_RUNS = 4;
+    private static final int AUTOPILOT_SECONDS = 120;
+
+    /** Most runs to try for, as the autopilot sometimes gets stuck */
+    private static final int MAX_AUTOPILOT_TRIES = 16;
+
+    /** How close the autopilot gets to a waypoint before heading on */
+    private static final double AUTOPILOT_RADIUS = 250;
+
+    /** Speed below which the autopilot might be stuck against a wall */
+    private static final double STUCK_SPEED = 0.01;
+
+    /** Screen size the World's camera is set up for */
+    private static final int VIEW_WIDTH = 800;
+    private static final int VIEW_HEIGHT = 600;
+
+    /** Each thread's World and the snapshot of it at the start of a race */
+    private static final ThreadLocal<World> WORLDS = new ThreadLocal<World>();
+    private static final ThreadLocal<WorldSnapshot> STARTS =
+            new ThreadLocal<WorldSnapshot>();
+
+    /** Every thread's World, to close once the tuning is done */
+    private static final List<World> ALL_WORLDS = Collections
+            .synchronizedList(new ArrayList<World>());
+
+    /** Only a main method here, so no instances. */
+    private AiTuner() {
+    }
+
+    /** A set of parameters in the population, and its cost once raced */
+    private static class Candidate {
+
+        /** The parameters, each scaled to between 0 and 1 */
+        private final double[] genes;
+
+        /** The mean cost of its races, or NaN until raced */
+        private double cost;
+
+        /**
+         * @param genes
+         *            The parameters, each scaled to between 0 and 1.
+         */
+        private Candidate(double[] genes) {
+            this.genes = genes;
+            cost = Double.NaN;
+        }
+    }
+
+    /**
+     * Runs the search and saves the best set found.
+     *
+     * @param args
+     *            Fitness function, target, generations, population,
+     *            threads, tick rate and recordings, all optional.
+     * @throws Exception
+     *             If a recording can't be loaded, a World can't be set up,
+     *             or the result can't be saved.
+     */
+    public static void main(String[] args) throws Exception {
+        String fitnessName = args.length > 0 ? args[0] : "spread";
+        double target = args.length > 1 ? Double.parseDouble(args[1]) : 3.0;
+        int generations = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        int population = args.length > 3 ? Integer.parseInt(args[3]) : 32;
+        int numThreads = args.length > 4 ? Integer.parseInt(args[4])
+                : Runtime.getRuntime().availableProcessors();
+        int tickRate = args.length > 5 ? Integer.parseInt(args[5])
+                : DEFAULT_TICK_RATE;
+        RaceFitness fitness = RaceFitness.forName(fitnessName, target);
+        if (population <= NUM_ELITE || generations <= 0 || numThreads <= 0) {
+            throw new IllegalArgumentException(
+                    "AiTuner: need a population above " + NUM_ELITE
+                            + " and at least one generation and thread");
+        }
+
+        Sprites.setHeadless(true);
+        List<GhostRecording> recordings = new ArrayList<GhostRecording>();
+        for (int i = 6; i < args.length; i++) {
+            GhostRecording recording = GhostRecording.load(new File(args[i]));
+            if (recording == null || !recording.isFinished()) {
+                throw new IllegalArgumentException(
+                        "AiTuner: " + args[i] + " is not a finished run");
+            }
+            recordings.add(recording);
+        }
+        if (recordings.isEmpty()) {
+            World world = new World(VIEW_WIDTH, VIEW_HEIGHT, tickRate);
+            WorldSnapshot start = world.createSnapshot();
+            world.save(start);
+            for (int seed = 0; recordings.size() < NUM_AUTOPILOT_RUNS
+                    && seed < MAX_AUTOPILOT_TRIES; seed++) {
+                world.restore(start);
+                GhostRecording recording = recordAutopilot(world, seed);
+                if (recording.isFinished()) {
+                    recordings.add(recording);
+                }
+            }
+            world.close();
+            if (recordings.isEmpty()) {
+                throw new IllegalStateException(
+                        "AiTuner: the autopilot never finished");
+            }
+        }
+        System.out.println("Tuning for " + fitnessName + " " + target
+                + " against " + recordings.size() + " recordings at "
+                + tickRate + " ticks/s, " + population + " sets for "
+                + generations + " generations on " + numThreads
+                + " threads");
+
+        Random random = new Random(1);
+        List<Candidate> candidates = new ArrayList<Candidate>();
+        candidates.add(new Candidate(toGenes(AiParameters.DEFAULT)));
+        while (candidates.size() < population) {
+            double[] genes = new double[AiParameters.NUM_VALUES];
+            for (int i = 0; i < genes.length; i++) {
+                genes[i] = random.nextDouble();
+            }
+            candidates.add(new Candidate(genes));
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        long totalRaces = 0;
+        long totalNanos = 0;
+        double defaultCost = Double.NaN;
+        try {
+            for (int generation = 0; generation < generations; generation++) {
+                long started = System.nanoTime();
+                totalRaces += race(pool, candidates, recordings, tickRate,
+                        fitness);
+                totalNanos += System.nanoTime() - started;
+                if (generation == 0) {
+                    defaultCost = candidates.get(0).cost;
+                }
+                candidates.sort((a, b) -> Double.compare(a.cost, b.cost));
+
+                Candidate best = candidates.get(0);
+                System.out.printf("Generation %d: best %.4f, median %.4f, "
+                        + "%.1f races/s%n", generation, best.cost,
+                        candidates.get(population / 2).cost,
+                        totalRaces * 1e9 / totalNanos);
+                if (generation == generations - 1) {
+                    break;
+                }
+
+                double mutation = FIRST_MUTATION + (LAST_MUTATION
+                        - FIRST_MUTATION) * generation
+                        / Math.max(1, generations - 2);
+                List<Candidate> next = new ArrayList<Candidate>(
+                        candidates.subList(0, NUM_ELITE));
+                while (next.size() < population) {
+                    next.add(breed(pick(candidates, random),
+                            pick(candidates, random), mutation, random));
+                }
+                candidates = next;
+            }
+        } finally {
+            pool.shutdown();
+            for (World world : ALL_WORLDS) {
+                world.close();
+            }
+        }
+
+        AiParameters best = toParameters(candidates.get(0).genes);
+        System.out.printf("Default cost %.4f, best cost %.4f%n", defaultCost,
+                candidates.get(0).cost);
+        System.out.println(best);
+        best.save(new File(AiParameters.DEFAULT_FILE),
+                "Tuned by AiTuner for " + fitnessName + " " + target
+                        + ", cost " + candidates.get(0).cost);
+        System.out.println("Saved to " + AiParameters.DEFAULT_FILE);
+    }
+
+    /**
+     * Races every candidate that hasn't been raced yet against every
+     * recording, on the pool's threads, and sets their costs.
+     *
+     * @return The number of races run.
+     */
+    private static int race(ExecutorService pool, List<Candidate> candidates,
+            List<GhostRecording> recordings, int tickRate,
+            RaceFitness fitness) throws Exception {
+        List<Candidate> raced = new ArrayList<Candidate>();
+        List<Future<Double>> costs = new ArrayList<Future<Double>>();
+        for (Candidate candidate : candidates) {
+            if (!Double.isNaN(candidate.cost)) {
+                continue;
+            }
+            AiParameters parameters = toParameters(candidate.genes);
+            for (GhostRecording recording : recordings) {
+                Callable<Double> task = () -> race(parameters, recording,
+                        tickRate, fitness);
+                costs.add(pool.submit(task));
+            }
+            raced.add(candidate);
+        }
+        for (int i = 0; i < raced.size(); i++) {
+            double sum = 0;
+            for (int j = 0; j < recordings.size(); j++) {
+                sum += costs.get(i * recordings.size() + j).get();
+            }
+            raced.get(i).cost = sum / recordings.size();
+        }
+        return costs.size();
+    }
+
+    /**
+     * Races the Enemies, driven by a set of parameters, against a recorded
+     * run of the player, on this thread's World, until every Racer has
+     * crossed the line or the race has gone on EXTRA_SECONDS past the end of
+     * the run.
+     *
+     * @return The cost of the race.
+     */
+    private static double race(AiParameters parameters,
+            GhostRecording recording, int tickRate, RaceFitness fitness)
+            throws Exception {
+        World world = WORLDS.get();
+        if (world == null) {
+            world = new World(VIEW_WIDTH, VIEW_HEIGHT, tickRate);
+            WorldSnapshot start = world.createSnapshot();
+            world.save(start);
+            WORLDS.set(world);
+            ALL_WORLDS.add(world);
+            STARTS.set(start);
+        }
+        world.restore(STARTS.get());
+        world.setAiParameters(parameters);
+        Player player = world.getPlayer();
+        Ghost run = new Ghost(recording);
+
+        int numRacers = world.getNumRacers();
+        double[] finishMillis = new double[numRacers];
+        Arrays.fill(finishMillis, -1.0);
+        int numFinished = 0;
+        long maxTicks = (long) (recording.getFinishMillis()
+                / world.getTickMillis()) + (long) EXTRA_SECONDS * tickRate;
+        while (numFinished < numRacers && world.getTick() < maxTicks) {
+            /*
+             * Putting the player where they were at this point in the run.
+             * The run stops being recorded just short of the line, so once
+             * it's over the player is put just over it, where they'd have
+             * rolled to a stop.
+             */
+            double millis = (world.getTick() + 1) * world.getTickMillis();
+            run.update(millis);
+            player.setMapX(run.getMapX());
+            player.setMapY(millis < recording.getFinishMillis()
+                    ? run.getMapY() : Math.min(run.getMapY(),
+                            world.getFinishY() - FINISH_OVERRUN));
+            player.setAngle(run.getAngle());
+            player.setSpeed(0.0);
+            world.update(0.0, 0.0, false);
+            for (int i = 0; i < numRacers; i++) {
+                if (finishMillis[i] < 0
+                        && world.getRacer(i).getMapY() < world.getFinishY()) {
+                    finishMillis[i] = world.getTick()
+                            * world.getTickMillis();
+                    numFinished++;
+                }
+            }
+        }
+        double penalty = 0;
+        for (int i = 0; i < numRacers; i++) {
+            if (finishMillis[i] < 0) {
+                finishMillis[i] = world.getTick() * world.getTickMillis();
+                penalty += UNFINISHED_COST;
+            }
+        }
+
+        // The single player comes first, followed by the Enemies.
+        return penalty + fitness.getCost(finishMillis[0],
+                Arrays.copyOfRange(finishMillis, 1, numRacers));
+    }
+
+    /**
+     * Records a run of an autopilot driving the local player along the
+     * waypoints, from wherever the World is, until the player crosses the
+     * line or AUTOPILOT_SECONDS pass. About once a second it wobbles its
+     * steering or lets off the throttle for a moment, differently for each
+     * seed, and if it finds itself stuck it backs off and turns. Even so it
+     * is sometimes pinned for good, usually by an Enemy, and its run is left
+     * unfinished.
+     *
+     * @param world
+     *            The World to drive in, at the start of the race.
+     * @param seed
+     *            Picks the wobbles.
+     * @return The recording of the run.
+     */
+    private static GhostRecording recordAutopilot(World world, long seed)
+            throws Exception {
+        Random random = new Random(seed);
+        double[][] waypoints = world.getWaypoints();
+        GhostRecording recording = new GhostRecording();
+        Player player = world.getPlayer();
+        int ticksPerSecond = (int) Math.round(1000.0 / world.getTickMillis());
+        int waypoint = 0;
+        int wobbleTicks = 0;
+        double wobbleRotate = 0;
+        double wobbleMove = 1;
+        int stuckTicks = 0;
+
+        long maxTicks = (long) AUTOPILOT_SECONDS * ticksPerSecond;
+        while (!world.isGameOver() && world.getTick() < maxTicks) {
+            double[] target = waypoints[waypoint];
+            if (waypoint < waypoints.length - 1 && Proximity.isWithin(
+                    player.getMapX() - target[0],
+                    player.getMapY() - target[1], AUTOPILOT_RADIUS)) {
+                waypoint++;
+                target = waypoints[waypoint];
+            }
+
+            // Steering for the waypoint the same way an Enemy does.
+            Angle targetAngle = Angle.fromRadians(
+                    Math.atan2(player.getMapY() - target[1],
+                            player.getMapX() - target[0]) + Math.PI / 2);
+            double rotateDir = Math.signum(player.getAngle()
+                    .subtract(targetAngle).getRadians());
+            double moveDir = 1;
+
+            /*
+             * Backing away and turning if stuck against a wall or a kart,
+             * and otherwise wobbling now and again.
+             */
+            stuckTicks = Math.abs(player.getSpeed()) < STUCK_SPEED
+                    ? stuckTicks + 1 : 0;
+            if (stuckTicks > ticksPerSecond / 4) {
+                wobbleTicks = ticksPerSecond / 2;
+                wobbleRotate = random.nextBoolean() ? 1 : -1;
+                wobbleMove = -1;
+                stuckTicks = 0;
+            }
+            if (wobbleTicks > 0) {
+                wobbleTicks--;
+                rotateDir = wobbleRotate;
+                moveDir = wobbleMove;
+            } else if (random.nextInt(ticksPerSecond) == 0) {
+                wobbleTicks = random.nextInt(ticksPerSecond / 5 + 1);
+                wobbleRotate = random.nextInt(3) - 1;
+                wobbleMove = random.nextInt(3) == 0 ? 0 : 1;
+            }
+
+            world.update(rotateDir, moveDir,
+                    random.nextInt(ticksPerSecond) == 0);
+            double millis = world.getTick() * world.getTickMillis();
+            if (world.isGameOver()) {
+                recording.finish(millis);
+            } else {
+                recording.record(millis, player.getMapX(), player.getMapY(),
+                        player.getAngle().getBinary());
+            }
+        }
+        System.out.printf("Autopilot run %d: %s in %.1f s%n", seed,
+                recording.isFinished() ? "finished" : "stopped",
+                world.getTick() * world.getTickMillis() / 1000.0);
+        return recording;
+    }
+
+    /**
+     * Picks the best of TOURNAMENT_SIZE candidates chosen at random.
+     *
+     * @return The winner.
+     */
+    private static Candidate pick(List<Candidate> candidates, Random random) {
+        Candidate best = null;
+        for (int i = 0; i < TOURNAMENT_SIZE; i++) {
+            Candidate entrant = candidates
+                    .get(random.nextInt(candidates.size()));
+            if (best == null || entrant.cost < best.cost) {
+                best = entrant;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Makes a child of two candidates, each of its values blended from
+     * theirs, perhaps nudged, and kept between 0 and 1.
+     *
+     * @return The child, not yet raced.
+     */
+    private static Candidate breed(Candidate mother, Candidate father,
+            double mutation, Random random) {
+        double[] genes = new double[AiParameters.NUM_VALUES];
+        for (int i = 0; i < genes.length; i++) {
+            double weight = -BLEND_MARGIN
+                    + (1 + 2 * BLEND_MARGIN) * random.nextDouble();
+            genes[i] = mother.genes[i]
+                    + weight * (father.genes[i] - mother.genes[i]);
+            if (random.nextDouble() < MUTATION_RATE) {
+                genes[i] += random.nextGaussian() * mutation;
+            }
+            genes[i] = Math.max(0.0, Math.min(1.0, genes[i]));
+        }
+        return new Candidate(genes);
+    }
+
+    /**
+     * @return The parameters, each scaled to between 0 and 1 within the
+     *         range searched.
+     */
+    private static double[] toGenes(AiParameters parameters) {
+        double[] genes = parameters.toArray();
+        for (int i = 0; i < genes.length; i++) {
+            genes[i] = (genes[i] - LOWER[i]) / (UPPER[i] - LOWER[i]);
+        }
+        return genes;
+    }
+
+    /**
+     * @return The parameters the scaled values stand for. Octopus' chase
+     *         range is put the right way round if the ends have crossed.
+     */
+    private static AiParameters toParameters(double[] genes) {
+        double[] values = new double[genes.length];
+        for (int i = 0; i < genes.length; i++) {
+            values[i] = LOWER[i] + genes[i] * (UPPER[i] - LOWER[i]);
+        }
+        if (values[3] > values[4]) {
+            double swap = values[3];
+            values[3] = values[4];
+            values[4] = swap;
+        }
+        return AiParameters.fromArray(values);
+    }
+}
@@ -7,9 +7,17 @@
  * This class provides several useful methods for operating on angles.
  * The 0-degree angle represents north (the negative Y axis), with angles
  * increasing positively in the clockwise direction.
- * All angles lie between -180 (exclusive) and 180 (inclusive) degrees
+ * All angles lie between -180 (inclusive) and 180 (exclusive) degrees
  * (or -Pi and Pi radians).
  *
+ * <p>Internally the angle is held as a binary angle: a 32-bit int where a
+ * full turn is 2^32 units. Normalising is then just integer overflow, with
+ * no modulo or branches, and sines and cosines come from a lookup table
+ * built with StrictMath, so the same angle gives bit-for-bit the same
+ * components on every JVM and platform. The static methods toBinary(),
+ * sin() and cos() let code that keeps its angles as plain ints (such as
+ * RacerStates) use the same representation without creating Angles.
+ *
  * <p>Objects of this class are immutable. If you need to change an Angle,
  * just create a new one with a different value.
  */
@@ -19,8 +27,39 @@ public class Angle
      */
     public static final double TAU = Math.PI * 2;
 
-    /** The angular value, in radians. */
-    private double radians;
+    /** Binary angle units in a full turn (2^32, as a double). */
+    private static final double UNITS_PER_TURN = 4294967296.0;
+
+    /** Conversion factors between radians and binary angle units. */
+    private static final double UNITS_PER_RADIAN = UNITS_PER_TURN / TAU;
+    private static final double RADIANS_PER_UNIT = TAU / UNITS_PER_TURN;
+
+    /** A quarter turn in binary angle units, to get cosines from sines. */
+    private static final int QUARTER_TURN = 1 << 30;
+
+    /** Number of top bits of a binary angle used to index the sine table. */
+    private static final int TABLE_BITS = 12;
+    private static final int TABLE_SIZE = 1 << TABLE_BITS;
+
+    /** Number of low bits left over, used to interpolate between entries. */
+    private static final int FRACTION_BITS = 32 - TABLE_BITS;
+    private static final int FRACTION_MASK = (1 << FRACTION_BITS) - 1;
+    private static final double FRACTION_SCALE = 1.0 / (1 << FRACTION_BITS);
+
+    /**
+     * Sine of each of the TABLE_SIZE evenly spaced angles around the circle,
+     * with an extra entry on the end so interpolation never wraps.
+     */
+    private static final double[] SINE_TABLE = new double[TABLE_SIZE + 1];
+
+    static
+    {
+        for (int i = 0; i <= TABLE_SIZE; i++)
+            SINE_TABLE[i] = StrictMath.sin(TAU * i / TABLE_SIZE);
+    }
+
+    /** The angular value, in binary angle units. */
+    private int binary;
 
     /** Create an Angle with a value in radians.
      * Automatically normalises the value so it lies between -Pi and Pi.
@@ -28,25 +67,15 @@ public class Angle
      */
     public Angle(double radians)
     {
-        radians %= TAU;
-        // Java performs truncated division, so the result will be in the
-        // range [-2*Pi, 2*Pi). If it is outside of the range [-Pi, Pi),
-        // adjust so it is in that range.
-        if (radians > Math.PI)
-            radians -= TAU;
-        else if (radians < -Math.PI)
-            radians += TAU;
-        this.radians = radians;
+        this.binary = toBinary(radians);
     }
 
     /** Returns a hash code value for the object. */
-    /*
     @Override
     public int hashCode()
     {
-        return 31 + (this.radians).hashCode();
+        return 31 + this.binary;
     }
-	*/
 
     /** Indicates whether some other object is "equal to" this one. */
     @Override
@@ -58,7 +87,7 @@ public class Angle
             return false;
         if (this.getClass() != obj.getClass())
             return false;
-        return this.radians == ((Angle) obj).radians;
+        return this.binary == ((Angle) obj).binary;
     }
 
     /** Returns a string representation of the object. */
@@ -68,6 +97,49 @@ public class Angle
         return "Angle.fromDegrees(" + this.getDegrees() + ")";
     }
 
+    /** Convert radians to binary angle units.
+     * Any value is accepted; whole turns simply overflow away.
+     * @param radians The angular measure, in radians.
+     * @return The equivalent binary angle.
+     */
+    public static int toBinary(double radians)
+    {
+        // The cast to long keeps the whole number of units, and the cast to
+        // int then drops whole turns, leaving the angle in [-Pi, Pi).
+        return (int) (long) Math.rint(radians * UNITS_PER_RADIAN);
+    }
+
+    /** Convert binary angle units to radians, between -Pi and Pi.
+     * @param binary The binary angle.
+     * @return The equivalent angle, in radians.
+     */
+    public static double toRadians(int binary)
+    {
+        return binary * RADIANS_PER_UNIT;
+    }
+
+    /** Look up the sine of a binary angle.
+     * @param binary The binary angle.
+     * @return The sine of the angle.
+     */
+    public static double sin(int binary)
+    {
+        // Shifting unsigned, so the index counts from 0 around a full turn.
+        int index = binary >>> FRACTION_BITS;
+        double fraction = (binary & FRACTION_MASK) * FRACTION_SCALE;
+        double low = SINE_TABLE[index];
+        return low + (SINE_TABLE[index + 1] - low) * fraction;
+    }
+
+    /** Look up the cosine of a binary angle.
+     * @param binary The binary angle.
+     * @return The cosine of the angle.
+     */
+    public static double cos(int binary)
+    {
+        return sin(binary + QUARTER_TURN);
+    }
+
     /** Create an Angle with a value in radians.
      * Automatically normalises the value so it lies between -Pi and Pi.
      * @param radians The angular measure, in radians.
@@ -86,6 +158,16 @@ public class Angle
         return new Angle(Math.toRadians(degrees));
     }
 
+    /** Create an Angle with a value in binary angle units.
+     * @param binary The angular measure, where 2^32 units is a full turn.
+     */
+    public static Angle fromBinary(int binary)
+    {
+        Angle angle = new Angle(0);
+        angle.binary = binary;
+        return angle;
+    }
+
     /** Create an Angle from a vector in cartesian coordinates.
      * The length of the vector is ignored (e.g., fromCartesian(3, 6) gives
      * the same result as fromCartesian(5, 10)).
@@ -146,14 +228,21 @@ public class Angle
      */
     public double getRadians()
     {
-        return radians;
+        return toRadians(binary);
     }
 
     /** Get the angular measure, in degrees.
      */
     public double getDegrees()
     {
-        return Math.toDegrees(radians);
+        return Math.toDegrees(getRadians());
+    }
+
+    /** Get the angular measure, in binary angle units.
+     */
+    public int getBinary()
+    {
+        return binary;
     }
 
     /** Add another Angle to this one, producing a new Angle.
@@ -162,7 +251,7 @@ public class Angle
      */
     public Angle add(Angle other)
     {
-        return new Angle(this.radians + other.radians);
+        return fromBinary(this.binary + other.binary);
     }
 
     /** Subtract another Angle from this one, producing a new Angle.
@@ -172,7 +261,7 @@ public class Angle
      */
     public Angle subtract(Angle other)
     {
-        return new Angle(this.radians - other.radians);
+        return fromBinary(this.binary - other.binary);
     }
 
     /** Limit the magnitude of this angle to a certain number of radians.
@@ -193,7 +282,8 @@ public class Angle
      */
     public Angle limit(double max)
     {
-        if (Math.abs(this.radians) < Math.abs(max))
+        double radians = getRadians();
+        if (Math.abs(radians) < Math.abs(max))
         {
             // Within limit; return the angle
             return this;
@@ -201,7 +291,7 @@ public class Angle
         else
         {
             // Too far; return maximum with the sign of this angle
-            return new Angle(Math.copySign(max, this.radians));
+            return new Angle(Math.copySign(max, radians));
         }
     }
 
@@ -212,7 +302,7 @@ public class Angle
      */
     public double getXComponent(double length)
     {
-        return length * Math.sin(this.radians);
+        return length * sin(this.binary);
     }
 
     /** Get the Y component of a vector with this angle and a given length.
@@ -222,6 +312,6 @@ public class Angle
      */
     public double getYComponent(double length)
     {
-        return length * -Math.cos(this.radians);
+        return length * -cos(this.binary);
     }
 }
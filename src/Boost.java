@@ -1,5 +1,3 @@
-import java.util.ArrayList;
-import org.newdawn.slick.Image;
 import org.newdawn.slick.SlickException;
 
 /**
@@ -23,14 +21,11 @@ public class Boost extends Item {
     /** The set acceleration that the Player is subject to while boosting */
     private static final double ACCELERATION = 0.0008;
 
-    /** Duration of the effect, as explained below */
-    private static final int DURATION = 3000;
-    
     /**
-     * This variable represents the timer for tracking how long the Player has
-     * been boosting. Once this counter reaches DURATION, the effect ends.
+     * Number of milliseconds after the first tick for which the Player keeps
+     * boosting once the Boost has been used.
      */
-    private int timer = 0;
+    private static final int DURATION = 3000;
 
     /**
      * Standard constructor. Just calls the superclass constructor, placing it
@@ -47,34 +42,50 @@ public class Boost extends Item {
     public Boost(int startX, int startY, String itemPath)
             throws SlickException {
         super(startX, startY);
-        setSprite(new Image(ASSETS_PATH + itemPath + SPRITE));
+        setSprite(Sprites.load(ASSETS_PATH + itemPath + SPRITE));
     }
 
     /**
-     * This method applies the effect of the Item to the Racer, namely Player.
-     * Sets the players acceleration to the set amount and locks their movement
-     * in the forward direction. Once the effect has reached its duration, this
-     * method returns true, signifying to the Racer to cease applying the effect
-     * and remove it from its active effects.
+     * Using a Boost doesn't place anything on the map, it simply schedules the
+     * boost effect on the Racer that used it.
      * 
      * @param racer
-     *            This is the racer on which to apply the effect. As it stands,
-     *            this will only be used on the Player.
-     * @param mapItems
-     *            The items array is mandatorily passed into applyEffect as
-     *            defined by the abstract method in Item, but is not used here.
+     *            The Racer using the Boost. As it stands, this will only be
+     *            the Player.
+     * @param world
+     *            The world object, holding the timer wheel on which the boost
+     *            effect is scheduled.
      */
-    public boolean applyEffect(Racer racer, ArrayList<Item> mapItems)
-            throws SlickException {
+    public void use(Racer racer, World world) {
+        world.getEffectTimers().schedule(racer, this);
+    }
 
-        if (timer > DURATION) {
-            return true;
-        }
+    /**
+     * Sets the Racer's acceleration to the set amount and locks their movement
+     * in the forward direction until endEffect() is called.
+     * 
+     * @param racer
+     *            This is the racer on which to apply the effect.
+     */
+    public void startEffect(Racer racer) {
+        racer.startBoost(ACCELERATION);
+    }
 
-        racer.setAcceleration(ACCELERATION);
-        racer.setMoveDir(1);
-        timer += 1;
-        return false;
+    /**
+     * Ends the boost, returning control of the acceleration to the Racer.
+     * 
+     * @param racer
+     *            The racer from which the effect should be removed.
+     */
+    public void endEffect(Racer racer) {
+        racer.endBoost();
+    }
+
+    /**
+     * @return the DURATION
+     */
+    public int getDuration() {
+        return DURATION;
     }
 
     /**
@@ -170,4 +170,21 @@ public class Camera implements GlobalHelper {
     public double getMapY() {
         return mapY;
     }
+
+    /**
+     * Checks whether a point on the map is within the screen, or within a
+     * margin of its edges.
+     * 
+     * @param x
+     *            In pixels. The x-coordinate of the point on the map.
+     * @param y
+     *            In pixels. The y-coordinate of the point on the map.
+     * @param margin
+     *            In pixels. How far outside the screen still counts.
+     * @return True if the point is on the screen.
+     */
+    public boolean isOnScreen(double x, double y, double margin) {
+        return x >= mapX - margin && x < mapX + screenWidth + margin
+                && y >= mapY - margin && y < mapY + screenHeight + margin;
+    }
 }
@@ -0,0 +1,425 @@
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * <h1>ChunkedMap</h1>
+ * <h2>The tiles of the map, held a chunk at a time</h2>
+ *
+ * Holds the map's tiles and wall distances as the chunks of a MapChunkFile,
+ * so a track can be far longer than would fit in memory at once. If the
+ * whole map fits under the memory cap, as the bundled one easily does, every
+ * chunk is simply read up front and kept. Otherwise only the chunks around
+ * the Racers and the camera are kept in memory.
+ *
+ * Every so often the World calls keepAround() with where the Racers are and
+ * what the camera can see. Each chunk within PREFETCH_CHUNKS of any of them
+ * is marked as wanted, and any of those not yet in memory are queued for a
+ * thread of the ChunkedMap's own to read in the background, well before a
+ * Racer gets there. Once the chunks in memory take up more than the cap, the
+ * ones that have gone longest without being wanted are dropped. A chunk that
+ * is still wanted is never dropped, even if that goes over the cap. What a
+ * chunk takes up is mostly its wall distances, as its tiles are packed into
+ * runs of bytes.
+ *
+ * Looking up a tile is just an array read, from any thread, whether or not
+ * the map is streamed. If the chunk isn't in memory, because something
+ * looked far ahead of every Racer or the background thread has fallen
+ * behind, the chunk is read there and then; these stalls are counted, along
+ * with the chunks loaded and dropped, so they show up rather than just as
+ * the odd slow tick.
+ *
+ * Once the map is done with, close() stops the background thread and closes
+ * the file, so nothing is left behind holding on to the chunks.
+ *
+ * @author Daniel Porteous porteousd 696965
+ */
+public class ChunkedMap implements GlobalHelper {
+
+    /** In bytes. The most memory the chunks take up, unless all are wanted */
+    public static final long DEFAULT_MEMORY_CAP = 64L << 20;
+
+    /** How many chunks either side of a Racer or the camera are kept */
+    private static final int PREFETCH_CHUNKS = 2;
+
+    /** The fewest chunks kept, however low the cap */
+    private static final int MIN_RESIDENT_CHUNKS = 4 * PREFETCH_CHUNKS + 2;
+
+    /** How far a tile row is shifted to give the chunk it is in */
+    private static final int CHUNK_SHIFT = Integer
+            .numberOfTrailingZeros(MapChunkFile.CHUNK_ROWS);
+
+    /** Where the chunks are read from */
+    private MapChunkFile file;
+
+    /** Size of the map in tiles */
+    private int width;
+    private int height;
+
+    /** The chunks in memory, by index, with null for the rest */
+    private AtomicReferenceArray<MapChunk> chunks;
+
+    /** Whether each chunk is waiting to be read in the background, 1 if so */
+    private AtomicIntegerArray queued;
+
+    /** The chunks waiting to be read in the background */
+    private BlockingQueue<Integer> requests;
+
+    /** The thread reading them, or null if every chunk was read up front */
+    private Thread loader;
+
+    /** In bytes. The most memory the chunks take up, unless more are wanted */
+    private long memoryCap;
+
+    /** The number of chunks in memory, and the memory they take up */
+    private AtomicLong numResident;
+    private AtomicLong residentBytes;
+
+    /** The last call to keepAround() that wanted each chunk, and the count */
+    private long[] lastWanted;
+    private long keepCount;
+
+    /** Chunks read in the background, and read by a lookup waiting on them */
+    private AtomicLong loads;
+    private AtomicLong stalls;
+
+    /** Chunks dropped to keep under the cap */
+    private long evictions;
+
+    /**
+     * Opens a map, reading every chunk up front if they all fit under the
+     * memory cap, or starting the thread that reads them in the background
+     * otherwise.
+     *
+     * @param file
+     *            The map's chunk file.
+     * @param memoryCap
+     *            In bytes. Roughly the most memory the chunks take up.
+     */
+    public ChunkedMap(MapChunkFile file, long memoryCap) {
+        this.file = file;
+        width = file.getWidth();
+        height = file.getHeight();
+        int numChunks = file.getNumChunks();
+        chunks = new AtomicReferenceArray<MapChunk>(numChunks);
+        queued = new AtomicIntegerArray(numChunks);
+        lastWanted = new long[numChunks];
+        numResident = new AtomicLong();
+        residentBytes = new AtomicLong();
+        this.memoryCap = memoryCap;
+        loads = new AtomicLong();
+        stalls = new AtomicLong();
+        keepCount = 0;
+        evictions = 0;
+
+        /*
+         * Roughly what a chunk takes up: its wall distances, a byte a cell,
+         * and about a byte a tile at the very most for its packed tiles.
+         */
+        long cellsPerTile = WallDistanceField.CELLS_PER_TILE
+                * WallDistanceField.CELLS_PER_TILE;
+        long chunkBytes = (long) MapChunkFile.CHUNK_ROWS * width
+                * (1 + cellsPerTile);
+
+        if (numChunks <= MIN_RESIDENT_CHUNKS
+                || numChunks * chunkBytes <= memoryCap) {
+            for (int c = 0; c < numChunks; c++) {
+                MapChunk chunk = read(c);
+                chunks.set(c, chunk);
+                added(chunk);
+            }
+            return;
+        }
+
+        requests = new LinkedBlockingQueue<Integer>();
+        loader = new Thread(this::loadRequested, "ChunkedMap");
+        // Not keeping the game running once it has been closed.
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    /**
+     * Reads chunks as they are asked for, until the map is closed.
+     */
+    private void loadRequested() {
+        while (!Thread.currentThread().isInterrupted()) {
+            int chunk;
+            try {
+                chunk = requests.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (chunks.get(chunk) == null) {
+                try {
+                    MapChunk loaded = file.readChunk(chunk);
+                    if (chunks.compareAndSet(chunk, null, loaded)) {
+                        added(loaded);
+                        loads.incrementAndGet();
+                    }
+                } catch (IOException e) {
+                    // Left for a lookup to read, and fail on, if it's needed.
+                    e.printStackTrace();
+                }
+            }
+            queued.set(chunk, 0);
+        }
+    }
+
+    /**
+     * Reads a chunk from the file.
+     *
+     * @param chunk
+     *            The index of the chunk.
+     * @return The chunk.
+     * @throws IllegalStateException
+     *             If it can't be read.
+     */
+    private MapChunk read(int chunk) {
+        try {
+            return file.readChunk(chunk);
+        } catch (IOException e) {
+            throw new IllegalStateException(
+                    "ChunkedMap: failed to read chunk " + chunk, e);
+        }
+    }
+
+    /**
+     * Gets the chunk holding a row, reading it there and then if it isn't in
+     * memory.
+     *
+     * @param tileY
+     *            A row of tiles on the map.
+     * @return The chunk holding that row.
+     */
+    private MapChunk getChunk(int tileY) {
+        int index = tileY >> CHUNK_SHIFT;
+        MapChunk chunk = chunks.get(index);
+        if (chunk != null) {
+            return chunk;
+        }
+        stalls.incrementAndGet();
+        chunk = read(index);
+        if (chunks.compareAndSet(index, null, chunk)) {
+            added(chunk);
+        }
+        return chunk;
+    }
+
+    /**
+     * Counts a chunk as in memory.
+     *
+     * @param chunk
+     *            The chunk just put in memory.
+     */
+    private void added(MapChunk chunk) {
+        numResident.incrementAndGet();
+        residentBytes.addAndGet(chunk.getSizeBytes());
+    }
+
+    /**
+     * @param tileX
+     *            Horizontal tile coordinate, on the map.
+     * @param tileY
+     *            Vertical tile coordinate, on the map.
+     * @return The id of the tile there.
+     */
+    public int getTileId(int tileX, int tileY) {
+        return getChunk(tileY).getTileId(tileX, tileY);
+    }
+
+    /**
+     * Gets the distance from a point to the nearest wall tile. This never
+     * overestimates the distance, but may underestimate it by a few pixels.
+     *
+     * @param x
+     *            In pixels. Horizontal x-coordinate position.
+     * @param y
+     *            In pixels. Vertical y-coordinate position.
+     * @return In pixels. The distance to the nearest wall, capped at
+     *         WallDistanceField.MAX_DISTANCE, or zero or less in a wall or
+     *         off the map.
+     */
+    public double getWallDistance(double x, double y) {
+        int tileY = (int) Math.floor(y / TILE_WIDTH);
+        if (tileY < 0 || tileY >= height) {
+            return -WallDistanceField.MAX_DISTANCE;
+        }
+        return getChunk(tileY).getWallDistances().getDistance(x, y);
+    }
+
+    /**
+     * Keeps the chunks around the Racers and the camera in memory, queueing
+     * any that aren't to be read in the background, and drops the chunks
+     * that have gone longest without being wanted if they take up more than
+     * the cap. This does nothing if the whole map is kept in memory, and
+     * is only to be called from one thread.
+     *
+     * @param ys
+     *            In pixels. The y-coordinate of each Racer.
+     * @param numRacers
+     *            The number of Racers.
+     * @param viewTop
+     *            In pixels. The top of what the camera can see.
+     * @param viewBottom
+     *            In pixels. The bottom of what the camera can see.
+     */
+    public void keepAround(double[] ys, int numRacers, double viewTop,
+            double viewBottom) {
+        if (requests == null) {
+            return;
+        }
+        keepCount++;
+        for (int i = 0; i < numRacers; i++) {
+            want(ys[i], ys[i]);
+        }
+        want(viewTop, viewBottom);
+        evict();
+    }
+
+    /**
+     * Marks the chunks from PREFETCH_CHUNKS before a stretch of the map to
+     * PREFETCH_CHUNKS after it as wanted, queueing any not in memory.
+     *
+     * @param top
+     *            In pixels. The top of the stretch.
+     * @param bottom
+     *            In pixels. The bottom of the stretch.
+     */
+    private void want(double top, double bottom) {
+        int first = ((int) Math.floor(top / TILE_WIDTH) >> CHUNK_SHIFT)
+                - PREFETCH_CHUNKS;
+        int last = ((int) Math.floor(bottom / TILE_WIDTH) >> CHUNK_SHIFT)
+                + PREFETCH_CHUNKS;
+        first = Math.max(first, 0);
+        last = Math.min(last, lastWanted.length - 1);
+        for (int c = first; c <= last; c++) {
+            lastWanted[c] = keepCount;
+            if (chunks.get(c) == null && queued.compareAndSet(c, 0, 1)) {
+                requests.add(c);
+            }
+        }
+    }
+
+    /**
+     * Drops the chunks that have gone longest without being wanted until
+     * those in memory fit under the cap, or only wanted ones are left.
+     */
+    private void evict() {
+        while (residentBytes.get() > memoryCap
+                && numResident.get() > MIN_RESIDENT_CHUNKS) {
+            int oldest = -1;
+            for (int c = 0; c < lastWanted.length; c++) {
+                if (lastWanted[c] < keepCount && chunks.get(c) != null
+                        && (oldest < 0
+                                || lastWanted[c] < lastWanted[oldest])) {
+                    oldest = c;
+                }
+            }
+            if (oldest < 0) {
+                return;
+            }
+            MapChunk dropped = chunks.getAndSet(oldest, null);
+            if (dropped != null) {
+                numResident.decrementAndGet();
+                residentBytes.addAndGet(-dropped.getSizeBytes());
+                evictions++;
+            }
+        }
+    }
+
+    /**
+     * Stops reading chunks in the background, waiting for the thread to
+     * finish, and closes the file. The map can't be used after this.
+     *
+     * @throws IOException
+     *             If the file can't be closed.
+     */
+    public void close() throws IOException {
+        if (loader != null) {
+            loader.interrupt();
+            try {
+                loader.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            loader = null;
+        }
+        file.close();
+    }
+
+    /**
+     * @return Width of the map in tiles.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return Height of the map in tiles.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return Whether chunks are read in the background as they are needed,
+     *         rather than all kept in memory.
+     */
+    public boolean isStreamed() {
+        return requests != null;
+    }
+
+    /**
+     * @return The number of chunks the map is cut into.
+     */
+    public int getNumChunks() {
+        return lastWanted.length;
+    }
+
+    /**
+     * @return The number of chunks in memory.
+     */
+    public long getNumResident() {
+        return numResident.get();
+    }
+
+    /**
+     * @return In bytes. Roughly the memory the chunks in memory take up.
+     */
+    public long getResidentBytes() {
+        return residentBytes.get();
+    }
+
+    /**
+     * @return In bytes. The most memory the chunks take up, unless more are
+     *         wanted.
+     */
+    public long getMemoryCap() {
+        return memoryCap;
+    }
+
+    /**
+     * @return The number of chunks read in the background.
+     */
+    public long getLoads() {
+        return loads.get();
+    }
+
+    /**
+     * @return The number of lookups that had to read their chunk themselves,
+     *         setting up included.
+     */
+    public long getStalls() {
+        return stalls.get();
+    }
+
+    /**
+     * @return The number of chunks dropped to keep under the cap.
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+}
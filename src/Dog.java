@@ -1,4 +1,3 @@
-import org.newdawn.slick.Image;
 import org.newdawn.slick.SlickException;
 
 /**
@@ -13,36 +12,36 @@ import org.newdawn.slick.SlickException;
  */
 public class Dog extends Enemy {
 
-    /**
-     * Starting coordiantes of Dog
-     */
-    private static final int START_X = 1404;
-    private static final int START_Y = 13086;
-
     /** The sprite that the Dog users */
     private final String KART_NAME = "dog.png";
 
-    /**
-     * These constants represent the different base speeds that Dog will move at
-     * depending on whether she's in front of or behind Player.
-     */
-    private final double TRAILING_PLAYER = 0.00055;
-    private final double BEATING_PLAYER = 0.00045;
-
     /**
      * Very basic, just sets the Dog's location and sprite.
      * 
+     * @param startX
+     *            In pixels. Horizontal x-coordinate of its place on the grid.
+     * @param startY
+     *            In pixels. Vertical y-coordinate of its place on the grid.
      * @throws SlickException
      */
-    public Dog() throws SlickException {
-        super(START_X, START_Y);
-        setSprite(new Image(
+    public Dog(double startX, double startY) throws SlickException {
+        super(startX, startY);
+        setSprite(Sprites.load(
                 ASSETS_PATH + "/" + getKartsPath() + "/" + KART_NAME));
     }
 
+    /**
+     * @return A new Dog, for a fork of the World.
+     * @throws SlickException
+     */
+    public Enemy fork() throws SlickException {
+        return new Dog(getMapX(), getMapY());
+    }
+
     /**
      * This calculates whether the Dog is beating or being beaten by the Player,
-     * setting its speed accordingly. It then just follows the waypoints as
+     * setting its speed accordingly, to one of the two base speeds in her
+     * AiParameters. It then just follows the waypoints as
      * normal, albeit at the modified speed.
      * 
      * @param waypoints
@@ -59,9 +58,9 @@ public class Dog extends Enemy {
          * Player.
          */
         if (getMapY() > player.getMapY()) {
-            setAcceleration(TRAILING_PLAYER);
+            setAcceleration(getParameters().getDogTrailingAcceleration());
         } else {
-            setAcceleration(BEATING_PLAYER);
+            setAcceleration(getParameters().getDogBeatingAcceleration());
         }
 
         followWaypoints(waypoints);
@@ -0,0 +1,273 @@
+/**
+ * <h1>EffectTimerWheel</h1>
+ * <h2>Schedules the expiry of Item effects applied to Racers</h2>
+ *
+ * Rather than every active Item counting its own timer up each tick, an
+ * effect is started once when it is scheduled here and ended once when its
+ * duration has elapsed. The World owns a single wheel and advances it by one
+ * tick at the start of each update, so the cost of an active effect between
+ * its start and its expiry is nothing at all.
+ *
+ * Item durations are given in milliseconds, and are converted to the nearest
+ * whole number of ticks using the length of a tick the wheel was made with.
+ *
+ * This is a hierarchical timer wheel. The lowest level has one slot per tick,
+ * and each level above it has slots covering NUM_SLOTS times as many ticks as
+ * the level below. Timers far in the future sit in the coarse upper levels
+ * and are cascaded down into finer levels as their expiry draws near, which
+ * means both scheduling and advancing are constant time no matter how many
+ * effects are in flight.
+ *
+ * @author Daniel Porteous porteousd 696965
+ */
+public class EffectTimerWheel {
+
+    /** Number of bits of the tick count resolved by each level of the wheel */
+    private static final int SLOT_BITS = 6;
+    private static final int NUM_SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = NUM_SLOTS - 1;
+
+    /**
+     * Number of levels in the wheel. With 6 bits per level this covers 2^24
+     * ticks, or over four and a half hours even at one tick per millisecond,
+     * which is far longer than any effect lasts.
+     */
+    private static final int NUM_LEVELS = 4;
+
+    /** The furthest into the future, in ticks, that a timer may expire. */
+    private static final long MAX_DELAY = (1L << (SLOT_BITS * NUM_LEVELS)) - 1;
+
+    /**
+     * A single scheduled expiry. These form singly linked lists, one per slot
+     * of the wheel, and are recycled through a free list once they've fired so
+     * that scheduling an effect doesn't allocate in the long run.
+     */
+    private static class EffectTimer {
+        private Racer racer;
+        private Item item;
+        private long expiryTick;
+        private EffectTimer next;
+    }
+
+    /** The slots of each level, each holding the head of a list of timers */
+    private EffectTimer[][] wheels;
+
+    /** Timers that have fired and can be reused */
+    private EffectTimer freeTimers;
+
+    /** The tick the wheel is currently at. */
+    private long currentTick;
+
+    /** Number of timers currently scheduled and yet to fire */
+    private int numScheduled;
+
+    /** Length of one tick of the wheel, in milliseconds */
+    private double tickMillis;
+
+    /** Creates an empty wheel sitting at tick 0, ticking every millisecond. */
+    public EffectTimerWheel() {
+        this(1.0);
+    }
+
+    /**
+     * Creates an empty wheel sitting at tick 0.
+     *
+     * @param tickMillis
+     *            The length of one tick, in milliseconds.
+     */
+    public EffectTimerWheel(double tickMillis) {
+        this.tickMillis = tickMillis;
+        wheels = new EffectTimer[NUM_LEVELS][NUM_SLOTS];
+        currentTick = 0;
+        numScheduled = 0;
+    }
+
+    /**
+     * Starts the effect of the Item on the Racer and schedules it to be ended
+     * once the Item's duration has passed. The effect is in place for the
+     * current tick and the following getDuration() milliseconds' worth of
+     * ticks, and is ended at the start of the tick after that.
+     *
+     * @param racer
+     *            The Racer the effect is applied to.
+     * @param item
+     *            The Item whose effect is being applied.
+     */
+    public void schedule(Racer racer, Item item) {
+        long delay = Math.round(item.getDuration() / tickMillis) + 1;
+        if (delay > MAX_DELAY) {
+            throw new IllegalArgumentException(
+                    "EffectTimerWheel.schedule: duration too long");
+        }
+
+        item.startEffect(racer);
+
+        EffectTimer timer = freeTimers;
+        if (timer != null) {
+            freeTimers = timer.next;
+        } else {
+            timer = new EffectTimer();
+        }
+        timer.racer = racer;
+        timer.item = item;
+        timer.expiryTick = currentTick + delay;
+        insert(timer);
+        numScheduled++;
+    }
+
+    /**
+     * Moves the wheel forward by one tick. Any timers in the upper levels that
+     * are now due to be resolved more finely are cascaded down, and then every
+     * timer expiring on this tick has its effect ended.
+     */
+    public void advance() {
+        currentTick++;
+
+        /*
+         * Cascading from the top down, so a timer coming out of a high level
+         * can land in a lower level slot that's about to be cascaded itself.
+         */
+        for (int level = NUM_LEVELS - 1; level > 0; level--) {
+            long levelMask = (1L << (SLOT_BITS * level)) - 1;
+            if ((currentTick & levelMask) == 0) {
+                int slot = (int) (currentTick >>> (SLOT_BITS * level))
+                        & SLOT_MASK;
+                EffectTimer timer = wheels[level][slot];
+                wheels[level][slot] = null;
+                while (timer != null) {
+                    EffectTimer next = timer.next;
+                    insert(timer);
+                    timer = next;
+                }
+            }
+        }
+
+        int slot = (int) currentTick & SLOT_MASK;
+        EffectTimer timer = wheels[0][slot];
+        wheels[0][slot] = null;
+        while (timer != null) {
+            EffectTimer next = timer.next;
+            timer.item.endEffect(timer.racer);
+            numScheduled--;
+
+            timer.racer = null;
+            timer.item = null;
+            timer.next = freeTimers;
+            freeTimers = timer;
+            timer = next;
+        }
+    }
+
+    /**
+     * Makes this wheel an exact copy of another, as when a World is saved or
+     * rolled back. Every slot ends up holding the same effects in the same
+     * order, so they expire in the same order too. The timers already in this
+     * wheel are recycled for the copy, so once the free list has grown to
+     * cover the most effects in place at once nothing is allocated.
+     *
+     * @param other
+     *            The wheel to copy from.
+     */
+    public void copyFrom(EffectTimerWheel other) {
+        for (EffectTimer[] wheel : wheels) {
+            for (int slot = 0; slot < NUM_SLOTS; slot++) {
+                EffectTimer timer = wheel[slot];
+                wheel[slot] = null;
+                while (timer != null) {
+                    EffectTimer next = timer.next;
+                    timer.racer = null;
+                    timer.item = null;
+                    timer.next = freeTimers;
+                    freeTimers = timer;
+                    timer = next;
+                }
+            }
+        }
+
+        for (int level = 0; level < NUM_LEVELS; level++) {
+            for (int slot = 0; slot < NUM_SLOTS; slot++) {
+                EffectTimer last = null;
+                for (EffectTimer from = other.wheels[level][slot];
+                        from != null; from = from.next) {
+                    EffectTimer timer = freeTimers;
+                    if (timer != null) {
+                        freeTimers = timer.next;
+                    } else {
+                        timer = new EffectTimer();
+                    }
+                    timer.racer = from.racer;
+                    timer.item = from.item;
+                    timer.expiryTick = from.expiryTick;
+                    timer.next = null;
+                    if (last == null) {
+                        wheels[level][slot] = timer;
+                    } else {
+                        last.next = timer;
+                    }
+                    last = timer;
+                }
+            }
+        }
+        currentTick = other.currentTick;
+        numScheduled = other.numScheduled;
+        tickMillis = other.tickMillis;
+    }
+
+    /**
+     * Makes this wheel a copy of one in the World that this wheel's World was
+     * forked from, but with each effect on the fork's own counterparts of the
+     * Racer and Item, rather than on the Racer and Item themselves.
+     *
+     * @param other
+     *            The wheel to copy from.
+     * @param fork
+     *            The World this wheel belongs to.
+     */
+    public void copyCounterpartsFrom(EffectTimerWheel other, World fork) {
+        copyFrom(other);
+        for (EffectTimer[] wheel : wheels) {
+            for (int slot = 0; slot < NUM_SLOTS; slot++) {
+                for (EffectTimer timer = wheel[slot]; timer != null;
+                        timer = timer.next) {
+                    timer.racer = fork.getRacer(timer.racer.getSlot());
+                    timer.item = fork.getCounterpart(timer.item);
+                }
+            }
+        }
+    }
+
+    /**
+     * Places a timer into the slot matching its expiry. The level is chosen by
+     * how far away the expiry is, and the slot within that level by the bits
+     * of the expiry tick that level resolves.
+     *
+     * @param timer
+     *            The timer to place.
+     */
+    private void insert(EffectTimer timer) {
+        long delay = timer.expiryTick - currentTick;
+        int level = 0;
+        while (level < NUM_LEVELS - 1
+                && delay >= (1L << (SLOT_BITS * (level + 1)))) {
+            level++;
+        }
+        int slot = (int) (timer.expiryTick >>> (SLOT_BITS * level))
+                & SLOT_MASK;
+        timer.next = wheels[level][slot];
+        wheels[level][slot] = timer;
+    }
+
+    /**
+     * @return The tick the wheel is currently at.
+     */
+    public long getCurrentTick() {
+        return currentTick;
+    }
+
+    /**
+     * @return The number of effects currently in place and yet to expire.
+     */
+    public int getNumScheduled() {
+        return numScheduled;
+    }
+}
@@ -1,4 +1,3 @@
-import org.newdawn.slick.Image;
 import org.newdawn.slick.SlickException;
 
 /**
@@ -13,26 +12,32 @@ import org.newdawn.slick.SlickException;
  */
 public class Elephant extends Enemy {
 
-    /**
-     * Starting coordiantes of Elephant
-     */
-    private static final int START_X = 1260;
-    private static final int START_Y = 13086;
-
     /** The sprite that the Elephant users */
     private final String KART_NAME = "elephant.png";
 
     /**
      * Very basic, just sets the Elephant's location and sprite.
      * 
+     * @param startX
+     *            In pixels. Horizontal x-coordinate of its place on the grid.
+     * @param startY
+     *            In pixels. Vertical y-coordinate of its place on the grid.
      * @throws SlickException
      */
-    public Elephant() throws SlickException {
-        super(START_X, START_Y);
-        setSprite(new Image(
+    public Elephant(double startX, double startY) throws SlickException {
+        super(startX, startY);
+        setSprite(Sprites.load(
                 ASSETS_PATH + "/" + getKartsPath() + "/" + KART_NAME));
     }
 
+    /**
+     * @return A new Elephant, for a fork of the World.
+     * @throws SlickException
+     */
+    public Enemy fork() throws SlickException {
+        return new Elephant(getMapX(), getMapY());
+    }
+
     /**
      * The determine behaviour method. All it does for elephant is follow the
      * waypoints one by one ignoring what the other Racers are doing.
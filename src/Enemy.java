@@ -1,4 +1,4 @@
-import java.util.ArrayList;
+import java.io.IOException;
 import org.newdawn.slick.SlickException;
 
 /**
@@ -7,7 +7,8 @@ import org.newdawn.slick.SlickException;
  * instantiated</h2>
  * 
  * This abstract class defines standard methods that will be inherited by the
- * different subtypes of Enemy, namely Octopus, Dog and Elephant.
+ * different subtypes of Enemy, namely Octopus, Dog, Elephant and
+ * LookaheadEnemy.
  * 
  * Additionally, there are static methods which can be called from World in
  * order to handle all the Enemies collectively, including update and render
@@ -19,15 +20,20 @@ import org.newdawn.slick.SlickException;
 public abstract class Enemy extends Racer {
 
     /**
-     * Constants specific to the Enemy, namely how many there are and the range
-     * at which they should start going towards the next waypoint.
+     * The most numbers any Enemy saves with saveState(), on top of the
+     * waypoint it is heading for.
      */
-    private static final int NUM_ENEMIES = 3;
-    private static final int WAYPOINT_RADIUS = 250;
+    public static final int EXTRA_STATE_SIZE = 2;
 
     /** Will track which waypoint the Enemy is currently tracking towards. */
     private int currentWaypointTarget;
 
+    /**
+     * The numbers the Enemy drives by, such as the range at which it should
+     * start going towards the next waypoint.
+     */
+    private AiParameters parameters;
+
     /**
      * As is the trade off with abstract methods, not every subclass of Enemy
      * will need the player to be passed to them. However this is a necessary
@@ -48,6 +54,16 @@ public abstract class Enemy extends Racer {
     public abstract void determineBehaviour(double[][] waypoints,
             Player player);
 
+    /**
+     * Creates another Enemy of the same kind, to race in a fork of the World.
+     * Where it is and what it is doing are copied over by the fork, so all
+     * that matters is that it behaves the same way.
+     * 
+     * @return The new Enemy.
+     * @throws SlickException
+     */
+    public abstract Enemy fork() throws SlickException;
+
     /**
      * Calls the standard constructor from the superclass Racer, which in turn
      * calls the super constructor of RenderableObject which does most of the
@@ -62,9 +78,71 @@ public abstract class Enemy extends Racer {
      *             Standard error thrown by slick, handled with this throws
      *             clause.
      */
-    public Enemy(int startX, int startY) throws SlickException {
+    public Enemy(double startX, double startY) throws SlickException {
         super(startX, startY);
         currentWaypointTarget = 0;
+        parameters = AiParameters.DEFAULT;
+    }
+
+    /**
+     * @return The numbers the Enemy drives by.
+     */
+    public AiParameters getParameters() {
+        return parameters;
+    }
+
+    /**
+     * @param parameters
+     *            The numbers the Enemy should drive by from now on.
+     */
+    public void setParameters(AiParameters parameters) {
+        this.parameters = parameters;
+    }
+
+    /**
+     * Called by the World at the end of every tick, once everything has moved
+     * and the World can be saved or forked. Most Enemies decide everything in
+     * determineBehaviour(), so by default there is nothing to do.
+     * 
+     * @param world
+     *            The World the Enemy is racing in.
+     * @throws SlickException
+     */
+    public void plan(World world) throws SlickException {
+    }
+
+    /**
+     * Called by the World when it is closed, to stop anything the Enemy has
+     * running outside of the World. By default there is nothing.
+     * 
+     * @throws IOException
+     */
+    public void close() throws IOException {
+    }
+
+    /**
+     * Saves whatever state the Enemy keeps of its own, other than the
+     * waypoint it is heading for, which is saved by the World. By default
+     * there is none.
+     * 
+     * @param state
+     *            The array to save into.
+     * @param offset
+     *            Where in the array to start, with EXTRA_STATE_SIZE numbers
+     *            of room.
+     */
+    public void saveState(double[] state, int offset) {
+    }
+
+    /**
+     * Puts back the state saved by saveState().
+     * 
+     * @param state
+     *            The array it was saved into.
+     * @param offset
+     *            Where in the array it was saved.
+     */
+    public void restoreState(double[] state, int offset) {
     }
 
     /**
@@ -72,36 +150,57 @@ public abstract class Enemy extends Racer {
      * active check is necessary because only the player can interact with
      * inactive items. This is also the reason why this method can't be moved up
      * into the Racer class, as the behaviour is different for Player and Enemy.
-     * If the item is confirmed as active, it checks if the Enemy is within the
-     * set range of them. If so, it removes the item from the map and adds it to
-     * that Enemy's active effects, which will be cycled through in the
-     * processActiveItems() method of Racer.
+     * Only items within the set range of the Enemy are looked at, and of those
+     * the active ones are removed from the map and have their effect scheduled
+     * on that Enemy.
      * 
      * @param mapItems
-     *            An ArrayList of all the items currently on the map, both
+     *            The store of all the items currently on the map, both
      *            dormant and active
+     * @param effects
+     *            The timer wheel on which to schedule active items' effects.
      */
-    public void checkItemCollision(ArrayList<Item> mapItems) {
-        for (int i = 0; i < mapItems.size(); i++) {
+    public void checkItemCollision(ItemStore mapItems,
+            EffectTimerWheel effects) {
+        Item item;
+        double radius = getItemCollisionRadius();
+
+        /*
+         * Walking through just the items within range of the Enemy, which the
+         * store finds from its packed coordinates. Slots emptied earlier this
+         * tick are never in range.
+         */
+        int i = mapItems.nextWithin(0, getMapX(), getMapY(), radius);
+        while (i >= 0) {
+            item = mapItems.get(i);
             // Making sure the item is active before interacting with it.
-            if (mapItems.get(i).isActive()) {
-                // Checking the Enemy is within range.
-                if (GlobalHelper.getHypotenuse(
-                        getMapX() - mapItems.get(i).getMapX(),
-                        getMapY() - mapItems.get(i)
-                                .getMapY()) < getItemCollisionRadius()) {
-                    /*
-                     * Adding the item to the Enemy's active items and removing
-                     * it from the map.
-                     */
-                    getActiveItems().add(mapItems.get(i));
-                    mapItems.remove(i);
-                    i--;
-                }
+            if (item.isActive()) {
+                /*
+                 * Scheduling the item's effect on the Enemy and removing it
+                 * from the map.
+                 */
+                effects.schedule(this, item);
+                mapItems.remove(i);
             }
+            i = mapItems.nextWithin(i + 1, getMapX(), getMapY(), radius);
         }
     }
 
+    /**
+     * @return The index of the waypoint the Enemy is heading for.
+     */
+    public int getCurrentWaypointTarget() {
+        return currentWaypointTarget;
+    }
+
+    /**
+     * @param currentWaypointTarget
+     *            the index of the waypoint to head for
+     */
+    public void setCurrentWaypointTarget(int currentWaypointTarget) {
+        this.currentWaypointTarget = currentWaypointTarget;
+    }
+
     /**
      * Called each turn, this method checks whether the Enemy has come within
      * the range of its target waypoint. If this is the case it will increase
@@ -126,8 +225,8 @@ public abstract class Enemy extends Racer {
          * direction of the finish. Not necessary within the scope of the
          * project and the given data, however.
          */
-        if (GlobalHelper.getHypotenuse(getMapX() - target[0],
-                getMapY() - target[1]) < WAYPOINT_RADIUS) {
+        if (Proximity.isWithin(getMapX() - target[0], getMapY() - target[1],
+                parameters.getWaypointRadius())) {
             if (currentWaypointTarget != waypoints.length - 1)
                 currentWaypointTarget++;
             /*
@@ -177,58 +276,136 @@ public abstract class Enemy extends Racer {
     }
 
     /**
-     * Instantiates objects for each Enemy to exist in the game. Notably, unlike
-     * for the Items or the Waypoints, the Enemies aren't read in from a file
-     * but are instead hardcoded in. This is more acceptable however because
-     * there are only 3 enemies, and little room in the current map for more.
+     * Instantiates objects for each Enemy to exist in the game. These used to
+     * be hardcoded in, three of them, but are now listed in a Roster, which
+     * is normally read from a data file just like the Items and the
+     * Waypoints, so a race can have any number of Enemies of any kinds.
      * 
+     * @param roster
+     *            The kind of each Enemy, in grid order.
+     * @param starts
+     *            The x and y coordinate, in pixels, of each Enemy's place on
+     *            the starting grid, in the same order.
+     * @param lookaheadThreads
+     *            The number of threads each LookaheadEnemy plans on.
      * @return A static array containing all the Enemies.
      * @throws SlickException
      */
-    public static Enemy[] createEnemies() throws SlickException {
-        Enemy[] output = new Enemy[NUM_ENEMIES];
-        output[0] = new Elephant();
-        output[1] = new Dog();
-        output[2] = new Octopus();
+    public static Enemy[] createEnemies(Roster roster, double[][] starts,
+            int lookaheadThreads) throws SlickException {
+        Enemy[] output = new Enemy[roster.getNumEnemies()];
+        for (int i = 0; i < output.length; i++) {
+            output[i] = create(roster.getKind(i), starts[i][0], starts[i][1],
+                    lookaheadThreads);
+        }
         return output;
     }
 
+    /**
+     * Creates an Enemy of the kind with the given name.
+     * 
+     * @param kind
+     *            The name of the kind: Elephant, Dog, Octopus or Lookahead.
+     * @param startX
+     *            In pixels. Horizontal x-coordinate starting position.
+     * @param startY
+     *            In pixels. Vertical y-coordinate starting position.
+     * @param lookaheadThreads
+     *            The number of threads a LookaheadEnemy plans on.
+     * @return The new Enemy.
+     * @throws SlickException
+     * @throws IllegalArgumentException
+     *             If there is no kind of Enemy by that name.
+     */
+    public static Enemy create(String kind, double startX, double startY,
+            int lookaheadThreads) throws SlickException {
+        switch (kind) {
+        case "Elephant":
+            return new Elephant(startX, startY);
+        case "Dog":
+            return new Dog(startX, startY);
+        case "Octopus":
+            return new Octopus(startX, startY);
+        case "Lookahead":
+            return new LookaheadEnemy(startX, startY,
+                    Math.max(1, lookaheadThreads));
+        default:
+            throw new IllegalArgumentException(
+                    "Enemy: no kind of Enemy called " + kind);
+        }
+    }
+
     /**
      * This method is a gateway to the methods that do most of the heavy lifting
      * with the implementation of all the Enemies. As far as this method goes
      * however, all we do is call the generic Racer level update for each Enemy,
      * followed by the determineBehaviour() method, which enacts the specific
-     * behaviour of the individual subclasses of Enemy.
+     * behaviour of the individual subclasses of Enemy, on the ticks the World
+     * says each Enemy should think.
      * 
      * @param enemies
      *            Array of all the enemies currently active on the map.
      * @param world
      *            The world object itself, passed in so we can calculate
-     *            frictions.
+     *            frictions and know when to think.
      * @param mapItems
      *            List of all the items on the map, whether active or not.
-     * @param racers
-     *            Array of the Racers. This may seem a bit counter intuitive,
-     *            passing Racers, Enemies and Player through individually
-     *            considering that Enemies and Player are just subsets of the
-     *            Racer array. However, at some stage these subsets need to be
-     *            calculated, and considering this has already been done in
-     *            World we may as well just pass them in instead of
-     *            recalculating them.
      * @param waypoints
      *            An array of 2 item arrays containing the waypoints as doubles.
      * @param player
      *            The player object. This is used in to determine the specific
      *            behaviour of Dog and Octopus.
-     * @throws SlickException
      */
-    public static void updateEnemies(World world, Racer[] racers,
-            Enemy[] enemies, Player player, ArrayList<Item> mapItems,
-            double[][] waypoints) throws SlickException {
+    public static void updateEnemies(World world, Enemy[] enemies,
+            Player player, ItemStore mapItems, double[][] waypoints) {
+
+        for (Enemy enemy : enemies) {
+            enemy.update(enemy.getRotateDir(), 1, world, mapItems);
+            if (world.isThinkTick(enemy)) {
+                enemy.determineBehaviour(waypoints, player);
+            }
+        }
+    }
+
+    /**
+     * The first half of updateEnemies(), used when the World moves all the
+     * Racers at once. Each Enemy takes on its input for the tick and checks
+     * for item collisions, but doesn't move.
+     * 
+     * @param world
+     *            The world object, holding the timer wheel for item effects.
+     * @param enemies
+     *            Array of all the enemies currently active on the map.
+     * @param mapItems
+     *            List of all the items on the map, whether active or not.
+     */
+    public static void prepareEnemies(World world, Enemy[] enemies,
+            ItemStore mapItems) {
+        for (Enemy enemy : enemies) {
+            enemy.prepareUpdate(enemy.getRotateDir(), 1, world, mapItems);
+        }
+    }
 
+    /**
+     * The second half of updateEnemies(), used when the World moves all the
+     * Racers at once. Once everyone has moved, each Enemy decides what to do
+     * next tick, if it is one of its ticks to think.
+     * 
+     * @param world
+     *            The world object, which says when each Enemy thinks.
+     * @param enemies
+     *            Array of all the enemies currently active on the map.
+     * @param player
+     *            The player object, for the behaviour of Dog and Octopus.
+     * @param waypoints
+     *            An array of 2 item arrays containing the waypoints as doubles.
+     */
+    public static void determineBehaviours(World world, Enemy[] enemies,
+            Player player, double[][] waypoints) {
         for (Enemy enemy : enemies) {
-            enemy.update(enemy.getRotateDir(), 1, world, mapItems, racers);
-            enemy.determineBehaviour(waypoints, player);
+            if (world.isThinkTick(enemy)) {
+                enemy.determineBehaviour(waypoints, player);
+            }
         }
     }
 
@@ -0,0 +1,107 @@
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * <h1>EnvironmentBenchmark</h1>
+ * <h2>Measures how many steps a second a VectorRaceEnvironment manages</h2>
+ *
+ * Drives every environment of a VectorRaceEnvironment with random input, the
+ * way an agent early in training would, and reports the environment steps
+ * and World ticks per second, how many races finished or ran out of steps,
+ * and the bytes allocated per step on the calling thread, which should be
+ * close to none.
+ *
+ * The arguments, all optional, are the number of environments, the number
+ * of threads, the ticks per step, the tick rate and how many seconds to run
+ * for. By default that is 16 environments on one thread, stepping 4 ticks at
+ * a time at 250 ticks a second, for 10 seconds.
+ *
+ * @author Daniel Porteous porteousd 696965
+ */
+public class EnvironmentBenchmark {
+
+    /** Steps in a race before it is done regardless, 60 s at the defaults */
+    private static final int MAX_STEPS = 3750;
+
+    /**
+     * Environment steps run before measuring, to let the JIT compile
+     * everything. Until it has, the Angles made along the way are really
+     * allocated rather than optimised away.
+     */
+    private static final int WARM_UP_STEPS = 100000;
+
+    /** Only a main method here, so no instances. */
+    private EnvironmentBenchmark() {
+    }
+
+    /**
+     * Runs the benchmark and prints the results.
+     *
+     * @param args
+     *            Environments, threads, ticks per step, tick rate and
+     *            seconds, all optional.
+     * @throws Exception
+     *             If the environments can't be set up.
+     */
+    public static void main(String[] args) throws Exception {
+        int numEnvironments = args.length > 0 ? Integer.parseInt(args[0])
+                : 16;
+        int numThreads = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        int ticksPerStep = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        int tickRate = args.length > 3 ? Integer.parseInt(args[3]) : 250;
+        int seconds = args.length > 4 ? Integer.parseInt(args[4]) : 10;
+
+        VectorRaceEnvironment environments = new VectorRaceEnvironment(
+                numEnvironments, tickRate, ticksPerStep, MAX_STEPS,
+                numThreads);
+        double[] rotateDirs = new double[numEnvironments];
+        double[] moveDirs = new double[numEnvironments];
+        boolean[] useItems = new boolean[numEnvironments];
+        Random random = new Random(1);
+
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory
+                        .getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        long numSteps = 0;
+        long numDone = 0;
+        long allocated = 0;
+        long started = 0;
+        long deadline = Long.MAX_VALUE;
+        long warmUp = (WARM_UP_STEPS + numEnvironments - 1) / numEnvironments;
+        for (long step = 0; System.nanoTime() < deadline; step++) {
+            if (step == warmUp) {
+                started = System.nanoTime();
+                deadline = started + seconds * 1000000000L;
+                allocated = threads.getThreadAllocatedBytes(thread);
+            }
+            for (int i = 0; i < numEnvironments; i++) {
+                if (random.nextInt(8) == 0) {
+                    rotateDirs[i] = random.nextInt(3) - 1;
+                }
+                moveDirs[i] = random.nextInt(10) == 0 ? 0 : 1;
+                useItems[i] = random.nextInt(100) == 0;
+            }
+            environments.step(rotateDirs, moveDirs, useItems);
+            if (step >= warmUp) {
+                numSteps += numEnvironments;
+                for (boolean done : environments.getDones()) {
+                    numDone += done ? 1 : 0;
+                }
+            }
+        }
+        long elapsed = System.nanoTime() - started;
+        allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+        environments.close();
+
+        System.out.println(numEnvironments + " environments on "
+                + numThreads + " threads, " + ticksPerStep
+                + " ticks per step at " + tickRate + " ticks/s");
+        System.out.printf("%.0f steps/s, %.0f ticks/s, %d races done%n",
+                numSteps * 1e9 / elapsed,
+                numSteps * ticksPerStep * 1e9 / elapsed, numDone);
+        System.out.printf("%.1f bytes allocated per step on the calling "
+                + "thread%n", (double) allocated / numSteps);
+    }
+}
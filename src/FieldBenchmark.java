@@ -0,0 +1,127 @@
+import java.util.Arrays;
+
+/**
+ * <h1>FieldBenchmark</h1>
+ * <h2>Measures how fast a World runs with a big field of karts</h2>
+ *
+ * Races a World headless with fields of increasing size, one player and the
+ * rest Enemies, taking turns at being an Elephant, a Dog and an Octopus. The
+ * player just holds the accelerator. For each size it reports how long the
+ * World took to set up, and the ticks per second it manages once the JIT has
+ * had a chance to warm up, along with how much of the real time it is
+ * simulating it takes up at the default tick rate. Past 100%, the game can't
+ * keep up.
+ *
+ * The arguments, all optional, are how many seconds of game time to run each
+ * field for and then the field sizes to try. By default that is 10 seconds
+ * each of 50, 100, 200 and 500 karts. They can be preceded by the directory
+ * of a Track to race on, such as one made by TrackGenerator, rather than the
+ * bundled one.
+ *
+ * @author Daniel Porteous porteousd 696965
+ */
+public class FieldBenchmark {
+
+    /** Field sizes tried if none are given */
+    private static final int[] DEFAULT_SIZES = { 50, 100, 200, 500 };
+
+    /** The kinds of Enemy, which take turns down the grid */
+    private static final String[] KINDS = { "Elephant", "Dog", "Octopus" };
+
+    /** Seconds of game time run before measuring, to warm the JIT up */
+    private static final int WARM_UP_SECONDS = 2;
+
+    /** Only a main method here, so no instances. */
+    private FieldBenchmark() {
+    }
+
+    /**
+     * Runs the benchmark and prints the results.
+     *
+     * @param args
+     *            The directory of a Track to race on, the number of seconds
+     *            of game time to run each field for, then the field sizes,
+     *            all optional.
+     * @throws Exception
+     *             If a World can't be set up.
+     */
+    public static void main(String[] args) throws Exception {
+        Sprites.setHeadless(true);
+        Track track;
+        if (args.length > 0 && !args[0].matches("\\d+")) {
+            track = Track.load(args[0]);
+            args = Arrays.copyOfRange(args, 1, args.length);
+        } else {
+            track = Track.loadDefault();
+        }
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int[] sizes = DEFAULT_SIZES;
+        if (args.length > 1) {
+            sizes = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                sizes[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+
+        for (int size : sizes) {
+            run(track, size, seconds);
+        }
+    }
+
+    /**
+     * Races one field and prints how it went.
+     *
+     * @param track
+     *            The track to race on.
+     * @param numKarts
+     *            The number of karts in the field, including the player.
+     * @param seconds
+     *            The number of seconds of game time to measure.
+     * @throws Exception
+     *             If the World can't be set up.
+     */
+    private static void run(Track track, int numKarts, int seconds)
+            throws Exception {
+        long setUpStarted = System.nanoTime();
+        World world = new World(800, 600, World.DEFAULT_TICK_RATE, 1, 0,
+                track, createRoster(numKarts - 1), 1);
+        long setUp = System.nanoTime() - setUpStarted;
+
+        int ticksPerSecond = (int) Math.round(1000 / world.getTickMillis());
+        for (int t = 0; t < WARM_UP_SECONDS * ticksPerSecond; t++) {
+            world.update(0, 1, false);
+        }
+        int numTicks = seconds * ticksPerSecond;
+        long started = System.nanoTime();
+        for (int t = 0; t < numTicks; t++) {
+            world.update(0, 1, false);
+        }
+        long elapsed = System.nanoTime() - started;
+        world.close();
+
+        double tickMillis = elapsed / 1e6 / numTicks;
+        System.out.printf("%d karts: set up in %.0f ms, %.0f ticks/s, "
+                + "%.3f ms a tick, %.0f%% of real time%n", numKarts,
+                setUp / 1e6, numTicks * 1e9 / elapsed, tickMillis,
+                tickMillis * ticksPerSecond / 1000 * 100);
+    }
+
+    /**
+     * Makes a roster of the given number of Enemies, taking turns at each
+     * kind, with the player at the back of the grid.
+     *
+     * @param numEnemies
+     *            The number of Enemies.
+     * @return The roster.
+     */
+    private static Roster createRoster(int numEnemies) {
+        String[] kinds = new String[numEnemies + 1];
+        int[] counts = new int[kinds.length];
+        for (int i = 0; i < numEnemies; i++) {
+            kinds[i] = KINDS[i % KINDS.length];
+            counts[i] = 1;
+        }
+        kinds[numEnemies] = Roster.PLAYER;
+        return new Roster(kinds, counts);
+    }
+}
@@ -0,0 +1,269 @@
+/**
+ * <h1>FrameGovernor</h1>
+ * <h2>Keeps the game responsive when the simulation can't keep up</h2>
+ *
+ * Each frame, Game runs however many ticks of the World make up the frame
+ * time that has passed. Left to itself, a long frame (after a garbage
+ * collection, or the window being dragged) means a lot of ticks to catch up
+ * on, which makes the next frame long too, and so on until the game grinds
+ * to a halt. The governor stops that spiral in three ways.
+ *
+ * First, no frame runs more than MAX_CATCH_UP_MILLIS of game time, nor keeps
+ * ticking once it has spent TICK_BUDGET_MILLIS of real time on them. What
+ * isn't run is carried over as debt, to be caught up on later frames. Second,
+ * the debt is never allowed past MAX_DEBT_MILLIS; anything over that is
+ * dropped, and the game runs that much slower than real time. Third, while
+ * the debt keeps building up, frame after frame, the governor turns the
+ * World's detail down a level at a time, and back up again once it has kept
+ * up for a while:
+ *
+ * 1. The Enemies only decide what to do every AI_THINK_INTERVAL ticks.
+ * 2. Items off the screen are only updated every OFF_SCREEN_ITEM_INTERVAL
+ * ticks, catching up on the ticks they missed.
+ * 3. The ghost isn't drawn, and neither is anything off the screen.
+ *
+ * All of this is kept as metrics, from the current level and debt to the
+ * total game time dropped, and describe() puts them into words for Game to
+ * show, so overload shows up on the screen rather than as slow motion.
+ *
+ * Turning the detail down changes the race a little, so it is only for a
+ * race played on one machine. A networked race has to keep every copy of
+ * the World exactly in step, and mustn't be governed.
+ *
+ * @author Daniel Porteous porteousd 696965
+ */
+public class FrameGovernor {
+
+    /** In milliseconds. The most game time a single frame runs */
+    private static final double MAX_CATCH_UP_MILLIS = 50;
+
+    /** In milliseconds. The most real time a frame spends on ticks */
+    private static final double TICK_BUDGET_MILLIS = 10;
+
+    /** In milliseconds. The most debt carried over before it is dropped */
+    private static final double MAX_DEBT_MILLIS = 250;
+
+    /**
+     * Frames in a row that have to end no less behind than they started
+     * before the detail is turned down a level, and frames in a row that
+     * have to end with no debt before it is turned back up.
+     */
+    private static final int FRAMES_TO_DEGRADE = 30;
+    private static final int FRAMES_TO_RECOVER = 180;
+
+    /** The lowest level of detail */
+    public static final int MAX_LEVEL = 3;
+
+    /** How often the Enemies decide what to do from the first level down */
+    private static final int AI_THINK_INTERVAL = 4;
+
+    /** How often items off the screen update from the second level down */
+    private static final int OFF_SCREEN_ITEM_INTERVAL = 8;
+
+    /** How much the average tick time goes by each new frame, out of 1 */
+    private static final double AVERAGE_WEIGHT = 0.05;
+
+    /** In milliseconds. The length of a tick of the World being governed */
+    private double tickMillis;
+
+    /** In milliseconds. Game time owed, waiting to be run */
+    private double debtMillis;
+
+    /** Debt at the start of the frame, to see if it is growing */
+    private double debtAtStart;
+
+    /** When the frame's ticks started, from System.nanoTime() */
+    private long frameStarted;
+
+    /** Ticks run so far this frame, and the most allowed */
+    private int frameTicks;
+    private int maxFrameTicks;
+
+    /** The current level of detail, 0 being full detail */
+    private int level;
+
+    /** Frames in a row the debt has grown, and it has been cleared */
+    private int framesBehind;
+    private int framesCaughtUp;
+
+    /** In milliseconds. Running average of the real time each tick takes */
+    private double averageTickMillis;
+
+    /** In milliseconds. Total game time dropped, never to be run */
+    private double droppedMillis;
+
+    /** Number of frames that stopped short of catching up */
+    private long framesCutShort;
+
+    /**
+     * Creates a governor for a World, at full detail with no debt.
+     *
+     * @param tickMillis
+     *            In milliseconds. The length of a tick of the World.
+     */
+    public FrameGovernor(double tickMillis) {
+        this.tickMillis = tickMillis;
+        maxFrameTicks = Math.max(1,
+                (int) Math.floor(MAX_CATCH_UP_MILLIS / tickMillis));
+        debtMillis = 0.0;
+        level = 0;
+        framesBehind = 0;
+        framesCaughtUp = 0;
+        averageTickMillis = 0.0;
+        droppedMillis = 0.0;
+        framesCutShort = 0;
+    }
+
+    /**
+     * Starts a frame, adding the time since the last one to the debt and
+     * dropping anything over MAX_DEBT_MILLIS.
+     *
+     * @param delta
+     *            In milliseconds. Time passed since the last frame.
+     */
+    public void startFrame(int delta) {
+        debtAtStart = debtMillis;
+        debtMillis += delta;
+        if (debtMillis > MAX_DEBT_MILLIS) {
+            droppedMillis += debtMillis - MAX_DEBT_MILLIS;
+            debtMillis = MAX_DEBT_MILLIS;
+        }
+        frameTicks = 0;
+        frameStarted = System.nanoTime();
+    }
+
+    /**
+     * @return Whether another tick should be run this frame: there is a
+     *         whole tick owed, and the frame has neither run as many as it
+     *         is allowed nor used up its time for them.
+     */
+    public boolean shouldTick() {
+        if (debtMillis < tickMillis) {
+            return false;
+        }
+        return frameTicks < maxFrameTicks && (frameTicks == 0
+                || System.nanoTime() - frameStarted
+                        < TICK_BUDGET_MILLIS * 1e6);
+    }
+
+    /**
+     * Counts a tick as run, paying its time off the debt.
+     */
+    public void tickDone() {
+        debtMillis -= tickMillis;
+        frameTicks++;
+    }
+
+    /**
+     * Ends the frame's ticks, working out whether the World is keeping up
+     * and changing its level of detail if need be.
+     *
+     * @param world
+     *            The World being governed.
+     */
+    public void endFrame(World world) {
+        if (frameTicks > 0) {
+            double frameTickMillis = (System.nanoTime() - frameStarted) / 1e6
+                    / frameTicks;
+            averageTickMillis = averageTickMillis == 0.0 ? frameTickMillis
+                    : averageTickMillis + AVERAGE_WEIGHT
+                            * (frameTickMillis - averageTickMillis);
+        }
+
+        boolean cutShort = debtMillis >= tickMillis;
+        if (cutShort) {
+            framesCutShort++;
+        }
+        if (cutShort && debtMillis >= debtAtStart) {
+            framesBehind++;
+            framesCaughtUp = 0;
+        } else if (!cutShort) {
+            framesCaughtUp++;
+            framesBehind = 0;
+        }
+
+        if (framesBehind >= FRAMES_TO_DEGRADE && level < MAX_LEVEL) {
+            level++;
+            framesBehind = 0;
+        } else if (framesCaughtUp >= FRAMES_TO_RECOVER && level > 0) {
+            level--;
+            framesCaughtUp = 0;
+        }
+        apply(world);
+    }
+
+    /**
+     * Sets the World's detail to match the current level.
+     *
+     * @param world
+     *            The World being governed.
+     */
+    private void apply(World world) {
+        world.setAiThinkInterval(level >= 1 ? AI_THINK_INTERVAL : 1);
+        world.setOffScreenItemInterval(
+                level >= 2 ? OFF_SCREEN_ITEM_INTERVAL : 1);
+        world.setReducedDetail(level >= 3);
+    }
+
+    /**
+     * @return The current level of detail, from 0 for full detail to
+     *         MAX_LEVEL.
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * @return In milliseconds. Game time owed, waiting to be run.
+     */
+    public double getDebtMillis() {
+        return debtMillis;
+    }
+
+    /**
+     * @return In milliseconds. Total game time dropped for being too far
+     *         behind, by which the game has run slower than real time.
+     */
+    public double getDroppedMillis() {
+        return droppedMillis;
+    }
+
+    /**
+     * @return Number of ticks run in the last frame.
+     */
+    public int getFrameTicks() {
+        return frameTicks;
+    }
+
+    /**
+     * @return In milliseconds. Running average of the real time each tick
+     *         takes, or 0 before any have run.
+     */
+    public double getAverageTickMillis() {
+        return averageTickMillis;
+    }
+
+    /**
+     * @return Number of frames so far that stopped short of catching up.
+     */
+    public long getFramesCutShort() {
+        return framesCutShort;
+    }
+
+    /**
+     * @return Whether the game is behind or running at less than full
+     *         detail, which is when describe() is worth showing.
+     */
+    public boolean isOverloaded() {
+        return level > 0 || debtMillis >= MAX_CATCH_UP_MILLIS;
+    }
+
+    /**
+     * @return The metrics in a line short enough to fit on the screen.
+     */
+    public String describe() {
+        return String.format("Detail -%d, %.0f ms behind, %.1f s dropped,"
+                + " %.3f ms/tick", level, debtMillis, droppedMillis / 1000,
+                averageTickMillis);
+    }
+}
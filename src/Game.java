@@ -4,6 +4,8 @@
  * Author: Matt Giuca <mgiuca>
  */
 
+import java.io.File;
+import java.io.IOException;
 import org.newdawn.slick.AppGameContainer;
 import org.newdawn.slick.BasicGame;
 import org.newdawn.slick.GameContainer;
@@ -28,9 +30,75 @@ public class Game extends BasicGame {
     /** Start of the end game message. */
     private static final String endMessage = "You came ";
 
-    /** Create a new Game object. */
+    /** Number of simulation ticks per second of game time. */
+    private int tickRate;
+
+    /**
+     * Number of threads each LookaheadEnemy plans on, or 0 to race the plain
+     * Elephants instead.
+     */
+    private int lookaheadThreads;
+
+    /** Most ticks to warm the JIT up with while loading, or 0 for none. */
+    private int warmUpTicks;
+
+    /** Decides how many ticks each frame runs, and how much detail. */
+    private FrameGovernor governor;
+
+    /** The best run so far, replayed as a Ghost, or null if none. */
+    private GhostRecording best;
+
+    /** Whether this race's run has been saved for the AiTuner yet. */
+    private boolean runSaved;
+
+    /** Create a new Game object, running at the default tick rate. */
     public Game() {
+        this(World.DEFAULT_TICK_RATE);
+    }
+
+    /**
+     * Create a new Game object.
+     * 
+     * @param tickRate
+     *            Number of simulation ticks per second of game time.
+     */
+    public Game(int tickRate) {
+        this(tickRate, 0);
+    }
+
+    /**
+     * Create a new Game object, optionally with a LookaheadEnemy.
+     * 
+     * @param tickRate
+     *            Number of simulation ticks per second of game time.
+     * @param lookaheadThreads
+     *            Number of threads for each LookaheadEnemy to plan on, or 0
+     *            to race the roster as it is. Otherwise every Elephant in
+     *            the roster is raced by a LookaheadEnemy instead.
+     */
+    public Game(int tickRate, int lookaheadThreads) {
+        this(tickRate, lookaheadThreads, WarmUp.MAX_TICKS);
+    }
+
+    /**
+     * Create a new Game object, optionally with a LookaheadEnemy, and with
+     * a given warm-up.
+     * 
+     * @param tickRate
+     *            Number of simulation ticks per second of game time.
+     * @param lookaheadThreads
+     *            Number of threads for each LookaheadEnemy to plan on, as
+     *            above.
+     * @param warmUpTicks
+     *            Most ticks to run on a fork of the World while loading, so
+     *            the JIT has compiled the game before the race starts, or 0
+     *            to start straight away.
+     */
+    public Game(int tickRate, int lookaheadThreads, int warmUpTicks) {
         super("Shadow Kart");
+        this.tickRate = tickRate;
+        this.lookaheadThreads = lookaheadThreads;
+        this.warmUpTicks = warmUpTicks;
     }
 
     /**
@@ -41,7 +109,31 @@ public class Game extends BasicGame {
      */
     @Override
     public void init(GameContainer gc) throws SlickException {
-        world = new World(SCREENWIDTH, SCREENHEIGHT);
+        Roster roster = Roster.loadDefault();
+        if (lookaheadThreads > 0) {
+            roster = roster.replace("Elephant", "Lookahead");
+        }
+        world = new World(SCREENWIDTH, SCREENHEIGHT, tickRate, 1, 0, roster,
+                lookaheadThreads);
+        world.setAiParameters(AiParameters.loadDefault());
+
+        // Racing the race ahead of time on a fork, to get the JIT going.
+        if (warmUpTicks > 0) {
+            WarmUp warmUp = new WarmUp(world, warmUpTicks);
+            warmUp.run();
+            System.out.println(warmUp.describe());
+        }
+        governor = new FrameGovernor(world.getTickMillis());
+        runSaved = false;
+
+        // Racing against the best run so far, if there has been one.
+        try {
+            best = GhostRecording.load(new File(GhostRecording.BEST_FILE));
+        } catch (IOException e) {
+            System.err.println("Couldn't load the ghost: " + e.getMessage());
+            best = null;
+        }
+        world.setGhost(best);
     }
 
     /**
@@ -72,12 +164,66 @@ public class Game extends BasicGame {
                 || input.isKeyDown(Input.KEY_RCONTROL);
 
         // This allows the game to quit without it crashing.
-        if (input.isKeyDown(Input.KEY_Q))
+        if (input.isKeyDown(Input.KEY_Q)) {
+            closeWorld();
             gc.exit();
+            return;
+        }
 
-        // Let World.update decide what to do with this data.
-        for (int i = 0; i < delta; i++)
+        // Let World.update decide what to do with this data, once for every
+        // whole tick of frame time built up, carrying the rest to next frame.
+        // The governor stops a slow frame from snowballing into slower ones.
+        governor.startFrame(delta);
+        while (governor.shouldTick()) {
             world.update(rotateDir, moveDir, useItem);
+            governor.tickDone();
+        }
+        governor.endFrame(world);
+
+        // Keeping every finished run for the AiTuner to race against.
+        GhostRecording run = world.getRecording();
+        if (run.isFinished() && !runSaved) {
+            runSaved = true;
+            try {
+                run.save(new File(GhostRecording.LAST_FILE));
+            } catch (IOException e) {
+                System.err.println("Couldn't save the run: " + e.getMessage());
+            }
+        }
+
+        // Keeping the run for next time if it beat the best so far.
+        if (run.isFinished() && run != best && (best == null
+                || run.getFinishMillis() < best.getFinishMillis())) {
+            best = run;
+            try {
+                run.save(new File(GhostRecording.BEST_FILE));
+            } catch (IOException e) {
+                System.err.println(
+                        "Couldn't save the ghost: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Closes the World when the window is closed.
+     * 
+     * @return True, so the game closes.
+     */
+    @Override
+    public boolean closeRequested() {
+        closeWorld();
+        return true;
+    }
+
+    /**
+     * Closes the World, letting go of its map.
+     */
+    private void closeWorld() {
+        try {
+            world.close();
+        } catch (IOException e) {
+            System.err.println("Couldn't close the map: " + e.getMessage());
+        }
     }
 
     /**
@@ -92,6 +238,10 @@ public class Game extends BasicGame {
     public void render(GameContainer gc, Graphics g) throws SlickException {
         // Let World.render handle the rendering.
         world.render(g);
+
+        // Showing how far behind the game is, if it is struggling.
+        if (governor.isOverloaded())
+            g.drawString(governor.describe(), 10, 30);
     }
 
     /**
@@ -112,10 +262,24 @@ public class Game extends BasicGame {
      * Start-up method. Creates the game and runs it.
      * 
      * @param args
-     *            Command-line arguments (ignored).
+     *            Command-line arguments. An optional first argument gives the
+     *            number of simulation ticks per second, e.g. 120. An optional
+     *            second gives the number of threads for a LookaheadEnemy to
+     *            plan on in place of the Elephant, e.g. 4. An optional third
+     *            gives the most ticks to warm up with, 0 for no warm-up.
      */
     public static void main(String[] args) throws SlickException {
-        AppGameContainer app = new AppGameContainer(new Game());
+        int tickRate = World.DEFAULT_TICK_RATE;
+        if (args.length > 0)
+            tickRate = Integer.parseInt(args[0]);
+        int lookaheadThreads = 0;
+        if (args.length > 1)
+            lookaheadThreads = Integer.parseInt(args[1]);
+        int warmUpTicks = WarmUp.MAX_TICKS;
+        if (args.length > 2)
+            warmUpTicks = Integer.parseInt(args[2]);
+        AppGameContainer app = new AppGameContainer(
+                new Game(tickRate, lookaheadThreads, warmUpTicks));
         // setShowFPS(true), to show frames-per-second.
         app.setShowFPS(false);
         app.setDisplayMode(SCREENWIDTH, SCREENHEIGHT, false);
@@ -0,0 +1,134 @@
+import java.nio.ByteBuffer;
+import org.newdawn.slick.Image;
+import org.newdawn.slick.SlickException;
+
+/**
+ * <h1>Ghost</h1>
+ * <h2>A see-through kart replaying the best run so far</h2>
+ *
+ * Plays back a GhostRecording alongside the live race, so the player can see
+ * how they're doing against their best. The Ghost isn't a Racer, so nothing
+ * collides with it and it can't pick anything up; it is only ever moved along
+ * its recording and drawn, through the usual RenderableObject.render().
+ *
+ * The recording is read as the race goes, keeping just the samples either
+ * side of the current time, and the Ghost is placed between the two in
+ * proportion to how far through the gap the race is. That makes an update a
+ * few sums, and a VarInt or three every SAMPLE_MILLIS, far less than moving
+ * any real kart.
+ *
+ * @author Daniel Porteous porteousd 696965
+ */
+public class Ghost extends RenderableObject {
+
+    /** The kart the Ghost is drawn as, the same as the player's */
+    private static final String KART_FILE = "karts/donkey.png";
+
+    /** How opaque the Ghost is drawn */
+    private static final float ALPHA = 0.4f;
+
+    /** The run being replayed */
+    private GhostRecording recording;
+
+    /** Where the next sample will be read from */
+    private ByteBuffer playback;
+
+    /** Number of samples read so far */
+    private int numRead;
+
+    /** The samples either side of the current time, quantised */
+    private int previousX;
+    private int previousY;
+    private int previousAngle;
+    private int nextX;
+    private int nextY;
+    private int nextAngle;
+
+    /**
+     * Creates a Ghost at the start of a recording.
+     *
+     * @param recording
+     *            The run to replay.
+     * @throws SlickException
+     */
+    public Ghost(GhostRecording recording) throws SlickException {
+        super(0, 0);
+        Image sprite = Sprites.load(ASSETS_PATH + KART_FILE);
+        if (sprite != null) {
+            sprite.setAlpha(ALPHA);
+        }
+        setSprite(sprite);
+        this.recording = recording;
+        rewind();
+        update(0);
+    }
+
+    /**
+     * Goes back to the start of the recording.
+     */
+    private void rewind() {
+        playback = recording.getSamples();
+        numRead = 0;
+        nextX = 0;
+        nextY = 0;
+        nextAngle = 0;
+        readSample();
+        previousX = nextX;
+        previousY = nextY;
+        previousAngle = nextAngle;
+    }
+
+    /**
+     * Moves on to the next sample, if there is one, keeping the current one
+     * as the previous.
+     */
+    private void readSample() {
+        previousX = nextX;
+        previousY = nextY;
+        previousAngle = nextAngle;
+        if (numRead < recording.getNumSamples()) {
+            nextX += (int) VarInt.readSigned(playback);
+            nextY += (int) VarInt.readSigned(playback);
+            nextAngle = (nextAngle + (int) VarInt.readSigned(playback))
+                    & 0xFFFF;
+            numRead++;
+        }
+    }
+
+    /**
+     * Moves the Ghost to where the recorded run was at a point in the race,
+     * between the samples either side of it. Past the end of the recording,
+     * the Ghost stays where the run finished.
+     *
+     * @param millis
+     *            Race time, in milliseconds.
+     */
+    public void update(double millis) {
+        double sample = millis / GhostRecording.SAMPLE_MILLIS;
+        if (sample < numRead - 2) {
+            // Time has gone backwards, as when a World is rolled back.
+            rewind();
+        }
+        while (numRead < recording.getNumSamples() && sample > numRead - 1) {
+            readSample();
+        }
+
+        double fraction = Math.max(0.0,
+                Math.min(1.0, sample - (numRead - 2)));
+        double x = previousX + (nextX - previousX) * fraction;
+        double y = previousY + (nextY - previousY) * fraction;
+        double angle = previousAngle
+                + (short) (nextAngle - previousAngle) * fraction;
+        setMapX(x / GhostRecording.POSITION_SCALE);
+        setMapY(y / GhostRecording.POSITION_SCALE);
+        setAngle(Angle.fromBinary(
+                (int) Math.round(angle) << GhostRecording.ANGLE_SHIFT));
+    }
+
+    /**
+     * @return The recording being replayed.
+     */
+    public GhostRecording getRecording() {
+        return recording;
+    }
+}
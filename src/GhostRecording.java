@@ -0,0 +1,224 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * <h1>GhostRecording</h1>
+ * <h2>A compact recording of a run, for a Ghost to replay</h2>
+ *
+ * Records where a Racer was every SAMPLE_MILLIS of race time, which is plenty
+ * for a Ghost to glide smoothly between. Each sample is the change in
+ * position, in eighths of a pixel, and in angle, in 16 bit binary units,
+ * since the sample before, written as signed VarInts. A kart only moves ten
+ * or twenty pixels between samples, so each sample takes around four bytes,
+ * and a whole race down the track comes to a few tens of KB. Sampling any
+ * less often leaves the Ghost cutting visibly across corners and through the
+ * sudden stops when a kart hits something.
+ *
+ * A recording is filled in by the World as the race goes, and finished when
+ * the player crosses the line, at which point it can be saved and compared
+ * against the best run so far. Saved recordings start with a header of magic,
+ * sample interval, number of samples, finishing time and size, then the
+ * samples.
+ *
+ * @author Daniel Porteous porteousd 696965
+ */
+public class GhostRecording {
+
+    /** Where the best run so far is kept between games */
+    public static final String BEST_FILE = GlobalHelper.DATA_PATH
+            + "best.ghost";
+
+    /** Where the last run the player finished is kept, for an AiTuner */
+    public static final String LAST_FILE = GlobalHelper.DATA_PATH
+            + "last.ghost";
+
+    /** Race time between samples, in milliseconds */
+    public static final int SAMPLE_MILLIS = 20;
+
+    /** Positions are recorded in units of an eighth of a pixel */
+    static final double POSITION_SCALE = 8.0;
+
+    /** Angles are recorded as the top 16 bits of their binary angle */
+    static final int ANGLE_SHIFT = 16;
+
+    /** First int of every saved recording */
+    private static final int MAGIC = 0x47485354;
+
+    /** Most bytes one sample can take, three VarInts of up to 5 bytes */
+    private static final int MAX_SAMPLE_SIZE = 15;
+
+    /** Bytes to start the sample buffer with, enough for most of a race */
+    private static final int INITIAL_SIZE = 16 * 1024;
+
+    /** The samples, from 0 to the buffer's position */
+    private ByteBuffer samples;
+
+    /** Number of samples recorded */
+    private int numSamples;
+
+    /** The last sample recorded, quantised, which the next is relative to */
+    private int lastX;
+    private int lastY;
+    private int lastAngle;
+
+    /** Race time at which the run finished, or -1 if it hasn't */
+    private double finishMillis;
+
+    /** Creates an empty recording, ready to record a run. */
+    public GhostRecording() {
+        samples = ByteBuffer.allocate(INITIAL_SIZE);
+        numSamples = 0;
+        lastX = 0;
+        lastY = 0;
+        lastAngle = 0;
+        finishMillis = -1;
+    }
+
+    /**
+     * Records the Racer's position, if the next sample is due. This is called
+     * every tick, and only keeps one sample every SAMPLE_MILLIS.
+     *
+     * @param millis
+     *            Race time, in milliseconds.
+     * @param x
+     *            In pixels. The Racer's x-coordinate on the map.
+     * @param y
+     *            In pixels. The Racer's y-coordinate on the map.
+     * @param heading
+     *            The Racer's heading, as a binary angle.
+     */
+    public void record(double millis, double x, double y, int heading) {
+        if (isFinished() || millis < (double) numSamples * SAMPLE_MILLIS) {
+            return;
+        }
+        if (samples.remaining() < MAX_SAMPLE_SIZE) {
+            ByteBuffer grown = ByteBuffer.allocate(samples.capacity() * 2);
+            samples.flip();
+            grown.put(samples);
+            samples = grown;
+        }
+        int sampleX = (int) Math.round(x * POSITION_SCALE);
+        int sampleY = (int) Math.round(y * POSITION_SCALE);
+        int sampleAngle = heading >>> ANGLE_SHIFT;
+        VarInt.writeSigned(samples, sampleX - lastX);
+        VarInt.writeSigned(samples, sampleY - lastY);
+        VarInt.writeSigned(samples, (short) (sampleAngle - lastAngle));
+        lastX = sampleX;
+        lastY = sampleY;
+        lastAngle = sampleAngle;
+        numSamples++;
+    }
+
+    /**
+     * Marks the run as finished, after which nothing more is recorded.
+     *
+     * @param millis
+     *            Race time at which the Racer crossed the line, in
+     *            milliseconds.
+     */
+    public void finish(double millis) {
+        if (!isFinished()) {
+            finishMillis = millis;
+        }
+    }
+
+    /**
+     * @return True once the run has crossed the line.
+     */
+    public boolean isFinished() {
+        return finishMillis >= 0;
+    }
+
+    /**
+     * @return Race time at which the run finished, in milliseconds, or -1 if
+     *         it hasn't.
+     */
+    public double getFinishMillis() {
+        return finishMillis;
+    }
+
+    /**
+     * @return The number of samples recorded.
+     */
+    public int getNumSamples() {
+        return numSamples;
+    }
+
+    /**
+     * @return The size of the samples, in bytes.
+     */
+    public int getSize() {
+        return samples.position();
+    }
+
+    /**
+     * Gets a buffer to read the samples back from, independently of anything
+     * else reading them.
+     *
+     * @return A read only buffer over the samples, from the first.
+     */
+    public ByteBuffer getSamples() {
+        ByteBuffer view = samples.duplicate();
+        view.flip();
+        return view.asReadOnlyBuffer();
+    }
+
+    /**
+     * Saves the recording.
+     *
+     * @param file
+     *            The file to save to, replaced if it exists.
+     * @throws IOException
+     */
+    public void save(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(SAMPLE_MILLIS);
+            out.writeInt(numSamples);
+            out.writeDouble(finishMillis);
+            out.writeInt(samples.position());
+            out.write(samples.array(), 0, samples.position());
+        }
+    }
+
+    /**
+     * Loads a saved recording.
+     *
+     * @param file
+     *            The file it was saved to.
+     * @return The recording, or null if there is no such file.
+     * @throws IOException
+     *             If the file can't be read or isn't a recording.
+     */
+    public static GhostRecording load(File file) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != SAMPLE_MILLIS) {
+                throw new IOException(file + " is not a ghost recording");
+            }
+            GhostRecording recording = new GhostRecording();
+            recording.numSamples = in.readInt();
+            recording.finishMillis = in.readDouble();
+            int size = in.readInt();
+            if (recording.numSamples < 0 || size < 0) {
+                throw new IOException(file + " is not a ghost recording");
+            }
+            byte[] bytes = new byte[size];
+            in.readFully(bytes);
+            recording.samples = ByteBuffer.wrap(bytes);
+            recording.samples.position(size);
+            return recording;
+        }
+    }
+}
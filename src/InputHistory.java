@@ -0,0 +1,100 @@
+/**
+ * <h1>InputHistory</h1>
+ * <h2>The packed inputs of one player, tick by tick</h2>
+ *
+ * Holds the inputs of a player in a ring buffer indexed by tick. Inputs are
+ * only ever added in tick order with no gaps, so the history always knows the
+ * last tick up to which every input has arrived, which is what a lockstep
+ * race waits on before it can run a tick.
+ *
+ * Old inputs are kept until they are released, after which their space in the
+ * ring can be reused. If inputs arrive so far ahead of the oldest unreleased
+ * tick that the ring would wrap onto it, they are turned away, and will be
+ * sent again later.
+ *
+ * @author Daniel Porteous porteousd 696965
+ */
+public class InputHistory {
+
+    /** The inputs, each at its tick modulo the capacity */
+    private byte[] inputs;
+
+    /** Capacity minus one, for finding a tick's place in the ring */
+    private int mask;
+
+    /** The last tick up to which every input is known, or -1 for none */
+    private long confirmed;
+
+    /** The oldest tick still needed; everything before it may be reused */
+    private long oldest;
+
+    /**
+     * Creates an empty history.
+     *
+     * @param capacity
+     *            The number of ticks the ring can hold, a power of two.
+     */
+    public InputHistory(int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException(
+                    "InputHistory: capacity must be a power of two");
+        }
+        inputs = new byte[capacity];
+        mask = capacity - 1;
+        confirmed = -1;
+        oldest = 0;
+    }
+
+    /**
+     * Adds the input for a tick. Inputs for ticks already known are ignored,
+     * as they may well arrive more than once over the network.
+     *
+     * @param tick
+     *            The tick the input is for.
+     * @param input
+     *            The packed input.
+     * @return False if the input couldn't be added because it would leave a
+     *         gap or the ring is full.
+     */
+    public boolean put(long tick, byte input) {
+        if (tick <= confirmed) {
+            return true;
+        }
+        if (tick != confirmed + 1 || tick - oldest >= inputs.length) {
+            return false;
+        }
+        inputs[(int) tick & mask] = input;
+        confirmed = tick;
+        return true;
+    }
+
+    /**
+     * Gets the input for a tick, which must be known and not yet released.
+     *
+     * @param tick
+     *            The tick to get the input for.
+     * @return The packed input.
+     */
+    public byte get(long tick) {
+        return inputs[(int) tick & mask];
+    }
+
+    /**
+     * Lets go of every tick before the given one, so their space can be
+     * reused.
+     *
+     * @param tick
+     *            The oldest tick still needed.
+     */
+    public void release(long tick) {
+        oldest = Math.max(oldest, tick);
+    }
+
+    /**
+     * @return The last tick up to which every input is known, or -1 if none
+     *         are.
+     */
+    public long getConfirmed() {
+        return confirmed;
+    }
+}
@@ -1,4 +1,3 @@
-import java.util.ArrayList;
 import org.newdawn.slick.SlickException;
 
 /**
@@ -11,15 +10,30 @@ import org.newdawn.slick.SlickException;
  * A series of abstract methods are also defined to ensure that these tasks can
  * be carried out in a centralised manner with the static methods here in Item.
  * 
- * Only two non-static methods are defined here. One which renders the Item
+ * Only a few non-static methods are defined here. One which renders the Item
  * explicitly onto the screen. This is so Panel can display the currently held
- * item. The second applies the Tomato/Oil effect upon hitting their active
- * forms, as these two effects are exactly the same.
+ * item. The others start and end the Tomato/Oil effect upon hitting their
+ * active forms, as these two effects are exactly the same.
  * 
  * @author Daniel Porteous porteousd 696965
  */
 public abstract class Item extends RenderableObject {
 
+    /**
+     * The Item's place among the World's Items of its kind: its slot on the
+     * map at the start of the race if it started there, or else the order in
+     * which its ItemPool created it. A fork of the World finds its own copy
+     * of the Item by this.
+     */
+    private int serial;
+
+    /**
+     * Ticks the Item has gone without being updated while off the screen,
+     * which it catches up on the next time it is. Always 0 unless the World
+     * has been told to update Items off the screen less often.
+     */
+    private int skippedTicks;
+
     public Item(double startX, double startY) {
         super(startX, startY);
     }
@@ -28,37 +42,64 @@ public abstract class Item extends RenderableObject {
      * Constants specific to Item, specifically for the instantiation of new
      * items for the createItems method.
      */
-    private static final String ITEMS_PATH = "items/";
-
-    /** File locations from which we will read our data and helper variables */
-    private static final String ITEM_LOCATIONS_FILE = DATA_PATH + "items.txt";
+    protected static final String ITEMS_PATH = "items/";
 
     /**
      * Item names for the reading in of the items. These are used in the
-     * createItems() method.
+     * createItems() method, and by TrackGenerator to write items files.
      */
-    private static final String OIL = "OilCan";
-    private static final String TOMATO = "Tomato";
-    private static final String BOOST = "Boost";
+    public static final String OIL = "OilCan";
+    public static final String TOMATO = "Tomato";
+    public static final String BOOST = "Boost";
 
     /** Angular modifier for the Oil / Tomato effect */
     private static final double OIL_TOMATO_ANGLULAR_MODIFIER = 0.008;
 
     /**
-     * Specifying that each Item derived from this class must have a useEffect
-     * method which can be called when the Item is collided with.
+     * Number of numbers any Item needs to save the state it changes while on
+     * the map, beyond its position and angle. See saveState().
+     */
+    public static final int EXTRA_STATE_SIZE = 3;
+
+    /**
+     * Specifying that each Item derived from this class must have a use method
+     * which is called when the Player uses the Item they're holding. For Oil
+     * and Tomato this places the active form of the Item on the map, while for
+     * Boost it schedules the boost effect on the Player.
      * 
      * @param racer
-     *            The racer with which the collision occurs.
-     * @param mapItems
-     *            All the items on the map, so a new item can be added when the
-     *            active effect of an item is activated.
-     * @return Returns true if the effect duration has completed (i.e. Boost
-     *         duration or duration for which to apply the Oil/Tomato effect).
-     * @throws SlickException
+     *            The racer using the Item.
+     * @param world
+     *            The world object, which holds the items on the map, the pools
+     *            active forms are taken from and the timer wheel on which any
+     *            effect on the racer using it is scheduled.
+     */
+    public abstract void use(Racer racer, World world);
+
+    /**
+     * Applies the effect of the Item to the Racer. This is called exactly once
+     * when the effect is scheduled on the EffectTimerWheel, and the effect is
+     * left in place until endEffect() is called once the duration is up.
+     * 
+     * @param racer
+     *            The racer to which the effect should be applied.
      */
-    public abstract boolean applyEffect(Racer racer, ArrayList<Item> mapItems)
-            throws SlickException;
+    public abstract void startEffect(Racer racer);
+
+    /**
+     * Reverts the effect applied by startEffect(). Only this Item's effect is
+     * reverted, so any other effects the Racer is under stay in place.
+     * 
+     * @param racer
+     *            The racer from which the effect should be removed.
+     */
+    public abstract void endEffect(Racer racer);
+
+    /**
+     * @return In milliseconds. How long after the first tick the effect of
+     *         the Item remains on the Racer.
+     */
+    public abstract int getDuration();
 
     /**
      * This method returns true if the item is active on the map. This is useful
@@ -86,20 +127,108 @@ public abstract class Item extends RenderableObject {
      */
     public abstract boolean update(World world);
 
+    /**
+     * Updates the Item for a number of ticks at once, as when it is caught up
+     * after being left off the screen for a while. By default this just calls
+     * update() once for each tick, stopping early if the Item needs removing.
+     * 
+     * @param world
+     *            The world object so terrain collisions can be checked.
+     * @param ticks
+     *            The number of ticks to update for, at least 1.
+     * @return True if the Item needs to be removed from the map, as with
+     *         update().
+     */
+    public boolean update(World world, int ticks) {
+        for (int t = 0; t < ticks; t++) {
+            if (update(world)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Called when the Item leaves the map for good, whether by hitting terrain
+     * or once its effect on a Racer has ended. Items taken from an ItemPool
+     * use this to return themselves to it, while all others have nothing to
+     * do.
+     */
+    public void despawn() {
+    }
+
+    /**
+     * @return Ticks the Item has gone without being updated while off the
+     *         screen.
+     */
+    public int getSkippedTicks() {
+        return skippedTicks;
+    }
+
+    /**
+     * @param skippedTicks
+     *            Ticks the Item has gone without being updated while off the
+     *            screen, as when copying another.
+     */
+    public void setSkippedTicks(int skippedTicks) {
+        this.skippedTicks = skippedTicks;
+    }
+
+    /**
+     * @return The Item's place among the World's Items of its kind.
+     */
+    public int getSerial() {
+        return serial;
+    }
+
+    /**
+     * @param serial
+     *            The Item's place among the World's Items of its kind.
+     */
+    public void setSerial(int serial) {
+        this.serial = serial;
+    }
+
+    /**
+     * Saves whatever state the Item changes as it updates on the map, other
+     * than its position and angle, which are saved by the World. Only the
+     * Tomato projectile has any, so by default there is nothing to do.
+     * 
+     * @param state
+     *            The array to save into.
+     * @param offset
+     *            Where in the array to start, with EXTRA_STATE_SIZE numbers
+     *            of room.
+     */
+    public void saveState(double[] state, int offset) {
+    }
+
+    /**
+     * Puts back the state saved by saveState().
+     * 
+     * @param state
+     *            The array it was saved into.
+     * @param offset
+     *            Where in the array it was saved.
+     */
+    public void restoreState(double[] state, int offset) {
+    }
+
     /**
      * This method is called statically from world upon initialisation. It
-     * creates all the items by reading them in from the items.txt data file and
-     * then returning them in an ArrayList.
+     * creates all the items by reading them in from the track's items data
+     * file and then returning them in an ItemStore.
      * 
-     * @return An ArrayList containing all the items on the map.
+     * @param file
+     *            The path of the items data file.
+     * @return An ItemStore containing all the items on the map.
      * @throws SlickException
      */
-    public static ArrayList<Item> createItems() throws SlickException {
+    public static ItemStore createItems(String file) throws SlickException {
 
-        String[] dataFileContent = GlobalHelper
-                .readTextDataFile(ITEM_LOCATIONS_FILE);
+        String[] dataFileContent = GlobalHelper.readTextDataFile(file);
 
-        ArrayList<Item> items = new ArrayList<Item>(dataFileContent.length);
+        ItemStore items = new ItemStore(dataFileContent.length);
 
         String[] parts;
         String name;
@@ -154,19 +283,42 @@ public abstract class Item extends RenderableObject {
      * itself. The update method for each item is then called. If the update
      * method returns true, that means the Item is signaling that something has
      * happened to it meaning that it needs to be removed from the map, to which
-     * we oblige.
+     * we oblige, letting the Item know it has been despawned.
      * 
      * @param mapItems
-     *            An ArrayList containing the items on the map.
+     *            The store containing the items on the map.
      * @param world
      *            The world object. This is passed so items can check for
      *            terrain collisions and such.
      */
-    public static void updateItems(ArrayList<Item> mapItems, World world) {
-        for (int i = 0; i < mapItems.size(); i++) {
-            if (mapItems.get(i).update(world)) {
-                mapItems.remove(i);
-                i--;
+    public static void updateItems(ItemStore mapItems, World world) {
+        int interval = world.getOffScreenItemInterval();
+        long tick = world.getTick();
+        Item item;
+        for (int i = 0; i < mapItems.getNumSlots(); i++) {
+            item = mapItems.get(i);
+            if (item != null) {
+                /*
+                 * Items off the screen are only updated on their turn when the
+                 * World is overloaded, catching up on the ticks they missed.
+                 * The turn goes by serial, not slot, as slots move whenever
+                 * an Item before them is removed.
+                 */
+                if (interval > 1
+                        && (tick + item.getSerial()) % interval != 0
+                        && !world.isOnScreen(item.getMapX(), item.getMapY())) {
+                    item.skippedTicks++;
+                    continue;
+                }
+                int ticks = 1 + item.skippedTicks;
+                item.skippedTicks = 0;
+                if (ticks == 1 ? item.update(world)
+                        : item.update(world, ticks)) {
+                    item.despawn();
+                    mapItems.remove(i);
+                } else {
+                    mapItems.updatePosition(i);
+                }
             }
         }
     }
@@ -188,25 +340,37 @@ public abstract class Item extends RenderableObject {
      * @param camY
      *            Current y-coordinate of the Camera.
      */
-    public static void renderItems(ArrayList<Item> mapItems, double camX,
+    public static void renderItems(ItemStore mapItems, double camX,
             double camY) {
-        for (Item item : mapItems) {
-            item.render(camX, camY);
+        Item item;
+        for (int i = 0; i < mapItems.getNumSlots(); i++) {
+            item = mapItems.get(i);
+            if (item != null) {
+                item.render(camX, camY);
+            }
         }
     }
 
     /**
      * This effect is held here in Item because it is common to both Oil and
-     * Tomato. Simply applies the acceleration and turning lock and
+     * Tomato. Simply starts the acceleration and turning lock and
      * angularModifier specified in the spec.
      * 
      * @param racer
      *            Racer to which the effect should be applied
      */
-    public void applyOilTomatoEffect(Racer racer) {
-        racer.setAngularModifier(OIL_TOMATO_ANGLULAR_MODIFIER);
-        racer.setRotateDir(1.0);
-        racer.setMoveDir(1.0);
+    public void startOilTomatoEffect(Racer racer) {
+        racer.startSpin(OIL_TOMATO_ANGLULAR_MODIFIER);
+    }
+
+    /**
+     * Ends the effect started by startOilTomatoEffect().
+     * 
+     * @param racer
+     *            Racer from which the effect should be removed
+     */
+    public void endOilTomatoEffect(Racer racer) {
+        racer.endSpin();
     }
 
 }
@@ -0,0 +1,203 @@
+import java.util.ArrayList;
+import org.newdawn.slick.Image;
+import org.newdawn.slick.SlickException;
+
+/**
+ * <h1>ItemPool</h1>
+ * <h2>Keeps a reusable supply of Items in their active forms</h2>
+ *
+ * Tomato projectiles and Oil slicks come and go constantly during a race.
+ * Rather than creating a new object (and loading a new sprite) every time one
+ * is fired, and leaving the old one for the garbage collector once it hits a
+ * wall or a Racer, the World keeps one of these pools for each. Items are
+ * taken out with acquire() when fired and handed back with release() when
+ * they leave the map, so in a long session no allocation happens at all once
+ * the pool has grown to the largest number in flight at once.
+ *
+ * Every Item in a pool shares the one sprite, loaded when the pool is created.
+ * Subclasses only need to say how a fresh Item is made, which happens up front
+ * when the pool is created and again only if the pool ever runs dry.
+ *
+ * @author Daniel Porteous porteousd 696965
+ *
+ * @param <T>
+ *            The type of Item held in the pool.
+ */
+public abstract class ItemPool<T extends Item> {
+
+    /** The sprite shared by every Item in the pool */
+    private Image sprite;
+
+    /** Items currently sitting in the pool waiting to be used */
+    private ArrayList<T> freeItems;
+
+    /**
+     * Every Item this pool has ever created, in order, each with its place in
+     * here as its serial
+     */
+    private ArrayList<T> createdItems;
+
+    /**
+     * Creates the pool, loading the shared sprite and filling the pool with
+     * the given number of Items straight away so that the first few uses
+     * during the race don't allocate.
+     *
+     * @param spriteFile
+     *            Path to the image used by every Item in the pool.
+     * @param initialSize
+     *            The number of Items to create up front.
+     * @throws SlickException
+     */
+    public ItemPool(String spriteFile, int initialSize)
+            throws SlickException {
+        sprite = Sprites.load(spriteFile);
+        freeItems = new ArrayList<T>(initialSize);
+        createdItems = new ArrayList<T>(initialSize);
+        for (int i = 0; i < initialSize; i++) {
+            freeItems.add(newItem());
+        }
+    }
+
+    /**
+     * Creates a new Item for the pool and gives it the next serial.
+     *
+     * @return The new Item.
+     */
+    private T newItem() {
+        T item = createItem(sprite);
+        item.setSerial(createdItems.size());
+        createdItems.add(item);
+        return item;
+    }
+
+    /**
+     * Creates a brand new Item for the pool. This is called from the
+     * constructor, so it mustn't rely on any state of the subclass.
+     *
+     * @param sprite
+     *            The already loaded sprite to give the Item.
+     * @return A new Item in its active form.
+     */
+    protected abstract T createItem(Image sprite);
+
+    /**
+     * Takes an Item out of the pool. If the pool has run dry, a new one is
+     * created, so the pool grows to fit the largest number in use at once.
+     *
+     * @return An Item ready to be placed on the map.
+     */
+    public T acquire() {
+        if (freeItems.isEmpty()) {
+            return newItem();
+        }
+        return freeItems.remove(freeItems.size() - 1);
+    }
+
+    /**
+     * Hands an Item back to the pool once it has left the map. The Item must
+     * not be used again by the caller after this.
+     *
+     * @param item
+     *            The Item to return.
+     */
+    public void release(T item) {
+        freeItems.add(item);
+    }
+
+    /**
+     * Copies the Items currently waiting in the pool into a list, in order,
+     * so the pool can later be put back the way it is now with
+     * restoreFree().
+     *
+     * @param saved
+     *            The list to copy into, which is cleared first.
+     * @return The number of Items the pool has created so far, to be given
+     *         back to restoreFree().
+     */
+    public int saveFree(ArrayList<T> saved) {
+        saved.clear();
+        // Adding one at a time, as addAll() copies the list into an array.
+        for (int i = 0; i < freeItems.size(); i++) {
+            saved.add(freeItems.get(i));
+        }
+        return createdItems.size();
+    }
+
+    /**
+     * Puts the pool back the way it was when saveFree() was called. Items
+     * created since then can't be anywhere in the restored World, so they go
+     * back in the pool too, behind the saved ones. They come out in the
+     * order they were created once the saved ones run out, just as they were
+     * created the first time, so the pool never grows past the most in use
+     * at once however often it is restored.
+     *
+     * @param saved
+     *            The list saveFree() copied into.
+     * @param numCreated
+     *            The number of Items saveFree() said had been created.
+     */
+    public void restoreFree(ArrayList<T> saved, int numCreated) {
+        freeItems.clear();
+        for (int i = createdItems.size() - 1; i >= numCreated; i--) {
+            freeItems.add(createdItems.get(i));
+        }
+        for (int i = 0; i < saved.size(); i++) {
+            freeItems.add(saved.get(i));
+        }
+    }
+
+    /**
+     * Makes the Items waiting in this pool the counterparts of those waiting
+     * in another, in the same order, as when a fork of the World is brought
+     * up to date with the World it was forked from. This pool creates any it
+     * doesn't have yet.
+     *
+     * @param other
+     *            The pool of the World this one's World was forked from.
+     */
+    public void copyFreeFrom(ItemPool<T> other) {
+        freeItems.clear();
+        for (int i = 0; i < other.freeItems.size(); i++) {
+            freeItems.add(getItem(other.freeItems.get(i).getSerial()));
+        }
+    }
+
+    /**
+     * Gets an Item by its serial, creating Items up to it if the pool hasn't
+     * made that many yet. Those created here aren't added to the free Items.
+     *
+     * @param serial
+     *            The serial of the Item.
+     * @return The Item.
+     */
+    public T getItem(int serial) {
+        while (createdItems.size() <= serial) {
+            newItem();
+        }
+        return createdItems.get(serial);
+    }
+
+    /**
+     * @param item
+     *            Any Item.
+     * @return True if the Item was created by this pool.
+     */
+    public boolean owns(Item item) {
+        int serial = item.getSerial();
+        return serial < createdItems.size() && createdItems.get(serial) == item;
+    }
+
+    /**
+     * @return The number of Items currently waiting in the pool.
+     */
+    public int getNumFree() {
+        return freeItems.size();
+    }
+
+    /**
+     * @return The total number of Items this pool has created.
+     */
+    public int getNumCreated() {
+        return createdItems.size();
+    }
+}
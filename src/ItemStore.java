@@ -0,0 +1,231 @@
+/**
+ * <h1>ItemStore</h1>
+ * <h2>Holds the Items on the map, with cheap removal during a tick</h2>
+ *
+ * Items are removed from the map all the time during a tick, whether picked up
+ * by a Racer or splattered against a wall. Removing from the middle of an
+ * ArrayList shifts everything after it down one, so clearing lots of items in
+ * one tick gets expensive, and the indices of the remaining items change while
+ * we're still looping over them.
+ *
+ * Instead, removing an Item here just leaves an empty slot (null) behind in
+ * constant time. The slots are only closed up by compact(), which the World
+ * calls once at the end of every update. This gives a simple contract for the
+ * duration of a tick:
+ * <ul>
+ * <li>An Item never changes slot, so loops over the slots can remove as they
+ * go without adjusting their index.
+ * <li>Removed slots read as null and should be skipped.
+ * <li>Items added during the tick go on the end, so a loop already in
+ * progress will still reach them.
+ * </ul>
+ * Compaction keeps the remaining Items in the order they were added.
+ *
+ * The position of the Item in each slot is also kept in a pair of packed
+ * coordinate arrays, so that Racers can check their distance to every Item
+ * with Proximity in one pass. Removed slots have NaN coordinates so they
+ * never match. Anything that moves an Item already on the map must call
+ * updatePosition() afterwards, which Item.updateItems() does.
+ *
+ * @author Daniel Porteous porteousd 696965
+ */
+public class ItemStore {
+
+    /** The slots holding the Items, null where one has been removed */
+    private Item[] items;
+
+    /** Position of the Item in each slot, NaN for removed slots */
+    private double[] xs;
+    private double[] ys;
+
+    /** Number of slots in use, including those that have been removed */
+    private int numSlots;
+
+    /** Number of slots that have been removed since the last compaction */
+    private int numRemoved;
+
+    /**
+     * Creates an empty store.
+     *
+     * @param initialCapacity
+     *            Number of Items that can be held before the store has to
+     *            grow.
+     */
+    public ItemStore(int initialCapacity) {
+        items = new Item[Math.max(initialCapacity, 1)];
+        xs = new double[items.length];
+        ys = new double[items.length];
+        numSlots = 0;
+        numRemoved = 0;
+    }
+
+    /**
+     * Adds an Item to the end of the store, growing the store if it is full.
+     *
+     * @param item
+     *            The Item to add.
+     */
+    public void add(Item item) {
+        if (numSlots == items.length) {
+            Item[] grown = new Item[items.length * 2];
+            System.arraycopy(items, 0, grown, 0, numSlots);
+            items = grown;
+            double[] grownXs = new double[items.length];
+            double[] grownYs = new double[items.length];
+            System.arraycopy(xs, 0, grownXs, 0, numSlots);
+            System.arraycopy(ys, 0, grownYs, 0, numSlots);
+            xs = grownXs;
+            ys = grownYs;
+        }
+        items[numSlots] = item;
+        xs[numSlots] = item.getMapX();
+        ys[numSlots] = item.getMapY();
+        numSlots++;
+    }
+
+    /**
+     * Removes the Item in the given slot, leaving the slot empty until the
+     * next compaction.
+     *
+     * @param slot
+     *            The slot to empty.
+     */
+    public void remove(int slot) {
+        if (items[slot] != null) {
+            items[slot] = null;
+            xs[slot] = Double.NaN;
+            ys[slot] = Double.NaN;
+            numRemoved++;
+        }
+    }
+
+    /**
+     * Copies the current position of the Item in a slot into the packed
+     * coordinates, after the Item has moved.
+     *
+     * @param slot
+     *            The slot of the Item that moved.
+     */
+    public void updatePosition(int slot) {
+        xs[slot] = items[slot].getMapX();
+        ys[slot] = items[slot].getMapY();
+    }
+
+    /**
+     * Finds the next Item at or after a slot that is strictly closer than a
+     * radius to a point, using the packed coordinates. Removed slots never
+     * match.
+     *
+     * @param from
+     *            The slot to start searching from.
+     * @param x
+     *            The x-coordinate to measure from.
+     * @param y
+     *            The y-coordinate to measure from.
+     * @param radius
+     *            The radius to compare against.
+     * @return The slot of the next Item in range, or -1 if there is none.
+     */
+    public int nextWithin(int from, double x, double y, double radius) {
+        return Proximity.nextWithin(xs, ys, from, numSlots, x, y, radius);
+    }
+
+    /**
+     * Gets the Item in a slot.
+     *
+     * @param slot
+     *            The slot to look in, between 0 and getNumSlots() - 1.
+     * @return The Item in the slot, or null if it has been removed.
+     */
+    public Item get(int slot) {
+        return items[slot];
+    }
+
+    /**
+     * @return The number of slots to loop over, including removed ones.
+     */
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    /**
+     * @return The number of Items actually on the map.
+     */
+    public int getNumItems() {
+        return numSlots - numRemoved;
+    }
+
+    /**
+     * Makes this store an exact copy of another, slot for slot, as when a
+     * World is saved or rolled back. The Items themselves are shared, not
+     * copied, so anything about them that changes must be saved separately.
+     *
+     * @param other
+     *            The store to copy from.
+     */
+    public void copyFrom(ItemStore other) {
+        if (items.length < other.numSlots) {
+            items = new Item[other.items.length];
+            xs = new double[items.length];
+            ys = new double[items.length];
+        }
+        System.arraycopy(other.items, 0, items, 0, other.numSlots);
+        System.arraycopy(other.xs, 0, xs, 0, other.numSlots);
+        System.arraycopy(other.ys, 0, ys, 0, other.numSlots);
+        // Clearing any slots left over from before, as compact() does.
+        for (int i = other.numSlots; i < numSlots; i++) {
+            items[i] = null;
+            xs[i] = Double.NaN;
+            ys[i] = Double.NaN;
+        }
+        numSlots = other.numSlots;
+        numRemoved = other.numRemoved;
+    }
+
+    /**
+     * Makes this store a copy of one in the World that this store's World was
+     * forked from, slot for slot, but holding the fork's own counterpart of
+     * each Item rather than the Item itself.
+     *
+     * @param other
+     *            The store to copy from.
+     * @param fork
+     *            The World this store belongs to.
+     */
+    public void copyCounterpartsFrom(ItemStore other, World fork) {
+        copyFrom(other);
+        for (int i = 0; i < numSlots; i++) {
+            if (items[i] != null) {
+                items[i] = fork.getCounterpart(items[i]);
+            }
+        }
+    }
+
+    /**
+     * Closes up the slots left by removed Items in a single pass, keeping the
+     * remaining Items in order. Should only be called once nothing is looping
+     * over the store, which in practice means at the end of a tick.
+     */
+    public void compact() {
+        if (numRemoved == 0) {
+            return;
+        }
+        int kept = 0;
+        for (int i = 0; i < numSlots; i++) {
+            if (items[i] != null) {
+                items[kept] = items[i];
+                xs[kept] = xs[i];
+                ys[kept] = ys[i];
+                kept++;
+            }
+        }
+        // Clearing the leftover slots so the removed Items can be collected.
+        for (int i = kept; i < numSlots; i++) {
+            items[i] = null;
+            xs[i] = Double.NaN;
+            ys[i] = Double.NaN;
+        }
+        numSlots = kept;
+        numRemoved = 0;
+    }
+}
@@ -0,0 +1,213 @@
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <h1>LockstepLoopback</h1>
+ * <h2>Runs a whole networked race on one machine to test lockstep</h2>
+ *
+ * Starts a LockstepSession and a headless World for every player, all talking
+ * to each other over loopback through SimulatedLinks, and drives every player
+ * with its own made up input in real time. Afterwards it checks that every
+ * copy of the race went through exactly the same states, by comparing World
+ * checksums taken at regular ticks, and reports how much each player sent.
+ *
+ * The arguments, all optional, are the number of players, the tick rate, the
+ * latency and jitter in milliseconds, the fraction of packets lost, how many
+ * seconds to play for, and "rollback" to run each World ahead of the others
+ * with a RollbackSession instead of waiting on their inputs. By default that
+ * is 8 players at 1000 ticks per second with 50 +/- 20 ms of latency and 10%
+ * loss for 10 seconds, in lockstep. With rollback, the copies of the race are
+ * only compared once every input has arrived at the end, since until then
+ * each may be running on guesses.
+ *
+ * @author Daniel Porteous porteousd 696965
+ */
+public class LockstepLoopback {
+
+    /** How often each session sends its inputs, in milliseconds */
+    private static final int SEND_INTERVAL_MILLIS = 10;
+
+    /** Number of ticks between World checksums being compared */
+    private static final int CHECK_INTERVAL = 250;
+
+    /** Time allowed at the end for the last inputs to get through */
+    private static final int DRAIN_MILLIS = 2000;
+
+    /** Input delay used with rollback, in ticks */
+    private static final int ROLLBACK_INPUT_DELAY = 1;
+
+    /** Screen size the Worlds' cameras are set up for */
+    private static final int VIEW_WIDTH = 800;
+    private static final int VIEW_HEIGHT = 600;
+
+    /** Only a main method here, so no instances. */
+    private LockstepLoopback() {
+    }
+
+    /**
+     * Runs the race and prints the results.
+     *
+     * @param args
+     *            Players, tick rate, latency, jitter, loss, seconds and
+     *            "rollback", all optional.
+     * @throws Exception
+     *             If the sockets or Worlds can't be set up.
+     */
+    public static void main(String[] args) throws Exception {
+        int numPlayers = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int tickRate = args.length > 1 ? Integer.parseInt(args[1])
+                : World.DEFAULT_TICK_RATE;
+        double latency = args.length > 2 ? Double.parseDouble(args[2]) : 50;
+        double jitter = args.length > 3 ? Double.parseDouble(args[3]) : 20;
+        double loss = args.length > 4 ? Double.parseDouble(args[4]) : 0.1;
+        int seconds = args.length > 5 ? Integer.parseInt(args[5]) : 10;
+        boolean rollback = args.length > 6 && args[6].equals("rollback");
+
+        Sprites.setHeadless(true);
+        double tickMillis = 1000.0 / tickRate;
+
+        /*
+         * The input delay has to cover the worst delay a packet can see, plus
+         * waiting for the next send, plus another send in case one is lost.
+         */
+        int lockstepDelay = (int) Math.ceil(
+                (latency + jitter + 2 * SEND_INTERVAL_MILLIS) / tickMillis) + 1;
+        int inputDelay = rollback ? ROLLBACK_INPUT_DELAY : lockstepDelay;
+
+        /*
+         * With rollback the same delay is instead how far the World may run
+         * ahead, with room to spare for a lost packet or two.
+         */
+        int maxRollbackTicks = Integer.highestOneBit(4 * lockstepDelay);
+
+        LockstepSession[] sessions = new LockstepSession[numPlayers];
+        SimulatedLink[] links = new SimulatedLink[numPlayers];
+        World[] worlds = new World[numPlayers];
+        RollbackSession[] rollbacks = new RollbackSession[numPlayers];
+        for (int i = 0; i < numPlayers; i++) {
+            links[i] = new SimulatedLink(latency, jitter, loss, i);
+            sessions[i] = new LockstepSession(i, numPlayers,
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                    inputDelay, links[i]);
+            worlds[i] = new World(VIEW_WIDTH, VIEW_HEIGHT, tickRate,
+                    numPlayers, i);
+            if (rollback) {
+                rollbacks[i] = new RollbackSession(sessions[i], worlds[i],
+                        maxRollbackTicks);
+            }
+        }
+        for (LockstepSession session : sessions) {
+            for (int j = 0; j < numPlayers; j++) {
+                session.setPeerAddress(j, sessions[j].getLocalAddress());
+            }
+        }
+
+        int totalTicks = seconds * tickRate;
+        long[][] checksums = new long[numPlayers][totalTicks / CHECK_INTERVAL
+                + 1];
+        Random[] drivers = new Random[numPlayers];
+        double[] rotateDirs = new double[numPlayers];
+        for (int i = 0; i < numPlayers; i++) {
+            drivers[i] = new Random(1000 + i);
+        }
+
+        long start = System.nanoTime();
+        long tickNanos = (long) (tickMillis * 1e6);
+        long sendEvery = Math.max(1,
+                Math.round(SEND_INTERVAL_MILLIS / tickMillis));
+        long drainTicks = Math.round(DRAIN_MILLIS / tickMillis);
+
+        for (long step = 0; step < totalTicks + drainTicks; step++) {
+            LockSupport.parkNanos(start + step * tickNanos - System.nanoTime());
+
+            for (int i = 0; i < numPlayers; i++) {
+                // Driving forwards, changing steering every now and then.
+                if (step < totalTicks) {
+                    if (drivers[i].nextInt(300) == 0) {
+                        rotateDirs[i] = drivers[i].nextInt(3) - 1;
+                    }
+                    boolean useItem = drivers[i].nextInt(2000) == 0;
+                    while (sessions[i].submitLocalInput(rotateDirs[i], 1.0,
+                            useItem)) {
+                        useItem = false;
+                    }
+                }
+                sessions[i].receive();
+
+                /*
+                 * Running the ticks due by now one at a time, so the World
+                 * can be checked on the right ticks.
+                 */
+                long due = Math.min(step + 1, totalTicks);
+                if (rollback) {
+                    rollbacks[i].advance(
+                            (int) (due - worlds[i].getTick()));
+                }
+                while (!rollback && sessions[i].getNextTick() < due
+                        && sessions[i].advance(worlds[i], 1) == 1) {
+                    long tick = sessions[i].getNextTick();
+                    if (tick % CHECK_INTERVAL == 0) {
+                        checksums[i][(int) (tick / CHECK_INTERVAL)] = worlds[i]
+                                .getStateChecksum();
+                    }
+                }
+                if (step % sendEvery == 0) {
+                    sessions[i].send();
+                }
+            }
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        long reached = Long.MAX_VALUE;
+        for (int i = 0; i < numPlayers; i++) {
+            reached = Math.min(reached, rollback
+                    ? rollbacks[i].getConfirmedTick()
+                    : sessions[i].getNextTick());
+        }
+        int mismatches = 0;
+        if (rollback && reached == totalTicks) {
+            for (int i = 1; i < numPlayers; i++) {
+                if (worlds[i].getStateChecksum() != worlds[0]
+                        .getStateChecksum()) {
+                    mismatches++;
+                }
+            }
+        }
+        for (int check = 1; !rollback
+                && check <= reached / CHECK_INTERVAL; check++) {
+            for (int i = 1; i < numPlayers; i++) {
+                if (checksums[i][check] != checksums[0][check]) {
+                    mismatches++;
+                }
+            }
+        }
+
+        System.out.println(numPlayers + " players, " + tickRate
+                + " ticks/s, input delay " + inputDelay + " ticks, "
+                + latency + " +/- " + jitter + " ms, " + loss * 100
+                + "% loss");
+        System.out.println("Ticks run by every player: " + reached + " of "
+                + totalTicks + ", checksum mismatches: " + mismatches);
+        for (int i = 0; i < numPlayers; i++) {
+            System.out.printf("Player %d: %.0f packets/s, %.0f bytes/s sent, "
+                    + "%d dropped, %d ticks stalled%n", i,
+                    sessions[i].getPacketsSent() / elapsed,
+                    sessions[i].getBytesSent() / elapsed,
+                    links[i].getNumDropped(), rollback
+                            ? rollbacks[i].getNumStalls()
+                            : sessions[i].getNumStalls());
+            if (rollback) {
+                System.out.printf("    %.1f rollbacks/s, %d ticks run again, "
+                        + "%.1f ms spent, %d of %d ticks predicted%n",
+                        rollbacks[i].getNumRollbacks() / elapsed,
+                        rollbacks[i].getTicksResimulated(),
+                        rollbacks[i].getRollbackNanos() / 1e6,
+                        rollbacks[i].getTicksPredicted(), totalTicks);
+            }
+            sessions[i].close();
+            worlds[i].close();
+        }
+    }
+}
@@ -0,0 +1,483 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import org.newdawn.slick.SlickException;
+
+/**
+ * <h1>LockstepSession</h1>
+ * <h2>Keeps one machine's copy of a networked race in step with the others</h2>
+ *
+ * In a networked race every machine runs its own World, and the only thing
+ * sent between them is each player's input. Since World.update() always gives
+ * the same result from the same inputs, every copy of the race stays the same
+ * as long as each tick is run with every player's input for that tick. A
+ * session therefore only runs a tick once it has heard from everyone, and
+ * stalls otherwise. This is deterministic lockstep.
+ *
+ * To hide the time inputs take to arrive, the local player's input is put in
+ * place inputDelay ticks ahead of the tick being run. Every machine starts
+ * with the first inputDelay ticks of every player's input already filled in
+ * as no input at all, so nobody has to wait for those.
+ *
+ * Inputs are sent over UDP, directly to every other player. Each packet holds
+ * every local input the receiver hasn't yet confirmed having, so a lost packet
+ * doesn't need resending; the next one carries the same inputs again. Inputs
+ * hardly ever change from one tick to the next, so they are sent as runs of
+ * identical input, each a count and a byte, meaning a packet covering hundreds
+ * of ticks of steady input is only a few bytes. Each packet also tells the
+ * receiver how far through its own inputs the sender has got, so it can stop
+ * sending those. A packet looks like:
+ *
+ * type, sender, ack + 1, first tick, number of runs, (length, input)...
+ *
+ * with every number but the first two bytes written as a VarInt.
+ *
+ * Sending can be done through a SimulatedLink to test the session on
+ * loopback under latency and packet loss.
+ *
+ * @author Daniel Porteous porteousd 696965
+ */
+public class LockstepSession {
+
+    /** First byte of every packet, so stray packets can be ignored */
+    private static final byte PACKET_TYPE = 0x4C;
+
+    /** Number of ticks of input each history can hold */
+    private static final int HISTORY_CAPACITY = 1 << 14;
+
+    /** Most runs of input sent in one packet, keeping it under the MTU */
+    private static final int MAX_RUNS_PER_PACKET = 256;
+
+    /** Size of the buffers packets are built in and received into */
+    private static final int MAX_PACKET_SIZE = 2048;
+
+    /** Index of the player on this machine */
+    private int localPlayer;
+
+    /** Number of ticks ahead that local input is put in place */
+    private int inputDelay;
+
+    /** Addresses of every player, by index */
+    private SocketAddress[] addresses;
+
+    /** The socket packets are sent and received on */
+    private DatagramChannel channel;
+
+    /** Conditions packets are sent under, or null to send them directly */
+    private SimulatedLink link;
+
+    /** Every player's inputs, by index */
+    private InputHistory[] histories;
+
+    /** The last local tick each player has confirmed having the input for */
+    private long[] ackedByPeer;
+
+    /** The next tick to run */
+    private long nextTick;
+
+    /** Inputs for the tick being run, passed on to World.update() */
+    private double[] rotateDirs;
+    private double[] moveDirs;
+    private boolean[] useItems;
+
+    /** Buffers to build and receive packets in */
+    private ByteBuffer sendBuffer;
+    private ByteBuffer receiveBuffer;
+
+    /** Running totals, for measuring bandwidth */
+    private long packetsSent;
+    private long bytesSent;
+    private long packetsReceived;
+    private long bytesReceived;
+
+    /** Number of times advance() couldn't run a tick it was asked to */
+    private long numStalls;
+
+    /**
+     * Creates a session and opens its socket. The addresses of the other
+     * players must be given with setPeerAddress() before sending.
+     *
+     * @param localPlayer
+     *            Index of the player on this machine.
+     * @param numPlayers
+     *            Number of players in the race.
+     * @param bindAddress
+     *            Address to receive packets on.
+     * @param inputDelay
+     *            Number of ticks ahead to put local input in place, at least
+     *            1. This should cover the time a packet takes to arrive.
+     * @param link
+     *            Conditions to send packets under, or null to send them
+     *            directly.
+     * @throws IOException
+     *             If the socket can't be opened.
+     */
+    public LockstepSession(int localPlayer, int numPlayers,
+            InetSocketAddress bindAddress, int inputDelay, SimulatedLink link)
+            throws IOException {
+        if (inputDelay < 1 || inputDelay >= HISTORY_CAPACITY) {
+            throw new IllegalArgumentException(
+                    "LockstepSession: input delay out of range");
+        }
+        this.localPlayer = localPlayer;
+        this.inputDelay = inputDelay;
+        this.link = link;
+        channel = DatagramChannel.open();
+        channel.configureBlocking(false);
+        channel.bind(bindAddress);
+
+        addresses = new SocketAddress[numPlayers];
+        histories = new InputHistory[numPlayers];
+        ackedByPeer = new long[numPlayers];
+        for (int i = 0; i < numPlayers; i++) {
+            histories[i] = new InputHistory(HISTORY_CAPACITY);
+            for (int tick = 0; tick < inputDelay; tick++) {
+                histories[i].put(tick, PlayerInput.NONE);
+            }
+            ackedByPeer[i] = inputDelay - 1;
+        }
+        nextTick = 0;
+
+        rotateDirs = new double[numPlayers];
+        moveDirs = new double[numPlayers];
+        useItems = new boolean[numPlayers];
+        sendBuffer = ByteBuffer.allocate(MAX_PACKET_SIZE);
+        receiveBuffer = ByteBuffer.allocate(MAX_PACKET_SIZE);
+    }
+
+    /**
+     * Sets where to send a player's packets.
+     *
+     * @param player
+     *            Index of the player.
+     * @param address
+     *            The address their session is bound to.
+     */
+    public void setPeerAddress(int player, SocketAddress address) {
+        addresses[player] = address;
+    }
+
+    /**
+     * @return The address this session is receiving packets on.
+     * @throws IOException
+     */
+    public SocketAddress getLocalAddress() throws IOException {
+        return channel.getLocalAddress();
+    }
+
+    /**
+     * Puts the local player's input in place for the next tick due, which is
+     * inputDelay ticks after the next tick to run. If the race is stalled
+     * waiting on other players, the local input is already that far ahead,
+     * and the input is dropped.
+     *
+     * Once a stall clears, the race runs several ticks at once to catch up,
+     * and the local input needs to catch up with it. The caller should keep
+     * submitting its current input each frame until this returns false, or
+     * every stall would leave the whole race permanently further behind.
+     *
+     * @param rotateDir
+     *            The player's direction of rotation (-1, 0 or 1).
+     * @param moveDir
+     *            The player's movement in the car's axis (-1, 0 or 1).
+     * @param useItem
+     *            True if the player is using their held item.
+     * @return True if the input was put in place.
+     */
+    public boolean submitLocalInput(double rotateDir, double moveDir,
+            boolean useItem) {
+        InputHistory local = histories[localPlayer];
+        long tick = local.getConfirmed() + 1;
+        if (tick > nextTick + inputDelay) {
+            return false;
+        }
+        return local.put(tick,
+                PlayerInput.encode(rotateDir, moveDir, useItem));
+    }
+
+    /**
+     * Sends every other player the local inputs they haven't confirmed having
+     * yet, along with how far through their inputs this session has got.
+     *
+     * @throws IOException
+     */
+    public void send() throws IOException {
+        InputHistory local = histories[localPlayer];
+        for (int peer = 0; peer < addresses.length; peer++) {
+            if (peer == localPlayer || addresses[peer] == null) {
+                continue;
+            }
+            long first = ackedByPeer[peer] + 1;
+            long last = local.getConfirmed();
+
+            sendBuffer.clear();
+            sendBuffer.put(PACKET_TYPE);
+            sendBuffer.put((byte) localPlayer);
+            VarInt.write(sendBuffer, histories[peer].getConfirmed() + 1);
+            VarInt.write(sendBuffer, first);
+
+            /*
+             * Leaving room for the number of runs, which isn't known until
+             * they've been written, as a fixed two byte VarInt.
+             */
+            int countPosition = sendBuffer.position();
+            sendBuffer.position(countPosition + 2);
+            int numRuns = 0;
+            long tick = first;
+            while (tick <= last && numRuns < MAX_RUNS_PER_PACKET) {
+                byte input = local.get(tick);
+                long runEnd = tick + 1;
+                while (runEnd <= last && local.get(runEnd) == input) {
+                    runEnd++;
+                }
+                VarInt.write(sendBuffer, runEnd - tick);
+                sendBuffer.put(input);
+                numRuns++;
+                tick = runEnd;
+            }
+            sendBuffer.put(countPosition, (byte) ((numRuns & 0x7F) | 0x80));
+            sendBuffer.put(countPosition + 1, (byte) (numRuns >>> 7));
+
+            sendBuffer.flip();
+            packetsSent++;
+            bytesSent += sendBuffer.remaining();
+            if (link != null) {
+                link.send(sendBuffer, addresses[peer]);
+            } else {
+                channel.send(sendBuffer, addresses[peer]);
+            }
+        }
+    }
+
+    /**
+     * Takes in every packet that has arrived, and sends on any held back by
+     * the simulated link whose time has come.
+     *
+     * @throws IOException
+     */
+    public void receive() throws IOException {
+        if (link != null) {
+            link.flush(channel);
+        }
+        while (true) {
+            receiveBuffer.clear();
+            if (channel.receive(receiveBuffer) == null) {
+                return;
+            }
+            receiveBuffer.flip();
+            packetsReceived++;
+            bytesReceived += receiveBuffer.remaining();
+            read(receiveBuffer);
+        }
+    }
+
+    /**
+     * Reads the inputs and acknowledgement out of a packet. Anything that
+     * isn't a well formed packet from another player is ignored.
+     *
+     * @param packet
+     *            The received packet.
+     */
+    private void read(ByteBuffer packet) {
+        try {
+            if (packet.get() != PACKET_TYPE) {
+                return;
+            }
+            int sender = packet.get();
+            if (sender < 0 || sender >= histories.length
+                    || sender == localPlayer) {
+                return;
+            }
+            long acked = VarInt.read(packet) - 1;
+            ackedByPeer[sender] = Math.max(ackedByPeer[sender], acked);
+
+            long tick = VarInt.read(packet);
+            long numRuns = VarInt.read(packet);
+            for (long run = 0; run < numRuns; run++) {
+                long length = VarInt.read(packet);
+                byte input = packet.get();
+                for (long i = 0; i < length; i++) {
+                    if (!histories[sender].put(tick, input)) {
+                        return;
+                    }
+                    tick++;
+                }
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            // A truncated or garbled packet; its inputs will come again.
+        }
+    }
+
+    /**
+     * @return True if every player's input for the next tick has arrived.
+     */
+    public boolean canAdvance() {
+        for (InputHistory history : histories) {
+            if (history.getConfirmed() < nextTick) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Runs as many ticks as every player's input has arrived for, up to a
+     * limit, and lets go of inputs that are no longer needed.
+     *
+     * @param world
+     *            This machine's copy of the race.
+     * @param maxTicks
+     *            The most ticks to run.
+     * @return The number of ticks run.
+     * @throws SlickException
+     */
+    public int advance(World world, int maxTicks) throws SlickException {
+        int ran = 0;
+        while (ran < maxTicks && canAdvance()) {
+            for (int i = 0; i < histories.length; i++) {
+                byte input = histories[i].get(nextTick);
+                rotateDirs[i] = PlayerInput.getRotateDir(input);
+                moveDirs[i] = PlayerInput.getMoveDir(input);
+                useItems[i] = PlayerInput.getUseItem(input);
+            }
+            world.update(rotateDirs, moveDirs, useItems);
+            nextTick++;
+            ran++;
+        }
+        if (ran < maxTicks) {
+            numStalls++;
+        }
+        release(nextTick);
+        return ran;
+    }
+
+    /**
+     * Lets go of inputs that are no longer needed. Other players' inputs are
+     * finished with once every tick using them has run for good, but local
+     * ones must be kept until every other player has them too.
+     *
+     * @param oldestNeeded
+     *            The oldest tick whose inputs may still be asked for.
+     */
+    private void release(long oldestNeeded) {
+        long oldestUnacked = oldestNeeded;
+        for (int i = 0; i < histories.length; i++) {
+            if (i != localPlayer) {
+                histories[i].release(oldestNeeded);
+                oldestUnacked = Math.min(oldestUnacked, ackedByPeer[i] + 1);
+            }
+        }
+        histories[localPlayer].release(oldestUnacked);
+    }
+
+    /**
+     * For running the World some other way than advance(), such as ahead of
+     * the other players' inputs with a RollbackSession. Sets the next tick to
+     * run, which decides how far ahead local input is taken, and lets go of
+     * inputs before the oldest tick that may still be needed.
+     *
+     * @param nextTick
+     *            The next tick the World will run.
+     * @param oldestNeeded
+     *            The oldest tick whose inputs may still be asked for with
+     *            getInput().
+     */
+    public void setTicks(long nextTick, long oldestNeeded) {
+        this.nextTick = nextTick;
+        release(oldestNeeded);
+    }
+
+    /**
+     * Gets a player's input for a tick, which must have arrived and not yet
+     * been let go of.
+     *
+     * @param player
+     *            Index of the player.
+     * @param tick
+     *            The tick to get the input for.
+     * @return The packed input.
+     */
+    public byte getInput(int player, long tick) {
+        return histories[player].get(tick);
+    }
+
+    /**
+     * @param player
+     *            Index of the player.
+     * @return The last tick up to which every one of the player's inputs has
+     *         arrived.
+     */
+    public long getConfirmed(int player) {
+        return histories[player].getConfirmed();
+    }
+
+    /**
+     * @return The number of players in the race.
+     */
+    public int getNumPlayers() {
+        return histories.length;
+    }
+
+    /**
+     * @return Index of the player on this machine.
+     */
+    public int getLocalPlayer() {
+        return localPlayer;
+    }
+
+    /**
+     * @return The next tick to run.
+     */
+    public long getNextTick() {
+        return nextTick;
+    }
+
+    /**
+     * @return The number of packets sent so far.
+     */
+    public long getPacketsSent() {
+        return packetsSent;
+    }
+
+    /**
+     * @return The number of bytes of packets sent so far, not counting UDP
+     *         and IP headers.
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * @return The number of packets received so far.
+     */
+    public long getPacketsReceived() {
+        return packetsReceived;
+    }
+
+    /**
+     * @return The number of bytes of packets received so far.
+     */
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    /**
+     * @return The number of times advance() ran out of input before running
+     *         every tick it was asked to.
+     */
+    public long getNumStalls() {
+        return numStalls;
+    }
+
+    /**
+     * Closes the socket.
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,355 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.newdawn.slick.SlickException;
+
+/**
+ * <h1>LookaheadEnemy</h1>
+ * <h2>An Enemy that tries out what to do before doing it</h2>
+ *
+ * Like the Elephant, whose kart it drives, the LookaheadEnemy follows the
+ * waypoints. But every PLAN_MILLIS it stops to consider a handful
+ * of plans, each a direction to steer in and how long for before going back
+ * to the waypoints, and tries every one of them out HORIZON_MILLIS into the
+ * future on a fork of the World. Whichever gets it furthest along the track,
+ * allowing for how fast it is going by then, is the one it goes with. So it
+ * steers around a slick it would otherwise drive into, or off a wall it is
+ * stuck against, where the Elephant would just keep heading for the next
+ * waypoint.
+ *
+ * Each plan has a fork of its own, made the first time the Enemy plans and
+ * brought back in line with the race with World.copyFrom() every time after,
+ * which only copies the Racers and Items. The plans are tried out in
+ * parallel on a pool of threads. In a plan, every player is assumed to keep
+ * doing what they did last tick.
+ *
+ * At the default 1000 ticks per second, the 7 plans 400 ticks ahead come to
+ * 2800 ticks of a fork each time, a few milliseconds on one core every sixth
+ * frame at 60 frames per second, which is well within a frame. The plan
+ * chosen only depends on the state of the race, so it is the same on every
+ * copy of a networked race, and it is saved with the World so rolling back
+ * puts it back too.
+ *
+ * @author Daniel Porteous porteousd 696965
+ */
+public class LookaheadEnemy extends Enemy {
+
+    /** The sprite that the LookaheadEnemy uses, also the Elephant's */
+    private final String KART_NAME = "elephant.png";
+
+    /** How often a new plan is made, in milliseconds of game time */
+    private static final double PLAN_MILLIS = 100;
+
+    /** How far ahead each plan is tried out, in milliseconds of game time */
+    private static final double HORIZON_MILLIS = 400;
+
+    /**
+     * How much further on, in milliseconds at its speed by then, the Enemy
+     * is counted as being at the end of a plan. Without this, a plan that
+     * ends up a little further along but stuck against a wall would beat one
+     * that is going flat out.
+     */
+    private static final double MOMENTUM_MILLIS = 500;
+
+    /**
+     * The plans considered each time, each a direction to steer in and for
+     * how many milliseconds. The first, steering for no time at all, is just
+     * following the waypoints, and wins any tie.
+     */
+    private static final double[][] PLANS = { { 0, 0 }, { -1, 50 },
+            { 1, 50 }, { -1, 150 }, { 1, 150 }, { -1, 300 }, { 1, 300 } };
+
+    /** The direction the current plan steers in */
+    private double planRotateDir;
+
+    /** The number of ticks left to steer for before following waypoints */
+    private int planTicksLeft;
+
+    /** Number of threads to plan on, or 0 if this Enemy never plans */
+    private int numThreads;
+
+    /** The threads the plans are tried out on, if there is more than one */
+    private ExecutorService pool;
+
+    /** The fork of the World each plan is tried out on */
+    private World[] forks;
+
+    /** Each player's input while a plan is tried out, by plan */
+    private double[][] rotateDirs;
+    private double[][] moveDirs;
+    private boolean[][] useItems;
+
+    /** Distance along the track to each waypoint from the first */
+    private double[] trackDistances;
+
+    /** Ticks between plans, and the ticks each plan is tried out for */
+    private int planTicks;
+    private int horizonTicks;
+
+    /**
+     * Sets the LookaheadEnemy's location and sprite.
+     *
+     * @param startX
+     *            In pixels. Horizontal x-coordinate of its place on the grid.
+     * @param startY
+     *            In pixels. Vertical y-coordinate of its place on the grid.
+     * @param numThreads
+     *            The number of threads to try plans out on, or 0 for one
+     *            that never plans but steers as it is told, as in a fork.
+     * @throws SlickException
+     */
+    public LookaheadEnemy(double startX, double startY, int numThreads)
+            throws SlickException {
+        super(startX, startY);
+        setSprite(Sprites.load(
+                ASSETS_PATH + "/" + getKartsPath() + "/" + KART_NAME));
+        if (numThreads < 0) {
+            throw new IllegalArgumentException(
+                    "LookaheadEnemy: number of threads can't be negative");
+        }
+        this.numThreads = numThreads;
+        planRotateDir = 0.0;
+        planTicksLeft = 0;
+    }
+
+    /**
+     * @return A LookaheadEnemy for a fork of the World, which steers as the
+     *         plan being tried out tells it to rather than planning itself.
+     * @throws SlickException
+     */
+    public Enemy fork() throws SlickException {
+        return new LookaheadEnemy(getMapX(), getMapY(), 0);
+    }
+
+    /**
+     * Stops the threads the plans are tried out on, and closes the forks.
+     * 
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (pool != null) {
+            pool.shutdownNow();
+            pool = null;
+        }
+        if (forks != null) {
+            for (World fork : forks) {
+                fork.close();
+            }
+        }
+    }
+
+    /**
+     * Follows the waypoints, unless the current plan says to steer some other
+     * way for a while yet.
+     *
+     * @param waypoints
+     *            The waypoints that the Enemy will follow.
+     * @param player
+     *            Required as is defined by abstract method, but not used here.
+     */
+    public void determineBehaviour(double[][] waypoints, Player player) {
+        followWaypoints(waypoints);
+        if (planTicksLeft > 0) {
+            setRotateDir(planRotateDir);
+            planTicksLeft--;
+        }
+    }
+
+    /**
+     * Every PLAN_MILLIS, tries out each of the plans on a fork of the World
+     * and goes with the one that gets furthest along the track, allowing for
+     * the speed it ends up going. Nothing is done once over the line, or by
+     * an Enemy that never plans.
+     *
+     * @param world
+     *            The World the Enemy is racing in.
+     * @throws SlickException
+     */
+    public void plan(World world) throws SlickException {
+        if (numThreads == 0 || getMapY() < world.getFinishY()) {
+            return;
+        }
+        if (forks == null) {
+            createForks(world);
+        }
+        // Planning less often too while the World is overloaded.
+        if (world.getTick() % (planTicks * world.getAiThinkInterval()) != 0) {
+            return;
+        }
+
+        RacerStates states = world.getRacerStates();
+        for (int i = 0; i < PLANS.length; i++) {
+            for (int j = 0; j < world.getNumPlayers(); j++) {
+                rotateDirs[i][j] = states.rotateDir[j];
+                moveDirs[i][j] = states.moveDir[j];
+            }
+        }
+
+        double[] progress = new double[PLANS.length];
+        if (pool == null) {
+            for (int i = 0; i < PLANS.length; i++) {
+                progress[i] = tryOut(world, i);
+            }
+        } else {
+            List<Callable<Double>> tasks = new ArrayList<Callable<Double>>();
+            for (int i = 0; i < PLANS.length; i++) {
+                int plan = i;
+                tasks.add(() -> tryOut(world, plan));
+            }
+            try {
+                List<Future<Double>> results = pool.invokeAll(tasks);
+                for (int i = 0; i < PLANS.length; i++) {
+                    progress[i] = results.get(i).get();
+                }
+            } catch (InterruptedException e) {
+                // Keeping to the current plan rather than half choosing one.
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof SlickException) {
+                    throw (SlickException) e.getCause();
+                }
+                throw new IllegalStateException(
+                        "LookaheadEnemy: a plan failed", e.getCause());
+            }
+        }
+
+        int best = 0;
+        for (int i = 1; i < PLANS.length; i++) {
+            if (progress[i] > progress[best]) {
+                best = i;
+            }
+        }
+        startPlan(PLANS[best][0], toTicks(PLANS[best][1], world));
+    }
+
+    /**
+     * Tries out a plan on its fork, from where the race stands now.
+     *
+     * @param world
+     *            The World the Enemy is racing in.
+     * @param plan
+     *            The index of the plan in PLANS.
+     * @return How far along the track the plan got the Enemy, in pixels,
+     *         plus how far it would go in MOMENTUM_MILLIS at its speed.
+     * @throws SlickException
+     */
+    private double tryOut(World world, int plan) throws SlickException {
+        World fork = forks[plan];
+        fork.copyFrom(world);
+        LookaheadEnemy self = (LookaheadEnemy) fork.getRacer(getSlot());
+        self.startPlan(PLANS[plan][0], toTicks(PLANS[plan][1], world));
+        for (int t = 0; t < horizonTicks; t++) {
+            fork.update(rotateDirs[plan], moveDirs[plan], useItems[plan]);
+        }
+        return self.getTrackProgress(fork.getWaypoints(), trackDistances)
+                + self.getSpeed() * MOMENTUM_MILLIS;
+    }
+
+    /**
+     * Starts steering one way for a number of ticks, starting from the next.
+     *
+     * @param rotateDir
+     *            The direction to steer in.
+     * @param ticks
+     *            The number of ticks to steer for. 0 just follows the
+     *            waypoints.
+     */
+    private void startPlan(double rotateDir, int ticks) {
+        planRotateDir = rotateDir;
+        planTicksLeft = ticks;
+        if (planTicksLeft > 0) {
+            setRotateDir(planRotateDir);
+            planTicksLeft--;
+        }
+    }
+
+    /**
+     * Works out how far along the track the Enemy is: the distance along the
+     * track to the waypoint it is heading for, less how far it still is from
+     * that waypoint.
+     *
+     * @param waypoints
+     *            The waypoints that the Enemy follows.
+     * @param trackDistances
+     *            The distance along the track to each waypoint.
+     * @return How far along the track the Enemy is, in pixels.
+     */
+    private double getTrackProgress(double[][] waypoints,
+            double[] trackDistances) {
+        double[] target = waypoints[getCurrentWaypointTarget()];
+        return trackDistances[getCurrentWaypointTarget()]
+                - Math.hypot(getMapX() - target[0], getMapY() - target[1]);
+    }
+
+    /**
+     * Creates a fork for each plan, and works out everything else that
+     * planning needs that doesn't change during the race.
+     *
+     * @param world
+     *            The World the Enemy is racing in.
+     * @throws SlickException
+     */
+    private void createForks(World world) throws SlickException {
+        forks = new World[PLANS.length];
+        rotateDirs = new double[PLANS.length][world.getNumPlayers()];
+        moveDirs = new double[PLANS.length][world.getNumPlayers()];
+        useItems = new boolean[PLANS.length][world.getNumPlayers()];
+        for (int i = 0; i < PLANS.length; i++) {
+            forks[i] = world.fork();
+        }
+
+        double[][] waypoints = world.getWaypoints();
+        trackDistances = new double[waypoints.length];
+        for (int i = 1; i < waypoints.length; i++) {
+            trackDistances[i] = trackDistances[i - 1]
+                    + Math.hypot(waypoints[i][0] - waypoints[i - 1][0],
+                            waypoints[i][1] - waypoints[i - 1][1]);
+        }
+        planTicks = Math.max(1, toTicks(PLAN_MILLIS, world));
+        horizonTicks = toTicks(HORIZON_MILLIS, world);
+
+        if (numThreads > 1) {
+            pool = Executors.newFixedThreadPool(numThreads, runnable -> {
+                Thread thread = new Thread(runnable, "LookaheadEnemy");
+                // Not keeping the game running once it has been closed.
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * @param millis
+     *            A length of game time, in milliseconds.
+     * @param world
+     *            The World, for the length of its ticks.
+     * @return The nearest whole number of ticks to that time.
+     */
+    private static int toTicks(double millis, World world) {
+        return (int) Math.round(millis / world.getTickMillis());
+    }
+
+    /**
+     * Saves the current plan: the direction to steer in and for how many
+     * more ticks.
+     */
+    public void saveState(double[] state, int offset) {
+        state[offset] = planRotateDir;
+        state[offset + 1] = planTicksLeft;
+    }
+
+    /**
+     * Puts back the plan saved by saveState().
+     */
+    public void restoreState(double[] state, int offset) {
+        planRotateDir = state[offset];
+        planTicksLeft = (int) state[offset + 1];
+    }
+}
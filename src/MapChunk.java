@@ -0,0 +1,90 @@
+/**
+ * <h1>MapChunk</h1>
+ * <h2>One band of rows of the map, as held in memory</h2>
+ *
+ * A ChunkedMap holds the map a few rows of tiles at a time, and a MapChunk is
+ * one of those bands: the id of every tile in its rows, packed into a
+ * PackedTileLayer, and the wall distance field over the same rows. A chunk
+ * is never changed once it has been read, so the thread that loads it and
+ * the threads reading it needn't lock.
+ *
+ * @author Daniel Porteous porteousd 696965
+ */
+public class MapChunk {
+
+    /** The first row of the map the chunk holds, and how many rows */
+    private int firstRow;
+    private int numRows;
+
+    /** The id of each tile in the chunk */
+    private PackedTileLayer tiles;
+
+    /** Distance to the nearest wall, over the chunk's rows */
+    private WallDistanceField wallDistances;
+
+    /**
+     * Creates a chunk from its tiles and distance field.
+     *
+     * @param firstRow
+     *            The first row of the map the chunk holds.
+     * @param width
+     *            Width of the map in tiles.
+     * @param tileIds
+     *            The id of each tile in the chunk, row by row.
+     * @param wallDistances
+     *            The wall distance field over the chunk's rows.
+     */
+    public MapChunk(int firstRow, int width, int[] tileIds,
+            WallDistanceField wallDistances) {
+        this.firstRow = firstRow;
+        tiles = new PackedTileLayer(tileIds, width);
+        this.wallDistances = wallDistances;
+        numRows = tileIds.length / width;
+    }
+
+    /**
+     * @param tileX
+     *            Horizontal tile coordinate, on the map.
+     * @param tileY
+     *            Vertical tile coordinate, on the map and in the chunk.
+     * @return The id of the tile there.
+     */
+    public int getTileId(int tileX, int tileY) {
+        return tiles.getTileId(tileX, tileY - firstRow);
+    }
+
+    /**
+     * @return The id of every tile in the chunk.
+     */
+    public PackedTileLayer getTiles() {
+        return tiles;
+    }
+
+    /**
+     * @return The wall distance field over the chunk's rows.
+     */
+    public WallDistanceField getWallDistances() {
+        return wallDistances;
+    }
+
+    /**
+     * @return The first row of the map the chunk holds.
+     */
+    public int getFirstRow() {
+        return firstRow;
+    }
+
+    /**
+     * @return The number of rows the chunk holds.
+     */
+    public int getNumRows() {
+        return numRows;
+    }
+
+    /**
+     * @return In bytes. Roughly how much memory the chunk takes up.
+     */
+    public long getSizeBytes() {
+        return tiles.getSizeBytes() + wallDistances.getSizeBytes();
+    }
+}
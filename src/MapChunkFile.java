@@ -0,0 +1,660 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Base64;
+import java.util.Scanner;
+import java.util.zip.CRC32;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.newdawn.slick.SlickException;
+
+/**
+ * <h1>MapChunkFile</h1>
+ * <h2>The map, cut into chunks that can each be read on their own</h2>
+ *
+ * A TMX map holds its tiles as one block, which can only be decoded from its
+ * start. So the first time a map is loaded, its tiles are decoded a chunk of
+ * CHUNK_ROWS rows at a time and written out to a file next to it, each chunk
+ * compressed on its own along with the wall distance field over its rows,
+ * and the offset of every chunk listed at the start of the file. After
+ * that, any chunk can be read straight from the file without touching the
+ * rest, however long the map is.
+ *
+ * Building the file streams through the map file, decoding its layer as it
+ * is read, and only ever holds three chunks of tiles at a time, the one
+ * being written and those either side for the wall distances near its
+ * edges, so the map never has to fit in memory. The file records a checksum
+ * of the map file and tile frictions it was built from, and is rebuilt if
+ * either has changed since. It is written to a temporary file and moved into
+ * place, so several Worlds starting at once never see a half written file,
+ * and if it can't be written next to the map it is written to the temporary
+ * directory instead, to be rebuilt next run.
+ *
+ * @author Daniel Porteous porteousd 696965
+ */
+public class MapChunkFile implements GlobalHelper {
+
+    /** Added to the name of the map file to name the chunk file */
+    public static final String SUFFIX = ".chunks";
+
+    /** Identifies a chunk file, and its layout version */
+    private static final int MAGIC = 0x4D434832;
+
+    /** Number of rows of tiles in each chunk, a power of two */
+    public static final int CHUNK_ROWS = 64;
+
+    /** The chunk file, read from by whichever thread needs a chunk */
+    private RandomAccessFile file;
+
+    /** Size of the map in tiles */
+    private int width;
+    private int height;
+
+    /** Where each chunk starts in the file, and where the last one ends */
+    private long[] offsets;
+
+    /**
+     * Opens a chunk file that has already been checked.
+     *
+     * @param file
+     *            The chunk file.
+     * @param width
+     *            Width of the map in tiles.
+     * @param height
+     *            Height of the map in tiles.
+     * @param offsets
+     *            Where each chunk starts in the file, and where the last one
+     *            ends.
+     */
+    private MapChunkFile(RandomAccessFile file, int width, int height,
+            long[] offsets) {
+        this.file = file;
+        this.width = width;
+        this.height = height;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Opens the chunk file for a map, building it first if there isn't an up
+     * to date one.
+     *
+     * @param mapFile
+     *            Path to the map file.
+     * @param frictions
+     *            The friction of each tile id, indexed by id.
+     * @param wallFriction
+     *            Friction at and above which a tile is a wall.
+     * @return The chunk file.
+     * @throws SlickException
+     *             If the map can't be read, or the chunk file can't be
+     *             written anywhere.
+     */
+    public static MapChunkFile open(String mapFile, double[] frictions,
+            double wallFriction) throws SlickException {
+        try {
+            long checksum = checksum(mapFile, frictions, wallFriction);
+            File chunkFile = new File(mapFile + SUFFIX).getAbsoluteFile();
+            MapChunkFile chunks = read(chunkFile, checksum);
+            if (chunks != null) {
+                return chunks;
+            }
+
+            File temporary;
+            try {
+                temporary = File.createTempFile(chunkFile.getName(), ".tmp",
+                        chunkFile.getParentFile());
+            } catch (IOException e) {
+                // Somewhere the chunks can go for this run at least.
+                temporary = File.createTempFile(chunkFile.getName(), ".tmp");
+                temporary.deleteOnExit();
+                chunkFile = null;
+            }
+            try {
+                build(mapFile, frictions, wallFriction, checksum, temporary);
+            } catch (IOException e) {
+                temporary.delete();
+                throw e;
+            }
+            if (chunkFile == null) {
+                chunkFile = temporary;
+            } else {
+                Files.move(temporary.toPath(), chunkFile.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            }
+            chunks = read(chunkFile, checksum);
+            if (chunks == null) {
+                throw new IOException("Can't read back " + chunkFile);
+            }
+            return chunks;
+        } catch (IOException e) {
+            throw new SlickException("Failed to load the chunks of "
+                    + mapFile, e);
+        }
+    }
+
+    /**
+     * Works out a checksum of a map file and the frictions of its tiles, so a
+     * chunk file can be matched against the map it is being opened for.
+     *
+     * @param mapFile
+     *            Path to the map file.
+     * @param frictions
+     *            The friction of each tile id.
+     * @param wallFriction
+     *            Friction at and above which a tile is a wall.
+     * @return The checksum.
+     * @throws IOException
+     */
+    private static long checksum(String mapFile, double[] frictions,
+            double wallFriction) throws IOException {
+        CRC32 crc = new CRC32();
+        // Whole ints, as update(int) only takes the lowest byte.
+        ByteBuffer layout = ByteBuffer.allocate(3 * Integer.BYTES);
+        layout.putInt(CHUNK_ROWS);
+        layout.putInt(WallDistanceField.CELLS_PER_TILE);
+        layout.putInt(WallDistanceField.MAX_RINGS);
+        crc.update(layout.array());
+        for (double friction : frictions) {
+            crc.update(friction >= wallFriction ? 1 : 0);
+        }
+        byte[] buffer = new byte[1 << 16];
+        try (InputStream in = new FileInputStream(mapFile)) {
+            for (int n = in.read(buffer); n > 0; n = in.read(buffer)) {
+                crc.update(buffer, 0, n);
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Opens a chunk file, if there is one and it matches the given checksum.
+     *
+     * @param chunkFile
+     *            The chunk file.
+     * @param checksum
+     *            Checksum of the map it must have been built from.
+     * @return The chunk file, or null if there isn't a usable one.
+     */
+    private static MapChunkFile read(File chunkFile, long checksum) {
+        if (!chunkFile.isFile()) {
+            return null;
+        }
+        try {
+            int width;
+            int height;
+            long[] offsets;
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(chunkFile)))) {
+                if (in.readInt() != MAGIC || in.readLong() != checksum) {
+                    return null;
+                }
+                width = in.readInt();
+                height = in.readInt();
+                offsets = new long[in.readInt() + 1];
+                for (int i = 0; i < offsets.length; i++) {
+                    offsets[i] = in.readLong();
+                }
+            }
+            if (offsets[offsets.length - 1] != chunkFile.length()) {
+                // Cut short, so it is just rebuilt.
+                return null;
+            }
+            return new MapChunkFile(new RandomAccessFile(chunkFile, "r"),
+                    width, height, offsets);
+        } catch (IOException e) {
+            // A damaged or partly written file is just rebuilt.
+            return null;
+        }
+    }
+
+    /**
+     * Builds a chunk file for a map, decoding its tiles and working out the
+     * wall distances a chunk at a time.
+     *
+     * @param mapFile
+     *            Path to the map file.
+     * @param frictions
+     *            The friction of each tile id.
+     * @param wallFriction
+     *            Friction at and above which a tile is a wall.
+     * @param checksum
+     *            Checksum of the map, to record in the file.
+     * @param target
+     *            The file to build.
+     * @throws IOException
+     *             If the map can't be read or the file can't be written.
+     */
+    private static void build(String mapFile, double[] frictions,
+            double wallFriction, long checksum, File target)
+            throws IOException {
+        try (InputStream in = new BufferedInputStream(
+                new FileInputStream(mapFile))) {
+            XMLStreamReader xml = MapHeader.createReader(in);
+            try {
+                MapHeader header = new MapHeader(xml);
+                while (!xml.isStartElement()
+                        || !xml.getLocalName().equals("data")) {
+                    if (xml.next() == XMLStreamConstants.END_DOCUMENT) {
+                        throw new IOException(mapFile + " has no tiles");
+                    }
+                }
+                write(new TileReader(xml), header.getWidth(),
+                        header.getHeight(), frictions, wallFriction,
+                        checksum, target);
+            } finally {
+                xml.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Failed to parse " + mapFile, e);
+        }
+    }
+
+    /**
+     * Writes a chunk file, decoding the tiles of the map as it goes.
+     *
+     * @param tiles
+     *            The map's layer, from its first tile.
+     * @param width
+     *            Width of the map in tiles.
+     * @param height
+     *            Height of the map in tiles.
+     * @param frictions
+     *            The friction of each tile id.
+     * @param wallFriction
+     *            Friction at and above which a tile is a wall.
+     * @param checksum
+     *            Checksum of the map, to record in the file.
+     * @param target
+     *            The file to build.
+     * @throws IOException
+     *             If the layer can't be read or the file can't be written.
+     */
+    private static void write(TileReader tiles, int width, int height,
+            double[] frictions, double wallFriction, long checksum,
+            File target) throws IOException {
+        int numChunks = (height + CHUNK_ROWS - 1) / CHUNK_ROWS;
+        long[] offsets = new long[numChunks + 1];
+        try (RandomAccessFile out = new RandomAccessFile(target, "rw")) {
+            out.setLength(0);
+            out.writeInt(MAGIC);
+            out.writeLong(checksum);
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeInt(numChunks);
+            long offsetsAt = out.getFilePointer();
+            out.write(new byte[8 * offsets.length]);
+
+            // The chunk before the one being written, it, and the one after.
+            int[][] window = new int[3][];
+            window[1] = tiles.readRows(width, rowsIn(0, height));
+            window[2] = numChunks > 1
+                    ? tiles.readRows(width, rowsIn(1, height)) : null;
+            for (int c = 0; c < numChunks; c++) {
+                offsets[c] = out.getFilePointer();
+                out.write(compress(window, c, width, height, frictions,
+                        wallFriction));
+                window[0] = window[1];
+                window[1] = window[2];
+                window[2] = c + 2 < numChunks
+                        ? tiles.readRows(width, rowsIn(c + 2, height))
+                        : null;
+            }
+            offsets[numChunks] = out.getFilePointer();
+
+            out.seek(offsetsAt);
+            for (long offset : offsets) {
+                out.writeLong(offset);
+            }
+        }
+    }
+
+    /**
+     * Compresses one chunk: its tiles, and the wall distance field over its
+     * rows, worked out from the walls in it and the chunks either side.
+     *
+     * @param window
+     *            The tiles of the chunk before, this chunk and the chunk
+     *            after, with null for any off the map.
+     * @param chunk
+     *            The index of the chunk.
+     * @param width
+     *            Width of the map in tiles.
+     * @param height
+     *            Height of the map in tiles.
+     * @param frictions
+     *            The friction of each tile id.
+     * @param wallFriction
+     *            Friction at and above which a tile is a wall.
+     * @return The compressed chunk.
+     * @throws IOException
+     */
+    private static byte[] compress(int[][] window, int chunk, int width,
+            int height, double[] frictions, double wallFriction)
+            throws IOException {
+        int fromRow = chunk * CHUNK_ROWS;
+        // Only the last chunk can be short, so the one before is full.
+        int wallsFromRow = window[0] == null ? fromRow : fromRow - CHUNK_ROWS;
+        int numWalls = 0;
+        for (int[] rows : window) {
+            if (rows != null) {
+                numWalls += rows.length;
+            }
+        }
+        boolean[] walls = new boolean[numWalls];
+        int next = 0;
+        for (int[] rows : window) {
+            if (rows == null) {
+                continue;
+            }
+            for (int tileID : rows) {
+                walls[next++] = frictions[tileID] >= wallFriction;
+            }
+        }
+
+        int[] tileIds = window[1];
+        WallDistanceField distances = WallDistanceField.build(walls, width,
+                wallsFromRow, height, fromRow,
+                fromRow + tileIds.length / width);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new DeflaterOutputStream(bytes)))) {
+            for (int tileID : tileIds) {
+                out.writeInt(tileID);
+            }
+            distances.write(out);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param chunk
+     *            The index of a chunk.
+     * @param height
+     *            Height of the map in tiles.
+     * @return The number of rows in the chunk, which is CHUNK_ROWS for all
+     *         but perhaps the last.
+     */
+    private static int rowsIn(int chunk, int height) {
+        return Math.min(CHUNK_ROWS, height - chunk * CHUNK_ROWS);
+    }
+
+    /**
+     * Reads one chunk from the file. Any number of threads can read chunks
+     * at once.
+     *
+     * @param chunk
+     *            The index of the chunk.
+     * @return The chunk.
+     * @throws IOException
+     *             If the chunk can't be read.
+     */
+    public MapChunk readChunk(int chunk) throws IOException {
+        byte[] compressed = new byte[(int) (offsets[chunk + 1]
+                - offsets[chunk])];
+        synchronized (file) {
+            file.seek(offsets[chunk]);
+            file.readFully(compressed);
+        }
+
+        int fromRow = chunk * CHUNK_ROWS;
+        int toRow = fromRow + rowsIn(chunk, height);
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new InflaterInputStream(
+                        new ByteArrayInputStream(compressed))))) {
+            int[] tileIds = new int[width * (toRow - fromRow)];
+            for (int i = 0; i < tileIds.length; i++) {
+                tileIds[i] = in.readInt();
+            }
+            return new MapChunk(fromRow, width, tileIds,
+                    WallDistanceField.read(in, width, fromRow, toRow));
+        }
+    }
+
+    /**
+     * Closes the file. No more chunks can be read from it after this.
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        synchronized (file) {
+            file.close();
+        }
+    }
+
+    /**
+     * @return Width of the map in tiles.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return Height of the map in tiles.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return The number of chunks the map is cut into.
+     */
+    public int getNumChunks() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * Decodes the tiles of a map layer a few rows at a time as the map file
+     * streams past, from any of the ways Tiled stores a layer: base64, either
+     * uncompressed or compressed with gzip or zlib, CSV, or a tile element for
+     * each tile. Only a buffer's worth of the layer is held at once.
+     */
+    private static class TileReader {
+
+        /** The decoded base64 tiles, if the layer is stored that way */
+        private DataInputStream bytes;
+
+        /** The CSV tiles, if the layer is stored that way */
+        private Scanner csv;
+
+        /** The map file, at the last tile element read, otherwise */
+        private XMLStreamReader elements;
+
+        /**
+         * Starts decoding a layer.
+         *
+         * @param xml
+         *            The map file, at the start of the layer's data element.
+         * @throws IOException
+         *             If the layer is stored in a way that isn't handled.
+         */
+        TileReader(XMLStreamReader xml) throws IOException {
+            String encoding = attribute(xml, "encoding");
+            String compression = attribute(xml, "compression");
+            if (encoding.equals("base64")) {
+                InputStream in = Base64.getMimeDecoder()
+                        .wrap(new LayerText(xml));
+                if (compression.equals("gzip")) {
+                    in = new GZIPInputStream(in);
+                } else if (compression.equals("zlib")) {
+                    in = new InflaterInputStream(in);
+                } else if (!compression.isEmpty()) {
+                    throw new IOException("Unsupported map compression "
+                            + compression);
+                }
+                bytes = new DataInputStream(new BufferedInputStream(in));
+            } else if (encoding.equals("csv")) {
+                csv = new Scanner(new LayerText(xml), "US-ASCII")
+                        .useDelimiter("[,\\s]+");
+            } else if (encoding.isEmpty()) {
+                elements = xml;
+            } else {
+                throw new IOException("Unsupported map encoding " + encoding);
+            }
+        }
+
+        /**
+         * @param xml
+         *            The map file, at the start of an element.
+         * @param name
+         *            The name of one of the element's attributes.
+         * @return The attribute's value, or "" if the element doesn't have
+         *         it.
+         */
+        private static String attribute(XMLStreamReader xml, String name) {
+            String value = xml.getAttributeValue(null, name);
+            return value == null ? "" : value;
+        }
+
+        /**
+         * Reads the next rows of tiles.
+         *
+         * @param width
+         *            Width of the map in tiles.
+         * @param numRows
+         *            The number of rows to read.
+         * @return The id of each tile read, row by row.
+         * @throws IOException
+         *             If the layer ends too soon.
+         */
+        int[] readRows(int width, int numRows) throws IOException {
+            int[] tileIds = new int[width * numRows];
+            for (int i = 0; i < tileIds.length; i++) {
+                tileIds[i] = nextTile();
+            }
+            return tileIds;
+        }
+
+        /**
+         * @return The id of the next tile in the layer.
+         * @throws IOException
+         *             If the layer ends too soon.
+         */
+        private int nextTile() throws IOException {
+            if (bytes != null) {
+                // Tiled stores each tile id as four bytes, lowest first.
+                return Integer.reverseBytes(bytes.readInt());
+            }
+            if (csv != null) {
+                if (!csv.hasNext()) {
+                    if (csv.ioException() != null) {
+                        throw csv.ioException();
+                    }
+                    throw new IOException("Map layer ends too soon");
+                }
+                return (int) Long.parseLong(csv.next());
+            }
+            try {
+                while (elements.next() != XMLStreamConstants.START_ELEMENT
+                        || !elements.getLocalName().equals("tile")) {
+                    if (elements.isEndElement()
+                            && elements.getLocalName().equals("data")) {
+                        throw new IOException("Map layer ends too soon");
+                    }
+                }
+            } catch (XMLStreamException e) {
+                throw new IOException(e);
+            }
+            String gid = elements.getAttributeValue(null, "gid");
+            return gid == null ? 0 : (int) Long.parseLong(gid);
+        }
+    }
+
+    /**
+     * The text of a layer's data element, as it streams past, for the
+     * layer's tiles to be decoded from without ever holding it all.
+     */
+    private static class LayerText extends InputStream {
+
+        /** The map file, within the data element */
+        private XMLStreamReader xml;
+
+        /** The text last streamed past, and how much of it is still unread */
+        private char[] text;
+        private int next;
+        private int end;
+
+        /** Whether the end of the data element has been reached */
+        private boolean ended;
+
+        /**
+         * @param xml
+         *            The map file, at the start of the data element.
+         */
+        LayerText(XMLStreamReader xml) {
+            this.xml = xml;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            // The layer is all base64 or digits, so ASCII.
+            return text[next++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length)
+                throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int n = Math.min(length, end - next);
+            for (int i = 0; i < n; i++) {
+                buffer[offset + i] = (byte) text[next++];
+            }
+            return n;
+        }
+
+        /**
+         * Streams on to the next text in the data element once the last has
+         * all been read.
+         *
+         * @return Whether there is any text left to read.
+         * @throws IOException
+         *             If the map can't be parsed, or there is an element
+         *             inside the data element.
+         */
+        private boolean fill() throws IOException {
+            try {
+                while (next == end && !ended) {
+                    int event = xml.next();
+                    if (event == XMLStreamConstants.END_ELEMENT) {
+                        ended = true;
+                    } else if (event == XMLStreamConstants.START_ELEMENT) {
+                        throw new IOException("Unexpected element "
+                                + xml.getLocalName() + " in map layer");
+                    } else if (xml.hasText()
+                            && event != XMLStreamConstants.COMMENT) {
+                        text = xml.getTextCharacters();
+                        next = xml.getTextStart();
+                        end = next + xml.getTextLength();
+                    }
+                }
+            } catch (XMLStreamException e) {
+                throw new IOException(e);
+            }
+            return next < end;
+        }
+    }
+}
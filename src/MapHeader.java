@@ -0,0 +1,224 @@
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * <h1>MapHeader</h1>
+ * <h2>Everything in a map file that comes before its tiles</h2>
+ *
+ * Reads the size of a TMX map, its own properties and its tile sets by
+ * streaming through the file and stopping at its first layer, so the tiles,
+ * which are nearly all of a long map, are never parsed just to get at the few
+ * lines above them. MapChunkFile carries on from where this stops to decode
+ * the layer as it streams past.
+ *
+ * Each tile set held in the map file is kept as a small element of its own,
+ * with its attributes and the elements inside it, for TileSet to read the
+ * same way as one from a separate file.
+ *
+ * @author Daniel Porteous porteousd 696965
+ */
+public class MapHeader {
+
+    /** Size of the map in tiles */
+    private int width;
+    private int height;
+
+    /** The map's own properties, by name */
+    private Map<String, String> properties = new HashMap<String, String>();
+
+    /** The tile set elements, in the order they are listed */
+    private ArrayList<Element> tileSets = new ArrayList<Element>();
+
+    /**
+     * Reads the header of a map file.
+     *
+     * @param mapFile
+     *            Path to the map file.
+     * @return The header.
+     * @throws IOException
+     *             If the map can't be read.
+     */
+    public static MapHeader read(String mapFile) throws IOException {
+        try (InputStream in = new BufferedInputStream(
+                new FileInputStream(mapFile))) {
+            XMLStreamReader xml = createReader(in);
+            try {
+                return new MapHeader(xml);
+            } finally {
+                xml.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Failed to parse " + mapFile, e);
+        }
+    }
+
+    /**
+     * Starts streaming through a map file.
+     *
+     * @param in
+     *            The map file. Closing the reader doesn't close it.
+     * @return The reader, at the start of the file.
+     * @throws XMLStreamException
+     */
+    static XMLStreamReader createReader(InputStream in)
+            throws XMLStreamException {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        // Skipping the DTD the map refers to, rather than fetching it.
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,
+                false);
+        return factory.createXMLStreamReader(in);
+    }
+
+    /**
+     * Reads the header of a map file, leaving the reader at the start of the
+     * first layer, or at the end of the map if it has none.
+     *
+     * @param xml
+     *            The reader, at the start of the file.
+     * @throws XMLStreamException
+     *             If the map can't be parsed.
+     */
+    MapHeader(XMLStreamReader xml) throws XMLStreamException {
+        while (!xml.isStartElement()) {
+            xml.next();
+        }
+        width = Integer.parseInt(xml.getAttributeValue(null, "width"));
+        height = Integer.parseInt(xml.getAttributeValue(null, "height"));
+
+        Document document;
+        try {
+            document = DocumentBuilderFactory.newInstance()
+                    .newDocumentBuilder().newDocument();
+        } catch (ParserConfigurationException e) {
+            throw new XMLStreamException(e);
+        }
+        while (xml.next() != XMLStreamConstants.END_ELEMENT) {
+            if (!xml.isStartElement()) {
+                continue;
+            }
+            String name = xml.getLocalName();
+            if (name.equals("layer")) {
+                return;
+            } else if (name.equals("properties")) {
+                readProperties(xml);
+            } else if (name.equals("tileset")) {
+                tileSets.add(copy(xml, document));
+            } else {
+                skip(xml);
+            }
+        }
+    }
+
+    /**
+     * Reads the map's properties, leaving the reader at their end.
+     *
+     * @param xml
+     *            The reader, at the start of the properties.
+     * @throws XMLStreamException
+     */
+    private void readProperties(XMLStreamReader xml)
+            throws XMLStreamException {
+        while (xml.next() != XMLStreamConstants.END_ELEMENT) {
+            if (!xml.isStartElement()) {
+                continue;
+            }
+            if (xml.getLocalName().equals("property")) {
+                properties.put(xml.getAttributeValue(null, "name"),
+                        xml.getAttributeValue(null, "value"));
+            }
+            skip(xml);
+        }
+    }
+
+    /**
+     * Copies an element and the elements inside it, along with their
+     * attributes, leaving the reader at its end. Text isn't copied, as
+     * nothing in a tile set is held as text.
+     *
+     * @param xml
+     *            The reader, at the start of the element.
+     * @param document
+     *            The document to make the copy in.
+     * @return The copy.
+     * @throws XMLStreamException
+     */
+    private static Element copy(XMLStreamReader xml, Document document)
+            throws XMLStreamException {
+        Element element = document.createElement(xml.getLocalName());
+        for (int i = 0; i < xml.getAttributeCount(); i++) {
+            element.setAttribute(xml.getAttributeLocalName(i),
+                    xml.getAttributeValue(i));
+        }
+        while (xml.next() != XMLStreamConstants.END_ELEMENT) {
+            if (xml.isStartElement()) {
+                element.appendChild(copy(xml, document));
+            }
+        }
+        return element;
+    }
+
+    /**
+     * Skips over an element and everything inside it.
+     *
+     * @param xml
+     *            The reader, at the start of the element. It is left at its
+     *            end.
+     * @throws XMLStreamException
+     */
+    private static void skip(XMLStreamReader xml) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * @return Width of the map in tiles.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return Height of the map in tiles.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @param name
+     *            The name of one of the map's own properties.
+     * @return Its value, or null if the map doesn't give it.
+     */
+    public String getProperty(String name) {
+        return properties.get(name);
+    }
+
+    /**
+     * @return The tile sets held in the map file, or referring to separate
+     *         files, in the order they are listed.
+     */
+    public ArrayList<Element> getTileSets() {
+        return tileSets;
+    }
+}
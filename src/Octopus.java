@@ -1,4 +1,3 @@
-import org.newdawn.slick.Image;
 import org.newdawn.slick.SlickException;
 
 /**
@@ -13,40 +12,38 @@ import org.newdawn.slick.SlickException;
  */
 public class Octopus extends Enemy {
 
-    /**
-     * Starting coordiantes of Octopus
-     */
-    private static final int START_X = 1476;
-    private static final int START_Y = 13086;
-
     /** The sprite that the Octopus users */
     private final String KART_NAME = "octopus.png";
 
-    /**
-     * These define the lower and upper bounds of the ranges at which the
-     * Octopus should cease following the waypoints and instead target the
-     * Player.
-     */
-    private final int LOWER_BOUND = 100;
-    private final int UPPER_BOUND = 250;
-
     /**
      * Very basic, just sets the Octopus' location and sprite.
      * 
+     * @param startX
+     *            In pixels. Horizontal x-coordinate of its place on the grid.
+     * @param startY
+     *            In pixels. Vertical y-coordinate of its place on the grid.
      * @throws SlickException
      */
-    public Octopus() throws SlickException {
-        super(START_X, START_Y);
-        setSprite(new Image(
+    public Octopus(double startX, double startY) throws SlickException {
+        super(startX, startY);
+        setSprite(Sprites.load(
                 ASSETS_PATH + "/" + getKartsPath() + "/" + KART_NAME));
     }
 
+    /**
+     * @return A new Octopus, for a fork of the World.
+     * @throws SlickException
+     */
+    public Enemy fork() throws SlickException {
+        return new Octopus(getMapX(), getMapY());
+    }
+
     /**
      * Determines the behaviour of the Octopus. First, the distance of the
      * Octopus from the Player is calculated. If this turns out to be within
-     * the previously defined boundaries, the Octopus will set its rotation
-     * such that it targets the Player. If the Octopus however is outside of
-     * these bounds, it will just follow the waypoints.
+     * the chase range given by its AiParameters, the Octopus will set its
+     * rotation such that it targets the Player. If the Octopus however is
+     * outside of these bounds, it will just follow the waypoints.
      * 
      * @param waypoints
      *            The waypoints that the Enemy will follow.
@@ -55,10 +52,18 @@ public class Octopus extends Enemy {
      *            to attempt ot crash into them.
      */
     public void determineBehaviour(double[][] waypoints, Player player) {
-        double distFromPlayer = GlobalHelper.getHypotenuse(
-                getMapX() - player.getMapX(), getMapY() - player.getMapY());
+        /*
+         * Comparing squared distances against the squared bounds, which gives
+         * the same answer without needing a square root.
+         */
+        double xDist = getMapX() - player.getMapX();
+        double yDist = getMapY() - player.getMapY();
+        double distSquared = xDist * xDist + yDist * yDist;
+        double lowerBound = getParameters().getOctopusChaseMin();
+        double upperBound = getParameters().getOctopusChaseMax();
 
-        if (distFromPlayer > LOWER_BOUND && distFromPlayer < UPPER_BOUND) {
+        if (distSquared > lowerBound * lowerBound
+                && distSquared < upperBound * upperBound) {
             setRotateDir(
                     getCorrectRotateDir(player.getMapX(), player.getMapY()));
         } else {
@@ -1,4 +1,3 @@
-import java.util.ArrayList;
 import org.newdawn.slick.Image;
 import org.newdawn.slick.SlickException;
 
@@ -11,7 +10,7 @@ import org.newdawn.slick.SlickException;
  * 
  * Upon use an oil slick is created. This is destroyed upon collision with a
  * Racer, the control for which is handled by the Racer itself. Upon collision
- * with this Racer, the effect described in applyEffect() is applied, which
+ * with this Racer, the effect described in startEffect() is applied, which
  * causes it to "spin out" for a set duration.
  * 
  * @author Daniel Porteous porteousd 696965
@@ -29,16 +28,16 @@ public class Oil extends Item {
     private static final int DROP_RANGE = 40;
 
     /**
-     * Indicates how long the active effect should be applied to the Racer upon
-     * colliding with one.
+     * Indicates how long, in milliseconds, the active effect should be applied
+     * to the Racer upon colliding with one.
      */
     private static final int DURATION = 700;
 
     /**
-     * Storing the item path so we can change the sprite to the active version
-     * when the item used used.
+     * The pool this Oil was taken from, if it is the active form. Null for
+     * the inactive form placed on the map at the start of the race.
      */
-    private String itemPath;
+    private ItemPool<Oil> pool;
 
     /**
      * This boolean represents whether the item is currently on the map in its
@@ -46,16 +45,9 @@ public class Oil extends Item {
      */
     private boolean active;
 
-    /**
-     * This variable represents the timer for tracking how long the Player has
-     * been boosting. Once this counter reaches DURATION, the effect ends.
-     */
-    private int timer;
-
     /**
      * Calls the super constructor as well as initially setting the inactive
-     * version of the sprite. The itemPath is stored for later use, and the item
-     * is set to being inactive.
+     * version of the sprite. The item is set to being inactive.
      * 
      * @param startX
      *            In pixels. Horizontal x-coordinate starting position.
@@ -68,67 +60,110 @@ public class Oil extends Item {
     public Oil(double startX, double startY, String itemPath)
             throws SlickException {
         super(startX, startY);
-        setSprite(new Image(ASSETS_PATH + itemPath + SPRITE_INACTIVE));
+        setSprite(Sprites.load(ASSETS_PATH + itemPath + SPRITE_INACTIVE));
 
-        this.itemPath = itemPath;
         active = false;
-        timer = 0;
+        pool = null;
     }
 
     /**
-     * This method applies the effect of the item. If the item is inactive, the
-     * item's effect is just to create an active version of itself on the map to
-     * then be removed from the inventory of the Player, as is handled by the
-     * first part of this method.
+     * Creates the active form of the Oil, which is only ever done by the
+     * pool returned from createPool(). It sits off the map until it is taken
+     * from the pool and placed.
      * 
-     * The parts following handle interactions where the active form of the Oil
-     * (slick form) has collided with a player and applies the spinning effect,
-     * which is common to Tomato as well and therefore held in Item.
+     * @param sprite
+     *            The active sprite, shared with the rest of the pool.
+     * @param pool
+     *            The pool to which the Oil returns once it is despawned.
+     */
+    private Oil(Image sprite, ItemPool<Oil> pool) {
+        super(0, 0);
+        setSprite(sprite);
+        active = true;
+        this.pool = pool;
+    }
+
+    /**
+     * Creates a pool of Oil slicks for the World to take from whenever a
+     * Oil is used.
      * 
-     * @param racer
-     *            The Racer to which it should apply the effect.
-     * @param mapItems
-     *            This is passed so when the item is used, it can be re-added to
-     *            the game world in its active form.
+     * @param initialSize
+     *            The number of slicks to create up front.
+     * @return The new pool.
+     * @throws SlickException
      */
-    public boolean applyEffect(Racer racer, ArrayList<Item> mapItems)
+    public static ItemPool<Oil> createPool(int initialSize)
             throws SlickException {
+        return new ItemPool<Oil>(ASSETS_PATH + ITEMS_PATH + SPRITE_ACTIVE,
+                initialSize) {
+            protected Oil createItem(Image sprite) {
+                return new Oil(sprite, this);
+            }
+        };
+    }
 
-        /**
-         * Indicating that if the item is inactive, using the item simply places
-         * the active form of the Oil behind the Player and then immediately
-         * returns true, therein being remove from the Player's active effects.
-         */
-        if (!active) {
-            setSprite(new Image(ASSETS_PATH + itemPath + SPRITE_ACTIVE));
-
-            setAngle(racer.getAngle());
-            setMapX(racer.getMapX() - getAngle().getXComponent(DROP_RANGE));
-            setMapY(racer.getMapY() - getAngle().getYComponent(DROP_RANGE));
+    /**
+     * Using the item takes a slick from the World's pool and places it behind
+     * the Player. From then on it is handled by the game world rather than the
+     * Player.
+     * 
+     * @param racer
+     *            The Racer using the Oil.
+     * @param world
+     *            The world object, holding the pool of slicks and the items on
+     *            the map to which the slick is added.
+     */
+    public void use(Racer racer, World world) {
+        Oil slick = world.getOilPool().acquire();
 
-            active = true;
-            mapItems.add(this);
+        slick.setAngle(racer.getAngle());
+        slick.setMapX(
+                racer.getMapX() - slick.getAngle().getXComponent(DROP_RANGE));
+        slick.setMapY(
+                racer.getMapY() - slick.getAngle().getYComponent(DROP_RANGE));
 
-            return true;
-        }
+        world.getMapItems().add(slick);
+    }
 
-        /**
-         * Checking to see whether the active effect should stop being applied
-         * or not.
-         */
-        if (timer > DURATION) {
-            return true;
-        }
+    /**
+     * This applies the active effect; so when a Racer runs into the Oil slick.
+     * The spinning effect is common to Tomato as well and therefore held in
+     * Item.
+     * 
+     * @param racer
+     *            The Racer to which it should apply the effect.
+     */
+    public void startEffect(Racer racer) {
+        startOilTomatoEffect(racer);
+    }
 
-        /**
-         * This part applies the active effect; so when a Racer runs into the
-         * Oil slick.
-         */
-        applyOilTomatoEffect(racer);
-        timer += 1;
+    /**
+     * Ends the spinning effect once it has run its duration. The Oil has
+     * left the map for good at this point, so it is despawned.
+     * 
+     * @param racer
+     *            The Racer from which the effect should be removed.
+     */
+    public void endEffect(Racer racer) {
+        endOilTomatoEffect(racer);
+        despawn();
+    }
 
-        return false;
+    /**
+     * Returns the Oil to its pool, if it came from one, so it can be used
+     * again.
+     */
+    public void despawn() {
+        if (pool != null) {
+            pool.release(this);
+        }
+    }
 
+    /**
+     * @return the DURATION
+     */
+    public int getDuration() {
+        return DURATION;
     }
 
     /**
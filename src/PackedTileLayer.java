@@ -0,0 +1,207 @@
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * <h1>PackedTileLayer</h1>
+ * <h2>The tile ids of a band of rows, packed into bytes</h2>
+ *
+ * A map only uses a few dozen tile ids, so holding an int for every tile
+ * wastes most of the memory the tiles take up. Instead, each id is given an
+ * index into a palette of the ids the band uses, small enough to fit in a
+ * byte, and each row is stored one of two ways, whichever suits it:
+ *
+ * 1. A row made up of a few long stretches of the same tile, as long
+ * straights of wall, grass and road are, is run-length encoded. Each run is
+ * an int holding the column it ends before, shifted up a byte, and the
+ * palette index of its tile, so a row's runs sit together in memory.
+ * Only rows of MAX_RUNS runs or fewer are stored this way, padded out to
+ * exactly MAX_RUNS, so the run a tile is in is found by counting the runs
+ * ending before it in a fixed number of steps, with no branches to guess.
+ * 2. Any other row, such as one scattered with the different looking grass
+ * and wall tiles, is just stored as a palette index a byte for every tile.
+ *
+ * A row the same as the one before it isn't stored again, but shares it.
+ * Every row has an entry in a per-row index, giving where its runs or bytes
+ * start, with the bytes marked by being stored as a negative number. So
+ * finding a tile takes the same few steps wherever it is.
+ *
+ * The odd band of rows that uses more tile ids than fit in a byte is just
+ * held as ints.
+ *
+ * @author Daniel Porteous porteousd 696965
+ */
+public class PackedTileLayer {
+
+    /** The most tile ids a layer can use and still be packed */
+    private static final int MAX_PALETTE = 256;
+
+    /** The most runs a row can have to be run-length encoded */
+    private static final int MAX_RUNS = 8;
+
+    /** Width of the layer in tiles */
+    private int width;
+
+    /** The tile id of each palette index */
+    private int[] palette;
+
+    /**
+     * For each row, the index of its first run, or for a row stored a byte a
+     * tile, the bitwise complement of the index of its first byte.
+     */
+    private int[] rowStarts;
+
+    /**
+     * The column each run ends before, shifted up a byte, and the palette
+     * index of its tile
+     */
+    private int[] runs;
+
+    /** The end given to the runs a row is padded out with */
+    private static final int NEVER_ENDS = Integer.MAX_VALUE >>> 8;
+
+    /** The palette index of every tile of the rows stored a byte a tile */
+    private byte[] rowBytes;
+
+    /** The id of each tile, row by row, if the layer couldn't be packed */
+    private int[] unpacked;
+
+    /**
+     * Packs a band of rows of tile ids.
+     *
+     * @param tileIds
+     *            The id of each tile, row by row.
+     * @param width
+     *            Width of the layer in tiles.
+     */
+    public PackedTileLayer(int[] tileIds, int width) {
+        this.width = width;
+        int numRows = tileIds.length / width;
+
+        HashMap<Integer, Integer> indices = new HashMap<Integer, Integer>();
+        for (int tileID : tileIds) {
+            if (!indices.containsKey(tileID)) {
+                indices.put(tileID, indices.size());
+            }
+        }
+        if (indices.size() > MAX_PALETTE) {
+            unpacked = tileIds;
+            return;
+        }
+        palette = new int[indices.size()];
+        byte[] packed = new byte[tileIds.length];
+        for (int i = 0; i < tileIds.length; i++) {
+            packed[i] = (byte) (int) indices.get(tileIds[i]);
+        }
+        for (Integer tileID : indices.keySet()) {
+            palette[indices.get(tileID)] = tileID;
+        }
+
+        rowStarts = new int[numRows];
+        int[] allRuns = new int[numRows * MAX_RUNS];
+        byte[] bytes = new byte[tileIds.length];
+        int numRuns = 0;
+        int numBytes = 0;
+        for (int row = 0; row < numRows; row++) {
+            int first = row * width;
+            if (row > 0 && rangeEquals(packed, first - width, first,
+                    width)) {
+                rowStarts[row] = rowStarts[row - 1];
+                continue;
+            }
+
+            int rowRuns = 1;
+            for (int x = 1; x < width && rowRuns <= MAX_RUNS; x++) {
+                if (packed[first + x] != packed[first + x - 1]) {
+                    rowRuns++;
+                }
+            }
+            if (rowRuns > MAX_RUNS) {
+                System.arraycopy(packed, first, bytes, numBytes, width);
+                rowStarts[row] = ~numBytes;
+                numBytes += width;
+                continue;
+            }
+
+            rowStarts[row] = numRuns;
+            int run = numRuns;
+            for (int x = 0; x < width; x++) {
+                if (x + 1 == width
+                        || packed[first + x + 1] != packed[first + x]) {
+                    allRuns[run++] = (x + 1) << 8
+                            | (packed[first + x] & 0xFF);
+                }
+            }
+            // Padding the row out, with runs that never end.
+            for (; run < numRuns + MAX_RUNS; run++) {
+                allRuns[run] = NEVER_ENDS << 8;
+            }
+            numRuns = run;
+        }
+        runs = Arrays.copyOf(allRuns, numRuns);
+        rowBytes = Arrays.copyOf(bytes, numBytes);
+    }
+
+    /**
+     * @param tileX
+     *            Horizontal tile coordinate.
+     * @param row
+     *            The row of the layer.
+     * @return The id of the tile there.
+     */
+    public int getTileId(int tileX, int row) {
+        if (unpacked != null) {
+            return unpacked[row * width + tileX];
+        }
+        int start = rowStarts[row];
+        if (start < 0) {
+            return palette[rowBytes[~start + tileX] & 0xFF];
+        }
+        // Counting the runs that end at or before the tile, without branches.
+        int run = start;
+        for (int i = 0; i < MAX_RUNS - 1; i++) {
+            run += ((runs[start + i] >>> 8) - 1 - tileX) >>> 31;
+        }
+        return palette[runs[run] & 0xFF];
+    }
+
+    /**
+     * @return In bytes. Roughly how much memory the layer takes up.
+     */
+    public long getSizeBytes() {
+        if (unpacked != null) {
+            return 4L * unpacked.length;
+        }
+        return 4L * palette.length + 4L * rowStarts.length
+                + 4L * runs.length + rowBytes.length;
+    }
+
+    /**
+     * @return Whether the layer is packed, rather than held as ints.
+     */
+    public boolean isPacked() {
+        return unpacked == null;
+    }
+
+    /**
+     * Checks whether two stretches of an array hold the same values.
+     *
+     * @param values
+     *            The array.
+     * @param from
+     *            The start of the first stretch.
+     * @param to
+     *            The start of the second stretch.
+     * @param length
+     *            The length of each stretch.
+     * @return True if they are the same.
+     */
+    private static boolean rangeEquals(byte[] values, int from, int to,
+            int length) {
+        for (int i = 0; i < length; i++) {
+            if (values[from + i] != values[to + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
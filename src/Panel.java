@@ -34,7 +34,7 @@ public class Panel implements GlobalHelper
      */
     public Panel(int screenWidth, int screenHeight) throws SlickException
     {
-        panel = new Image(ASSETS_PATH + "/panel.png");
+        panel = Sprites.load(ASSETS_PATH + "/panel.png");
         this.screenWidth = screenWidth;
         this.screenHeight = screenHeight;
     }
@@ -42,15 +42,18 @@ public class Panel implements GlobalHelper
     /** 
      * Turn a cardinal number into an ordinal.
      * For example, takes a ranking such as 2, and returns a String "2nd".
-     * Note: Won't work for numbers greater than 20.
+     * Works for any size of field, so 11 to 13 are "th" but 21 is "21st".
      * 
      * @param ranking The current numerical integer rank of the Player. 
-     * @return The ordinal rank of the player, should be between 1 and 4.
+     * @return The ordinal rank of the player.
      */
     public static String ordinal(int ranking)
     {
         String rank_string = Integer.toString(ranking);
-        switch (ranking)
+        int lastTwo = ranking % 100;
+        if (lastTwo >= 11 && lastTwo <= 13)
+            return rank_string + "th";
+        switch (ranking % 10)
         {
             case 1:
                 rank_string += "st";
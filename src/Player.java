@@ -1,6 +1,4 @@
-import org.newdawn.slick.Image;
 import org.newdawn.slick.SlickException;
-import java.util.ArrayList;
 
 /**
  * <h1>Player</h1>
@@ -15,13 +13,6 @@ import java.util.ArrayList;
  */
 public class Player extends Racer {
 
-    /**
-     * Defining the starting location of the player. These are the starting
-     * coordinates as given in the spec.
-     */
-    private static final int START_X = 1332;
-    private static final int START_Y = 13086;
-
     /** The sprite that the player users */
     private final String KART_NAME = "donkey.png";
 
@@ -32,12 +23,18 @@ public class Player extends Racer {
     private Item heldItem;
 
     /**
-     * Standard constructor for Player. Places the Player on the map and sets
-     * their sprite. Also sets the currently held item to null.
+     * Standard constructor for Player. Places the Player on the map at its
+     * place on the grid and sets their sprite. Also sets the currently held
+     * item to null.
+     * 
+     * @param startX
+     *            In pixels. Horizontal x-coordinate starting position.
+     * @param startY
+     *            In pixels. Vertical y-coordinate starting position.
      */
-    public Player() throws SlickException {
-        super(START_X, START_Y);
-        setSprite(new Image(
+    public Player(double startX, double startY) throws SlickException {
+        super(startX, startY);
+        setSprite(Sprites.load(
                 ASSETS_PATH + "/" + getKartsPath() + "/" + KART_NAME));
         heldItem = null;
     }
@@ -46,8 +43,9 @@ public class Player extends Racer {
      * Goes through each item, checking if the Player is within range of it. If
      * so, the behaviour changes based on whether the Item is active or not.
      * 
-     * If the Item is active, it will be added to the activeItems list and
-     * removed from the map, just like would apply if it were a regular Enemy.
+     * If the Item is active, its effect will be scheduled on the Player and it
+     * will be removed from the map, just like would apply if it were a regular
+     * Enemy.
      * 
      * However if the item is not active, the item is removed and placed into
      * the heldItem variable that is unique to Player. This means that Player is
@@ -56,35 +54,40 @@ public class Player extends Racer {
      * 
      * @param mapItems
      *            A list containing all the items currently active on the map.
+     * @param effects
+     *            The timer wheel on which to schedule active items' effects.
      */
-    public void checkItemCollision(ArrayList<Item> mapItems) {
+    public void checkItemCollision(ItemStore mapItems,
+            EffectTimerWheel effects) {
         Item tempItem;
+        double radius = getItemCollisionRadius();
+
+        /*
+         * Walking through just the items within pickup range of the Player,
+         * which the store finds from its packed coordinates. Slots emptied
+         * earlier this tick are never in range.
+         */
+        int i = mapItems.nextWithin(0, getMapX(), getMapY(), radius);
+        while (i >= 0) {
+            tempItem = mapItems.get(i);
 
-        for (int i = 0; i < mapItems.size(); i++) {
-
-            // Checking to see if the Item is within pickup range of the Player.
-            if (GlobalHelper.getHypotenuse(
-                    getMapX() - mapItems.get(i).getMapX(), getMapY() - mapItems
-                            .get(i).getMapY()) < getItemCollisionRadius()) {
-                tempItem = mapItems.get(i);
-
-                // If the item is active, add it to activeItems.
-                if (tempItem.isActive()) {
-                    getActiveItems().add(tempItem);
-                }
-
-                /*
-                 * If the item isn't active, pick it up and store it in heldItem
-                 * for later use.
-                 */
-                else {
-                    heldItem = tempItem;
-                }
-
-                // Finally, remove the item from the map.
-                mapItems.remove(i);
-                i--;
+            // If the item is active, schedule its effect on the Player.
+            if (tempItem.isActive()) {
+                effects.schedule(this, tempItem);
             }
+
+            /*
+             * If the item isn't active, pick it up and store it in heldItem for
+             * later use.
+             */
+            else {
+                heldItem = tempItem;
+            }
+
+            // Finally, remove the item from the map.
+            mapItems.remove(i);
+
+            i = mapItems.nextWithin(i + 1, getMapX(), getMapY(), radius);
         }
     }
 
@@ -98,35 +101,65 @@ public class Player extends Racer {
         return heldItem;
     }
 
+    /**
+     * @param heldItem
+     *            the heldItem to set, or null for none
+     */
+    public void setHeldItem(Item heldItem) {
+        this.heldItem = heldItem;
+    }
+
     /**
      * This method is called by world upon receiving the key input for using the
-     * currently held item. It simply adds the held item, if any, to the active
-     * effects for the Player and removes it from their "hand".
+     * currently held item. It simply uses the held item, if any, and removes it
+     * from the Player's "hand".
+     * 
+     * @param world
+     *            The world object, so used items can place their active form
+     *            on the map or schedule their effect on the Player.
      */
-    public void useHeldItem() {
+    public void useHeldItem(World world) {
         if (heldItem != null) {
-            getActiveItems().add(heldItem);
+            heldItem.use(this, world);
             heldItem = null;
         }
     }
 
     /**
-     * Cycles through all the enemies, adding one to the current player rank if
-     * that enemy has a lower y-coordinate than the player.
+     * Cycles through all the other Racers, adding one to the current player
+     * rank if that Racer has a lower y-coordinate than the player.
      * 
-     * @param enemies
-     *            An array containing the enemies on the map.
-     * @return Returns an integer between 1 and 1 + the number of players, in
-     *         this case 4.
+     * @param racers
+     *            An array containing every Racer on the map, which may include
+     *            this player.
+     * @return Returns an integer between 1 and the number of Racers.
      */
-    public int getPlayerPos(Enemy[] enemies) {
+    public int getPlayerPos(Racer[] racers) {
         int pos = 1;
-        for (Enemy enemy : enemies) {
-            if (enemy.getMapY() < getMapY()) {
+        for (Racer racer : racers) {
+            if (racer != this && racer.getMapY() < getMapY()) {
                 pos++;
             }
         }
         return pos;
     }
 
+    /**
+     * Creates the players for a race, one at each of the given places on the
+     * starting grid.
+     * 
+     * @param starts
+     *            The x and y coordinate, in pixels, of each player's place on
+     *            the grid, at least one.
+     * @return The players, in order.
+     */
+    public static Player[] createPlayers(double[][] starts)
+            throws SlickException {
+        Player[] players = new Player[starts.length];
+        for (int i = 0; i < players.length; i++) {
+            players[i] = new Player(starts[i][0], starts[i][1]);
+        }
+        return players;
+    }
+
 }
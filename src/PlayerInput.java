@@ -0,0 +1,73 @@
+/**
+ * <h1>PlayerInput</h1>
+ * <h2>Packs a player's input for one tick into a single byte</h2>
+ *
+ * A player's input for a tick is just the three values World.update() takes:
+ * a rotation and a movement direction, each -1, 0 or 1, and whether an item is
+ * being used. That fits in 5 bits, with 2 bits for each direction and one for
+ * the item, so inputs can be stored and sent over the network as bytes. Any
+ * direction in between is rounded to its sign, as only the keys are sent.
+ *
+ * @author Daniel Porteous porteousd 696965
+ */
+public final class PlayerInput {
+
+    /** The input of a player pressing nothing */
+    public static final byte NONE = encode(0.0, 0.0, false);
+
+    /** Bits of the byte holding each part of the input */
+    private static final int ROTATE_SHIFT = 0;
+    private static final int MOVE_SHIFT = 2;
+    private static final int USE_ITEM_BIT = 1 << 4;
+    private static final int DIRECTION_MASK = 3;
+
+    /** Only static methods here, so no instances. */
+    private PlayerInput() {
+    }
+
+    /**
+     * Packs an input into a byte.
+     *
+     * @param rotateDir
+     *            The direction of rotation (-1, 0 or 1).
+     * @param moveDir
+     *            The movement in the car's axis (-1, 0 or 1).
+     * @param useItem
+     *            True if the held item is being used.
+     * @return The packed input.
+     */
+    public static byte encode(double rotateDir, double moveDir,
+            boolean useItem) {
+        int rotate = (int) Math.signum(rotateDir) + 1;
+        int move = (int) Math.signum(moveDir) + 1;
+        return (byte) ((rotate << ROTATE_SHIFT) | (move << MOVE_SHIFT)
+                | (useItem ? USE_ITEM_BIT : 0));
+    }
+
+    /**
+     * @param input
+     *            A packed input.
+     * @return The direction of rotation (-1, 0 or 1).
+     */
+    public static double getRotateDir(byte input) {
+        return ((input >> ROTATE_SHIFT) & DIRECTION_MASK) - 1;
+    }
+
+    /**
+     * @param input
+     *            A packed input.
+     * @return The movement in the car's axis (-1, 0 or 1).
+     */
+    public static double getMoveDir(byte input) {
+        return ((input >> MOVE_SHIFT) & DIRECTION_MASK) - 1;
+    }
+
+    /**
+     * @param input
+     *            A packed input.
+     * @return True if the held item is being used.
+     */
+    public static boolean getUseItem(byte input) {
+        return (input & USE_ITEM_BIT) != 0;
+    }
+}
@@ -0,0 +1,225 @@
+/**
+ * <h1>Proximity</h1>
+ * <h2>Batch radius checks over packed coordinate arrays</h2>
+ *
+ * Every "is this within range of that" check in the game used to work out the
+ * true distance between the two points, square root and all, and then compare
+ * it against the radius. Since both sides are positive, comparing the squared
+ * distance against the squared radius gives the same answer for a couple of
+ * multiplies.
+ *
+ * The methods here run that comparison over whole arrays of x and y
+ * coordinates at once, which is how RacerStates and ItemStore keep their
+ * positions. The loops are kept simple and free of object references so the
+ * JIT can unroll them and keep everything in registers, which makes one
+ * racer-against-every-item check a short run over two contiguous arrays.
+ *
+ * Slots that should never match (such as removed items) can be given NaN
+ * coordinates, as any comparison against NaN is false.
+ *
+ * firstContact() does the same job for a point that is moving rather than
+ * standing still, finding when along its path it first comes into range. It
+ * can check every point, or just those at a list of indices.
+ *
+ * @author Daniel Porteous porteousd 696965
+ */
+public final class Proximity {
+
+    /** Only static methods here, so no instances. */
+    private Proximity() {
+    }
+
+    /**
+     * Checks whether two points are strictly closer than a radius. Equivalent
+     * to comparing GlobalHelper.getHypotenuse() against the radius, without
+     * the square root.
+     *
+     * @param dx
+     *            The x distance between the points.
+     * @param dy
+     *            The y distance between the points.
+     * @param radius
+     *            The radius to compare against.
+     * @return True if the points are closer than the radius.
+     */
+    public static boolean isWithin(double dx, double dy, double radius) {
+        return dx * dx + dy * dy < radius * radius;
+    }
+
+    /**
+     * Finds the first point at or after a given index that is strictly closer
+     * than the radius to (px, py). Calling this again from the index after
+     * each match walks through every match in order.
+     *
+     * @param xs
+     *            The x-coordinates of the points.
+     * @param ys
+     *            The y-coordinates of the points.
+     * @param from
+     *            The index to start searching from.
+     * @param to
+     *            One past the last index to search.
+     * @param px
+     *            The x-coordinate to measure from.
+     * @param py
+     *            The y-coordinate to measure from.
+     * @param radius
+     *            The radius to compare against.
+     * @return The index of the first match, or -1 if there is none.
+     */
+    public static int nextWithin(double[] xs, double[] ys, int from, int to,
+            double px, double py, double radius) {
+        double radiusSquared = radius * radius;
+        for (int i = from; i < to; i++) {
+            double dx = xs[i] - px;
+            double dy = ys[i] - py;
+            if (dx * dx + dy * dy < radiusSquared) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Sweeps a point along a straight path and finds the earliest time at
+     * which it comes within a radius of any of the other points. Time runs
+     * from 0 at the start of the path (px, py) to 1 at the end (px + dx,
+     * py + dy), so this catches points the path passes straight through even
+     * if neither end is in range.
+     *
+     * A point that already starts in range of another only counts as in
+     * contact (at time 0) if it is moving closer to it; otherwise it is
+     * allowed to move away.
+     *
+     * @param xs
+     *            The x-coordinates of the points.
+     * @param ys
+     *            The y-coordinates of the points.
+     * @param count
+     *            The number of points to check.
+     * @param px
+     *            The x-coordinate of the start of the path.
+     * @param py
+     *            The y-coordinate of the start of the path.
+     * @param dx
+     *            The distance travelled along the x axis over the path.
+     * @param dy
+     *            The distance travelled along the y axis over the path.
+     * @param radius
+     *            The radius to compare against.
+     * @param skip
+     *            An index to leave out, or -1 to check them all.
+     * @return The earliest time of contact between 0 and 1, or positive
+     *         infinity if the path doesn't come within range of any point.
+     */
+    public static double firstContact(double[] xs, double[] ys, int count,
+            double px, double py, double dx, double dy, double radius,
+            int skip) {
+        double radiusSquared = radius * radius;
+        double lengthSquared = dx * dx + dy * dy;
+        double first = Double.POSITIVE_INFINITY;
+
+        for (int i = 0; i < count; i++) {
+            if (i == skip) {
+                continue;
+            }
+            first = Math.min(first, contactTime(px - xs[i], py - ys[i], dx,
+                    dy, lengthSquared, radiusSquared));
+        }
+        return first;
+    }
+
+    /**
+     * Does the same as the firstContact() above, but only checks the points
+     * at the given indices, such as the ones a broadphase has found to be
+     * near the path. Gives exactly the same answer as checking every point
+     * so long as none of the points left out come within range of the path.
+     *
+     * @param xs
+     *            The x-coordinates of the points.
+     * @param ys
+     *            The y-coordinates of the points.
+     * @param indices
+     *            The indices of the points to check.
+     * @param count
+     *            The number of indices to use.
+     * @param px
+     *            The x-coordinate of the start of the path.
+     * @param py
+     *            The y-coordinate of the start of the path.
+     * @param dx
+     *            The distance travelled along the x axis over the path.
+     * @param dy
+     *            The distance travelled along the y axis over the path.
+     * @param radius
+     *            The radius to compare against.
+     * @param skip
+     *            An index to leave out, or -1 to check them all.
+     * @return The earliest time of contact between 0 and 1, or positive
+     *         infinity if the path doesn't come within range of any point.
+     */
+    public static double firstContact(double[] xs, double[] ys,
+            int[] indices, int count, double px, double py, double dx,
+            double dy, double radius, int skip) {
+        double radiusSquared = radius * radius;
+        double lengthSquared = dx * dx + dy * dy;
+        double first = Double.POSITIVE_INFINITY;
+
+        for (int k = 0; k < count; k++) {
+            int i = indices[k];
+            if (i == skip) {
+                continue;
+            }
+            first = Math.min(first, contactTime(px - xs[i], py - ys[i], dx,
+                    dy, lengthSquared, radiusSquared));
+        }
+        return first;
+    }
+
+    /**
+     * Finds when a point moving along a path first comes within range of one
+     * standing still, for firstContact().
+     *
+     * @param fromX
+     *            The x distance from the point standing still to the start
+     *            of the path.
+     * @param fromY
+     *            The y distance from the point standing still to the start
+     *            of the path.
+     * @param dx
+     *            The distance travelled along the x axis over the path.
+     * @param dy
+     *            The distance travelled along the y axis over the path.
+     * @param lengthSquared
+     *            The squared length of the path.
+     * @param radiusSquared
+     *            The squared radius.
+     * @return The time of contact between 0 and 1, or positive infinity if
+     *         there is none.
+     */
+    private static double contactTime(double fromX, double fromY, double dx,
+            double dy, double lengthSquared, double radiusSquared) {
+        /*
+         * Solving |start + t * path - point|^2 = radius^2 for t, which is a
+         * quadratic with a = lengthSquared, b = 2 * halfB and c below.
+         */
+        double c = fromX * fromX + fromY * fromY - radiusSquared;
+        double halfB = fromX * dx + fromY * dy;
+
+        if (c < 0) {
+            // Already in range; only a contact if moving closer.
+            return halfB < 0 ? 0.0 : Double.POSITIVE_INFINITY;
+        }
+        if (halfB >= 0 || lengthSquared == 0) {
+            // Moving away from, or not moving relative to, the point.
+            return Double.POSITIVE_INFINITY;
+        }
+        double discriminant = halfB * halfB - lengthSquared * c;
+        if (discriminant < 0) {
+            // The path passes the point by without coming into range.
+            return Double.POSITIVE_INFINITY;
+        }
+        double t = (-halfB - Math.sqrt(discriminant)) / lengthSquared;
+        return t <= 1 ? t : Double.POSITIVE_INFINITY;
+    }
+}
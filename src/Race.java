@@ -0,0 +1,242 @@
+import java.io.File;
+import java.io.IOException;
+import org.newdawn.slick.SlickException;
+
+/**
+ * <h1>Race</h1>
+ * <h2>A single headless World hosted by the RaceServer</h2>
+ *
+ * Holds one World along with the latest input from the client driving its
+ * player. The World is stepped at a fixed tick rate against the wall clock:
+ * every time catchUp() is called, it runs however many ticks are owed since
+ * the race started. If the race has fallen too far behind, such as after the
+ * machine stalls, it skips ahead instead of trying to run every missed tick
+ * at once, and keeps count of the ticks it skipped.
+ *
+ * Each Race also keeps a running average of how much CPU time it takes per
+ * second of wall time, which the TickBudget adds up to decide whether the
+ * server can take on another race.
+ *
+ * The World is only ever touched while holding the lock on the Race, so the
+ * thread stepping it and the thread reading input from the client never see
+ * it half updated. Once the race is closed, anything still queued up to step
+ * it or waiting on the lock does nothing, as the World is closed too.
+ *
+ * @author Daniel Porteous porteousd 696965
+ */
+public class Race {
+
+    /** Screen size the World's camera is set up for */
+    private static final int VIEW_WIDTH = 800;
+    private static final int VIEW_HEIGHT = 600;
+
+    /** Most ticks run in one catchUp() before the rest are skipped */
+    private static final int MAX_CATCH_UP_TICKS = 1000;
+
+    /** Weight given to the newest sample in the running cost average */
+    private static final double COST_SMOOTHING = 0.1;
+
+    /** Number identifying the race to its client */
+    private int id;
+
+    /** The game state of the race */
+    private World world;
+
+    /** Ticks per second the World is stepped at */
+    private int tickRate;
+
+    /** The latest input from the client */
+    private double rotateDir;
+    private double moveDir;
+    private boolean useItem;
+
+    /** Wall clock time the race started at, from System.nanoTime() */
+    private long startNanos;
+
+    /** Wall clock time of the last catchUp() */
+    private long lastCatchUpNanos;
+
+    /** Number of ticks run so far */
+    private long ticks;
+
+    /** Number of ticks skipped because the race fell too far behind */
+    private long skippedTicks;
+
+    /** Running average of CPU nanoseconds spent per second of wall time */
+    private double costNanosPerSecond;
+
+    /** Where the race is being recorded, or null if it isn't */
+    private TelemetryRecorder telemetry;
+
+    /** Whether the race has been closed */
+    private boolean closed;
+
+    /**
+     * Creates a race with a fresh World. Sprites must already be in headless
+     * mode.
+     *
+     * @param id
+     *            Number identifying the race.
+     * @param tickRate
+     *            Ticks per second to step the World at.
+     * @param estimatedCost
+     *            CPU nanoseconds per second the race is expected to need,
+     *            used until it has been measured.
+     * @throws SlickException
+     */
+    public Race(int id, int tickRate, double estimatedCost)
+            throws SlickException {
+        this.id = id;
+        this.tickRate = tickRate;
+        world = new World(VIEW_WIDTH, VIEW_HEIGHT, tickRate);
+        rotateDir = 0.0;
+        moveDir = 0.0;
+        useItem = false;
+        ticks = 0;
+        skippedTicks = 0;
+        costNanosPerSecond = estimatedCost;
+        closed = false;
+        startNanos = System.nanoTime();
+        lastCatchUpNanos = startNanos;
+    }
+
+    /**
+     * Sets the input used for the player from the next tick on.
+     *
+     * @param rotateDir
+     *            The player's direction of rotation (-1, 0 or 1).
+     * @param moveDir
+     *            The player's movement in the car's axis (-1, 0 or 1).
+     * @param useItem
+     *            True if the player is using their held item.
+     */
+    public synchronized void setInput(double rotateDir, double moveDir,
+            boolean useItem) {
+        if (closed) {
+            return;
+        }
+        this.rotateDir = rotateDir;
+        this.moveDir = moveDir;
+        this.useItem = useItem;
+    }
+
+    /**
+     * Runs every tick owed between the start of the race and now, up to
+     * MAX_CATCH_UP_TICKS at once, and updates the running cost average.
+     * Nothing is run once the race is closed.
+     *
+     * @throws SlickException
+     */
+    public synchronized void catchUp() throws SlickException {
+        if (closed) {
+            return;
+        }
+        long now = System.nanoTime();
+        // Whole seconds and the rest apart, so this can't overflow.
+        long elapsed = now - startNanos;
+        long due = elapsed / 1000000000L * tickRate
+                + elapsed % 1000000000L * tickRate / 1000000000L;
+        long owed = due - ticks;
+        if (owed > MAX_CATCH_UP_TICKS) {
+            skippedTicks += owed - MAX_CATCH_UP_TICKS;
+            ticks += owed - MAX_CATCH_UP_TICKS;
+            owed = MAX_CATCH_UP_TICKS;
+        }
+
+        for (long i = 0; i < owed; i++) {
+            world.update(rotateDir, moveDir, useItem);
+        }
+        ticks += owed;
+
+        long finished = System.nanoTime();
+        long wall = finished - lastCatchUpNanos;
+        if (wall > 0) {
+            double sample = (finished - now) * 1e9 / wall;
+            costNanosPerSecond += COST_SMOOTHING
+                    * (sample - costNanosPerSecond);
+        }
+        lastCatchUpNanos = finished;
+    }
+
+    /**
+     * Describes the player's current state for the client, as the line
+     * "STATE tick x y angle rank finished", with the angle in degrees and
+     * finished being 1 once the player has crossed the line. Once the race
+     * is closed, this is an "ERROR" line instead.
+     *
+     * @return The description.
+     */
+    public synchronized String describe() {
+        if (closed) {
+            return "ERROR race " + id + " has ended";
+        }
+        Player player = world.getPlayer();
+        return "STATE " + ticks + " " + player.getMapX() + " "
+                + player.getMapY() + " " + player.getAngle().getDegrees() + " "
+                + world.getPlayerPos() + " " + (world.isGameOver() ? 1 : 0);
+    }
+
+    /**
+     * Starts recording the state of every Racer each tick into a telemetry
+     * file, for looking into the race afterwards with TelemetryReader.
+     *
+     * @param path
+     *            The file to record into, which is replaced if it exists.
+     * @throws IOException
+     *             If the file can't be created.
+     */
+    public synchronized void recordTelemetry(File path) throws IOException {
+        telemetry = new TelemetryRecorder(path,
+                TelemetryRecorder.DEFAULT_CAPACITY, world.getTickMillis());
+        world.setTelemetry(telemetry);
+    }
+
+    /**
+     * Ends the race: stops recording it, if it was being recorded, with
+     * everything recorded so far staying in the file, and closes the World.
+     * Closing a race that is already closed does nothing.
+     *
+     * @throws IOException
+     */
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (telemetry != null) {
+            world.setTelemetry(null);
+            telemetry.close();
+            telemetry = null;
+        }
+        world.close();
+    }
+
+    /**
+     * @return The number identifying the race.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * @return The number of ticks run so far.
+     */
+    public synchronized long getTicks() {
+        return ticks;
+    }
+
+    /**
+     * @return The number of ticks skipped because the race fell behind.
+     */
+    public synchronized long getSkippedTicks() {
+        return skippedTicks;
+    }
+
+    /**
+     * @return The running average of CPU nanoseconds spent stepping the race
+     *         per second of wall time.
+     */
+    public synchronized double getCostNanosPerSecond() {
+        return costNanosPerSecond;
+    }
+}
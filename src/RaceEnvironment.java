@@ -0,0 +1,427 @@
+import java.io.IOException;
+import org.newdawn.slick.SlickException;
+
+/**
+ * <h1>RaceEnvironment</h1>
+ * <h2>A race for a learning agent to drive in, one step at a time</h2>
+ *
+ * Wraps a headless World in the reset and step interface that reinforcement
+ * learning agents are trained against. The agent drives the player: each
+ * step it gives a rotation direction, a movement direction and whether to
+ * use its item, the World is run for a few ticks with that input, and the
+ * agent is given what it can see, a reward, and whether the race is done.
+ *
+ * What the agent sees is OBSERVATION_SIZE numbers, each roughly between -1
+ * and 1, written into an array the caller provides, so stepping allocates
+ * nothing. In order:
+ *
+ * The player: x and y as fractions of the map's size, the sine and cosine of
+ * its heading, its speed, how far along the track it is as a fraction, which
+ * item it holds as three flags (boost, oil, tomato), and whether it is
+ * boosting and spinning.
+ *
+ * Walls: the distance to the nearest wall along NUM_RAYS rays at fixed
+ * angles either side of the heading, as fractions of RAY_LENGTH.
+ *
+ * Racers: the nearest NUM_NEAREST_RACERS other Racers within RACER_RANGE,
+ * nearest first, each as its distance ahead and to the right of the player
+ * as fractions of RACER_RANGE, its speed, and a flag saying it is there.
+ *
+ * Items: the nearest NUM_NEAREST_ITEMS Items within ITEM_RANGE, nearest
+ * first, each as its distance ahead and to the right as fractions of
+ * ITEM_RANGE, what it is as three flags (boost, oil, tomato), and a flag set
+ * for a dropped oil slick or a thrown tomato rather than one to pick up.
+ *
+ * Missing Racers and Items are all zeroes. The reward is how far the player
+ * moved along the track in the step, in tiles, measured along the line
+ * through the waypoints, so backing up is punished and cutting corners
+ * isn't. The race is done when the player crosses the line, or after a
+ * given number of steps.
+ *
+ * Going back to the start of the race is a restore of a WorldSnapshot, so
+ * resetting costs microseconds rather than reloading the map.
+ * VectorRaceEnvironment steps many of these at once.
+ *
+ * @author Daniel Porteous porteousd 696965
+ */
+public class RaceEnvironment {
+
+    /** Number of wall rays, and their angles either side of the heading */
+    public static final int NUM_RAYS = 8;
+    private static final double[] RAY_DEGREES = { 0, -20, 20, -45, 45, -90,
+            90, 180 };
+
+    /** Number of other Racers and Items seen */
+    public static final int NUM_NEAREST_RACERS = 3;
+    public static final int NUM_NEAREST_ITEMS = 4;
+
+    /** Numbers seen about the player, each Racer and each Item */
+    private static final int PLAYER_SIZE = 11;
+    private static final int RACER_SIZE = 4;
+    private static final int ITEM_SIZE = 6;
+
+    /** Number of numbers in an observation */
+    public static final int OBSERVATION_SIZE = PLAYER_SIZE + NUM_RAYS
+            + NUM_NEAREST_RACERS * RACER_SIZE
+            + NUM_NEAREST_ITEMS * ITEM_SIZE;
+
+    /** In pixels. How far the agent can see walls, Racers and Items */
+    private static final double RAY_LENGTH = 8 * GlobalHelper.TILE_WIDTH;
+    private static final double RACER_RANGE = 12 * GlobalHelper.TILE_WIDTH;
+    private static final double ITEM_RANGE = 8 * GlobalHelper.TILE_WIDTH;
+
+    /** In pixels per millisecond. A speed seen as 1 */
+    private static final double SPEED_SCALE = 1.0;
+
+    /** Number of segments of the track ahead that progress is looked for on */
+    private static final int SEGMENT_LOOKAHEAD = 2;
+
+    /** Screen size the World's camera is set up for */
+    private static final int VIEW_WIDTH = 800;
+    private static final int VIEW_HEIGHT = 600;
+
+    /** The race */
+    private World world;
+
+    /** The World at the start of the race, for resetting to */
+    private WorldSnapshot start;
+
+    /** Ticks run per step, and the most steps before the race is done */
+    private int ticksPerStep;
+    private int maxSteps;
+
+    /** The wall rays' angles either side of the heading, as binary angles */
+    private int[] rayOffsets;
+
+    /**
+     * The track, from the player's starting point through every waypoint,
+     * with the distance along it to each point.
+     */
+    private double[] trackX;
+    private double[] trackY;
+    private double[] trackDistance;
+
+    /** The segment of the track the player was last nearest */
+    private int segment;
+
+    /** In pixels. How far along the track the player is */
+    private double progress;
+
+    /** Steps taken since the last reset */
+    private int numSteps;
+
+    /** Whether the race is done, and needs resetting before stepping on */
+    private boolean done;
+
+    /** The nearest Racers and Items found, by slot, and their distances */
+    private int[] nearestRacers;
+    private double[] racerDistances;
+    private int[] nearestItems;
+    private double[] itemDistances;
+
+    /**
+     * Creates an environment and its World, headless, at the start of the
+     * race. This switches Sprites to headless mode, so environments are only
+     * for processes that don't draw anything.
+     *
+     * @param tickRate
+     *            The number of ticks per second of the World.
+     * @param ticksPerStep
+     *            The number of ticks each step runs with the same input.
+     * @param maxSteps
+     *            The number of steps after which the race is done, even if
+     *            the player hasn't finished.
+     * @throws SlickException
+     *             If the World can't be set up.
+     */
+    public RaceEnvironment(int tickRate, int ticksPerStep, int maxSteps)
+            throws SlickException {
+        if (ticksPerStep <= 0 || maxSteps <= 0) {
+            throw new IllegalArgumentException(
+                    "RaceEnvironment: ticks per step and steps must be "
+                            + "positive");
+        }
+        this.ticksPerStep = ticksPerStep;
+        this.maxSteps = maxSteps;
+
+        Sprites.setHeadless(true);
+        world = new World(VIEW_WIDTH, VIEW_HEIGHT, tickRate);
+        start = world.createSnapshot();
+        world.save(start);
+
+        rayOffsets = new int[NUM_RAYS];
+        for (int i = 0; i < NUM_RAYS; i++) {
+            rayOffsets[i] = Angle.toBinary(Math.toRadians(RAY_DEGREES[i]));
+        }
+
+        double[][] waypoints = world.getWaypoints();
+        trackX = new double[waypoints.length + 1];
+        trackY = new double[waypoints.length + 1];
+        trackDistance = new double[waypoints.length + 1];
+        trackX[0] = world.getPlayer().getMapX();
+        trackY[0] = world.getPlayer().getMapY();
+        for (int i = 0; i < waypoints.length; i++) {
+            trackX[i + 1] = waypoints[i][0];
+            trackY[i + 1] = waypoints[i][1];
+            trackDistance[i + 1] = trackDistance[i] + Math.hypot(
+                    trackX[i + 1] - trackX[i], trackY[i + 1] - trackY[i]);
+        }
+
+        nearestRacers = new int[NUM_NEAREST_RACERS];
+        racerDistances = new double[NUM_NEAREST_RACERS];
+        nearestItems = new int[NUM_NEAREST_ITEMS];
+        itemDistances = new double[NUM_NEAREST_ITEMS];
+        done = true;
+    }
+
+    /**
+     * Puts the race back to the start.
+     *
+     * @param observation
+     *            Where to write what the agent sees at the start.
+     * @param offset
+     *            The index in observation to start writing at.
+     */
+    public void reset(double[] observation, int offset) {
+        world.restore(start);
+        numSteps = 0;
+        segment = 0;
+        progress = measureProgress();
+        done = false;
+        observe(observation, offset);
+    }
+
+    /**
+     * Runs the race on for a step with the agent's input. Once the race is
+     * done, it has to be reset before stepping again.
+     *
+     * @param rotateDir
+     *            The direction of rotation (-1, 0 or 1).
+     * @param moveDir
+     *            The movement in the car's axis (-1, 0 or 1).
+     * @param useItem
+     *            True to use the held item.
+     * @param observation
+     *            Where to write what the agent sees after the step.
+     * @param offset
+     *            The index in observation to start writing at.
+     * @return The reward for the step.
+     * @throws SlickException
+     */
+    public double step(double rotateDir, double moveDir, boolean useItem,
+            double[] observation, int offset) throws SlickException {
+        if (done) {
+            throw new IllegalStateException(
+                    "RaceEnvironment: reset before stepping");
+        }
+        for (int i = 0; i < ticksPerStep && !world.isGameOver(); i++) {
+            world.update(rotateDir, moveDir, useItem);
+        }
+        numSteps++;
+
+        double before = progress;
+        progress = measureProgress();
+        done = world.isGameOver() || numSteps >= maxSteps;
+        observe(observation, offset);
+        return (progress - before) / GlobalHelper.TILE_WIDTH;
+    }
+
+    /**
+     * @return True once the race is done, and needs resetting.
+     */
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Closes the World. The environment can't be stepped after this.
+     *
+     * @throws IOException
+     *             If the World's map can't be closed.
+     */
+    public void close() throws IOException {
+        world.close();
+    }
+
+    /**
+     * @return The World being raced in.
+     */
+    public World getWorld() {
+        return world;
+    }
+
+    /**
+     * Works out how far along the track the player is, by finding the
+     * nearest point to them on the segments just ahead of the last one they
+     * were nearest. Only looking ahead keeps this quick, and stops a track
+     * that doubles back from counting the player as further on than they
+     * are.
+     *
+     * @return In pixels. The distance along the track.
+     */
+    private double measureProgress() {
+        Player player = world.getPlayer();
+        double x = player.getMapX();
+        double y = player.getMapY();
+        int last = Math.min(segment + SEGMENT_LOOKAHEAD, trackX.length - 2);
+
+        double bestDistance = Double.POSITIVE_INFINITY;
+        double bestProgress = 0;
+        int bestSegment = segment;
+        for (int i = segment; i <= last; i++) {
+            double dx = trackX[i + 1] - trackX[i];
+            double dy = trackY[i + 1] - trackY[i];
+            double lengthSquared = dx * dx + dy * dy;
+            double t = lengthSquared == 0 ? 0.0
+                    : ((x - trackX[i]) * dx + (y - trackY[i]) * dy)
+                            / lengthSquared;
+            t = Math.max(0.0, Math.min(1.0, t));
+            double offX = trackX[i] + t * dx - x;
+            double offY = trackY[i] + t * dy - y;
+            double distance = offX * offX + offY * offY;
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                bestSegment = i;
+                bestProgress = trackDistance[i]
+                        + t * (trackDistance[i + 1] - trackDistance[i]);
+            }
+        }
+        segment = bestSegment;
+        return bestProgress;
+    }
+
+    /**
+     * Writes what the agent sees, as described above.
+     *
+     * @param out
+     *            The array to write to.
+     * @param at
+     *            The index to start writing at.
+     */
+    private void observe(double[] out, int at) {
+        RacerStates states = world.getRacerStates();
+        Player player = world.getPlayer();
+        int me = 0;
+        double x = states.x[me];
+        double y = states.y[me];
+        int heading = states.heading[me];
+        double sin = Angle.sin(heading);
+        double cos = Angle.cos(heading);
+
+        // The player.
+        Item held = player.getHeldItem();
+        out[at++] = x / world.getMapWidth();
+        out[at++] = y / world.getMapHeight();
+        out[at++] = sin;
+        out[at++] = cos;
+        out[at++] = states.speed[me] / SPEED_SCALE;
+        out[at++] = progress / trackDistance[trackDistance.length - 1];
+        out[at++] = held instanceof Boost ? 1.0 : 0.0;
+        out[at++] = held instanceof Oil ? 1.0 : 0.0;
+        out[at++] = held instanceof Tomato ? 1.0 : 0.0;
+        out[at++] = states.boostEffects[me] > 0 ? 1.0 : 0.0;
+        out[at++] = states.spinEffects[me] > 0 ? 1.0 : 0.0;
+
+        // The walls.
+        for (int i = 0; i < NUM_RAYS; i++) {
+            int angle = heading + rayOffsets[i];
+            double distance = world.castRay(x, y, Angle.sin(angle),
+                    -Angle.cos(angle), RAY_LENGTH);
+            out[at++] = Math.min(distance, RAY_LENGTH) / RAY_LENGTH;
+        }
+
+        // The nearest other Racers.
+        clearNearest(nearestRacers, racerDistances);
+        for (int i = 0; i < states.getNumRacers(); i++) {
+            if (i != me) {
+                double dx = states.x[i] - x;
+                double dy = states.y[i] - y;
+                double distance = dx * dx + dy * dy;
+                if (distance < RACER_RANGE * RACER_RANGE) {
+                    addNearest(nearestRacers, racerDistances, i, distance);
+                }
+            }
+        }
+        for (int k = 0; k < NUM_NEAREST_RACERS; k++) {
+            int i = nearestRacers[k];
+            if (i < 0) {
+                for (int j = 0; j < RACER_SIZE; j++) {
+                    out[at++] = 0.0;
+                }
+                continue;
+            }
+            double dx = states.x[i] - x;
+            double dy = states.y[i] - y;
+            out[at++] = (dx * sin - dy * cos) / RACER_RANGE;
+            out[at++] = (dx * cos + dy * sin) / RACER_RANGE;
+            out[at++] = states.speed[i] / SPEED_SCALE;
+            out[at++] = 1.0;
+        }
+
+        // The nearest Items.
+        ItemStore items = world.getMapItems();
+        clearNearest(nearestItems, itemDistances);
+        for (int slot = items.nextWithin(0, x, y, ITEM_RANGE); slot >= 0;
+                slot = items.nextWithin(slot + 1, x, y, ITEM_RANGE)) {
+            Item item = items.get(slot);
+            double dx = item.getMapX() - x;
+            double dy = item.getMapY() - y;
+            addNearest(nearestItems, itemDistances, slot, dx * dx + dy * dy);
+        }
+        for (int k = 0; k < NUM_NEAREST_ITEMS; k++) {
+            if (nearestItems[k] < 0) {
+                for (int j = 0; j < ITEM_SIZE; j++) {
+                    out[at++] = 0.0;
+                }
+                continue;
+            }
+            Item item = items.get(nearestItems[k]);
+            double dx = item.getMapX() - x;
+            double dy = item.getMapY() - y;
+            out[at++] = (dx * sin - dy * cos) / ITEM_RANGE;
+            out[at++] = (dx * cos + dy * sin) / ITEM_RANGE;
+            out[at++] = item instanceof Boost ? 1.0 : 0.0;
+            out[at++] = item instanceof Oil ? 1.0 : 0.0;
+            out[at++] = item instanceof Tomato ? 1.0 : 0.0;
+            out[at++] = item.isActive() ? 1.0 : 0.0;
+        }
+    }
+
+    /**
+     * Empties a list of the nearest things found.
+     */
+    private static void clearNearest(int[] nearest, double[] distances) {
+        for (int k = 0; k < nearest.length; k++) {
+            nearest[k] = -1;
+            distances[k] = Double.POSITIVE_INFINITY;
+        }
+    }
+
+    /**
+     * Adds a thing to a list of the nearest found, kept in order of
+     * distance, if it is nearer than the furthest in the list.
+     *
+     * @param nearest
+     *            The slots of the nearest things, nearest first, -1 for none.
+     * @param distances
+     *            Their distances, squared.
+     * @param slot
+     *            The slot of the thing found.
+     * @param distance
+     *            Its distance, squared.
+     */
+    private static void addNearest(int[] nearest, double[] distances,
+            int slot, double distance) {
+        int k = nearest.length - 1;
+        if (distance >= distances[k]) {
+            return;
+        }
+        while (k > 0 && distances[k - 1] > distance) {
+            nearest[k] = nearest[k - 1];
+            distances[k] = distances[k - 1];
+            k--;
+        }
+        nearest[k] = slot;
+        distances[k] = distance;
+    }
+}
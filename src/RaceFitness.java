@@ -0,0 +1,100 @@
+import java.util.Arrays;
+
+/**
+ * <h1>RaceFitness</h1>
+ * <h2>Scores how well a race went, for an AiTuner to improve on</h2>
+ *
+ * Given when the player and each Enemy crossed the line, works out how far
+ * the race was from the kind of race we want, so lower is always better and
+ * 0 is perfect. What makes a good race is up to whoever is tuning, so there
+ * are a few to choose from by name, each with a target:
+ *
+ * spread: the Enemies finish evenly spread out from target seconds ahead of
+ * the player to target seconds behind them, so the player is racing someone
+ * whichever way it goes. The cost is the root mean square of how far each
+ * Enemy, in finishing order, was from its place in the spread, in seconds.
+ *
+ * gap: every Enemy finishes target seconds behind the player, or ahead if
+ * the target is negative. The cost is the root mean square of how far each
+ * was from that, in seconds.
+ *
+ * place: the player finishes in the target place, 1 being first. The cost
+ * is how many places out they were, plus a fraction for how long the race
+ * went on, so of two sets that get the place right the closer race wins.
+ *
+ * @author Daniel Porteous porteousd 696965
+ */
+public interface RaceFitness {
+
+    /** The names that forName() knows */
+    public static final String[] NAMES = { "spread", "gap", "place" };
+
+    /**
+     * Scores a race. A Racer that never finished is given the time the race
+     * was stopped at.
+     *
+     * @param playerMillis
+     *            When the player crossed the line, in milliseconds.
+     * @param enemyMillis
+     *            When each Enemy crossed the line, in milliseconds. This may
+     *            be reordered.
+     * @return The cost of the race, 0 if it was perfect.
+     */
+    public double getCost(double playerMillis, double[] enemyMillis);
+
+    /**
+     * Gets one of the fitness functions described above.
+     *
+     * @param name
+     *            The name of the function, one of NAMES.
+     * @param target
+     *            The target for that function: seconds for spread and gap,
+     *            a place for place.
+     * @return The function.
+     * @throws IllegalArgumentException
+     *             If there is no function of that name.
+     */
+    public static RaceFitness forName(String name, double target) {
+        switch (name) {
+        case "spread":
+            return (playerMillis, enemyMillis) -> {
+                Arrays.sort(enemyMillis);
+                int n = enemyMillis.length;
+                double sum = 0;
+                for (int i = 0; i < n; i++) {
+                    double offset = n == 1 ? 0.0
+                            : target * (2.0 * i / (n - 1) - 1.0);
+                    double error = (enemyMillis[i] - playerMillis) / 1000.0
+                            - offset;
+                    sum += error * error;
+                }
+                return Math.sqrt(sum / n);
+            };
+        case "gap":
+            return (playerMillis, enemyMillis) -> {
+                double sum = 0;
+                for (double millis : enemyMillis) {
+                    double error = (millis - playerMillis) / 1000.0 - target;
+                    sum += error * error;
+                }
+                return Math.sqrt(sum / enemyMillis.length);
+            };
+        case "place":
+            return (playerMillis, enemyMillis) -> {
+                int place = 1;
+                double last = playerMillis;
+                for (double millis : enemyMillis) {
+                    if (millis < playerMillis) {
+                        place++;
+                    }
+                    last = Math.max(last, millis);
+                }
+                return Math.abs(place - target)
+                        + (last - playerMillis) / (last + 1000.0);
+            };
+        default:
+            throw new IllegalArgumentException(
+                    "RaceFitness: no fitness function called " + name);
+        }
+    }
+}
@@ -0,0 +1,307 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.newdawn.slick.SlickException;
+
+/**
+ * <h1>RaceServer</h1>
+ * <h2>Hosts many headless races in one process for local clients</h2>
+ *
+ * Where Game runs a single World inside Slick's game loop, the server runs any
+ * number of independent Races, each with its own headless World, and takes
+ * the input for each from a client connected over a socket on the loopback
+ * address. Every client gets a race of its own for as long as it stays
+ * connected.
+ *
+ * The races are stepped on a fixed pool of threads, one per processor. Each
+ * race is scheduled to catch up to the wall clock every FRAME_MILLIS, running
+ * however many ticks are owed, so the threads are shared between races rather
+ * than each race holding on to one. The TickBudget keeps track of how much CPU
+ * time the races are using between them, and a new client is turned away if
+ * its race wouldn't fit.
+ *
+ * The protocol is line based text. On connecting, the client is sent either
+ * "RACE id" if a race was started for it, or "BUSY" if the server is full, in
+ * which case the connection is closed. After that the client may send:
+ * <ul>
+ * <li>"INPUT rotateDir moveDir useItem" to set the player's input, with the
+ * same values Game passes to World.update() and useItem as 0 or 1. Nothing is
+ * sent back.
+ * <li>"STATE" to be sent the player's state, as described in Race.describe().
+ * <li>"QUIT" to end the race and close the connection.
+ * </ul>
+ * Anything else is answered with a line starting "ERROR".
+ *
+ * @author Daniel Porteous porteousd 696965
+ */
+public class RaceServer {
+
+    /** Port the server listens on unless told otherwise */
+    public static final int DEFAULT_PORT = 47800;
+
+    /** How often each race is caught up to the wall clock, in milliseconds */
+    private static final int FRAME_MILLIS = 10;
+
+    /** The socket clients connect to */
+    private ServerSocket serverSocket;
+
+    /** Ticks per second each race is stepped at */
+    private int tickRate;
+
+    /** Threads the races are stepped on */
+    private ScheduledExecutorService scheduler;
+
+    /** Threads serving the client connections, one per client */
+    private ExecutorService connections;
+
+    /** Decides whether there is room for another race */
+    private TickBudget budget;
+
+    /** The races currently running, by id */
+    private Map<Integer, Race> races;
+
+    /** Scheduled stepping of each race, so it can be cancelled */
+    private Map<Integer, ScheduledFuture<?>> steppers;
+
+    /** Id to give the next race */
+    private AtomicInteger nextRaceId;
+
+    /** Directory each race is recorded into, or null to not record them */
+    private volatile File telemetryDirectory;
+
+    /**
+     * Creates a server listening on the loopback address. Sprites are switched
+     * into headless mode, since the server never renders anything.
+     *
+     * @param port
+     *            The port to listen on, or 0 for any free port.
+     * @param tickRate
+     *            Ticks per second to step each race at.
+     * @param numThreads
+     *            The number of threads to step the races on.
+     * @throws IOException
+     *             If the socket can't be opened.
+     */
+    public RaceServer(int port, int tickRate, int numThreads)
+            throws IOException {
+        Sprites.setHeadless(true);
+        serverSocket = new ServerSocket(port, 0,
+                InetAddress.getLoopbackAddress());
+        this.tickRate = tickRate;
+        scheduler = Executors.newScheduledThreadPool(numThreads);
+        connections = Executors.newCachedThreadPool();
+        budget = new TickBudget(numThreads, tickRate);
+        races = new ConcurrentHashMap<Integer, Race>();
+        steppers = new ConcurrentHashMap<Integer, ScheduledFuture<?>>();
+        nextRaceId = new AtomicInteger(1);
+    }
+
+    /**
+     * Starts a new race if it fits in the budget. Races are only admitted one
+     * at a time, so two clients connecting at once can't both squeeze into
+     * the last space.
+     *
+     * @return The new race, or null if the server is full.
+     * @throws SlickException
+     *             If the World can't be created.
+     */
+    public synchronized Race startRace() throws SlickException {
+        if (!budget.canAdmit(races.values())) {
+            return null;
+        }
+        final Race race = new Race(nextRaceId.getAndIncrement(), tickRate,
+                budget.estimateCost(races.values()));
+        if (telemetryDirectory != null) {
+            try {
+                race.recordTelemetry(new File(telemetryDirectory,
+                        "race-" + race.getId() + ".telemetry"));
+            } catch (IOException e) {
+                // The race can still go ahead, just without a recording.
+                e.printStackTrace();
+            }
+        }
+        races.put(race.getId(), race);
+        steppers.put(race.getId(), scheduler.scheduleAtFixedRate(() -> {
+            try {
+                race.catchUp();
+            } catch (SlickException | RuntimeException e) {
+                e.printStackTrace();
+                endRace(race);
+            }
+        }, FRAME_MILLIS, FRAME_MILLIS, TimeUnit.MILLISECONDS));
+        return race;
+    }
+
+    /**
+     * Stops stepping a race and forgets about it.
+     *
+     * @param race
+     *            The race to end.
+     */
+    public void endRace(Race race) {
+        ScheduledFuture<?> stepper = steppers.remove(race.getId());
+        if (stepper != null) {
+            stepper.cancel(false);
+        }
+        races.remove(race.getId());
+        try {
+            race.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Sets a directory to record every race started from now on into, as
+     * race-id.telemetry, so they can be looked into afterwards with
+     * TelemetryReader.
+     *
+     * @param telemetryDirectory
+     *            The directory, or null to stop recording new races.
+     */
+    public void setTelemetryDirectory(File telemetryDirectory) {
+        this.telemetryDirectory = telemetryDirectory;
+    }
+
+    /**
+     * Accepts clients until the server is closed, serving each on a thread of
+     * its own.
+     */
+    public void serve() {
+        while (!serverSocket.isClosed()) {
+            try {
+                final Socket client = serverSocket.accept();
+                connections.execute(() -> handle(client));
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Serves a single client, starting a race for it and then following its
+     * commands until it quits or disconnects.
+     *
+     * @param client
+     *            The client's connection.
+     */
+    private void handle(Socket client) {
+        Race race = null;
+        try (Socket socket = client;
+                BufferedReader in = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(),
+                                "UTF-8"));
+                PrintWriter out = new PrintWriter(socket.getOutputStream(),
+                        true)) {
+            race = startRace();
+            if (race == null) {
+                out.println("BUSY");
+                return;
+            }
+            out.println("RACE " + race.getId());
+
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] parts = line.trim().split("\\s+");
+                if (parts[0].equals("INPUT") && parts.length == 4) {
+                    race.setInput(Double.parseDouble(parts[1]),
+                            Double.parseDouble(parts[2]),
+                            parts[3].equals("1"));
+                } else if (parts[0].equals("STATE")) {
+                    out.println(race.describe());
+                } else if (parts[0].equals("QUIT")) {
+                    break;
+                } else {
+                    out.println("ERROR unknown command: " + line);
+                }
+            }
+        } catch (IOException | SlickException | NumberFormatException e) {
+            e.printStackTrace();
+        } finally {
+            if (race != null) {
+                endRace(race);
+            }
+        }
+    }
+
+    /**
+     * @return The load on the server as a fraction of its budget.
+     */
+    public double getLoad() {
+        return budget.getLoad(races.values());
+    }
+
+    /**
+     * @return True if the races running need more CPU than the budget allows.
+     */
+    public boolean isOverloaded() {
+        return budget.isOverloaded(races.values());
+    }
+
+    /**
+     * @return The number of races currently running.
+     */
+    public int getNumRaces() {
+        return races.size();
+    }
+
+    /**
+     * @return The port the server is listening on.
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Stops accepting clients and ends every race.
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        serverSocket.close();
+        scheduler.shutdownNow();
+        connections.shutdownNow();
+        for (Race race : races.values()) {
+            endRace(race);
+        }
+        steppers.clear();
+    }
+
+    /**
+     * Starts a server and serves clients until the process is killed.
+     *
+     * @param args
+     *            Optionally the port to listen on, then the tick rate,
+     *            then a directory to record every race into.
+     * @throws IOException
+     *             If the socket can't be opened.
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int tickRate = args.length > 1 ? Integer.parseInt(args[1])
+                : World.DEFAULT_TICK_RATE;
+        RaceServer server = new RaceServer(port, tickRate,
+                Runtime.getRuntime().availableProcessors());
+        if (args.length > 2) {
+            server.setTelemetryDirectory(new File(args[2]));
+        }
+        System.out.println("Listening on port " + server.getPort() + " at "
+                + tickRate + " ticks per second");
+        server.serve();
+    }
+}
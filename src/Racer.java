@@ -1,4 +1,3 @@
-import java.util.ArrayList;
 import org.newdawn.slick.SlickException;
 
 /**
@@ -10,6 +9,11 @@ import org.newdawn.slick.SlickException;
  * moves around the game world, as well as how they interact with Items and each
  * other.
  * 
+ * The physics state of every Racer lives in a RacerStates store shared by the
+ * whole World, and each Racer is a view onto its slot in that store. The
+ * getters and setters here (including those inherited from RenderableObject
+ * for position and angle) read and write that slot.
+ * 
  * Doesn't define any static methods, but does have an abstract method for the
  * Enemy and Player subclasses to implement.
  * 
@@ -24,9 +28,6 @@ public abstract class Racer extends RenderableObject {
     private final double BASE_ACCELERATION = 0.0005;
     private final double BASE_ANGULAR_MODIFIER = 0.004;
 
-    /** Number of pixels in which proximity of which player picks up an item */
-    private final int RACER_COLLISION_RADIUS = 40;
-
     /**
      * Number of pixels in the proximity of which Racer interacts with an item.
      */
@@ -36,26 +37,17 @@ public abstract class Racer extends RenderableObject {
     private final String KARTS_PATH = "karts/";
 
     /**
-     * Standard variables to hold information about the movement state of Racer.
+     * The store holding the movement state of the Racer, and the slot in it
+     * belonging to this Racer. Until the Racer is bound to the store shared by
+     * the World, it has a store of its own with just the one slot.
      */
-    private double speed; // Speed, not velocity, this is a scalar value.
-    private double acceleration;
-    private double angularModifier;
-    private double moveDir;
-    private double rotateDir;
-
-    /** ArrayList holding all the items currently active on the Racer */
-    private ArrayList<Item> activeItems;
+    private RacerStates states;
+    private int slot;
 
     /**
      * As well as calling the super constructor, which mainly just places the
      * object on the map, this constructor sets the values relating to the
-     * movement of the Racer to the standard constants.
-     * 
-     * An ArrayList of Items is also created and given an initial size of 3, a
-     * size which likely wouldn't need to be increase considering that it's
-     * almost impossible for a Racer to be under more than 3 active effects at
-     * one time.
+     * movement of the Racer to the standard constants in a store of its own.
      * 
      * @param startX
      *            In pixels. Horizontal x-coordinate starting position.
@@ -65,29 +57,30 @@ public abstract class Racer extends RenderableObject {
      */
     public Racer(double startX, double startY) throws SlickException {
         super(startX, startY);
-        moveDir = 0.0;
-        rotateDir = 0.0;
-        speed = 0.0;
-        acceleration = BASE_ACCELERATION;
-        angularModifier = BASE_ANGULAR_MODIFIER;
-        activeItems = new ArrayList<Item>(3);
+        states = new RacerStates(1);
+        slot = states.add(startX, startY, BASE_ACCELERATION,
+                BASE_ANGULAR_MODIFIER);
     }
 
     /**
-     * Simple method to check whether two Racers "equal". This method however
-     * doesn't check true equality, just enough to confirm whether a Racer is
-     * itself for the checkCollisions() method, so that it won't check if it's
-     * colliding with itself.
+     * Moves the state of this Racer into a store shared with other Racers, so
+     * they can be moved together. From then on the Racer reads and writes its
+     * state in that store.
      * 
-     * @param racer
-     *            The other Racer in question to which we will compare.
-     * @return Will return true if they are "equal", false if not.
+     * @param sharedStates
+     *            The store to move into.
+     */
+    public void bind(RacerStates sharedStates) {
+        slot = sharedStates.addCopy(states, slot);
+        states = sharedStates;
+    }
+
+    /**
+     * @return The Racer's slot in the store it is bound to, which in a World
+     *         is also its index among the World's Racers.
      */
-    private boolean equals(Racer racer) {
-        if (getMapX() == racer.getMapX() && getMapY() == racer.getMapY()) {
-            return true;
-        }
-        return false;
+    public int getSlot() {
+        return slot;
     }
 
     /**
@@ -98,79 +91,55 @@ public abstract class Racer extends RenderableObject {
      * 
      * @param mapItems
      *            The Items currently on the map, active or not.
+     * @param effects
+     *            The timer wheel on which the effects of any active items
+     *            collided with are scheduled.
      */
-    public abstract void checkItemCollision(ArrayList<Item> mapItems);
+    public abstract void checkItemCollision(ItemStore mapItems,
+            EffectTimerWheel effects);
 
     /**
-     * When the very inner if statement is triggered, it means that the
-     * useEffect() method of the item in question returned true, indicating that
-     * its active effect on the player should end. As such, the Racer's
-     * modifiable movement variables, namely at this point the acceleration and
-     * angularModifier, are reset to the default and the item is removed from
-     * the Racer's active effects ArrayList.
-     *
-     * @param mapItems
-     *            The items currently on the map. These need to passed through
-     *            to the useEffect method so when the item is activated (e.g. a
-     *            tomato is thrown), it can be added to the list of items
-     *            currently on the map.
-     * @throws SlickException
+     * Called by the boost effect when it starts. While any boost is in place,
+     * the Racer moves with the boost acceleration and is locked moving
+     * forward. Effects are counted rather than flagged so that when they are
+     * stacked, the first one to expire doesn't end the others with it.
+     * 
+     * @param acceleration
+     *            The acceleration to apply while boosting.
      */
-    public void processActiveItems(ArrayList<Item> mapItems)
-            throws SlickException {
-        for (int i = 0; i < activeItems.size(); i++) {
-            if (activeItems.get(i).applyEffect(this, mapItems)) {
-                acceleration = BASE_ACCELERATION;
-                angularModifier = BASE_ANGULAR_MODIFIER;
-                activeItems.remove(i);
-                i--;
-            }
-        }
+    public void startBoost(double acceleration) {
+        states.boostEffects[slot]++;
+        states.boostAcceleration[slot] = acceleration;
+    }
+
+    /** Called by the boost effect when it expires. */
+    public void endBoost() {
+        states.boostEffects[slot]--;
     }
 
     /**
-     * This method processes all potential sources of collision for the Racer.
-     * This includes terrain from the world as well as other Racers.
+     * Called by the Oil/Tomato effect when it starts. While any spin is in
+     * place, the Racer is locked turning clockwise and moving forward with
+     * the given angular modifier.
      * 
-     * @param racers
-     *            All the racers active on the map.
-     * @param world
-     *            The world object, so we can check friction at the potential
-     *            new location.
-     * @param newX
-     *            Potential new x-coordinate.
-     * @param newY
-     *            Potential new y-coordinate.
-     * @return Will return true if there will be a collision, or false
-     *         otherwise.
+     * @param angularModifier
+     *            The angular modifier to apply while spinning.
      */
-    private boolean checkCollisions(Racer[] racers, World world, double newX,
-            double newY) {
-
-        // Checking to see if the Racer is going to collide with terrain.
-        if (world.getFriction(newX, newY) >= 1) {
-            return true;
-        }
+    public void startSpin(double angularModifier) {
+        states.spinEffects[slot]++;
+        states.spinAngularModifier[slot] = angularModifier;
+    }
 
-        /*
-         * Goes through each Racer in racers to confirm that the new position
-         * wouldn't result in a collision. The equals() method is called each
-         * time just to confirm that we aren't checking a Racer against itself,
-         * in which case collision would always be true.
-         */
-        for (int i = 0; i < racers.length; i++) {
-            if (!racers[i].equals(this)) {
-                if (GlobalHelper.getHypotenuse(newX - racers[i].getMapX(),
-                        newY - racers[i].getMapY()) < RACER_COLLISION_RADIUS) {
-                    return true;
-                }
-            }
-        }
-        return false;
+    /** Called by the Oil/Tomato effect when it expires. */
+    public void endSpin() {
+        states.spinEffects[slot]--;
     }
 
     /**
-     * Updates the angle and speed of the car, as well as processing any
+     * Does everything for the tick short of actually moving: takes on the
+     * input for this tick and checks for collisions with items. This is split
+     * out from update() so that World can prepare every Racer first and then
+     * move them all at once with RacerStates.stepAll().
      * 
      * @param rotateDir
      *            -1, 0 or 1 based on the Left or Right arrow keypresses
@@ -179,77 +148,130 @@ public abstract class Racer extends RenderableObject {
      *            Same as above except for the Up and Down keys. Used for
      *            forward/back movement.
      * @param world
-     *            The world object itself so that friction can be checked based
-     *            on the location of the Racer.
+     *            The world object, holding the timer wheel on which item
+     *            effects are scheduled.
      * @param mapItems
      *            The items currently on the map.
-     * @param racers
-     *            The racers in the game, i.e. Player and the Enemies.
      */
-    public void update(double rotateDir, double moveDir, World world,
-            ArrayList<Item> mapItems, Racer[] racers) throws SlickException {
+    public void prepareUpdate(double rotateDir, double moveDir, World world,
+            ItemStore mapItems) {
 
         /*
          * Initially setting the moveDir and rotateDir to those received from
          * the keyboard.
          */
-        this.moveDir = moveDir;
-        this.rotateDir = rotateDir;
+        states.moveDir[slot] = moveDir;
+        states.rotateDir[slot] = rotateDir;
 
         /*
          * Here we call the checkItemCollion method to check whether the Racer
          * has collided with any items on the map (only active items for
          * Enemies). If this turns out to be the case, the item is removed from
-         * the map and dealt with accordingly.
+         * the map and its effect scheduled on the world's timer wheel.
          */
-        checkItemCollision(mapItems);
+        checkItemCollision(mapItems, world.getEffectTimers());
+    }
 
-        /*
-         * Going through the items currently active on the Racer and applying
-         * their effects.
-         */
-        processActiveItems(mapItems);
+    /**
+     * Updates the angle, speed and position of the car, taking into account
+     * any effects it is under, as well as processing any item collisions. The
+     * movement itself is done by RacerStates.step(), which checks for
+     * collisions against terrain and every other Racer in the store.
+     * 
+     * @param rotateDir
+     *            -1, 0 or 1 based on the Left or Right arrow keypresses
+     *            collected in Game. Used for rotation.
+     * @param moveDir
+     *            Same as above except for the Up and Down keys. Used for
+     *            forward/back movement.
+     * @param world
+     *            The world object itself so that friction can be checked based
+     *            on the location of the Racer.
+     * @param mapItems
+     *            The items currently on the map.
+     */
+    public void update(double rotateDir, double moveDir, World world,
+            ItemStore mapItems) {
+        prepareUpdate(rotateDir, moveDir, world, mapItems);
+        states.step(slot, world);
+    }
 
-        /*
-         * These lines actually finally change the movement information of the
-         * Racer, taking into account the effects from the activeItems. If there
-         * were no modifications made during the processActiveItems() call, this
-         * will just apply the defaults received through the keyboard input from
-         * World (which was received in turn from Game).
-         */
-        setAngle(Angle.fromRadians(
-                getAngle().getRadians() + angularModifier * this.rotateDir));
+    /**
+     * @return mapX of the Racer in pixels, read from its slot.
+     */
+    @Override
+    public double getMapX() {
+        return states.x[slot];
+    }
 
-        setSpeed((getSpeed() + acceleration * this.moveDir)
-                * (1 - world.getFriction(getMapX(), getMapY())));
+    /**
+     * @param mapX
+     *            The mapX to set in the Racer's slot.
+     */
+    @Override
+    public void setMapX(double mapX) {
+        states.x[slot] = mapX;
+        states.moved(slot);
+    }
 
-        /*
-         * Here we are calculating the new position for the Racer. This new
-         * position is then used to detect if the Racer will collide with
-         * terrain or other Racers, in which case the speed is set to 0.
-         */
-        double newX = getMapX() + getAngle().getXComponent(getSpeed());
-        double newY = getMapY() + getAngle().getYComponent(getSpeed());
-        if (checkCollisions(racers, world, newX, newY)) {
-            setSpeed(0.0);
-        } else {
-            /*
-             * Finally, if there was no collision detected updating the position
-             * on the map. The doubles will later be resolved to ints as they
-             * are pixels.
-             */
-            setMapX(getMapX() + getAngle().getXComponent(getSpeed()));
-            setMapY(getMapY() + getAngle().getYComponent(getSpeed()));
-        }
+    /**
+     * @return mapY of the Racer in pixels, read from its slot.
+     */
+    @Override
+    public double getMapY() {
+        return states.y[slot];
+    }
 
+    /**
+     * @param mapY
+     *            The mapY to set in the Racer's slot.
+     */
+    @Override
+    public void setMapY(double mapY) {
+        states.y[slot] = mapY;
+        states.moved(slot);
+    }
+
+    /**
+     * @return Current Angle of the Racer, made from the heading in its slot.
+     */
+    @Override
+    public Angle getAngle() {
+        return Angle.fromBinary(states.heading[slot]);
+    }
+
+    /**
+     * @param angle
+     *            The angle to set as the heading in the Racer's slot.
+     */
+    @Override
+    public void setAngle(Angle angle) {
+        states.heading[slot] = angle.getBinary();
+    }
+
+    /**
+     * @return How far along its path the Racer was when it made contact with a
+     *         wall or another Racer on its last step, between 0 and 1, or NaN
+     *         if it made no contact.
+     */
+    public double getContactTime() {
+        return states.contactTime[slot];
+    }
+
+    /**
+     * @return The x-coordinate at which the Racer made contact on its last
+     *         step, or NaN if it made no contact.
+     */
+    public double getContactX() {
+        return states.contactX[slot];
     }
-    
 
     /**
-     * @return the activeItems
+     * @return The y-coordinate at which the Racer made contact on its last
+     *         step, or NaN if it made no contact.
      */
-    public ArrayList<Item> getActiveItems() {
-        return activeItems;
+    public double getContactY() {
+        return states.contactY[slot];
     }
 
     /**
@@ -270,7 +292,7 @@ public abstract class Racer extends RenderableObject {
      * @return the rotateDir
      */
     public double getRotateDir() {
-        return rotateDir;
+        return states.rotateDir[slot];
     }
 
     /**
@@ -278,14 +300,14 @@ public abstract class Racer extends RenderableObject {
      *            the rotateDir to set
      */
     public void setRotateDir(double rotateDir) {
-        this.rotateDir = rotateDir;
+        states.rotateDir[slot] = rotateDir;
     }
 
     /**
      * @return the speed
      */
     public double getSpeed() {
-        return speed;
+        return states.speed[slot];
     }
 
     /**
@@ -293,7 +315,7 @@ public abstract class Racer extends RenderableObject {
      *            the speed to set
      */
     public void setSpeed(double speed) {
-        this.speed = speed;
+        states.speed[slot] = speed;
     }
 
     /**
@@ -301,7 +323,7 @@ public abstract class Racer extends RenderableObject {
      *            the angularModifier to set
      */
     public void setAngularModifier(double angularModifier) {
-        this.angularModifier = angularModifier;
+        states.angularModifier[slot] = angularModifier;
     }
 
     /**
@@ -309,7 +331,7 @@ public abstract class Racer extends RenderableObject {
      *            the acceleration to set
      */
     public void setAcceleration(double acceleration) {
-        this.acceleration = acceleration;
+        states.acceleration[slot] = acceleration;
     }
 
     /**
@@ -317,7 +339,7 @@ public abstract class Racer extends RenderableObject {
      *            the moveDir to set
      */
     public void setMoveDir(double moveDir) {
-        this.moveDir = moveDir;
+        states.moveDir[slot] = moveDir;
     }
 
 }
@@ -0,0 +1,569 @@
+import java.util.Arrays;
+
+/**
+ * <h1>RacerStates</h1>
+ * <h2>Holds the physics state of every Racer in parallel arrays</h2>
+ *
+ * Rather than each Racer keeping its own position, Angle object, speed and
+ * modifiers, which World.update then has to chase through a Racer reference
+ * and an Angle reference for every kart every tick, the state of all the
+ * Racers in a World lives here side by side in primitive arrays. Each Racer
+ * is just a thin view onto one slot of these arrays, so all the existing
+ * getters and setters on Racer keep working.
+ *
+ * Movement is checked continuously: the whole path a Racer travels over a
+ * tick is swept against wall tiles and the other Racers, rather than just
+ * testing the point it would end up at. This means a Racer can't tunnel
+ * through a thin wall or another kart however far it moves in one tick. When
+ * a Racer makes contact it stops just short of the contact point, and the
+ * time and point of contact within the tick are recorded.
+ *
+ * The movement of a Racer for a tick is done by step(), which both the usual
+ * Racer.update() and the batched stepAll() go through, so the physics are the
+ * same either way. stepAll() moves every Racer in one tight loop over the
+ * arrays, and is used by World when batched physics is switched on.
+ *
+ * With a big field, checking every Racer against every other each tick
+ * soon takes longer than the tick is meant to last. So a store with room for
+ * BROADPHASE_MIN_RACERS or more also keeps every Racer in a spatial hash of
+ * CELL_SIZE cells, and a sweep only checks the Racers in the cells its path
+ * could reach. That finds exactly the same contacts as checking them all.
+ *
+ * The arrays are left package-private so that Racer can read and write its
+ * slot directly without a method call per field. Anything that moves a Racer
+ * other than step() must call moved() afterwards, to keep the hash in line.
+ *
+ * @author Daniel Porteous porteousd 696965
+ */
+public class RacerStates {
+
+    /** Number of pixels in the proximity of which two Racers collide. */
+    private static final int RACER_COLLISION_RADIUS = 40;
+
+    /**
+     * In pixels. How far short of a contact point a Racer stops, so that it
+     * isn't left exactly touching a wall or another Racer.
+     */
+    private static final double CONTACT_SKIN = 0.01;
+
+    /** The fewest Racers a store needs room for to use the spatial hash */
+    private static final int BROADPHASE_MIN_RACERS = 32;
+
+    /** In pixels. The width and height of a cell of the spatial hash */
+    private static final double CELL_SIZE = 128;
+
+    /** How many buckets the spatial hash has per Racer, a power of two */
+    private static final int BUCKETS_PER_RACER = 4;
+
+    /** Position of each Racer, in pixels */
+    double[] x;
+    double[] y;
+
+    /**
+     * Heading of each Racer as a binary angle, as per the Angle class, so it
+     * wraps around without normalising and its components come from the
+     * Angle lookup tables.
+     */
+    int[] heading;
+
+    /** Speed (a scalar, not a velocity) of each Racer */
+    double[] speed;
+
+    /** Base acceleration and angular modifier of each Racer */
+    double[] acceleration;
+    double[] angularModifier;
+
+    /** Movement and rotation input of each Racer for the current tick */
+    double[] moveDir;
+    double[] rotateDir;
+
+    /**
+     * The number of boost and spin effects each Racer is under, and the values
+     * they override while they last.
+     */
+    int[] boostEffects;
+    double[] boostAcceleration;
+    int[] spinEffects;
+    double[] spinAngularModifier;
+
+    /**
+     * When each Racer last made contact during its step, as a fraction of the
+     * way along its path for that tick, and the point at which it did. NaN if
+     * it made no contact on its last step.
+     */
+    double[] contactTime;
+    double[] contactX;
+    double[] contactY;
+
+    /** Number of slots in use */
+    private int numRacers;
+
+    /**
+     * The spatial hash, or null if the store is too small to need one. Each
+     * bucket is a linked list of slots, headed by bucketHead and threaded
+     * through nextInBucket and previousInBucket, and bucketOf is the bucket
+     * each slot is in. -1 marks the end of a list.
+     */
+    private int[] bucketHead;
+    private int[] nextInBucket;
+    private int[] previousInBucket;
+    private int[] bucketOf;
+
+    /** The slots near the path being swept, as found in the spatial hash */
+    private int[] candidates;
+
+    /**
+     * The sweep each slot was last found near, so a slot in more than one
+     * of the buckets checked is only counted once, and the latest sweep.
+     */
+    private int[] lastSweep;
+    private int sweepCount;
+
+    /**
+     * Creates an empty store with room for the given number of Racers.
+     *
+     * @param capacity
+     *            The number of Racers the store can hold.
+     */
+    public RacerStates(int capacity) {
+        x = new double[capacity];
+        y = new double[capacity];
+        heading = new int[capacity];
+        speed = new double[capacity];
+        acceleration = new double[capacity];
+        angularModifier = new double[capacity];
+        moveDir = new double[capacity];
+        rotateDir = new double[capacity];
+        boostEffects = new int[capacity];
+        boostAcceleration = new double[capacity];
+        spinEffects = new int[capacity];
+        spinAngularModifier = new double[capacity];
+        contactTime = new double[capacity];
+        contactX = new double[capacity];
+        contactY = new double[capacity];
+        numRacers = 0;
+
+        if (capacity >= BROADPHASE_MIN_RACERS) {
+            bucketHead = new int[Integer.highestOneBit(capacity - 1) * 2
+                    * BUCKETS_PER_RACER];
+            Arrays.fill(bucketHead, -1);
+            nextInBucket = new int[capacity];
+            previousInBucket = new int[capacity];
+            bucketOf = new int[capacity];
+            candidates = new int[capacity];
+            lastSweep = new int[capacity];
+            sweepCount = 0;
+        }
+    }
+
+    /**
+     * Takes the next free slot for a new Racer, stationary and facing north.
+     *
+     * @param startX
+     *            In pixels. Horizontal x-coordinate starting position.
+     * @param startY
+     *            In pixels. Vertical y-coordinate starting position.
+     * @param baseAcceleration
+     *            The acceleration of the Racer when not under any effect.
+     * @param baseAngularModifier
+     *            The angular modifier of the Racer when not under any effect.
+     * @return The slot given to the Racer.
+     */
+    public int add(double startX, double startY, double baseAcceleration,
+            double baseAngularModifier) {
+        int i = numRacers;
+        if (i == x.length) {
+            throw new IllegalStateException("RacerStates.add: store is full");
+        }
+        x[i] = startX;
+        y[i] = startY;
+        heading[i] = 0;
+        speed[i] = 0.0;
+        acceleration[i] = baseAcceleration;
+        angularModifier[i] = baseAngularModifier;
+        moveDir[i] = 0.0;
+        rotateDir[i] = 0.0;
+        boostEffects[i] = 0;
+        boostAcceleration[i] = 0.0;
+        spinEffects[i] = 0;
+        spinAngularModifier[i] = 0.0;
+        contactTime[i] = Double.NaN;
+        contactX[i] = Double.NaN;
+        contactY[i] = Double.NaN;
+        numRacers++;
+        if (bucketHead != null) {
+            insert(i);
+        }
+        return i;
+    }
+
+    /**
+     * Takes the next free slot and copies the state from a slot in another
+     * store into it. This is how a Racer moves its state into the store shared
+     * by the rest of the World.
+     *
+     * @param other
+     *            The store to copy from.
+     * @param otherSlot
+     *            The slot in that store to copy.
+     * @return The slot the state was copied to.
+     */
+    public int addCopy(RacerStates other, int otherSlot) {
+        int i = add(other.x[otherSlot], other.y[otherSlot],
+                other.acceleration[otherSlot],
+                other.angularModifier[otherSlot]);
+        heading[i] = other.heading[otherSlot];
+        speed[i] = other.speed[otherSlot];
+        moveDir[i] = other.moveDir[otherSlot];
+        rotateDir[i] = other.rotateDir[otherSlot];
+        boostEffects[i] = other.boostEffects[otherSlot];
+        boostAcceleration[i] = other.boostAcceleration[otherSlot];
+        spinEffects[i] = other.spinEffects[otherSlot];
+        spinAngularModifier[i] = other.spinAngularModifier[otherSlot];
+        return i;
+    }
+
+    /**
+     * Overwrites every slot with the state held in another store of the same
+     * capacity, as when a World is saved or rolled back. Nothing is
+     * allocated, so this is cheap enough to do every tick.
+     *
+     * @param other
+     *            The store to copy from.
+     */
+    public void copyFrom(RacerStates other) {
+        int n = other.numRacers;
+        System.arraycopy(other.x, 0, x, 0, n);
+        System.arraycopy(other.y, 0, y, 0, n);
+        System.arraycopy(other.heading, 0, heading, 0, n);
+        System.arraycopy(other.speed, 0, speed, 0, n);
+        System.arraycopy(other.acceleration, 0, acceleration, 0, n);
+        System.arraycopy(other.angularModifier, 0, angularModifier, 0, n);
+        System.arraycopy(other.moveDir, 0, moveDir, 0, n);
+        System.arraycopy(other.rotateDir, 0, rotateDir, 0, n);
+        System.arraycopy(other.boostEffects, 0, boostEffects, 0, n);
+        System.arraycopy(other.boostAcceleration, 0, boostAcceleration, 0,
+                n);
+        System.arraycopy(other.spinEffects, 0, spinEffects, 0, n);
+        System.arraycopy(other.spinAngularModifier, 0, spinAngularModifier,
+                0, n);
+        System.arraycopy(other.contactTime, 0, contactTime, 0, n);
+        System.arraycopy(other.contactX, 0, contactX, 0, n);
+        System.arraycopy(other.contactY, 0, contactY, 0, n);
+        numRacers = n;
+
+        if (bucketHead != null) {
+            // Everyone may have moved, so starting the hash again.
+            Arrays.fill(bucketHead, -1);
+            for (int i = 0; i < numRacers; i++) {
+                insert(i);
+            }
+        }
+    }
+
+    /**
+     * Moves the Racer in one slot for a tick, using the input already in
+     * moveDir and rotateDir. Any effects the Racer is under override its input
+     * and modifiers. The path to the new position is swept for collisions
+     * with terrain or another Racer; if there is one, the Racer moves up to
+     * just short of the contact point and stops dead.
+     *
+     * The Racer's speed and heading change by however much they would have
+     * over getTickMillis() one millisecond updates with the same input, as
+     * explained in World. The Racer moves along the average of the headings
+     * it would have had after each of those milliseconds.
+     *
+     * @param i
+     *            The slot of the Racer to move.
+     * @param world
+     *            The world object, so friction can be checked.
+     */
+    public void step(int i, World world) {
+
+        /*
+         * Applying the locks and modifiers of any effects the Racer is under.
+         * The effects themselves were started when they were scheduled and
+         * will be ended by the timer wheel, so all that's left to do each tick
+         * is check the counts.
+         */
+        double currentAcceleration = acceleration[i];
+        double currentAngularModifier = angularModifier[i];
+        if (boostEffects[i] > 0) {
+            currentAcceleration = boostAcceleration[i];
+            moveDir[i] = 1.0;
+        }
+        if (spinEffects[i] > 0) {
+            currentAngularModifier = spinAngularModifier[i];
+            rotateDir[i] = 1.0;
+            moveDir[i] = 1.0;
+        }
+
+        double tickMillis = world.getTickMillis();
+        double turnPerMilli = currentAngularModifier * rotateDir[i];
+        int travelHeading = heading[i]
+                + Angle.toBinary(turnPerMilli * (tickMillis + 1) / 2);
+        heading[i] += Angle.toBinary(turnPerMilli * tickMillis);
+
+        int tileID = world.getTileIdAt(x[i], y[i]);
+        double push = currentAcceleration * moveDir[i];
+        double newSpeed = speed[i] * world.getSpeedDecay(tileID)
+                + push * world.getSpeedGain(tileID);
+        double distance = speed[i] * world.getSpeedGain(tileID)
+                + push * world.getDistanceGain(tileID);
+
+        /*
+         * Calculating the path to the new position, which is then swept to
+         * detect if the Racer will collide with terrain or other Racers along
+         * the way, in which case the speed is set to 0 and the Racer stops at
+         * the contact point.
+         */
+        double moveX = distance * Angle.sin(travelHeading);
+        double moveY = distance * -Angle.cos(travelHeading);
+        double length = Math.abs(distance);
+
+        double contact = length > 0 ? sweep(i, world, moveX, moveY, length)
+                : Double.POSITIVE_INFINITY;
+        if (contact > 1) {
+            speed[i] = newSpeed;
+            x[i] += moveX;
+            y[i] += moveY;
+            contactTime[i] = Double.NaN;
+            contactX[i] = Double.NaN;
+            contactY[i] = Double.NaN;
+        } else {
+            contactTime[i] = contact;
+            contactX[i] = x[i] + moveX * contact;
+            contactY[i] = y[i] + moveY * contact;
+
+            double travel = Math.max(0.0, contact * length - CONTACT_SKIN);
+            x[i] += moveX * (travel / length);
+            y[i] += moveY * (travel / length);
+            speed[i] = 0.0;
+        }
+        moved(i);
+    }
+
+    /**
+     * Moves every Racer in the store for a tick, in slot order. As with
+     * step(), each Racer checks for collisions against the others where they
+     * stand at that point, so earlier slots have already moved.
+     *
+     * @param world
+     *            The world object, so friction can be checked.
+     */
+    public void stepAll(World world) {
+        for (int i = 0; i < numRacers; i++) {
+            step(i, world);
+        }
+    }
+
+    /**
+     * Sweeps the path of the Racer in the given slot for the tick against
+     * wall tiles and every other Racer, and finds the earliest contact.
+     *
+     * @param i
+     *            The slot of the Racer moving.
+     * @param world
+     *            The world object, so the path can be cast across the tiles.
+     * @param moveX
+     *            The distance the Racer would move along the x axis.
+     * @param moveY
+     *            The distance the Racer would move along the y axis.
+     * @param length
+     *            The total distance the Racer would move, which mustn't be 0.
+     * @return The time of the earliest contact, as a fraction of the way
+     *         along the path, or positive infinity if there is none.
+     */
+    private double sweep(int i, World world, double moveX, double moveY,
+            double length) {
+
+        /*
+         * Finding how far along the path the Racer would enter a wall tile.
+         * The path only needs casting across the tiles if the nearest wall is
+         * close enough to reach, which most of the time it isn't.
+         */
+        double wallTime = Double.POSITIVE_INFINITY;
+        if (world.getWallDistance(x[i], y[i]) <= length) {
+            wallTime = world.castRay(x[i], y[i], moveX / length,
+                    moveY / length, length) / length;
+        }
+
+        // Checking every other Racer near the path, skipping this one.
+        double racerTime;
+        int numCandidates = findCandidates(x[i], y[i], moveX, moveY);
+        if (numCandidates >= 0) {
+            racerTime = Proximity.firstContact(x, y, candidates,
+                    numCandidates, x[i], y[i], moveX, moveY,
+                    RACER_COLLISION_RADIUS, i);
+        } else {
+            racerTime = Proximity.firstContact(x, y, numRacers, x[i], y[i],
+                    moveX, moveY, RACER_COLLISION_RADIUS, i);
+        }
+
+        return Math.min(wallTime, racerTime);
+    }
+
+    /**
+     * Finds the slots in every cell that a path could come within
+     * RACER_COLLISION_RADIUS of, and puts them in candidates. Every slot that
+     * the path could make contact with is sure to be among them.
+     *
+     * @param startX
+     *            The x-coordinate of the start of the path.
+     * @param startY
+     *            The y-coordinate of the start of the path.
+     * @param moveX
+     *            The distance along the x axis the path goes.
+     * @param moveY
+     *            The distance along the y axis the path goes.
+     * @return The number of candidates found, or -1 if there is no spatial
+     *         hash or the path covers too many cells for it to be worth
+     *         using, in which case every slot needs checking.
+     */
+    private int findCandidates(double startX, double startY, double moveX,
+            double moveY) {
+        if (bucketHead == null) {
+            return -1;
+        }
+        int minColumn = toCell(Math.min(startX, startX + moveX)
+                - RACER_COLLISION_RADIUS);
+        int maxColumn = toCell(Math.max(startX, startX + moveX)
+                + RACER_COLLISION_RADIUS);
+        int minRow = toCell(Math.min(startY, startY + moveY)
+                - RACER_COLLISION_RADIUS);
+        int maxRow = toCell(Math.max(startY, startY + moveY)
+                + RACER_COLLISION_RADIUS);
+        if ((long) (maxColumn - minColumn + 1)
+                * (maxRow - minRow + 1) > bucketHead.length) {
+            return -1;
+        }
+
+        sweepCount++;
+        int numCandidates = 0;
+        for (int row = minRow; row <= maxRow; row++) {
+            for (int column = minColumn; column <= maxColumn; column++) {
+                int j = bucketHead[toBucket(column, row)];
+                for (; j >= 0; j = nextInBucket[j]) {
+                    if (lastSweep[j] != sweepCount) {
+                        lastSweep[j] = sweepCount;
+                        candidates[numCandidates++] = j;
+                    }
+                }
+            }
+        }
+        return numCandidates;
+    }
+
+    /**
+     * Moves a slot into the right bucket of the spatial hash for where it is
+     * now, if it has changed cell. Needs calling whenever a Racer is moved
+     * other than by step().
+     *
+     * @param i
+     *            The slot that has moved.
+     */
+    void moved(int i) {
+        if (bucketHead == null || i >= numRacers) {
+            return;
+        }
+        if (bucketFor(i) != bucketOf[i]) {
+            remove(i);
+            insert(i);
+        }
+    }
+
+    /**
+     * Adds a slot to the front of the bucket for where it is.
+     *
+     * @param i
+     *            The slot to add.
+     */
+    private void insert(int i) {
+        int bucket = bucketFor(i);
+        bucketOf[i] = bucket;
+        previousInBucket[i] = -1;
+        nextInBucket[i] = bucketHead[bucket];
+        if (bucketHead[bucket] >= 0) {
+            previousInBucket[bucketHead[bucket]] = i;
+        }
+        bucketHead[bucket] = i;
+    }
+
+    /**
+     * Takes a slot out of the bucket it is in.
+     *
+     * @param i
+     *            The slot to take out.
+     */
+    private void remove(int i) {
+        if (previousInBucket[i] >= 0) {
+            nextInBucket[previousInBucket[i]] = nextInBucket[i];
+        } else {
+            bucketHead[bucketOf[i]] = nextInBucket[i];
+        }
+        if (nextInBucket[i] >= 0) {
+            previousInBucket[nextInBucket[i]] = previousInBucket[i];
+        }
+    }
+
+    /**
+     * @param i
+     *            A slot.
+     * @return The bucket of the spatial hash for where that slot is now.
+     */
+    private int bucketFor(int i) {
+        return toBucket(toCell(x[i]), toCell(y[i]));
+    }
+
+    /**
+     * @param coordinate
+     *            In pixels. An x or y coordinate.
+     * @return The column or row of the cell it falls in.
+     */
+    private static int toCell(double coordinate) {
+        return (int) Math.floor(coordinate / CELL_SIZE);
+    }
+
+    /**
+     * Hashes a cell to a bucket. Cells that share a bucket only mean a few
+     * more candidates to check, never a contact missed.
+     *
+     * @param column
+     *            The column of the cell.
+     * @param row
+     *            The row of the cell.
+     * @return The bucket.
+     */
+    private int toBucket(int column, int row) {
+        return (column * 73856093 ^ row * 19349663) & (bucketHead.length - 1);
+    }
+
+    /**
+     * Works out a checksum of the physics state of every Racer, for spotting
+     * copies of a race that have drifted apart. The acceleration and effect
+     * counts are included, since they carry over into the next tick.
+     *
+     * @return The checksum.
+     */
+    public long checksum() {
+        long checksum = numRacers;
+        for (int i = 0; i < numRacers; i++) {
+            checksum = 31 * checksum + Double.doubleToLongBits(x[i]);
+            checksum = 31 * checksum + Double.doubleToLongBits(y[i]);
+            checksum = 31 * checksum + heading[i];
+            checksum = 31 * checksum + Double.doubleToLongBits(speed[i]);
+            checksum = 31 * checksum
+                    + Double.doubleToLongBits(acceleration[i]);
+            checksum = 31 * checksum + boostEffects[i];
+            checksum = 31 * checksum + spinEffects[i];
+        }
+        return checksum;
+    }
+
+    /**
+     * @return The number of Racers in the store.
+     */
+    public int getNumRacers() {
+        return numRacers;
+    }
+}
@@ -53,9 +53,14 @@ public abstract class RenderableObject implements GlobalHelper {
      *            In pixels. Vertical y-coordinate starting position.
      */
     public RenderableObject(double startX, double startY) {
-        setAngle(Angle.fromRadians(STARTING_ANGLE));
-        setMapX(startX);
-        setMapY(startY);
+        /*
+         * Assigning the fields directly rather than through the setters, as
+         * Racer overrides these to point at its slot in RacerStates, which
+         * doesn't exist yet while this constructor runs.
+         */
+        angle = Angle.fromRadians(STARTING_ANGLE);
+        mapX = startX;
+        mapY = startY;
     }
 
     /**
@@ -0,0 +1,174 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * <h1>ReplicaView</h1>
+ * <h2>A client's picture of the part of a race it has been sent</h2>
+ *
+ * Reads the updates written by a StateReplicator for one client, and keeps
+ * the latest state of every entity the client currently has in view, by id.
+ * Updates must be applied in the order they were written, and none may be
+ * missed, since each only holds what changed since the one before.
+ *
+ * @author Daniel Porteous porteousd 696965
+ */
+public class ReplicaView {
+
+    /** Whether each id is currently in view */
+    private boolean[] present;
+
+    /** The state of each entity, quantised as it was sent */
+    private byte[] kind;
+    private int[] x;
+    private int[] y;
+    private int[] angle;
+    private boolean[] active;
+
+    /** Number of entities currently in view */
+    private int numPresent;
+
+    /** The tick of the latest update */
+    private long tick;
+
+    /** Creates a view with nothing in it. */
+    public ReplicaView() {
+        present = new boolean[0];
+        kind = new byte[0];
+        x = new int[0];
+        y = new int[0];
+        angle = new int[0];
+        active = new boolean[0];
+        numPresent = 0;
+        tick = -1;
+    }
+
+    /**
+     * Applies an update to the view.
+     *
+     * @param update
+     *            The update, from its position to its limit, which is read
+     *            through.
+     */
+    public void apply(ByteBuffer update) {
+        tick = VarInt.read(update);
+        while (update.hasRemaining()) {
+            int id = (int) VarInt.read(update);
+            int flags = update.get();
+            ensureCapacity(id + 1);
+
+            if ((flags & StateReplicator.FLAG_REMOVED) != 0) {
+                if (present[id]) {
+                    present[id] = false;
+                    numPresent--;
+                }
+                continue;
+            }
+            if ((flags & StateReplicator.FLAG_NEW) != 0) {
+                kind[id] = update.get();
+                x[id] = 0;
+                y[id] = 0;
+                angle[id] = 0;
+                if (!present[id]) {
+                    present[id] = true;
+                    numPresent++;
+                }
+            }
+            x[id] += (int) VarInt.readSigned(update);
+            y[id] += (int) VarInt.readSigned(update);
+            angle[id] = (angle[id] + (int) VarInt.readSigned(update))
+                    & 0xFFFF;
+            active[id] = (flags & StateReplicator.FLAG_ACTIVE) != 0;
+        }
+    }
+
+    /**
+     * Grows the arrays to hold at least the given number of ids.
+     */
+    private void ensureCapacity(int numIds) {
+        if (present.length < numIds) {
+            int capacity = Math.max(numIds, present.length * 2);
+            present = Arrays.copyOf(present, capacity);
+            kind = Arrays.copyOf(kind, capacity);
+            x = Arrays.copyOf(x, capacity);
+            y = Arrays.copyOf(y, capacity);
+            angle = Arrays.copyOf(angle, capacity);
+            active = Arrays.copyOf(active, capacity);
+        }
+    }
+
+    /**
+     * @return One more than the highest id seen so far, for looping over
+     *         every id with isPresent().
+     */
+    public int getIdLimit() {
+        return present.length;
+    }
+
+    /**
+     * @param id
+     *            The id of an entity.
+     * @return True if the entity is currently in view.
+     */
+    public boolean isPresent(int id) {
+        return id < present.length && present[id];
+    }
+
+    /**
+     * @param id
+     *            The id of an entity in view.
+     * @return Its kind, one of the StateReplicator.KIND_ constants.
+     */
+    public byte getKind(int id) {
+        return kind[id];
+    }
+
+    /**
+     * @param id
+     *            The id of an entity in view.
+     * @return In pixels. Its x-coordinate on the map.
+     */
+    public double getMapX(int id) {
+        return x[id] / StateReplicator.POSITION_SCALE;
+    }
+
+    /**
+     * @param id
+     *            The id of an entity in view.
+     * @return In pixels. Its y-coordinate on the map.
+     */
+    public double getMapY(int id) {
+        return y[id] / StateReplicator.POSITION_SCALE;
+    }
+
+    /**
+     * @param id
+     *            The id of an entity in view.
+     * @return The direction it is facing.
+     */
+    public Angle getAngle(int id) {
+        return Angle.fromBinary(angle[id] << StateReplicator.ANGLE_SHIFT);
+    }
+
+    /**
+     * @param id
+     *            The id of an entity in view.
+     * @return True if it is an Item in its active form.
+     */
+    public boolean isActive(int id) {
+        return active[id];
+    }
+
+    /**
+     * @return The number of entities currently in view.
+     */
+    public int getNumPresent() {
+        return numPresent;
+    }
+
+    /**
+     * @return The tick of the latest update, or -1 before the first.
+     */
+    public long getTick() {
+        return tick;
+    }
+}
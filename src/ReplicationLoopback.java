@@ -0,0 +1,147 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * <h1>ReplicationLoopback</h1>
+ * <h2>Replicates a busy race to spectators in the same process</h2>
+ *
+ * Runs a headless World with many players driving about, and a
+ * StateReplicator sending it to a number of spectators, each following a
+ * different Racer. In place of a network, each spectator's updates are
+ * queued in memory and applied in order, as a TCP connection would deliver
+ * them. Afterwards it reports how many bytes each update took, how many
+ * entities each spectator had in view, and how far the Racers they saw were
+ * from where they really were, which shows how far behind the limit on the
+ * size of an update leaves the less important ones.
+ *
+ * The arguments, all optional, are the number of players, the number of
+ * spectators, the updates sent per second, the most bytes per update and how
+ * many seconds of race to run. By default that is 32 players, 8 spectators,
+ * 20 updates a second of at most 256 bytes, for 30 seconds.
+ *
+ * @author Daniel Porteous porteousd 696965
+ */
+public class ReplicationLoopback {
+
+    /** Size of the buffer each update is written into */
+    private static final int BUFFER_SIZE = 4096;
+
+    /** Screen size the World's camera is set up for */
+    private static final int VIEW_WIDTH = 800;
+    private static final int VIEW_HEIGHT = 600;
+
+    /** Only a main method here, so no instances. */
+    private ReplicationLoopback() {
+    }
+
+    /**
+     * Runs the race and prints the results.
+     *
+     * @param args
+     *            Players, spectators, update rate, update size and seconds,
+     *            all optional.
+     * @throws Exception
+     *             If the World can't be set up.
+     */
+    public static void main(String[] args) throws Exception {
+        int numPlayers = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int numSpectators = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int updateRate = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        int maxBytes = args.length > 3 ? Integer.parseInt(args[3]) : 256;
+        int seconds = args.length > 4 ? Integer.parseInt(args[4]) : 30;
+
+        Sprites.setHeadless(true);
+        World world = new World(VIEW_WIDTH, VIEW_HEIGHT,
+                World.DEFAULT_TICK_RATE, numPlayers, 0);
+        StateReplicator replicator = new StateReplicator(world);
+
+        ReplicaView[] views = new ReplicaView[numSpectators];
+        List<ArrayDeque<ByteBuffer>> queues =
+                new ArrayList<ArrayDeque<ByteBuffer>>();
+        int[] targets = new int[numSpectators];
+        for (int i = 0; i < numSpectators; i++) {
+            targets[i] = i * world.getNumRacers() / numSpectators;
+            replicator.addClient(targets[i], maxBytes);
+            views[i] = new ReplicaView();
+            queues.add(new ArrayDeque<ByteBuffer>());
+        }
+
+        Random random = new Random(1);
+        double[] rotateDirs = new double[numPlayers];
+        double[] moveDirs = new double[numPlayers];
+        boolean[] useItems = new boolean[numPlayers];
+        Arrays.fill(moveDirs, 1.0);
+
+        int ticksPerUpdate = World.DEFAULT_TICK_RATE / updateRate;
+        int totalTicks = seconds * World.DEFAULT_TICK_RATE;
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long numUpdates = 0;
+        long totalBytes = 0;
+        int mostBytes = 0;
+        long totalInView = 0;
+        long numSamples = 0;
+        double totalError = 0;
+        double worstError = 0;
+
+        for (int tick = 1; tick <= totalTicks; tick++) {
+            for (int i = 0; i < numPlayers; i++) {
+                if (random.nextInt(300) == 0) {
+                    rotateDirs[i] = random.nextInt(3) - 1;
+                }
+                useItems[i] = random.nextInt(2000) == 0;
+            }
+            world.update(rotateDirs, moveDirs, useItems);
+            if (tick % ticksPerUpdate != 0) {
+                continue;
+            }
+
+            replicator.capture();
+            for (int i = 0; i < numSpectators; i++) {
+                buffer.clear();
+                int bytes = replicator.writeUpdate(i, buffer);
+                buffer.flip();
+                ByteBuffer packet = ByteBuffer.allocate(bytes);
+                packet.put(buffer).flip();
+                queues.get(i).add(packet);
+                views[i].apply(queues.get(i).poll());
+
+                numUpdates++;
+                totalBytes += bytes;
+                mostBytes = Math.max(mostBytes, bytes);
+                totalInView += views[i].getNumPresent();
+
+                // Comparing the Racers in view with where they are now.
+                for (int id = 0; id < world.getNumRacers(); id++) {
+                    if (views[i].isPresent(id)) {
+                        Racer racer = world.getRacer(id);
+                        double error = Math.hypot(
+                                views[i].getMapX(id) - racer.getMapX(),
+                                views[i].getMapY(id) - racer.getMapY());
+                        totalError += error;
+                        worstError = Math.max(worstError, error);
+                        numSamples++;
+                    }
+                }
+            }
+        }
+
+        System.out.println(numPlayers + " players, " + world.getNumRacers()
+                + " racers, " + replicator.getNumIds() + " ids, "
+                + numSpectators + " spectators, " + updateRate
+                + " updates/s of at most " + maxBytes + " bytes");
+        System.out.printf("Bytes per update: %.1f average, %d most, "
+                + "%.0f bytes/s per spectator%n",
+                (double) totalBytes / numUpdates, mostBytes,
+                (double) totalBytes / numUpdates * updateRate);
+        System.out.printf("Entities in view: %.1f average%n",
+                (double) totalInView / numUpdates);
+        System.out.printf("Racers in view off by: %.1f px average, "
+                + "%.1f px worst%n",
+                numSamples > 0 ? totalError / numSamples : 0.0, worstError);
+        world.close();
+    }
+}
@@ -0,0 +1,265 @@
+import org.newdawn.slick.SlickException;
+
+/**
+ * <h1>RollbackSession</h1>
+ * <h2>Runs a networked race ahead of the other players, fixing it up later</h2>
+ *
+ * A LockstepSession never runs a tick until every player's input for it has
+ * arrived, so the local player either feels the input delay or the race
+ * stalls whenever a packet is late. This runs the World straight on instead,
+ * guessing that every other player is still pressing whatever they were
+ * last known to be pressing, which is nearly always right, since inputs
+ * hardly ever change from one tick to the next.
+ *
+ * Before each tick the World is saved into a ring of snapshots. When the real
+ * inputs arrive, they are checked against the guesses. If any guess was
+ * wrong, the World is rolled back to the snapshot before the first wrong
+ * tick, and every tick since is run again with what is now known. Ticks for
+ * which every input has arrived and been checked are confirmed, and are never
+ * rolled back past again.
+ *
+ * The ring holds maxRollbackTicks snapshots, which limits both how far the
+ * World may run ahead of the confirmed tick and the most ticks a single
+ * rollback has to run again, so it should be chosen to fit the frame budget.
+ * If the World gets that far ahead, it waits, as lockstep would.
+ *
+ * The inputs are still sent and received by a LockstepSession, which should
+ * be given a small input delay, or none beyond the minimum of 1.
+ *
+ * @author Daniel Porteous porteousd 696965
+ */
+public class RollbackSession {
+
+    /** Sends and receives every player's inputs */
+    private LockstepSession network;
+
+    /** This machine's copy of the race */
+    private World world;
+
+    /** Index of the player on this machine */
+    private int localPlayer;
+
+    /** The World before each tick, at the tick modulo the ring size */
+    private WorldSnapshot[] snapshots;
+
+    /** The inputs each tick was last run with, by tick then player */
+    private byte[][] usedInputs;
+
+    /** Ring size minus one, for finding a tick's place in the ring */
+    private int mask;
+
+    /**
+     * Every tick before this one has been run with everyone's real input,
+     * and won't be rolled back past.
+     */
+    private long confirmedTick;
+
+    /** The last tick for which each player's guessed input has been checked */
+    private long[] checkedTick;
+
+    /** Inputs for the tick being run, passed on to World.update() */
+    private double[] rotateDirs;
+    private double[] moveDirs;
+    private boolean[] useItems;
+
+    /** Running totals, for tuning */
+    private long numRollbacks;
+    private long ticksResimulated;
+    private long rollbackNanos;
+    private long ticksPredicted;
+    private long numStalls;
+
+    /**
+     * Creates a session for a World at tick 0.
+     *
+     * @param network
+     *            The session the inputs are sent and received by.
+     * @param world
+     *            This machine's copy of the race, which must be at tick 0.
+     * @param maxRollbackTicks
+     *            The most ticks the World may run ahead of the confirmed
+     *            tick, a power of two.
+     */
+    public RollbackSession(LockstepSession network, World world,
+            int maxRollbackTicks) {
+        if (Integer.bitCount(maxRollbackTicks) != 1) {
+            throw new IllegalArgumentException(
+                    "RollbackSession: rollback ticks must be a power of two");
+        }
+        if (world.getTick() != 0) {
+            throw new IllegalArgumentException(
+                    "RollbackSession: world must be at tick 0");
+        }
+        this.network = network;
+        this.world = world;
+        localPlayer = network.getLocalPlayer();
+
+        int numPlayers = network.getNumPlayers();
+        snapshots = new WorldSnapshot[maxRollbackTicks];
+        for (int i = 0; i < maxRollbackTicks; i++) {
+            snapshots[i] = world.createSnapshot();
+        }
+        usedInputs = new byte[maxRollbackTicks][numPlayers];
+        mask = maxRollbackTicks - 1;
+        confirmedTick = 0;
+        checkedTick = new long[numPlayers];
+        for (int i = 0; i < numPlayers; i++) {
+            checkedTick[i] = -1;
+        }
+
+        rotateDirs = new double[numPlayers];
+        moveDirs = new double[numPlayers];
+        useItems = new boolean[numPlayers];
+    }
+
+    /**
+     * Fixes up the World for any inputs that have arrived since the last
+     * call, then runs ticks ahead, up to a limit, for as long as there is
+     * local input for them and room in the ring. Inputs should have been
+     * received and the local input submitted before calling this.
+     *
+     * @param maxTicks
+     *            The most new ticks to run.
+     * @return The number of new ticks run, not counting any run again.
+     * @throws SlickException
+     */
+    public int advance(int maxTicks) throws SlickException {
+        reconcile();
+
+        int ran = 0;
+        while (ran < maxTicks) {
+            long tick = world.getTick();
+            if (tick - confirmedTick > mask
+                    || network.getConfirmed(localPlayer) < tick) {
+                numStalls++;
+                break;
+            }
+            if (runTick(tick)) {
+                ticksPredicted++;
+            }
+            ran++;
+        }
+
+        network.setTicks(world.getTick(), Math.max(0, confirmedTick - 1));
+        return ran;
+    }
+
+    /**
+     * Checks the guessed inputs against any real ones that have arrived,
+     * rolls back and runs the ticks again from the first wrong guess, and
+     * moves the confirmed tick up.
+     *
+     * @throws SlickException
+     */
+    private void reconcile() throws SlickException {
+        long now = world.getTick();
+        long firstWrong = now;
+        for (int i = 0; i < checkedTick.length; i++) {
+            long known = Math.min(network.getConfirmed(i), now - 1);
+            for (long tick = checkedTick[i] + 1; tick <= known; tick++) {
+                if (usedInputs[(int) tick & mask][i] != network.getInput(i,
+                        tick)) {
+                    firstWrong = Math.min(firstWrong, tick);
+                    break;
+                }
+            }
+            /*
+             * Every tick up to here is right now, either already or once it
+             * has been run again below with the real input.
+             */
+            checkedTick[i] = Math.max(checkedTick[i], known);
+        }
+
+        if (firstWrong < now) {
+            long start = System.nanoTime();
+            world.restore(snapshots[(int) firstWrong & mask]);
+            for (long tick = firstWrong; tick < now; tick++) {
+                runTick(tick);
+            }
+            numRollbacks++;
+            ticksResimulated += now - firstWrong;
+            rollbackNanos += System.nanoTime() - start;
+        }
+
+        long confirmed = now;
+        for (int i = 0; i < checkedTick.length; i++) {
+            confirmed = Math.min(confirmed, network.getConfirmed(i) + 1);
+        }
+        confirmedTick = Math.max(confirmedTick, confirmed);
+    }
+
+    /**
+     * Saves the World and runs one tick, with every player's real input
+     * where it has arrived, and their last known input where it hasn't.
+     *
+     * @param tick
+     *            The tick to run, which the World must be at.
+     * @return True if any input had to be guessed.
+     * @throws SlickException
+     */
+    private boolean runTick(long tick) throws SlickException {
+        int slot = (int) tick & mask;
+        world.save(snapshots[slot]);
+
+        boolean guessed = false;
+        byte[] inputs = usedInputs[slot];
+        for (int i = 0; i < inputs.length; i++) {
+            long known = network.getConfirmed(i);
+            if (known < tick) {
+                guessed = true;
+            }
+            byte input = network.getInput(i, Math.min(known, tick));
+            inputs[i] = input;
+            rotateDirs[i] = PlayerInput.getRotateDir(input);
+            moveDirs[i] = PlayerInput.getMoveDir(input);
+            useItems[i] = PlayerInput.getUseItem(input);
+        }
+        world.update(rotateDirs, moveDirs, useItems);
+        return guessed;
+    }
+
+    /**
+     * @return The first tick that may still be rolled back to; every tick
+     *         before it has been run with everyone's real input.
+     */
+    public long getConfirmedTick() {
+        return confirmedTick;
+    }
+
+    /**
+     * @return The number of times the World has been rolled back.
+     */
+    public long getNumRollbacks() {
+        return numRollbacks;
+    }
+
+    /**
+     * @return The number of ticks run again after rolling back.
+     */
+    public long getTicksResimulated() {
+        return ticksResimulated;
+    }
+
+    /**
+     * @return In nanoseconds. The total time spent rolling back and running
+     *         ticks again.
+     */
+    public long getRollbackNanos() {
+        return rollbackNanos;
+    }
+
+    /**
+     * @return The number of new ticks run with at least one guessed input.
+     */
+    public long getTicksPredicted() {
+        return ticksPredicted;
+    }
+
+    /**
+     * @return The number of times advance() stopped short, for want of local
+     *         input or room in the ring.
+     */
+    public long getNumStalls() {
+        return numStalls;
+    }
+}
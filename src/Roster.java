@@ -0,0 +1,163 @@
+import java.util.ArrayList;
+
+/**
+ * <h1>Roster</h1>
+ * <h2>Which karts are in a race, and in what order they line up</h2>
+ *
+ * Lists the kind of every Enemy in a race in grid order, front row first,
+ * along with where among them the human players line up. It is normally
+ * read from a data file in the same format as the items and waypoints, each
+ * line giving a kind of kart and how many of that kind there are, but can
+ * just as well be made up in code, such as for a benchmark with hundreds of
+ * karts.
+ *
+ * The kinds are the names that Enemy.create() knows, and PLAYER, which marks
+ * where the players go. There must be exactly one PLAYER line, and however
+ * many players are racing they all line up there.
+ *
+ * @author Daniel Porteous porteousd 696965
+ */
+public class Roster implements GlobalHelper {
+
+    /** Location of the file holding the usual roster */
+    public static final String DEFAULT_FILE = DATA_PATH + "roster.txt";
+
+    /** The kind that marks where the players line up */
+    public static final String PLAYER = "Player";
+
+    /** The kind of each Enemy, in grid order */
+    private String[] kinds;
+
+    /** The number of Enemies lining up in front of the players */
+    private int playersAt;
+
+    /**
+     * Creates a roster from a list of kinds, each with how many there are.
+     *
+     * @param kinds
+     *            The kinds of kart in grid order, exactly one being PLAYER.
+     * @param counts
+     *            How many of each kind there are. The count for PLAYER is
+     *            ignored.
+     * @throws IllegalArgumentException
+     *             If there isn't exactly one PLAYER, or a count is negative.
+     */
+    public Roster(String[] kinds, int[] counts) {
+        if (kinds.length != counts.length) {
+            throw new IllegalArgumentException(
+                    "Roster: need a count for every kind");
+        }
+        ArrayList<String> enemies = new ArrayList<String>();
+        playersAt = -1;
+        for (int i = 0; i < kinds.length; i++) {
+            if (kinds[i].equals(PLAYER)) {
+                if (playersAt >= 0) {
+                    throw new IllegalArgumentException(
+                            "Roster: the players can only line up once");
+                }
+                playersAt = enemies.size();
+                continue;
+            }
+            if (counts[i] < 0) {
+                throw new IllegalArgumentException(
+                        "Roster: negative number of " + kinds[i]);
+            }
+            for (int j = 0; j < counts[i]; j++) {
+                enemies.add(kinds[i]);
+            }
+        }
+        if (playersAt < 0) {
+            throw new IllegalArgumentException(
+                    "Roster: no " + PLAYER + " line");
+        }
+        this.kinds = enemies.toArray(new String[enemies.size()]);
+    }
+
+    /**
+     * Reads a roster from a data file, one kind and count per line after the
+     * START line.
+     *
+     * @param file
+     *            The path of the data file.
+     * @return The roster.
+     * @throws IllegalArgumentException
+     *             If a line can't be understood.
+     */
+    public static Roster load(String file) {
+        String[] lines = GlobalHelper.readTextDataFile(file);
+        ArrayList<String> kinds = new ArrayList<String>();
+        ArrayList<Integer> counts = new ArrayList<Integer>();
+        for (String line : lines) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            String[] parts = line.trim().split("\\s+");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException(
+                        "Roster: can't read the line \"" + line + "\"");
+            }
+            kinds.add(parts[0]);
+            counts.add(Integer.parseInt(parts[1]));
+        }
+
+        int[] countArray = new int[counts.size()];
+        for (int i = 0; i < countArray.length; i++) {
+            countArray[i] = counts.get(i);
+        }
+        return new Roster(kinds.toArray(new String[kinds.size()]),
+                countArray);
+    }
+
+    /**
+     * @return The usual roster, read from DEFAULT_FILE.
+     */
+    public static Roster loadDefault() {
+        return load(DEFAULT_FILE);
+    }
+
+    /**
+     * Makes a copy of the roster with every Enemy of one kind swapped for
+     * another kind, in the same place on the grid.
+     *
+     * @param kind
+     *            The kind to swap out.
+     * @param with
+     *            The kind to swap in.
+     * @return The new roster.
+     */
+    public Roster replace(String kind, String with) {
+        String[] swapped = new String[kinds.length + 1];
+        int[] counts = new int[swapped.length];
+        for (int i = 0; i < kinds.length; i++) {
+            int at = i < playersAt ? i : i + 1;
+            swapped[at] = kinds[i].equals(kind) ? with : kinds[i];
+            counts[at] = 1;
+        }
+        swapped[playersAt] = PLAYER;
+        return new Roster(swapped, counts);
+    }
+
+    /**
+     * @return The number of Enemies in the race.
+     */
+    public int getNumEnemies() {
+        return kinds.length;
+    }
+
+    /**
+     * @param i
+     *            The index of an Enemy, in grid order.
+     * @return The kind of that Enemy.
+     */
+    public String getKind(int i) {
+        return kinds[i];
+    }
+
+    /**
+     * @return The number of Enemies lining up in front of the players, which
+     *         is also the grid place of the first player.
+     */
+    public int getPlayersAt() {
+        return playersAt;
+    }
+}
@@ -0,0 +1,134 @@
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * <h1>SimulatedLink</h1>
+ * <h2>Adds latency, jitter and packet loss to packets sent on loopback</h2>
+ *
+ * Packets sent over loopback arrive instantly and are never lost, which hides
+ * everything that makes networked play hard. Sending through one of these
+ * instead holds each packet back for the given latency, give or take a random
+ * amount of jitter, and throws away a given fraction of them altogether. With
+ * enough jitter packets also arrive out of order, as they do on a real
+ * network. The random numbers come from a seed, so a run can be repeated.
+ *
+ * Held back packets are only actually sent when flush() is called, which the
+ * sender should do regularly, such as every tick.
+ *
+ * @author Daniel Porteous porteousd 696965
+ */
+public class SimulatedLink {
+
+    /** A packet waiting to be sent */
+    private static class Delayed implements Comparable<Delayed> {
+        private long dueNanos;
+        private long sequence;
+        private ByteBuffer packet;
+        private SocketAddress to;
+
+        @Override
+        public int compareTo(Delayed other) {
+            if (dueNanos != other.dueNanos) {
+                return dueNanos < other.dueNanos ? -1 : 1;
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    /** In milliseconds. The average time a packet is held back for. */
+    private double latencyMillis;
+
+    /** In milliseconds. How far either side of the latency a packet may be. */
+    private double jitterMillis;
+
+    /** Fraction of packets thrown away, between 0 and 1 */
+    private double lossRate;
+
+    /** Source of the random delays and losses */
+    private Random random;
+
+    /** Packets waiting to be sent, soonest first */
+    private PriorityQueue<Delayed> waiting;
+
+    /** Number of packets handed over so far, to keep ties in order */
+    private long numPackets;
+
+    /** Number of packets thrown away so far */
+    private long numDropped;
+
+    /**
+     * Creates a link with the given conditions.
+     *
+     * @param latencyMillis
+     *            The average time a packet is held back for, in ms.
+     * @param jitterMillis
+     *            How far either side of the latency a packet may be, in ms.
+     * @param lossRate
+     *            The fraction of packets to throw away.
+     * @param seed
+     *            Seed for the random delays and losses.
+     */
+    public SimulatedLink(double latencyMillis, double jitterMillis,
+            double lossRate, long seed) {
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+        this.lossRate = lossRate;
+        random = new Random(seed);
+        waiting = new PriorityQueue<Delayed>();
+        numPackets = 0;
+        numDropped = 0;
+    }
+
+    /**
+     * Hands over a packet to be sent after a delay, unless it is lost. The
+     * packet is copied, so the buffer can be reused straight away.
+     *
+     * @param packet
+     *            The packet, from its position to its limit.
+     * @param to
+     *            Where to send it.
+     */
+    public void send(ByteBuffer packet, SocketAddress to) {
+        numPackets++;
+        if (random.nextDouble() < lossRate) {
+            numDropped++;
+            return;
+        }
+        double delay = latencyMillis
+                + jitterMillis * (2 * random.nextDouble() - 1);
+        Delayed delayed = new Delayed();
+        delayed.dueNanos = System.nanoTime()
+                + (long) (Math.max(0.0, delay) * 1e6);
+        delayed.sequence = numPackets;
+        delayed.packet = ByteBuffer.allocate(packet.remaining());
+        delayed.packet.put(packet).flip();
+        delayed.to = to;
+        waiting.add(delayed);
+    }
+
+    /**
+     * Sends every packet whose delay is up.
+     *
+     * @param channel
+     *            The channel to send them on.
+     * @throws IOException
+     */
+    public void flush(DatagramChannel channel) throws IOException {
+        long now = System.nanoTime();
+        while (!waiting.isEmpty() && waiting.peek().dueNanos <= now) {
+            Delayed delayed = waiting.poll();
+            channel.send(delayed.packet, delayed.to);
+        }
+    }
+
+    /**
+     * @return The number of packets thrown away so far.
+     */
+    public long getNumDropped() {
+        return numDropped;
+    }
+}
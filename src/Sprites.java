@@ -0,0 +1,58 @@
+import org.newdawn.slick.Image;
+import org.newdawn.slick.SlickException;
+
+/**
+ * <h1>Sprites</h1>
+ * <h2>Loads images, unless the game is running without a display</h2>
+ *
+ * Every sprite in the game is loaded through here rather than by creating an
+ * Image directly. Loading an Image needs an OpenGL context, which only exists
+ * once Slick has opened a window. A headless process such as the RaceServer
+ * has no window, so it switches this into headless mode before creating any
+ * Worlds, and every sprite then comes back as null. Nothing in a headless
+ * World is ever rendered, so the missing sprites are never used.
+ *
+ * @author Daniel Porteous porteousd 696965
+ */
+public final class Sprites {
+
+    /** Whether sprites should be skipped rather than loaded */
+    private static volatile boolean headless = false;
+
+    /** Only static methods here, so no instances. */
+    private Sprites() {
+    }
+
+    /**
+     * Loads an image, or skips it if running headless.
+     *
+     * @param ref
+     *            Path to the image file.
+     * @return The loaded Image, or null if running headless.
+     * @throws SlickException
+     */
+    public static Image load(String ref) throws SlickException {
+        if (headless) {
+            return null;
+        }
+        return new Image(ref);
+    }
+
+    /**
+     * Switches headless mode on or off. This should be done before any Worlds
+     * are created.
+     *
+     * @param headless
+     *            True if there is no display to render to.
+     */
+    public static void setHeadless(boolean headless) {
+        Sprites.headless = headless;
+    }
+
+    /**
+     * @return True if sprites are being skipped because there is no display.
+     */
+    public static boolean isHeadless() {
+        return headless;
+    }
+}
@@ -0,0 +1,151 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * <h1>StartGrid</h1>
+ * <h2>Works out where every kart starts, for a field of any size</h2>
+ *
+ * The karts line up in rows across the track, COLUMN_WIDTH apart, with each
+ * row ROW_HEIGHT ahead of the one behind it. The back row is on the Track's
+ * starting line, centred on its start x-coordinate, which for the bundled
+ * track is where the spec puts them, so the usual four karts line up exactly
+ * where they always have. A bigger field gets wider rows, roughly as
+ * many karts across as there are rows, and more of them, stretching up the
+ * track from the starting line.
+ *
+ * Each row uses the places nearest the middle of the track that are clear of
+ * walls, so rows narrow where the track does and a row can leave a gap where
+ * there is something in the way. Any places left over once everyone has one
+ * are taken off the outside of the back row, so it is the back of the grid
+ * that is left short rather than the front.
+ *
+ * @author Daniel Porteous porteousd 696965
+ */
+public final class StartGrid {
+
+    /**
+     * In pixels. The distance between karts side by side, and one behind.
+     * TrackGenerator lays out its starting straights with these too.
+     */
+    static final double COLUMN_WIDTH = 72;
+    static final double ROW_HEIGHT = 90;
+
+    /** The fewest karts a row is made to fit */
+    private static final int MIN_COLUMNS = 4;
+
+    /**
+     * In pixels. How far a starting place must be from any wall. The corners
+     * of the usual grid come within a tile of the wall behind the line.
+     */
+    static final double CLEARANCE = 12;
+
+    /** Only static methods here, so no instances. */
+    private StartGrid() {
+    }
+
+    /**
+     * Works out the starting place of every kart in a field.
+     *
+     * @param world
+     *            The World, with its map loaded, to check for walls.
+     * @param numKarts
+     *            The number of karts in the field.
+     * @return The x and y coordinate, in pixels, of each place on the grid,
+     *         front row first and left to right along each row.
+     * @throws IllegalArgumentException
+     *             If the track doesn't have room for that many karts.
+     */
+    public static double[][] create(World world, int numKarts) {
+        double backY = world.getTrack().getStartY();
+        int columns = getColumns(numKarts);
+
+        // Laying out rows from the back until there is room for everyone.
+        ArrayList<double[]> rows = new ArrayList<double[]>();
+        int numPlaces = 0;
+        for (double y = backY; numPlaces < numKarts; y -= ROW_HEIGHT) {
+            if (y < 0) {
+                throw new IllegalArgumentException("StartGrid: no room for "
+                        + numKarts + " karts on the track");
+            }
+            double[] row = layOutRow(world, y, columns);
+            rows.add(row);
+            numPlaces += row.length;
+        }
+
+        /*
+         * Taking however many places are spare off the outside of the back
+         * row, then the row in front of that if the back row runs out.
+         */
+        int spare = numPlaces - numKarts;
+        for (int r = 0; spare > 0; r++) {
+            double[] row = rows.get(r);
+            int removed = Math.min(spare, row.length);
+            int keepFrom = removed / 2;
+            rows.set(r, Arrays.copyOfRange(row, keepFrom,
+                    row.length - (removed - keepFrom)));
+            spare -= removed;
+        }
+
+        double[][] places = new double[numKarts][];
+        int next = 0;
+        for (int r = rows.size() - 1; r >= 0; r--) {
+            for (double x : rows.get(r)) {
+                places[next++] = new double[] { x, backY - r * ROW_HEIGHT };
+            }
+        }
+        return places;
+    }
+
+    /**
+     * Works out how many karts across a row is made to fit.
+     *
+     * @param numKarts
+     *            The number of karts in the field.
+     * @return The most places a row can have: roughly as many as there are
+     *         rows, and at least MIN_COLUMNS.
+     */
+    static int getColumns(int numKarts) {
+        return Math.max(MIN_COLUMNS, (int) Math.ceil(Math.sqrt(numKarts)));
+    }
+
+    /**
+     * Finds the places in one row: the ones nearest the middle of the track
+     * that are clear of walls, up to the given number.
+     *
+     * @param world
+     *            The World, to check for walls.
+     * @param y
+     *            In pixels. The y-coordinate of the row.
+     * @param columns
+     *            The most places the row can have.
+     * @return The x-coordinates of the places, left to right.
+     */
+    private static double[] layOutRow(World world, double y, int columns) {
+        double centreX = world.getTrack().getStartX();
+        double[] row = new double[columns];
+        int numPlaces = 0;
+
+        /*
+         * Trying places alternately either side of the middle, working
+         * outwards, until the row is full or the edges of the map are passed
+         * on both sides.
+         */
+        for (int k = 0; numPlaces < columns; k++) {
+            double left = centreX - (k + 0.5) * COLUMN_WIDTH;
+            double right = centreX + (k + 0.5) * COLUMN_WIDTH;
+            if (left < 0 && right >= world.getMapWidth()) {
+                break;
+            }
+            if (left >= 0 && world.isClearOfWalls(left, y, CLEARANCE)) {
+                row[numPlaces++] = left;
+            }
+            if (numPlaces < columns && right < world.getMapWidth()
+                    && world.isClearOfWalls(right, y, CLEARANCE)) {
+                row[numPlaces++] = right;
+            }
+        }
+        row = Arrays.copyOf(row, numPlaces);
+        Arrays.sort(row);
+        return row;
+    }
+}
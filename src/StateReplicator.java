@@ -0,0 +1,393 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+/**
+ * <h1>StateReplicator</h1>
+ * <h2>Streams the parts of a World each client can see to that client</h2>
+ *
+ * A spectator, or a remote client shown the race by a server, only needs the
+ * Racers and Items around whichever Racer it is following: what would be on
+ * its screen, NUM_TILES_WIDE by NUM_TILES_HIGH tiles, plus a small margin so
+ * things don't pop in at the edge. This keeps, for every client, what it was
+ * last sent about each entity in that area, and writes updates holding only
+ * what has changed since.
+ *
+ * Every Racer and Item is given a number when first seen, the Racers first.
+ * Each update is a VarInt tick followed by any number of entries:
+ *
+ * id, flags, [kind], x change, y change, angle change
+ *
+ * The id is a VarInt, the flags and kind a byte each, and the changes signed
+ * VarInts. Positions are quantised to a quarter of a pixel and angles to 16
+ * bits, and are sent as the change from the last values sent, or from zero for
+ * an entity new to the client, in which case its kind is sent too. An entity
+ * that leaves the area or the map is sent as just its id and a removed flag.
+ *
+ * Each client has a limit on the size of an update, so its bandwidth stays the
+ * same however busy the race gets. Removals go first, then changed entities
+ * in order of priority. An entity's priority builds up every update it has
+ * changed but not been sent, faster the closer it is to the client's Racer,
+ * so nearby entities are kept up to date first, but far away ones still get
+ * their turn.
+ *
+ * Updates are deltas, so they must reach the client reliably and in order,
+ * such as over the RaceServer's TCP connections. Call capture() once after
+ * the World has been updated, then writeUpdate() for each client.
+ *
+ * @author Daniel Porteous porteousd 696965
+ */
+public class StateReplicator {
+
+    /** Kinds of entity, sent when an entity is new to a client */
+    public static final byte KIND_RACER = 0;
+    public static final byte KIND_BOOST = 1;
+    public static final byte KIND_OIL = 2;
+    public static final byte KIND_TOMATO = 3;
+
+    /** Bits of the flags byte sent with each entity */
+    static final int FLAG_REMOVED = 1;
+    static final int FLAG_NEW = 2;
+    static final int FLAG_ACTIVE = 4;
+
+    /** Positions are sent in units of a quarter pixel */
+    public static final double POSITION_SCALE = 4.0;
+
+    /** Angles are sent as the top 16 bits of their binary angle */
+    static final int ANGLE_SHIFT = 16;
+
+    /** Most bytes one entity can take up in an update */
+    private static final int MAX_ENTRY_SIZE = 20;
+
+    /** Most bytes the tick at the start of an update can take up */
+    private static final int MAX_HEADER_SIZE = 10;
+
+    /** Distance beyond the edge of the screen that is still of interest */
+    private static final double INTEREST_MARGIN = 2 * GlobalHelper.TILE_WIDTH;
+
+    /** Half the size of a client's area of interest, in pixels */
+    private static final double INTEREST_HALF_WIDTH = World.NUM_TILES_WIDE
+            * GlobalHelper.TILE_WIDTH / 2.0 + INTEREST_MARGIN;
+    private static final double INTEREST_HALF_HEIGHT = World.NUM_TILES_HIGH
+            * GlobalHelper.TILE_WIDTH / 2.0 + INTEREST_MARGIN;
+
+    /** What one client was last sent about each entity, by id */
+    private static class ClientState {
+        private int target;
+        private int maxBytes;
+        private boolean[] known = new boolean[0];
+        private int[] sentX = new int[0];
+        private int[] sentY = new int[0];
+        private int[] sentAngle = new int[0];
+        private boolean[] sentActive = new boolean[0];
+        private float[] priority = new float[0];
+
+        /** Priority and id of each entity to send, packed for sorting */
+        private long[] order = new long[0];
+
+        private void ensureCapacity(int numIds) {
+            if (known.length < numIds) {
+                int capacity = Math.max(numIds, known.length * 2);
+                known = Arrays.copyOf(known, capacity);
+                sentX = Arrays.copyOf(sentX, capacity);
+                sentY = Arrays.copyOf(sentY, capacity);
+                sentAngle = Arrays.copyOf(sentAngle, capacity);
+                sentActive = Arrays.copyOf(sentActive, capacity);
+                priority = Arrays.copyOf(priority, capacity);
+                order = new long[capacity];
+            }
+        }
+    }
+
+    /** The World being replicated */
+    private World world;
+
+    /** Ids given to the Items seen so far */
+    private IdentityHashMap<Item, Integer> itemIds;
+
+    /** Number of ids given out so far */
+    private int numIds;
+
+    /** The quantised state of each entity at the last capture, by id */
+    private byte[] kind;
+    private int[] currentX;
+    private int[] currentY;
+    private int[] currentAngle;
+    private boolean[] currentActive;
+
+    /** The capture each entity was last seen in, by id */
+    private int[] seenCapture;
+
+    /** Ids of the entities seen in the last capture */
+    private int[] present;
+    private int numPresent;
+
+    /** Number of captures so far, and the tick of the last one */
+    private int numCaptures;
+    private long tick;
+
+    /** Every client */
+    private ClientState[] clients;
+    private int numClients;
+
+    /**
+     * Creates a replicator for a World, with no clients yet.
+     *
+     * @param world
+     *            The World to replicate.
+     */
+    public StateReplicator(World world) {
+        this.world = world;
+        itemIds = new IdentityHashMap<Item, Integer>();
+        numIds = world.getNumRacers();
+        int capacity = numIds + world.getMapItems().getNumSlots();
+        kind = new byte[capacity];
+        currentX = new int[capacity];
+        currentY = new int[capacity];
+        currentAngle = new int[capacity];
+        currentActive = new boolean[capacity];
+        seenCapture = new int[capacity];
+        present = new int[capacity];
+        numPresent = 0;
+        numCaptures = 0;
+        clients = new ClientState[1];
+        numClients = 0;
+    }
+
+    /**
+     * Adds a client, which will be sent everything in its area as new in its
+     * first update.
+     *
+     * @param targetRacer
+     *            Index of the Racer the client is following, as given to
+     *            World.getRacer().
+     * @param maxBytes
+     *            The most bytes to put in one update for the client.
+     * @return The number of the new client.
+     */
+    public int addClient(int targetRacer, int maxBytes) {
+        if (maxBytes < MAX_HEADER_SIZE + MAX_ENTRY_SIZE) {
+            throw new IllegalArgumentException(
+                    "StateReplicator: update size too small");
+        }
+        if (numClients == clients.length) {
+            clients = Arrays.copyOf(clients, clients.length * 2);
+        }
+        ClientState client = new ClientState();
+        client.target = targetRacer;
+        client.maxBytes = maxBytes;
+        clients[numClients] = client;
+        return numClients++;
+    }
+
+    /**
+     * Changes which Racer a client is following. Entities that are out of
+     * the new area are removed in the next update.
+     *
+     * @param client
+     *            The number of the client.
+     * @param targetRacer
+     *            Index of the Racer to follow.
+     */
+    public void setTarget(int client, int targetRacer) {
+        clients[client].target = targetRacer;
+    }
+
+    /**
+     * Takes the current state of every Racer and Item on the map, to be sent
+     * to the clients by writeUpdate().
+     */
+    public void capture() {
+        numCaptures++;
+        numPresent = 0;
+        tick = world.getTick();
+        for (int i = 0; i < world.getNumRacers(); i++) {
+            Racer racer = world.getRacer(i);
+            record(i, KIND_RACER, racer.getMapX(), racer.getMapY(),
+                    racer.getAngle(), false);
+        }
+
+        ItemStore mapItems = world.getMapItems();
+        for (int i = 0; i < mapItems.getNumSlots(); i++) {
+            Item item = mapItems.get(i);
+            if (item == null) {
+                continue;
+            }
+            Integer id = itemIds.get(item);
+            if (id == null) {
+                id = numIds++;
+                itemIds.put(item, id);
+            }
+            record(id, getKind(item), item.getMapX(), item.getMapY(),
+                    item.getAngle(), item.isActive());
+        }
+    }
+
+    /**
+     * Records the quantised state of one entity in the current capture.
+     */
+    private void record(int id, byte entityKind, double x, double y,
+            Angle angle, boolean active) {
+        if (id >= kind.length) {
+            int capacity = Math.max(id + 1, kind.length * 2);
+            kind = Arrays.copyOf(kind, capacity);
+            currentX = Arrays.copyOf(currentX, capacity);
+            currentY = Arrays.copyOf(currentY, capacity);
+            currentAngle = Arrays.copyOf(currentAngle, capacity);
+            currentActive = Arrays.copyOf(currentActive, capacity);
+            seenCapture = Arrays.copyOf(seenCapture, capacity);
+            present = Arrays.copyOf(present, capacity);
+        }
+        kind[id] = entityKind;
+        currentX[id] = (int) Math.round(x * POSITION_SCALE);
+        currentY[id] = (int) Math.round(y * POSITION_SCALE);
+        currentAngle[id] = angle.getBinary() >>> ANGLE_SHIFT;
+        currentActive[id] = active;
+        seenCapture[id] = numCaptures;
+        present[numPresent++] = id;
+    }
+
+    /**
+     * @param item
+     *            An Item on the map.
+     * @return The kind of entity sent for it.
+     */
+    private static byte getKind(Item item) {
+        if (item instanceof Boost) {
+            return KIND_BOOST;
+        } else if (item instanceof Oil) {
+            return KIND_OIL;
+        }
+        return KIND_TOMATO;
+    }
+
+    /**
+     * Writes an update for a client, from the last capture, and takes it as
+     * sent. Nothing is written past the client's limit or the buffer's.
+     *
+     * @param client
+     *            The number of the client.
+     * @param out
+     *            The buffer to write the update into, from its position.
+     * @return The number of bytes written.
+     */
+    public int writeUpdate(int client, ByteBuffer out) {
+        ClientState state = clients[client];
+        state.ensureCapacity(numIds);
+        int start = out.position();
+        int end = Math.min(out.limit(), start + state.maxBytes);
+        VarInt.write(out, tick);
+
+        Racer target = world.getRacer(state.target);
+        double centreX = target.getMapX();
+        double centreY = target.getMapY();
+
+        /*
+         * Removals go first, so the client never sees something stale just
+         * because the update filled up.
+         */
+        for (int id = 0; id < numIds
+                && end - out.position() >= MAX_ENTRY_SIZE; id++) {
+            if (state.known[id]
+                    && !isOfInterest(id, centreX, centreY)) {
+                VarInt.write(out, id);
+                out.put((byte) FLAG_REMOVED);
+                state.known[id] = false;
+            }
+        }
+
+        /*
+         * Building up the priority of everything in the area that has changed
+         * since it was last sent, then sending the highest first. Priorities
+         * are positive, so the bits of the float sort in the same order.
+         */
+        int numChanged = 0;
+        for (int i = 0; i < numPresent; i++) {
+            int id = present[i];
+            if (!isOfInterest(id, centreX, centreY)
+                    || state.known[id] && isUnchanged(state, id)) {
+                continue;
+            }
+            double dx = currentX[id] / POSITION_SCALE - centreX;
+            double dy = currentY[id] / POSITION_SCALE - centreY;
+            double distance = Math.sqrt(dx * dx + dy * dy);
+            state.priority[id] += (float) (1.0
+                    / (1.0 + distance / GlobalHelper.TILE_WIDTH));
+            state.order[numChanged++] = ((long) Float
+                    .floatToIntBits(state.priority[id]) << 32) | id;
+        }
+        Arrays.sort(state.order, 0, numChanged);
+
+        for (int i = numChanged - 1; i >= 0
+                && end - out.position() >= MAX_ENTRY_SIZE; i--) {
+            writeEntry(state, (int) state.order[i], out);
+        }
+        return out.position() - start;
+    }
+
+    /**
+     * Writes one entity's change since it was last sent to a client, and
+     * takes it as sent.
+     */
+    private void writeEntry(ClientState state, int id, ByteBuffer out) {
+        boolean isNew = !state.known[id];
+        if (isNew) {
+            state.sentX[id] = 0;
+            state.sentY[id] = 0;
+            state.sentAngle[id] = 0;
+        }
+        VarInt.write(out, id);
+        out.put((byte) ((isNew ? FLAG_NEW : 0)
+                | (currentActive[id] ? FLAG_ACTIVE : 0)));
+        if (isNew) {
+            out.put(kind[id]);
+        }
+        VarInt.writeSigned(out, currentX[id] - state.sentX[id]);
+        VarInt.writeSigned(out, currentY[id] - state.sentY[id]);
+        VarInt.writeSigned(out,
+                (short) (currentAngle[id] - state.sentAngle[id]));
+
+        state.known[id] = true;
+        state.sentX[id] = currentX[id];
+        state.sentY[id] = currentY[id];
+        state.sentAngle[id] = currentAngle[id];
+        state.sentActive[id] = currentActive[id];
+        state.priority[id] = 0.0f;
+    }
+
+    /**
+     * @return True if the entity was in the last capture and inside the area
+     *         of interest around the given centre.
+     */
+    private boolean isOfInterest(int id, double centreX, double centreY) {
+        return seenCapture[id] == numCaptures
+                && Math.abs(currentX[id] / POSITION_SCALE
+                        - centreX) <= INTEREST_HALF_WIDTH
+                && Math.abs(currentY[id] / POSITION_SCALE
+                        - centreY) <= INTEREST_HALF_HEIGHT;
+    }
+
+    /**
+     * @return True if the entity is as it was when last sent to the client.
+     */
+    private boolean isUnchanged(ClientState state, int id) {
+        return state.sentX[id] == currentX[id]
+                && state.sentY[id] == currentY[id]
+                && state.sentAngle[id] == currentAngle[id]
+                && state.sentActive[id] == currentActive[id];
+    }
+
+    /**
+     * @return The number of ids given out so far, Racers and Items.
+     */
+    public int getNumIds() {
+        return numIds;
+    }
+
+    /**
+     * @return The number of clients.
+     */
+    public int getNumClients() {
+        return numClients;
+    }
+}
@@ -0,0 +1,116 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <h1>TelemetryReader</h1>
+ * <h2>Turns a telemetry file into CSV</h2>
+ *
+ * Reads a file written by a TelemetryRecorder, which may still be being
+ * written to, or left behind by a crash, and writes out every complete record
+ * still in the ring, oldest first, one line each:
+ *
+ * tick,millis,racer,x,y,angle,speed,acceleration,boost,spin,held
+ *
+ * with the time since the start of the race in milliseconds, the angle in
+ * degrees, boost and spin as 0 or 1, and the held item as a word. Records for
+ * a tick still being written when the file was read are left out.
+ *
+ * The arguments are the telemetry file, and optionally a file to write the
+ * CSV to instead of standard output.
+ *
+ * @author Daniel Porteous porteousd 696965
+ */
+public class TelemetryReader {
+
+    /** Names of the held items, by the value of the held item byte */
+    private static final String[] HELD_NAMES = { "none", "boost", "oil",
+            "tomato" };
+
+    /** Only a main method here, so no instances. */
+    private TelemetryReader() {
+    }
+
+    /**
+     * Writes the CSV.
+     *
+     * @param args
+     *            The telemetry file, then optionally the CSV file.
+     * @throws IOException
+     *             If either file can't be opened, or the telemetry file
+     *             isn't one.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println(
+                    "Usage: java TelemetryReader telemetry-file [csv-file]");
+            System.exit(1);
+        }
+
+        MappedByteBuffer in;
+        try (RandomAccessFile file = new RandomAccessFile(args[0], "r")) {
+            in = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+                    file.length());
+        }
+        boolean valid = in.capacity() >= TelemetryRecorder.HEADER_SIZE
+                && in.getInt(TelemetryRecorder.MAGIC_OFFSET)
+                        == TelemetryRecorder.MAGIC
+                && in.getInt(TelemetryRecorder.RECORD_SIZE_OFFSET)
+                        == TelemetryRecorder.RECORD_SIZE;
+        int capacity = valid ? in.getInt(TelemetryRecorder.CAPACITY_OFFSET)
+                : 0;
+        if (!valid || capacity <= 0
+                || in.capacity() < TelemetryRecorder.HEADER_SIZE
+                        + (long) capacity * TelemetryRecorder.RECORD_SIZE) {
+            throw new IOException(args[0] + " is not a telemetry file");
+        }
+
+        double tickMillis = in.getDouble(TelemetryRecorder.TICK_MILLIS_OFFSET);
+        long written = in.getLong(TelemetryRecorder.WRITTEN_OFFSET);
+        long lastTick = in.getLong(TelemetryRecorder.LAST_TICK_OFFSET);
+
+        PrintWriter out = new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(args.length > 1
+                        ? new FileOutputStream(new File(args[1]))
+                        : System.out)));
+        out.println("tick,millis,racer,x,y,angle,speed,acceleration,"
+                + "boost,spin,held");
+        for (long n = Math.max(0, written - capacity); n < written; n++) {
+            int at = TelemetryRecorder.HEADER_SIZE
+                    + (int) (n % capacity) * TelemetryRecorder.RECORD_SIZE;
+            long tick = in.getLong(at + TelemetryRecorder.TICK_OFFSET);
+            if (tick > lastTick) {
+                // Overwritten by a tick that hadn't finished being recorded.
+                continue;
+            }
+            int effects = in.get(at + TelemetryRecorder.EFFECTS_OFFSET);
+            int held = in.get(at + TelemetryRecorder.HELD_OFFSET);
+            out.println(tick + "," + tick * tickMillis + ","
+                    + in.getShort(at + TelemetryRecorder.RACER_OFFSET) + ","
+                    + in.getFloat(at + TelemetryRecorder.X_OFFSET) + ","
+                    + in.getFloat(at + TelemetryRecorder.Y_OFFSET) + ","
+                    + Math.toDegrees(Angle.toRadians(in.getInt(
+                            at + TelemetryRecorder.HEADING_OFFSET)))
+                    + "," + in.getFloat(at + TelemetryRecorder.SPEED_OFFSET)
+                    + ","
+                    + in.getFloat(at + TelemetryRecorder.ACCELERATION_OFFSET)
+                    + ","
+                    + ((effects & TelemetryRecorder.EFFECT_BOOST) != 0 ? 1 : 0)
+                    + ","
+                    + ((effects & TelemetryRecorder.EFFECT_SPIN) != 0 ? 1 : 0)
+                    + ","
+                    + (held >= 0 && held < HELD_NAMES.length
+                            ? HELD_NAMES[held] : "unknown"));
+        }
+        out.flush();
+        if (args.length > 1) {
+            out.close();
+        }
+    }
+}
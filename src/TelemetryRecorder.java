@@ -0,0 +1,198 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <h1>TelemetryRecorder</h1>
+ * <h2>Records every Racer's state each tick into a memory-mapped file</h2>
+ *
+ * For looking into races after the fact, the World can hand one of these the
+ * state of every Racer at the end of each tick. The records go straight into
+ * a file mapped into memory, so recording is just a handful of stores into the
+ * page cache, with nothing copied or allocated on the game thread. The
+ * operating system writes the pages out in its own time, and since they
+ * belong to it rather than the JVM, everything recorded up to the last tick
+ * survives the JVM crashing.
+ *
+ * The file is a ring of a fixed number of records, so it never grows, and
+ * once full each tick overwrites the oldest. It starts with a header:
+ *
+ * magic, record size, capacity, tick length, records written, last tick
+ *
+ * as three ints, a double and two longs, padded to HEADER_SIZE bytes,
+ * followed by the records, each RECORD_SIZE bytes:
+ *
+ * tick, racer, effects, held item, x, y, heading, speed, acceleration
+ *
+ * as a long, a short, two bytes, two floats, an int and two floats. The
+ * heading is a binary angle, as used by Angle. The effects byte has
+ * EFFECT_BOOST set while a boost is in effect and EFFECT_SPIN while the Racer
+ * is spinning from oil or a tomato, and the held item is one of the HELD_
+ * constants. The count of records written and the last tick are only updated
+ * once a tick's records are all in place, so a reader can tell which records
+ * are complete. TelemetryReader turns a file back into CSV.
+ *
+ * @author Daniel Porteous porteousd 696965
+ */
+public class TelemetryRecorder {
+
+    /** First int of every telemetry file */
+    public static final int MAGIC = 0x544C4D31;
+
+    /** Size of the header and of each record, in bytes */
+    public static final int HEADER_SIZE = 64;
+    public static final int RECORD_SIZE = 32;
+
+    /** Records held by the ring unless told otherwise, 32MB worth */
+    public static final int DEFAULT_CAPACITY = 1 << 20;
+
+    /** Where each value is in the header */
+    static final int MAGIC_OFFSET = 0;
+    static final int RECORD_SIZE_OFFSET = 4;
+    static final int CAPACITY_OFFSET = 8;
+    static final int TICK_MILLIS_OFFSET = 16;
+    static final int WRITTEN_OFFSET = 24;
+    static final int LAST_TICK_OFFSET = 32;
+
+    /** Where each value is in a record */
+    static final int TICK_OFFSET = 0;
+    static final int RACER_OFFSET = 8;
+    static final int EFFECTS_OFFSET = 10;
+    static final int HELD_OFFSET = 11;
+    static final int X_OFFSET = 12;
+    static final int Y_OFFSET = 16;
+    static final int HEADING_OFFSET = 20;
+    static final int SPEED_OFFSET = 24;
+    static final int ACCELERATION_OFFSET = 28;
+
+    /** Bits of the effects byte */
+    public static final int EFFECT_BOOST = 1;
+    public static final int EFFECT_SPIN = 2;
+
+    /** Values of the held item byte */
+    public static final byte HELD_NONE = 0;
+    public static final byte HELD_BOOST = 1;
+    public static final byte HELD_OIL = 2;
+    public static final byte HELD_TOMATO = 3;
+
+    /** The file, mapped into memory */
+    private MappedByteBuffer buffer;
+
+    /** The open file, kept so it can be closed */
+    private RandomAccessFile file;
+
+    /** Number of records the ring holds */
+    private int capacity;
+
+    /** Total number of records written so far */
+    private long written;
+
+    /**
+     * Creates a telemetry file, replacing any file already there, and maps it
+     * into memory.
+     *
+     * @param path
+     *            Where to create the file.
+     * @param capacity
+     *            The number of records the ring holds.
+     * @param tickMillis
+     *            The length of one tick of the World being recorded, in
+     *            milliseconds, saved so the reader can give times.
+     * @throws IOException
+     *             If the file can't be created or mapped.
+     */
+    public TelemetryRecorder(File path, int capacity, double tickMillis)
+            throws IOException {
+        long size = HEADER_SIZE + (long) capacity * RECORD_SIZE;
+        if (capacity <= 0 || size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(
+                    "TelemetryRecorder: capacity out of range");
+        }
+        this.capacity = capacity;
+        file = new RandomAccessFile(path, "rw");
+        file.setLength(0);
+        file.setLength(size);
+        buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                size);
+
+        buffer.putInt(MAGIC_OFFSET, MAGIC);
+        buffer.putInt(RECORD_SIZE_OFFSET, RECORD_SIZE);
+        buffer.putInt(CAPACITY_OFFSET, capacity);
+        buffer.putDouble(TICK_MILLIS_OFFSET, tickMillis);
+        buffer.putLong(WRITTEN_OFFSET, 0);
+        buffer.putLong(LAST_TICK_OFFSET, -1);
+        written = 0;
+    }
+
+    /**
+     * Records the state of every Racer at the end of a tick. This is called
+     * by the World once everything has moved.
+     *
+     * @param tick
+     *            The tick just run.
+     * @param states
+     *            The state of every Racer, by slot.
+     * @param players
+     *            The players, which fill the first slots, so their held
+     *            items can be recorded too.
+     */
+    public void record(long tick, RacerStates states, Player[] players) {
+        ByteBuffer out = buffer;
+        for (int i = 0; i < states.getNumRacers(); i++) {
+            int at = HEADER_SIZE + (int) (written % capacity) * RECORD_SIZE;
+            out.putLong(at + TICK_OFFSET, tick);
+            out.putShort(at + RACER_OFFSET, (short) i);
+            out.put(at + EFFECTS_OFFSET,
+                    (byte) ((states.boostEffects[i] > 0 ? EFFECT_BOOST : 0)
+                            | (states.spinEffects[i] > 0 ? EFFECT_SPIN
+                                    : 0)));
+            out.put(at + HELD_OFFSET, i < players.length
+                    ? getHeld(players[i].getHeldItem()) : HELD_NONE);
+            out.putFloat(at + X_OFFSET, (float) states.x[i]);
+            out.putFloat(at + Y_OFFSET, (float) states.y[i]);
+            out.putInt(at + HEADING_OFFSET, states.heading[i]);
+            out.putFloat(at + SPEED_OFFSET, (float) states.speed[i]);
+            out.putFloat(at + ACCELERATION_OFFSET,
+                    (float) states.acceleration[i]);
+            written++;
+        }
+        out.putLong(WRITTEN_OFFSET, written);
+        out.putLong(LAST_TICK_OFFSET, tick);
+    }
+
+    /**
+     * @param item
+     *            A held item, or null.
+     * @return The value of the held item byte for it.
+     */
+    private static byte getHeld(Item item) {
+        if (item == null) {
+            return HELD_NONE;
+        } else if (item instanceof Boost) {
+            return HELD_BOOST;
+        } else if (item instanceof Oil) {
+            return HELD_OIL;
+        }
+        return HELD_TOMATO;
+    }
+
+    /**
+     * @return The total number of records written so far.
+     */
+    public long getWritten() {
+        return written;
+    }
+
+    /**
+     * Closes the file. The mapping itself is only let go of once the
+     * recorder has been garbage collected, so it mustn't be used after this.
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,105 @@
+import java.util.Collection;
+
+/**
+ * <h1>TickBudget</h1>
+ * <h2>Decides whether the RaceServer has the CPU to run another race</h2>
+ *
+ * The server has a fixed number of threads to step its races on, so it can
+ * spend at most that many seconds of CPU time per second of wall time. The
+ * budget is a fraction of that, leaving headroom for the network threads and
+ * for races that briefly cost more than usual.
+ *
+ * Every Race measures its own cost as a running average. Adding these up
+ * gives the load on the server as a fraction of the budget: over 1 means the
+ * races are asking for more CPU than the budget allows and will start to fall
+ * behind. A new race is only admitted if the load with it added, using the
+ * average cost of the races already running as its estimate, would still fit.
+ *
+ * @author Daniel Porteous porteousd 696965
+ */
+public class TickBudget {
+
+    /** Fraction of the threads' time the races may use between them */
+    private static final double UTILISATION = 0.75;
+
+    /**
+     * Estimated CPU time of a single tick, in nanoseconds, used to estimate
+     * the cost of a race when there are none running to measure.
+     */
+    private static final double DEFAULT_TICK_NANOS = 5000.0;
+
+    /** CPU nanoseconds per second of wall time the races may use */
+    private double capacity;
+
+    /** Ticks per second each race is stepped at */
+    private int tickRate;
+
+    /**
+     * Creates a budget for the given number of threads.
+     *
+     * @param numThreads
+     *            The number of threads the races are stepped on.
+     * @param tickRate
+     *            Ticks per second each race is stepped at.
+     */
+    public TickBudget(int numThreads, int tickRate) {
+        capacity = numThreads * 1e9 * UTILISATION;
+        this.tickRate = tickRate;
+    }
+
+    /**
+     * Works out the load from the races currently running.
+     *
+     * @param races
+     *            The races currently running.
+     * @return The total cost of the races as a fraction of the budget.
+     */
+    public double getLoad(Collection<Race> races) {
+        double total = 0.0;
+        for (Race race : races) {
+            total += race.getCostNanosPerSecond();
+        }
+        return total / capacity;
+    }
+
+    /**
+     * Estimates the cost of a new race, from the average of those running or
+     * from DEFAULT_TICK_NANOS if there are none.
+     *
+     * @param races
+     *            The races currently running.
+     * @return The estimated CPU nanoseconds per second of a new race.
+     */
+    public double estimateCost(Collection<Race> races) {
+        if (races.isEmpty()) {
+            return DEFAULT_TICK_NANOS * tickRate;
+        }
+        double total = 0.0;
+        for (Race race : races) {
+            total += race.getCostNanosPerSecond();
+        }
+        return total / races.size();
+    }
+
+    /**
+     * Checks whether another race fits in the budget.
+     *
+     * @param races
+     *            The races currently running.
+     * @return True if a new race can be admitted.
+     */
+    public boolean canAdmit(Collection<Race> races) {
+        return getLoad(races) + estimateCost(races) / capacity <= 1.0;
+    }
+
+    /**
+     * Checks whether the races already running need more than the budget.
+     *
+     * @param races
+     *            The races currently running.
+     * @return True if the server is overloaded.
+     */
+    public boolean isOverloaded(Collection<Race> races) {
+        return getLoad(races) > 1.0;
+    }
+}
@@ -0,0 +1,211 @@
+import java.io.File;
+import java.io.StringReader;
+import java.util.ArrayList;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.newdawn.slick.SlickException;
+import org.newdawn.slick.SpriteSheet;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+
+/**
+ * <h1>TileSet</h1>
+ * <h2>The tiles a map is drawn with, and the friction of each</h2>
+ *
+ * Reads the tile sets a map uses from the header of the map file, rather than
+ * through Slick's TiledMap, which would load every tile of the map along with
+ * them. Tile sets can be held either in the map file itself or in a separate
+ * file it refers to, and tile ids start from each tile set's firstgid.
+ *
+ * The friction of every tile id is read up front. The images of the tiles
+ * are only loaded when there is a display to draw them on, and render() then
+ * draws a ChunkedMap with them the same way TiledMap.render() would, taking
+ * each tile set in turn so its image only has to be bound once a frame.
+ *
+ * @author Daniel Porteous porteousd 696965
+ */
+public class TileSet implements GlobalHelper {
+
+    /** The friction of each tile id, indexed by id */
+    private double[] frictions;
+
+    /** The first tile id of each tile set, in the order they are listed */
+    private int[] firstGids;
+
+    /** The tiles of each tile set, or null when headless */
+    private SpriteSheet[] sheets;
+
+    /** Only made by load(). */
+    private TileSet() {
+    }
+
+    /**
+     * Reads the tile sets used by a map.
+     *
+     * @param mapFile
+     *            Path to the map file.
+     * @return The map's tiles.
+     * @throws SlickException
+     *             If the map, a tile set or a tile image can't be read.
+     */
+    public static TileSet load(String mapFile) throws SlickException {
+        TileSet tileSet = new TileSet();
+        tileSet.frictions = new double[1];
+        ArrayList<Integer> firstGids = new ArrayList<Integer>();
+        ArrayList<SpriteSheet> sheets = new ArrayList<SpriteSheet>();
+        try {
+            DocumentBuilder builder = DocumentBuilderFactory.newInstance()
+                    .newDocumentBuilder();
+            // Skipping any DTD a tile set file refers to, not fetching it.
+            builder.setEntityResolver((publicId, systemId) -> new InputSource(
+                    new StringReader("")));
+            File mapDirectory = new File(mapFile).getParentFile();
+            for (Element set : MapHeader.read(mapFile).getTileSets()) {
+                int firstGid = Integer.parseInt(set.getAttribute("firstgid"));
+                File setDirectory = mapDirectory;
+                if (set.hasAttribute("source")) {
+                    File setFile = new File(mapDirectory,
+                            set.getAttribute("source"));
+                    Document source = builder.parse(setFile);
+                    set = source.getDocumentElement();
+                    setDirectory = setFile.getParentFile();
+                }
+                firstGids.add(firstGid);
+                sheets.add(loadSheet(set, setDirectory));
+                tileSet.readFrictions(set, firstGid);
+            }
+        } catch (SlickException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new SlickException("Failed to read the tile sets of "
+                    + mapFile, e);
+        }
+
+        tileSet.firstGids = new int[firstGids.size()];
+        for (int i = 0; i < tileSet.firstGids.length; i++) {
+            tileSet.firstGids[i] = firstGids.get(i);
+        }
+        if (!Sprites.isHeadless()) {
+            tileSet.sheets = sheets.toArray(new SpriteSheet[sheets.size()]);
+        }
+        return tileSet;
+    }
+
+    /**
+     * Reads the friction property of every tile in a tile set.
+     *
+     * @param set
+     *            The tile set's element.
+     * @param firstGid
+     *            The tile id of the tile set's first tile.
+     */
+    private void readFrictions(Element set, int firstGid) {
+        NodeList tiles = set.getElementsByTagName("tile");
+        for (int j = 0; j < tiles.getLength(); j++) {
+            Element tile = (Element) tiles.item(j);
+            int tileID = firstGid + Integer.parseInt(tile.getAttribute("id"));
+            NodeList properties = tile.getElementsByTagName("property");
+            for (int k = 0; k < properties.getLength(); k++) {
+                Element property = (Element) properties.item(k);
+                if (!property.getAttribute("name").equals("friction")) {
+                    continue;
+                }
+                if (tileID >= frictions.length) {
+                    double[] grown = new double[tileID + 1];
+                    System.arraycopy(frictions, 0, grown, 0,
+                            frictions.length);
+                    frictions = grown;
+                }
+                frictions[tileID] = Double.parseDouble(
+                        property.getAttribute("value"));
+            }
+        }
+    }
+
+    /**
+     * Loads the image of a tile set and cuts it into its tiles.
+     *
+     * @param set
+     *            The tile set's element.
+     * @param directory
+     *            The directory the tile set's image is relative to.
+     * @return The tiles, or null when headless.
+     * @throws SlickException
+     *             If the image can't be loaded.
+     */
+    private static SpriteSheet loadSheet(Element set, File directory)
+            throws SlickException {
+        if (Sprites.isHeadless()) {
+            return null;
+        }
+        Element image = (Element) set.getElementsByTagName("image").item(0);
+        int tileWidth = Integer.parseInt(set.getAttribute("tilewidth"));
+        int tileHeight = Integer.parseInt(set.getAttribute("tileheight"));
+        int spacing = set.hasAttribute("spacing")
+                ? Integer.parseInt(set.getAttribute("spacing")) : 0;
+        int margin = set.hasAttribute("margin")
+                ? Integer.parseInt(set.getAttribute("margin")) : 0;
+        return new SpriteSheet(Sprites.load(new File(directory,
+                image.getAttribute("source")).getPath()), tileWidth,
+                tileHeight, spacing, margin);
+    }
+
+    /**
+     * @return The friction of each tile id, indexed by id. This mustn't be
+     *         changed.
+     */
+    public double[] getFrictions() {
+        return frictions;
+    }
+
+    /**
+     * Draws part of a map, as TiledMap.render() would. Nothing is drawn when
+     * headless.
+     *
+     * @param map
+     *            The map to draw.
+     * @param x
+     *            In pixels. Where on the screen to draw the first tile.
+     * @param y
+     *            In pixels. Where on the screen to draw the first tile.
+     * @param sx
+     *            The first column of tiles to draw.
+     * @param sy
+     *            The first row of tiles to draw.
+     * @param width
+     *            The number of columns of tiles to draw.
+     * @param height
+     *            The number of rows of tiles to draw.
+     */
+    public void render(ChunkedMap map, int x, int y, int sx, int sy,
+            int width, int height) {
+        if (sheets == null) {
+            return;
+        }
+        int fromX = Math.max(sx, 0);
+        int toX = Math.min(sx + width, map.getWidth());
+        int fromY = Math.max(sy, 0);
+        int toY = Math.min(sy + height, map.getHeight());
+
+        for (int i = 0; i < sheets.length; i++) {
+            SpriteSheet sheet = sheets[i];
+            int across = sheet.getHorizontalCount();
+            int numTiles = across * sheet.getVerticalCount();
+            sheet.startUse();
+            for (int tileY = fromY; tileY < toY; tileY++) {
+                for (int tileX = fromX; tileX < toX; tileX++) {
+                    int tile = map.getTileId(tileX, tileY) - firstGids[i];
+                    if (tile < 0 || tile >= numTiles) {
+                        continue;
+                    }
+                    sheet.renderInUse(x + (tileX - sx) * TILE_WIDTH,
+                            y + (tileY - sy) * TILE_WIDTH, tile % across,
+                            tile / across);
+                }
+            }
+            sheet.endUse();
+        }
+    }
+}
@@ -1,4 +1,3 @@
-import java.util.ArrayList;
 import org.newdawn.slick.Image;
 import org.newdawn.slick.SlickException;
 
@@ -12,7 +11,7 @@ import org.newdawn.slick.SlickException;
  * 
  * Upon use a tomato projectile is created. This is destroyed upon either
  * collision with terrain or with a Racer. If this collision is with a Racer,
- * the effect described in applyEffect() is applied, which causes it to "spin
+ * the effect described in startEffect() is applied, which causes it to "spin
  * out" for a set duration.
  * 
  * @author Daniel Porteous porteousd 696965
@@ -29,26 +28,20 @@ public class Tomato extends Item {
      */
     private static final int DROP_RANGE = 40;
 
-    /** Speed of travel of the Tomato projectile when used */
+    /** Speed of travel of the Tomato projectile when used, pixels per ms */
     private final double speed = 1.7;
 
     /**
-     * Indicates how long the active effect should be applied to the Racer upon
-     * colliding with one.
+     * Indicates how long, in milliseconds, the active effect should be applied
+     * to the Racer upon colliding with one.
      */
     private static final int DURATION = 700;
 
     /**
-     * This variable represents the timer for tracking how long the Player has
-     * been boosting. Once this counter reaches DURATION, the effect ends.
+     * The pool this Tomato was taken from, if it is the active form. Null for
+     * the inactive form placed on the map at the start of the race.
      */
-    private int timer;
-
-    /**
-     * Storing the item path so we can change the sprite to the active version
-     * when the item used used.
-     */
-    private String itemPath;
+    private ItemPool<Tomato> pool;
 
     /**
      * This boolean represents whether the item is currently on the map in its
@@ -56,10 +49,18 @@ public class Tomato extends Item {
      */
     private boolean active;
 
+    /**
+     * The distance the projectile moves along each axis per tick, and the
+     * number of updates left until it hits a wall. These are all worked out
+     * once when the projectile is fired.
+     */
+    private double stepX;
+    private double stepY;
+    private int ticksToImpact;
+
     /**
      * Calls the super constructor as well as initially setting the inactive
-     * version of the sprite. The itemPath is stored for later use, and the item
-     * is set to being inactive.
+     * version of the sprite. The item is set to being inactive.
      * 
      * @param startX
      *            In pixels. Horizontal x-coordinate starting position.
@@ -72,73 +73,141 @@ public class Tomato extends Item {
     public Tomato(double startX, double startY, String itemPath)
             throws SlickException {
         super(startX, startY);
-        setSprite(new Image(ASSETS_PATH + itemPath + SPRITE_INACTIVE));
+        setSprite(Sprites.load(ASSETS_PATH + itemPath + SPRITE_INACTIVE));
 
-        this.itemPath = itemPath;
         active = false;
-        timer = 0;
+        pool = null;
     }
 
     /**
-     * This method applies the effect of the item. If the item is inactive, the
-     * item's effect is just to create an active version of itself on the map to
-     * then be removed from the inventory of the Player, as is handled by the
-     * first part of this method.
+     * Creates the active form of the Tomato, which is only ever done by the
+     * pool returned from createPool(). It sits off the map until it is taken
+     * from the pool and placed.
      * 
-     * The parts following handle interactions where the active form of the
-     * Tomato (projectile form) has collided with a player and applies the
-     * spinning effect, which is common to Oil as well and therefore held in
-     * Item.
+     * @param sprite
+     *            The active sprite, shared with the rest of the pool.
+     * @param pool
+     *            The pool to which the Tomato returns once it is despawned.
+     */
+    private Tomato(Image sprite, ItemPool<Tomato> pool) {
+        super(0, 0);
+        setSprite(sprite);
+        active = true;
+        this.pool = pool;
+    }
+
+    /**
+     * Creates a pool of Tomato projectiles for the World to take from whenever
+     * a Tomato is used.
      * 
-     * @param racer
-     *            The Racer to which it should apply the effect
-     * @param mapItems
-     *            This is passed so when the item is used, it can be re-added to
-     *            the game world in its active form.
+     * @param initialSize
+     *            The number of projectiles to create up front.
+     * @return The new pool.
+     * @throws SlickException
      */
-    public boolean applyEffect(Racer racer, ArrayList<Item> mapItems)
+    public static ItemPool<Tomato> createPool(int initialSize)
             throws SlickException {
+        return new ItemPool<Tomato>(ASSETS_PATH + ITEMS_PATH + SPRITE_ACTIVE,
+                initialSize) {
+            protected Tomato createItem(Image sprite) {
+                return new Tomato(sprite, this);
+            }
+        };
+    }
 
-        /**
-         * This indicates how the Tomato should be interacted with if the item
-         * is inactive. Note that this only applies for when used by the Player,
-         * since Enemies can't interact with inactive items.
-         * 
-         * Because the Tomato is removed from the map upon pickup, this part
-         * essentially recreates it on the map in its active form. It then
-         * immediately returns true, removing it from the hand of the Player, in
-         * essence passing control back to the game world.
-         */
-        if (!active) {
-            setSprite(new Image(ASSETS_PATH + itemPath + SPRITE_ACTIVE));
-
-            setAngle(Angle.fromDegrees(racer.getAngle().getDegrees() + 180));
-            setMapX(racer.getMapX() - getAngle().getXComponent(DROP_RANGE));
-            setMapY(racer.getMapY() - getAngle().getYComponent(DROP_RANGE));
-
-            active = true;
-            mapItems.add(this);
-
-            return true;
-        }
+    /**
+     * Note that this only applies for when used by the Player, since Enemies
+     * can't interact with inactive items.
+     * 
+     * Because the Tomato is removed from the map upon pickup, this takes a
+     * projectile from the World's pool and fires it from in front of the
+     * Player, in essence passing control back to the game world. The point at
+     * which it will hit a wall is found here, once, by casting a ray along its
+     * path.
+     * 
+     * @param racer
+     *            The Racer using the Tomato.
+     * @param world
+     *            The world object, holding the pool of projectiles and the
+     *            items on the map to which the projectile is added.
+     */
+    public void use(Racer racer, World world) {
+        Tomato projectile = world.getTomatoPool().acquire();
+
+        projectile.setAngle(
+                Angle.fromDegrees(racer.getAngle().getDegrees() + 180));
+        projectile.setMapX(racer.getMapX()
+                - projectile.getAngle().getXComponent(DROP_RANGE));
+        projectile.setMapY(racer.getMapY()
+                - projectile.getAngle().getYComponent(DROP_RANGE));
+        projectile.launch(world);
+
+        world.getMapItems().add(projectile);
+    }
+
+    /**
+     * This applies the active effect; so when the Tomato projectile collides
+     * with a Racer. The spinning effect is common to Oil as well and therefore
+     * held in Item.
+     * 
+     * @param racer
+     *            The Racer to which it should apply the effect.
+     */
+    public void startEffect(Racer racer) {
+        startOilTomatoEffect(racer);
+    }
+
+    /**
+     * Ends the spinning effect once it has run its duration. The Tomato has
+     * left the map for good at this point, so it is despawned.
+     * 
+     * @param racer
+     *            The Racer from which the effect should be removed.
+     */
+    public void endEffect(Racer racer) {
+        endOilTomatoEffect(racer);
+        despawn();
+    }
 
-        /**
-         * Checking to see whether the active effect should stop being applied
-         * or not.
-         */
-        if (timer > DURATION) {
-            return true;
+    /**
+     * Returns the Tomato to its pool, if it came from one, so it can be used
+     * again.
+     */
+    public void despawn() {
+        if (pool != null) {
+            pool.release(this);
         }
+    }
 
-        /**
-         * This part applies the active effect; so when the Tomato projectile
-         * collides with a Racer.
-         */
-        applyOilTomatoEffect(racer);
-        timer += 1;
+    /**
+     * @return the DURATION
+     */
+    public int getDuration() {
+        return DURATION;
+    }
 
-        return false;
+    /**
+     * Works out the path of the projectile once it has been placed and
+     * angled. The projectile travels in a straight line, so the number of
+     * ticks until it reaches a wall is known as soon as it is fired.
+     * 
+     * The projectile is removed on the update after the one where it is first
+     * inside a wall tile, so if the wall is entered after travelling some
+     * distance, the first tick at which the projectile is inside it is that
+     * distance divided by the distance covered per tick, rounded up. The
+     * distance per tick is the speed scaled by the length of a tick.
+     * 
+     * @param world
+     *            The world object, used to cast a ray along the path.
+     */
+    private void launch(World world) {
+        double stepLength = speed * world.getTickMillis();
+        stepX = -getAngle().getXComponent(stepLength);
+        stepY = -getAngle().getYComponent(stepLength);
 
+        double distance = world.castRay(getMapX(), getMapY(),
+                stepX / stepLength, stepY / stepLength, Double.MAX_VALUE);
+        ticksToImpact = (int) Math.ceil(distance / stepLength) + 1;
     }
 
     /**
@@ -148,24 +217,59 @@ public class Tomato extends Item {
      * 
      * Notably, this method handles whether the Tomato has collided with
      * terrain, in which case it returns true indicating that the item should be
-     * removed from the map.
+     * removed from the map. The tick at which that happens was worked out when
+     * it was fired, so there's no need to look at the terrain here.
      * 
      * @param world
-     *            The world object. Used to check whether the Tomato projectile
-     *            has collided with terrain and should therefore be removed.
+     *            The world object. Mandatory as per the abstract method in
+     *            Item, but not used here.
      */
     public boolean update(World world) {
         // Only does anything here if active of course.
         if (active) {
-            setMapX(getMapX() - getAngle().getXComponent(speed));
-            setMapY(getMapY() - getAngle().getYComponent(speed));
-            if (world.getFriction(getMapX() + getAngle().getXComponent(speed),
-                    getMapY() + getAngle().getYComponent(speed)) >= 1) {
-                return true;
-            }
+            setMapX(getMapX() + stepX);
+            setMapY(getMapY() + stepY);
+            ticksToImpact--;
+            return ticksToImpact <= 0;
+        }
+        return false;
+
+    }
+
+    /**
+     * Moves the projectile along its path for a number of ticks in one go,
+     * rather than a tick at a time, stopping short if it hits the terrain
+     * along the way.
+     */
+    @Override
+    public boolean update(World world, int ticks) {
+        if (active) {
+            int steps = Math.max(1, Math.min(ticks, ticksToImpact));
+            setMapX(getMapX() + stepX * steps);
+            setMapY(getMapY() + stepY * steps);
+            ticksToImpact -= steps;
+            return ticksToImpact <= 0;
         }
         return false;
+    }
+
+    /**
+     * Saves how far the projectile moves each tick and how long it has left
+     * before it hits a wall.
+     */
+    public void saveState(double[] state, int offset) {
+        state[offset] = stepX;
+        state[offset + 1] = stepY;
+        state[offset + 2] = ticksToImpact;
+    }
 
+    /**
+     * Puts back the projectile's path as saved by saveState().
+     */
+    public void restoreState(double[] state, int offset) {
+        stepX = state[offset];
+        stepY = state[offset + 1];
+        ticksToImpact = (int) state[offset + 2];
     }
 
     /**
@@ -0,0 +1,192 @@
+import java.io.File;
+import org.newdawn.slick.SlickException;
+
+/**
+ * <h1>Track</h1>
+ * <h2>The files a race is run on, and where it starts and finishes</h2>
+ *
+ * Brings together everything the World reads to set up a race that isn't
+ * the same for every track: the map, the waypoints the Enemies follow, the
+ * Items on the map and the usual roster, along with the starting line the
+ * grid lines up behind and the finish line.
+ *
+ * The bundled track is spread over the assets and data directories, as the
+ * spec lays it out, and its starting and finish lines are the ones the spec
+ * gives. Any other track, such as one made by TrackGenerator, is a directory
+ * holding a file of each kind under the usual names. Its starting and finish
+ * lines are read from properties of the map itself, so that they always go
+ * with it, falling back to the bundled track's for any not given.
+ *
+ * @author Daniel Porteous porteousd 696965
+ */
+public class Track implements GlobalHelper {
+
+    /** The names of a track's files, within its directory */
+    public static final String MAP_FILE = "map.tmx";
+    public static final String WAYPOINTS_FILE = "waypoints.txt";
+    public static final String ITEMS_FILE = "items.txt";
+    public static final String ROSTER_FILE = "roster.txt";
+
+    /** The names of the map properties giving the lines, in pixels */
+    public static final String FINISH_Y_PROPERTY = "finishY";
+    public static final String START_X_PROPERTY = "startX";
+    public static final String START_Y_PROPERTY = "startY";
+
+    /** In pixels. The y-coordinate of the bundled track's finish line */
+    private static final int DEFAULT_FINISH_Y = 1026;
+
+    /** In pixels. Where the bundled track's grid is centred, and its line */
+    private static final double DEFAULT_START_X = 1368;
+    private static final double DEFAULT_START_Y = 13086;
+
+    /** Paths of the track's files */
+    private String mapFile;
+    private String waypointsFile;
+    private String itemsFile;
+    private String rosterFile;
+
+    /** In pixels. The y-coordinate a Racer has to get above to finish */
+    private int finishY;
+
+    /** In pixels. Where the grid is centred, and the y of its back row */
+    private double startX;
+    private double startY;
+
+    /**
+     * Sets up a track from its files, reading its lines from the map.
+     *
+     * @param mapFile
+     *            Path to the map file.
+     * @param waypointsFile
+     *            Path to the waypoints data file.
+     * @param itemsFile
+     *            Path to the items data file.
+     * @param rosterFile
+     *            Path to the roster data file.
+     * @throws SlickException
+     *             If the map can't be read.
+     */
+    public Track(String mapFile, String waypointsFile, String itemsFile,
+            String rosterFile) throws SlickException {
+        this.mapFile = mapFile;
+        this.waypointsFile = waypointsFile;
+        this.itemsFile = itemsFile;
+        this.rosterFile = rosterFile;
+        finishY = DEFAULT_FINISH_Y;
+        startX = DEFAULT_START_X;
+        startY = DEFAULT_START_Y;
+        readProperties();
+    }
+
+    /**
+     * @return The bundled track, from the assets and data directories.
+     * @throws SlickException
+     *             If the map can't be read.
+     */
+    public static Track loadDefault() throws SlickException {
+        return new Track(ASSETS_PATH + MAP_FILE, DATA_PATH + WAYPOINTS_FILE,
+                DATA_PATH + ITEMS_FILE, Roster.DEFAULT_FILE);
+    }
+
+    /**
+     * Sets up a track from a directory holding all of its files.
+     *
+     * @param directory
+     *            Path to the directory.
+     * @return The track.
+     * @throws SlickException
+     *             If the map can't be read.
+     */
+    public static Track load(String directory) throws SlickException {
+        return new Track(new File(directory, MAP_FILE).getPath(),
+                new File(directory, WAYPOINTS_FILE).getPath(),
+                new File(directory, ITEMS_FILE).getPath(),
+                new File(directory, ROSTER_FILE).getPath());
+    }
+
+    /**
+     * Reads the starting and finish lines from the properties of the map,
+     * leaving any it doesn't give as they are.
+     *
+     * @throws SlickException
+     *             If the map can't be read, or a line isn't a number.
+     */
+    private void readProperties() throws SlickException {
+        try {
+            MapHeader header = MapHeader.read(mapFile);
+            String value = header.getProperty(FINISH_Y_PROPERTY);
+            if (value != null) {
+                finishY = Integer.parseInt(value);
+            }
+            value = header.getProperty(START_X_PROPERTY);
+            if (value != null) {
+                startX = Double.parseDouble(value);
+            }
+            value = header.getProperty(START_Y_PROPERTY);
+            if (value != null) {
+                startY = Double.parseDouble(value);
+            }
+        } catch (Exception e) {
+            throw new SlickException("Failed to read the properties of "
+                    + mapFile, e);
+        }
+    }
+
+    /**
+     * @return The roster read from the track's roster file.
+     */
+    public Roster loadRoster() {
+        return Roster.load(rosterFile);
+    }
+
+    /**
+     * @return Path to the map file.
+     */
+    public String getMapFile() {
+        return mapFile;
+    }
+
+    /**
+     * @return Path to the waypoints data file.
+     */
+    public String getWaypointsFile() {
+        return waypointsFile;
+    }
+
+    /**
+     * @return Path to the items data file.
+     */
+    public String getItemsFile() {
+        return itemsFile;
+    }
+
+    /**
+     * @return Path to the roster data file.
+     */
+    public String getRosterFile() {
+        return rosterFile;
+    }
+
+    /**
+     * @return In pixels. The y-coordinate a Racer has to get above to cross
+     *         the finish line.
+     */
+    public int getFinishY() {
+        return finishY;
+    }
+
+    /**
+     * @return In pixels. The x-coordinate the starting grid is centred on.
+     */
+    public double getStartX() {
+        return startX;
+    }
+
+    /**
+     * @return In pixels. The y-coordinate of the starting line, and the back
+     *         row of the grid.
+     */
+    public double getStartY() {
+        return startY;
+    }
+}
@@ -0,0 +1,579 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+import org.newdawn.slick.SlickException;
+
+/**
+ * <h1>TrackGenerator</h1>
+ * <h2>Makes up tracks of any size, for stress testing</h2>
+ *
+ * Writes a Track to a directory: a map drawn with the bundled tile set, the
+ * waypoints down the middle of its road, Items scattered along the road and
+ * a roster for the field, all in the same formats as the bundled track, so
+ * a World loads them just as it does that one. Everything is drawn from a
+ * Random seeded from the arguments, so the same arguments always make
+ * exactly the same track, and benchmarks run on it can be repeated.
+ *
+ * The track runs from a starting straight at the bottom of the map, long and
+ * wide enough for the whole field to line up on, up to the finish line near
+ * the top, the same distances from the ends of the map as on the bundled
+ * track. In between, the road winds from side to side, its middle following
+ * a few overlapping sine waves of random length and phase, and widens and
+ * narrows the same way. It is kept gentle enough to be driven, bending by no
+ * more than MAX_SLOPE tiles across for every tile up. Grass verges line the
+ * road, and walls fill the rest of the map. Now and then a patch of dirt
+ * slows part of the road.
+ *
+ * Each surface is drawn with a single tile, the one the bundled map mostly
+ * uses for it, rather than mixing in its look-alikes, so each row is just a
+ * few runs of the same tile and packs down small. The frictions of those
+ * tiles are checked against the tile set once the map is written, so the
+ * surfaces always behave as intended.
+ *
+ * The arguments are the directory to write to, then, all optional, the
+ * length and width of the map in tiles, the number of karts, the number of
+ * Items and the seed. A World races on the result with Track.load() and
+ * Track.loadRoster(), or FieldBenchmark can be pointed at it.
+ *
+ * @author Daniel Porteous porteousd 696965
+ */
+public class TrackGenerator implements GlobalHelper {
+
+    /** What is made if not told otherwise */
+    private static final int DEFAULT_LENGTH = 3840;
+    private static final int DEFAULT_WIDTH = 72;
+    private static final int DEFAULT_KARTS = 100;
+    private static final int DEFAULT_ITEMS = 2000;
+    private static final long DEFAULT_SEED = 1;
+
+    /** The narrowest map there is room to wind a road across */
+    private static final int MIN_WIDTH = 24;
+
+    /** The tile ids each surface is drawn with */
+    private static final int ROAD = 2;
+    private static final int DIRT = 4;
+    private static final int GRASS = 9;
+    private static final int WALL = 12;
+    private static final int LINE = 14;
+
+    /** The rows from the bottom of the map to the starting line */
+    private static final int ROWS_BEHIND_START = 21;
+
+    /** The row of the finish line */
+    private static final int FINISH_ROW = 28;
+
+    /** The rows of wall along the bottom of the map */
+    private static final int BOTTOM_WALL_ROWS = 2;
+
+    /**
+     * The rows of straight past the front of the grid, to the first
+     * waypoint, about as far as on the bundled track, so a wide front row
+     * has room to fall into line before it gets there.
+     */
+    private static final int LEAD_ROWS = 24;
+
+    /** The rows over which the straight turns into the winding road */
+    private static final int TAPER_ROWS = 48;
+
+    /** In tiles. The narrowest the road and verges get, either side */
+    private static final int MIN_HALF_ROAD = 3;
+    private static final int MIN_VERGE = 2;
+
+    /** In tiles. The most the road and verges widen by, either side */
+    private static final int MAX_EXTRA_ROAD = 5;
+    private static final int MAX_EXTRA_VERGE = 4;
+
+    /** The number of sine waves the middle of the road follows */
+    private static final int NUM_BENDS = 3;
+
+    /** In rows. The shortest and longest a sine wave can be */
+    private static final int MIN_BEND_ROWS = 60;
+    private static final int MAX_BEND_ROWS = 480;
+
+    /** In tiles. The most the road moves across for each row up */
+    private static final double MAX_SLOPE = 0.35;
+
+    /** The chance of a patch of dirt starting on any row */
+    private static final double DIRT_CHANCE = 1.0 / 40;
+
+    /** The rows between waypoints */
+    private static final int WAYPOINT_ROWS = 6;
+
+    /** The kinds of Enemy, which share out the field */
+    private static final String[] KINDS = { "Elephant", "Dog", "Octopus" };
+
+    /** The kinds of Item, which share out the Items */
+    private static final String[] ITEM_KINDS = { Item.OIL, Item.TOMATO,
+            Item.BOOST };
+
+    /** The widest the lines of a data file's header are */
+    private static final int HEADER_WIDTH = 76;
+
+    /** The files copied over from the bundled track */
+    private static final String[] TILE_SET_FILES = { "tileset.tsx",
+            "tiles.png" };
+
+    /** Size of the map in tiles */
+    private int width;
+    private int length;
+
+    /** The number of karts, and the Random everything is drawn from */
+    private int numKarts;
+    private Random random;
+
+    /** The row of the starting line, and of the top of the straight */
+    private int startRow;
+    private int straightTop;
+
+    /** In tiles. For each row, the middle of the road */
+    private double[] centres;
+
+    /** In tiles. For each row, how far the road and verge reach either side */
+    private double[] halfRoads;
+    private double[] verges;
+
+    /**
+     * In tiles. For each row, where a patch of dirt is from the middle of
+     * the road, and how far it reaches either side, 0 if there is none.
+     */
+    private double[] dirtOffsets;
+    private double[] dirtHalves;
+
+    /**
+     * Lays out a track.
+     *
+     * @param length
+     *            Length of the map in tiles.
+     * @param width
+     *            Width of the map in tiles.
+     * @param numKarts
+     *            The number of karts the grid must fit.
+     * @param seed
+     *            The seed everything is drawn from.
+     * @throws IllegalArgumentException
+     *             If the map is too small for the track or the field.
+     */
+    public TrackGenerator(int length, int width, int numKarts, long seed) {
+        if (width < MIN_WIDTH) {
+            throw new IllegalArgumentException("TrackGenerator: the map must"
+                    + " be at least " + MIN_WIDTH + " tiles wide");
+        }
+        if (numKarts < 1) {
+            throw new IllegalArgumentException(
+                    "TrackGenerator: there must be at least one kart");
+        }
+        this.length = length;
+        this.width = width;
+        this.numKarts = numKarts;
+        random = new Random(seed);
+
+        /*
+         * Making the straight wide enough for a row of the grid to be as many
+         * karts across as StartGrid would like, if the map is wide enough,
+         * and long enough for however many rows that takes.
+         */
+        double centre = width / 2;
+        int columns = StartGrid.getColumns(numKarts);
+        double halfStart = Math.max(MIN_HALF_ROAD,
+                Math.min(width / 2 - 2, columns));
+        double clear = halfStart * TILE_WIDTH - StartGrid.CLEARANCE;
+        int perSide = Math.max(0,
+                (int) Math.floor(clear / StartGrid.COLUMN_WIDTH + 0.5));
+        int perRow = Math.min(columns, 2 * perSide);
+        int gridRows = (numKarts + perRow - 1) / perRow;
+        startRow = length - ROWS_BEHIND_START;
+        straightTop = startRow - LEAD_ROWS
+                - (int) Math.ceil(gridRows * StartGrid.ROW_HEIGHT / TILE_WIDTH);
+        if (straightTop - TAPER_ROWS <= FINISH_ROW + WAYPOINT_ROWS) {
+            throw new IllegalArgumentException("TrackGenerator: the map is"
+                    + " too short for " + numKarts + " karts");
+        }
+
+        int extraRoad = Math.max(0, Math.min(MAX_EXTRA_ROAD, width / 12 - 3));
+        int extraVerge = Math.max(1, Math.min(MAX_EXTRA_VERGE, width / 24));
+        double room = width / 2 - 1.5 - MIN_HALF_ROAD - extraRoad
+                - MIN_VERGE - extraVerge;
+        double[] bendRows = new double[NUM_BENDS];
+        double[] bendPhases = new double[NUM_BENDS];
+        double[] bendSizes = new double[NUM_BENDS];
+        double totalWeight = 0;
+        for (int i = 0; i < NUM_BENDS; i++) {
+            bendRows[i] = MIN_BEND_ROWS
+                    + random.nextDouble() * (MAX_BEND_ROWS - MIN_BEND_ROWS);
+            bendPhases[i] = random.nextDouble() * 2 * Math.PI;
+            bendSizes[i] = 0.5 + random.nextDouble();
+            totalWeight += bendSizes[i];
+        }
+        for (int i = 0; i < NUM_BENDS; i++) {
+            bendSizes[i] = Math.min(room * bendSizes[i] / totalWeight,
+                    MAX_SLOPE * bendRows[i] / (2 * Math.PI * NUM_BENDS));
+        }
+        double roadRows = MIN_BEND_ROWS + random.nextDouble() * MIN_BEND_ROWS;
+        double roadPhase = random.nextDouble() * 2 * Math.PI;
+        double vergeRows = MIN_BEND_ROWS + random.nextDouble() * MIN_BEND_ROWS;
+        double vergePhase = random.nextDouble() * 2 * Math.PI;
+
+        centres = new double[length];
+        halfRoads = new double[length];
+        verges = new double[length];
+        for (int row = 0; row < length; row++) {
+            double rowsUp = Math.max(0, straightTop - row);
+
+            // Easing from the straight into the winding road.
+            double t = Math.min(1, rowsUp / TAPER_ROWS);
+            double blend = t * t * (3 - 2 * t);
+
+            double offset = 0;
+            for (int i = 0; i < NUM_BENDS; i++) {
+                offset += bendSizes[i] * Math.sin(
+                        2 * Math.PI * rowsUp / bendRows[i] + bendPhases[i]);
+            }
+            double halfRoad = MIN_HALF_ROAD + extraRoad * (0.5 + 0.5
+                    * Math.sin(2 * Math.PI * rowsUp / roadRows + roadPhase));
+            double verge = MIN_VERGE + extraVerge * (0.5 + 0.5
+                    * Math.sin(2 * Math.PI * rowsUp / vergeRows + vergePhase));
+
+            centres[row] = centre + blend * offset;
+            halfRoads[row] = halfStart + blend * (halfRoad - halfStart);
+            verges[row] = 1 + blend * (verge - 1);
+        }
+
+        // Scattering patches of dirt along the winding road, one at a time.
+        dirtOffsets = new double[length];
+        dirtHalves = new double[length];
+        int lastDirtRow = straightTop - TAPER_ROWS;
+        for (int row = FINISH_ROW + 2; row < lastDirtRow; row++) {
+            if (random.nextDouble() >= DIRT_CHANCE) {
+                continue;
+            }
+            int rows = 3 + random.nextInt(6);
+            double half = 1 + random.nextInt(2);
+            double reach = Math.max(0, halfRoads[row] - half);
+            double offset = (2 * random.nextDouble() - 1) * reach;
+            for (int r = row; r < Math.min(row + rows, lastDirtRow); r++) {
+                dirtOffsets[r] = offset;
+                dirtHalves[r] = half;
+            }
+            row += rows;
+        }
+    }
+
+    /**
+     * Makes a track from the command line.
+     *
+     * @param args
+     *            The directory to write to, then the length and width in
+     *            tiles, the number of karts, the number of Items and the
+     *            seed, all optional.
+     * @throws Exception
+     *             If the track can't be written.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: TrackGenerator directory [length"
+                    + " [width [karts [items [seed]]]]]");
+            return;
+        }
+        Sprites.setHeadless(true);
+        int length = args.length > 1 ? Integer.parseInt(args[1])
+                : DEFAULT_LENGTH;
+        int width = args.length > 2 ? Integer.parseInt(args[2])
+                : DEFAULT_WIDTH;
+        int numKarts = args.length > 3 ? Integer.parseInt(args[3])
+                : DEFAULT_KARTS;
+        int numItems = args.length > 4 ? Integer.parseInt(args[4])
+                : DEFAULT_ITEMS;
+        long seed = args.length > 5 ? Long.parseLong(args[5]) : DEFAULT_SEED;
+
+        new TrackGenerator(length, width, numKarts, seed).write(args[0],
+                numItems);
+        System.out.printf("Wrote a %dx%d track for %d karts with %d items"
+                + " to %s%n", width, length, numKarts, numItems, args[0]);
+    }
+
+    /**
+     * Writes the track's files to a directory, making it if need be.
+     *
+     * @param directory
+     *            Path to the directory.
+     * @param numItems
+     *            The number of Items to scatter along the road.
+     * @throws IOException
+     *             If a file can't be written.
+     * @throws SlickException
+     *             If the tile set written doesn't give the surfaces the
+     *             frictions they need.
+     */
+    public void write(String directory, int numItems)
+            throws IOException, SlickException {
+        File dir = new File(directory);
+        Files.createDirectories(dir.toPath());
+        for (String name : TILE_SET_FILES) {
+            Files.copy(new File(ASSETS_PATH, name).toPath(),
+                    new File(dir, name).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+        writeMap(new File(dir, Track.MAP_FILE));
+        checkFrictions(new File(dir, Track.MAP_FILE).getPath());
+        writeWaypoints(new File(dir, Track.WAYPOINTS_FILE));
+        writeItems(new File(dir, Track.ITEMS_FILE), numItems);
+        writeRoster(new File(dir, Track.ROSTER_FILE));
+    }
+
+    /**
+     * Works out which tile goes where.
+     *
+     * @param tileX
+     *            Horizontal tile coordinate.
+     * @param row
+     *            Vertical tile coordinate.
+     * @return The id of the tile there.
+     */
+    private int getTileId(int tileX, int row) {
+        if (tileX == 0 || tileX == width - 1
+                || row >= length - BOTTOM_WALL_ROWS) {
+            return WALL;
+        }
+        double across = Math.abs(tileX + 0.5 - centres[row]);
+        if (across >= halfRoads[row] + verges[row]) {
+            return WALL;
+        }
+        if (across >= halfRoads[row]) {
+            return GRASS;
+        }
+        if (row == startRow || row == FINISH_ROW) {
+            return LINE;
+        }
+        if (Math.abs(tileX + 0.5 - centres[row] - dirtOffsets[row])
+                < dirtHalves[row]) {
+            return DIRT;
+        }
+        return ROAD;
+    }
+
+    /**
+     * Writes the map, in the same format as the bundled one, with its
+     * starting and finish lines as properties.
+     *
+     * @param file
+     *            The file to write.
+     * @throws IOException
+     *             If it can't be written.
+     */
+    private void writeMap(File file) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(compressed)) {
+            byte[] bytes = new byte[4 * width];
+            for (int row = 0; row < length; row++) {
+                // Each tile id is four bytes, least significant first.
+                for (int x = 0; x < width; x++) {
+                    int tileID = getTileId(x, row);
+                    for (int b = 0; b < 4; b++) {
+                        bytes[4 * x + b] = (byte) (tileID >>> (8 * b));
+                    }
+                }
+                out.write(bytes);
+            }
+        }
+
+        try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+            out.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+            out.println("<!DOCTYPE map SYSTEM"
+                    + " \"http://mapeditor.org/dtd/1.0/map.dtd\">");
+            out.printf("<map version=\"1.0\" orientation=\"orthogonal\""
+                    + " width=\"%d\" height=\"%d\" tilewidth=\"%d\""
+                    + " tileheight=\"%d\">%n", width, length, TILE_WIDTH,
+                    TILE_WIDTH);
+            out.println(" <properties>");
+            writeProperty(out, Track.FINISH_Y_PROPERTY,
+                    FINISH_ROW * TILE_WIDTH + TILE_WIDTH / 2);
+            writeProperty(out, Track.START_X_PROPERTY,
+                    (int) Math.round(centres[startRow] * TILE_WIDTH));
+            writeProperty(out, Track.START_Y_PROPERTY,
+                    startRow * TILE_WIDTH + TILE_WIDTH / 2);
+            out.println(" </properties>");
+            out.println(" <tileset firstgid=\"1\" source=\""
+                    + TILE_SET_FILES[0] + "\"/>");
+            out.printf(" <layer name=\"Layer 0\" width=\"%d\" height=\"%d\">"
+                    + "%n", width, length);
+            out.println("  <data encoding=\"base64\" compression=\"gzip\">");
+            out.println("   " + Base64.getEncoder().encodeToString(
+                    compressed.toByteArray()));
+            out.println("  </data>");
+            out.println(" </layer>");
+            out.println("</map>");
+        }
+    }
+
+    /**
+     * Writes one of the map's properties.
+     *
+     * @param out
+     *            Where to write it.
+     * @param name
+     *            The name of the property.
+     * @param value
+     *            Its value.
+     */
+    private static void writeProperty(PrintWriter out, String name,
+            int value) {
+        out.printf("  <property name=\"%s\" value=\"%d\"/>%n", name, value);
+    }
+
+    /**
+     * Checks that the tile set the map was written with gives each surface
+     * the friction it needs: the road and lines the least, then dirt, then
+     * grass, then walls.
+     *
+     * @param mapFile
+     *            Path to the map just written.
+     * @throws SlickException
+     *             If the tile set can't be read or doesn't fit.
+     */
+    private static void checkFrictions(String mapFile) throws SlickException {
+        double[] frictions = TileSet.load(mapFile).getFrictions();
+        if (frictions[LINE] != frictions[ROAD]
+                || frictions[ROAD] >= frictions[DIRT]
+                || frictions[DIRT] >= frictions[GRASS]
+                || frictions[GRASS] >= World.WALL_FRICTION
+                || frictions[WALL] < World.WALL_FRICTION) {
+            throw new SlickException("TrackGenerator: the tile set doesn't"
+                    + " have the frictions the surfaces need");
+        }
+    }
+
+    /**
+     * Writes the waypoints, down the middle of the road from just past the
+     * front of the grid to the top of the map.
+     *
+     * @param file
+     *            The file to write.
+     * @throws IOException
+     *             If it can't be written.
+     */
+    private void writeWaypoints(File file) throws IOException {
+        try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+            writeHeader(out, "Waypoint Data File",
+                    "The waypoints are listed in the order they should be"
+                            + " followed by the computer-controlled karts,"
+                            + " down the middle of the road.",
+                    "Position (x  y) in pixels");
+            for (int row = straightTop; row > 0; row -= WAYPOINT_ROWS) {
+                out.printf("%d  %d%n",
+                        (int) Math.round(centres[row] * TILE_WIDTH),
+                        row * TILE_WIDTH + TILE_WIDTH / 2);
+            }
+            out.printf("%d  %d%n",
+                    (int) Math.round(centres[0] * TILE_WIDTH), 0);
+        }
+    }
+
+    /**
+     * Writes the Items, scattered along the road between the grid and the
+     * finish line, in the order the karts reach them.
+     *
+     * @param file
+     *            The file to write.
+     * @param numItems
+     *            The number of Items.
+     * @throws IOException
+     *             If it can't be written.
+     */
+    private void writeItems(File file, int numItems) throws IOException {
+        int[][] items = new int[numItems][];
+        for (int i = 0; i < numItems; i++) {
+            int row = FINISH_ROW + 2
+                    + random.nextInt(straightTop - FINISH_ROW - 2);
+            double across = (2 * random.nextDouble() - 1)
+                    * (halfRoads[row] - 0.5);
+            items[i] = new int[] { random.nextInt(ITEM_KINDS.length),
+                    (int) Math.round((centres[row] + across) * TILE_WIDTH),
+                    row * TILE_WIDTH + random.nextInt(TILE_WIDTH) };
+        }
+        Arrays.sort(items, (a, b) -> Integer.compare(b[2], a[2]));
+
+        try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+            writeHeader(out, "Item Data File",
+                    "This text file lists every item on the map, scattered"
+                            + " along the road.",
+                    "Item type       Position (x, y) in pixels");
+            for (int[] item : items) {
+                out.printf("%-16s%-6d%d%n", ITEM_KINDS[item[0]], item[1],
+                        item[2]);
+            }
+        }
+    }
+
+    /**
+     * Writes a roster of the whole field, the Enemies shared out between
+     * the kinds, with the player at the back of the grid.
+     *
+     * @param file
+     *            The file to write.
+     * @throws IOException
+     *             If it can't be written.
+     */
+    private void writeRoster(File file) throws IOException {
+        int numEnemies = numKarts - 1;
+        try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+            writeHeader(out, "Roster Data File",
+                    "This text file lists the karts in the race, in the order"
+                            + " they line up on the starting grid, from the"
+                            + " front row to the back.",
+                    "Kart type       Number");
+            for (int i = 0; i < KINDS.length; i++) {
+                int count = numEnemies / KINDS.length
+                        + (i < numEnemies % KINDS.length ? 1 : 0);
+                if (count > 0) {
+                    out.printf("%-16s%d%n", KINDS[i], count);
+                }
+            }
+            out.printf("%-16s%d%n", Roster.PLAYER, 1);
+        }
+    }
+
+    /**
+     * Writes the header of a data file, in the same layout as the bundled
+     * ones, up to and including the START line.
+     *
+     * @param out
+     *            Where to write it.
+     * @param title
+     *            The title of the file.
+     * @param description
+     *            What the file holds.
+     * @param columns
+     *            The headings of the columns.
+     */
+    private void writeHeader(PrintWriter out, String title,
+            String description, String columns) {
+        out.println(title);
+        out.println(title.replaceAll(".", "="));
+        out.println();
+        // Wrapping the description the way the bundled files are.
+        String line = "";
+        for (String word : (description + " Made by TrackGenerator for a "
+                + width + "x" + length + " track.").split(" ")) {
+            if (line.length() + 1 + word.length() > HEADER_WIDTH) {
+                out.println(line);
+                line = word;
+            } else {
+                line = line.isEmpty() ? word : line + " " + word;
+            }
+        }
+        out.println(line);
+        out.println();
+        out.println(columns);
+        out.println(columns.replaceAll(".", "-"));
+        out.println();
+        out.println(START_READING);
+    }
+}
@@ -0,0 +1,86 @@
+import java.nio.ByteBuffer;
+
+/**
+ * <h1>VarInt</h1>
+ * <h2>Writes and reads whole numbers in as few bytes as they need</h2>
+ *
+ * Most of the numbers sent over the network or saved in recordings are small,
+ * such as a run of ticks or the change in a coordinate since the last one, so
+ * writing each as a full 4 or 8 bytes mostly sends zeroes. Here a number is
+ * split into groups of 7 bits, lowest first, one group per byte, with the top
+ * bit of each byte set if another byte follows. Anything under 128 takes a
+ * single byte.
+ *
+ * Negative numbers would always take the full 10 bytes that way, so signed
+ * numbers are first zig-zagged, which maps 0, -1, 1, -2, 2... onto 0, 1, 2,
+ * 3, 4... so that small numbers of either sign stay small.
+ *
+ * @author Daniel Porteous porteousd 696965
+ */
+public final class VarInt {
+
+    /** Only static methods here, so no instances. */
+    private VarInt() {
+    }
+
+    /**
+     * Writes a number that isn't negative.
+     *
+     * @param buffer
+     *            The buffer to write to.
+     * @param value
+     *            The number to write, treated as unsigned.
+     */
+    public static void write(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Reads a number written by write().
+     *
+     * @param buffer
+     *            The buffer to read from.
+     * @return The number read.
+     * @throws IllegalArgumentException
+     *             If the number runs on for more than 10 bytes.
+     */
+    public static long read(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("VarInt.read: malformed number");
+    }
+
+    /**
+     * Writes a number that may be negative.
+     *
+     * @param buffer
+     *            The buffer to write to.
+     * @param value
+     *            The number to write.
+     */
+    public static void writeSigned(ByteBuffer buffer, long value) {
+        write(buffer, (value << 1) ^ (value >> 63));
+    }
+
+    /**
+     * Reads a number written by writeSigned().
+     *
+     * @param buffer
+     *            The buffer to read from.
+     * @return The number read.
+     */
+    public static long readSigned(ByteBuffer buffer) {
+        long zigzag = read(buffer);
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+}
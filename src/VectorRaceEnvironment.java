@@ -0,0 +1,320 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.concurrent.Phaser;
+import org.newdawn.slick.SlickException;
+
+/**
+ * <h1>VectorRaceEnvironment</h1>
+ * <h2>Many RaceEnvironments stepped together</h2>
+ *
+ * Steps a number of RaceEnvironments in lockstep, each with its own input,
+ * so an agent can be given a whole batch of observations at a time. All of
+ * the observations go into one array, environment after environment, each
+ * RaceEnvironment.OBSERVATION_SIZE long, and the rewards and done flags into
+ * arrays of their own. These are allocated once, up front, and overwritten
+ * every step, so stepping allocates nothing. The observations are also
+ * copied, as floats, into a direct FloatBuffer in the platform's byte order,
+ * which can be handed to native code without another copy.
+ *
+ * An environment whose race is done is reset straight away, as part of the
+ * same step: its done flag and reward are from the step that ended the race,
+ * but its observation is already the start of the next one. So there is no
+ * need to reset environments one at a time.
+ *
+ * The environments can be split between a number of threads, each stepping
+ * its own share. The threads are started once, and wait at a Phaser between
+ * steps, so handing out a step doesn't allocate either.
+ *
+ * @author Daniel Porteous porteousd 696965
+ */
+public class VectorRaceEnvironment {
+
+    /** The environments */
+    private RaceEnvironment[] environments;
+
+    /** Every environment's observation, one after another */
+    private double[] observations;
+
+    /** The observations again, as floats in native memory */
+    private FloatBuffer observationBuffer;
+
+    /** Every environment's reward and done flag from the last step */
+    private double[] rewards;
+    private boolean[] dones;
+
+    /** The input for the step being taken, by environment */
+    private double[] rotateDirs;
+    private double[] moveDirs;
+    private boolean[] useItems;
+
+    /** Number of threads stepping, including the caller's */
+    private int numThreads;
+
+    /** Where the threads wait for a step to start, and for it to finish */
+    private Phaser phaser;
+
+    /** Whether the helper threads should stop */
+    private volatile boolean closed;
+
+    /** The first thing to go wrong on a helper thread, if anything has */
+    private volatile Throwable failure;
+
+    /**
+     * Creates the environments, each at the start of its race, with the
+     * observations of the start written out.
+     *
+     * @param numEnvironments
+     *            The number of environments.
+     * @param tickRate
+     *            The number of ticks per second of each World.
+     * @param ticksPerStep
+     *            The number of ticks each step runs with the same input.
+     * @param maxSteps
+     *            The number of steps after which a race is done, even if the
+     *            player hasn't finished.
+     * @param numThreads
+     *            The number of threads to step on, including the one calling
+     *            step(). 1 steps everything on the caller's thread.
+     * @throws SlickException
+     *             If a World can't be set up.
+     */
+    public VectorRaceEnvironment(int numEnvironments, int tickRate,
+            int ticksPerStep, int maxSteps, int numThreads)
+            throws SlickException {
+        if (numEnvironments <= 0 || numThreads <= 0) {
+            throw new IllegalArgumentException("VectorRaceEnvironment: "
+                    + "need at least one environment and thread");
+        }
+        int size = RaceEnvironment.OBSERVATION_SIZE;
+        environments = new RaceEnvironment[numEnvironments];
+        observations = new double[numEnvironments * size];
+        observationBuffer = ByteBuffer
+                .allocateDirect(observations.length * Float.BYTES)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        rewards = new double[numEnvironments];
+        dones = new boolean[numEnvironments];
+        rotateDirs = new double[numEnvironments];
+        moveDirs = new double[numEnvironments];
+        useItems = new boolean[numEnvironments];
+        for (int i = 0; i < numEnvironments; i++) {
+            environments[i] = new RaceEnvironment(tickRate, ticksPerStep,
+                    maxSteps);
+        }
+
+        this.numThreads = Math.min(numThreads, numEnvironments);
+        phaser = new Phaser(this.numThreads);
+        closed = false;
+        failure = null;
+        for (int t = 1; t < this.numThreads; t++) {
+            int share = t;
+            Thread thread = new Thread(() -> run(share),
+                    "VectorRaceEnvironment-" + t);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        reset();
+    }
+
+    /**
+     * Puts every environment back to the start of its race.
+     */
+    public void reset() {
+        for (int i = 0; i < environments.length; i++) {
+            resetEnvironment(i);
+        }
+    }
+
+    /**
+     * Steps every environment once, each with its own input, then resets
+     * any whose race is done.
+     *
+     * @param rotateDirs
+     *            Each environment's direction of rotation (-1, 0 or 1).
+     * @param moveDirs
+     *            Each environment's movement in the car's axis (-1, 0 or 1).
+     * @param useItems
+     *            Whether each environment's player uses their item.
+     * @throws SlickException
+     */
+    public void step(double[] rotateDirs, double[] moveDirs,
+            boolean[] useItems) throws SlickException {
+        if (closed) {
+            throw new IllegalStateException(
+                    "VectorRaceEnvironment: already closed");
+        }
+        int n = environments.length;
+        System.arraycopy(rotateDirs, 0, this.rotateDirs, 0, n);
+        System.arraycopy(moveDirs, 0, this.moveDirs, 0, n);
+        System.arraycopy(useItems, 0, this.useItems, 0, n);
+
+        if (numThreads == 1) {
+            stepShare(0);
+            return;
+        }
+        // Releasing the helpers, doing our share, and waiting for theirs.
+        phaser.arriveAndAwaitAdvance();
+        Throwable mine = null;
+        try {
+            stepShare(0);
+        } catch (SlickException | RuntimeException e) {
+            mine = e;
+        }
+        phaser.arriveAndAwaitAdvance();
+
+        Throwable theirs = failure;
+        if (mine == null && theirs == null) {
+            return;
+        }
+        close();
+        Throwable thrown = mine != null ? mine : theirs;
+        if (thrown instanceof SlickException) {
+            throw (SlickException) thrown;
+        }
+        throw new IllegalStateException(
+                "VectorRaceEnvironment: a step failed", thrown);
+    }
+
+    /**
+     * Steps every environment in one thread's share, those whose index is
+     * the share modulo the number of threads.
+     *
+     * @param share
+     *            The thread's share, 0 being the caller's.
+     * @throws SlickException
+     */
+    private void stepShare(int share) throws SlickException {
+        int size = RaceEnvironment.OBSERVATION_SIZE;
+        for (int i = share; i < environments.length; i += numThreads) {
+            rewards[i] = environments[i].step(rotateDirs[i], moveDirs[i],
+                    useItems[i], observations, i * size);
+            dones[i] = environments[i].isDone();
+            if (dones[i]) {
+                environments[i].reset(observations, i * size);
+            }
+            copyToBuffer(i);
+        }
+    }
+
+    /**
+     * The loop of a helper thread, stepping its share each time a step
+     * starts until closed.
+     *
+     * @param share
+     *            The thread's share.
+     */
+    private void run(int share) {
+        while (true) {
+            phaser.arriveAndAwaitAdvance();
+            if (closed) {
+                phaser.arriveAndDeregister();
+                return;
+            }
+            try {
+                stepShare(share);
+            } catch (Throwable e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+            phaser.arriveAndAwaitAdvance();
+        }
+    }
+
+    /**
+     * Resets an environment and copies out its first observation.
+     *
+     * @param i
+     *            The index of the environment.
+     */
+    private void resetEnvironment(int i) {
+        environments[i].reset(observations,
+                i * RaceEnvironment.OBSERVATION_SIZE);
+        rewards[i] = 0.0;
+        dones[i] = false;
+        copyToBuffer(i);
+    }
+
+    /**
+     * Copies an environment's observation into the FloatBuffer.
+     *
+     * @param i
+     *            The index of the environment.
+     */
+    private void copyToBuffer(int i) {
+        int size = RaceEnvironment.OBSERVATION_SIZE;
+        for (int j = i * size; j < (i + 1) * size; j++) {
+            observationBuffer.put(j, (float) observations[j]);
+        }
+    }
+
+    /**
+     * Stops the helper threads and closes the environments. They can't be
+     * stepped after this.
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (numThreads > 1) {
+            phaser.arriveAndDeregister();
+        }
+        for (RaceEnvironment environment : environments) {
+            try {
+                environment.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * @return The number of environments.
+     */
+    public int getNumEnvironments() {
+        return environments.length;
+    }
+
+    /**
+     * @param i
+     *            The index of an environment.
+     * @return The environment.
+     */
+    public RaceEnvironment getEnvironment(int i) {
+        return environments[i];
+    }
+
+    /**
+     * @return Every environment's observation after the last step, one
+     *         after another. The same array is overwritten every step.
+     */
+    public double[] getObservations() {
+        return observations;
+    }
+
+    /**
+     * @return The same observations as floats, in a direct buffer in the
+     *         platform's byte order. The same buffer is overwritten every
+     *         step.
+     */
+    public FloatBuffer getObservationBuffer() {
+        return observationBuffer;
+    }
+
+    /**
+     * @return Every environment's reward for the last step.
+     */
+    public double[] getRewards() {
+        return rewards;
+    }
+
+    /**
+     * @return Whether each environment's race ended on the last step, in
+     *         which case it has already been reset.
+     */
+    public boolean[] getDones() {
+        return dones;
+    }
+}
@@ -0,0 +1,293 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * <h1>WallDistanceField</h1>
+ * <h2>Precomputed distance from anywhere on the map to the nearest wall</h2>
+ *
+ * The map is divided into square cells, CELLS_PER_TILE to a tile along each
+ * side, and each cell holds how far it is from the nearest wall tile. This is
+ * a signed distance field: cells in open track hold a positive distance, and
+ * cells inside a wall hold zero or a negative one giving how far it is to the
+ * nearest open tile.
+ *
+ * The distance held for an open cell is the shortest distance from any point
+ * in the cell to a wall, so it never overestimates the distance from a point
+ * looked up in it. That makes checking whether a circle is clear of walls a
+ * single lookup and compare, and lets a Racer skip casting its path across
+ * the tiles whenever the nearest wall is further away than it is moving. The
+ * trade off is that the answer can be short by up to the size of a cell.
+ *
+ * Distances are held as a byte a cell, rounded down: to a quarter pixel up
+ * to FINE_DISTANCE, which covers the clearances and single moves they are
+ * compared with, and to COARSE_STEP pixels beyond it, where being a few
+ * pixels short only costs the odd ray cast that could have been skipped.
+ * They are capped at MAX_DISTANCE since nothing needs to know about walls
+ * further away than that. A field covers a band of whole rows of tiles
+ * rather than always the whole map, so that a long map can be built and held
+ * a chunk at a time.
+ * Building a band only needs the walls within MAX_RINGS rows of it, and gives
+ * exactly the distances the same rows would have in a field for the whole
+ * map. Saving the field, so it needn't be built every run, is left to the
+ * MapChunkFile the bands are kept in.
+ *
+ * @author Daniel Porteous porteousd 696965
+ */
+public class WallDistanceField implements GlobalHelper {
+
+    /** Number of cells along each side of a tile. */
+    public static final int CELLS_PER_TILE = 4;
+
+    /** Width of each cell in pixels */
+    private static final int CELL_WIDTH = TILE_WIDTH / CELLS_PER_TILE;
+
+    /** Number of stored units per pixel of distance, up to FINE_DISTANCE */
+    private static final double UNITS_PER_PIXEL = 4.0;
+
+    /** In pixels. The distance up to which each unit is a quarter pixel */
+    private static final int FINE_DISTANCE = 16;
+
+    /**
+     * In pixels. The size of each unit beyond FINE_DISTANCE, large enough
+     * for MAX_DISTANCE to fit in a byte.
+     */
+    private static final int COARSE_STEP = 5;
+
+    /** The units FINE_DISTANCE is held as */
+    private static final int FINE_UNITS = (int) (FINE_DISTANCE
+            * UNITS_PER_PIXEL);
+
+    /**
+     * Number of tiles away from a cell to look for the nearest wall, and so
+     * the number of rows of walls either side of a band needed to build it.
+     */
+    public static final int MAX_RINGS = 8;
+
+    /** In pixels. The largest distance the field holds. */
+    public static final double MAX_DISTANCE = MAX_RINGS * TILE_WIDTH;
+
+    /** Size of the field in cells */
+    private int widthCells;
+    private int heightCells;
+
+    /** The first row of cells the field covers */
+    private int firstCellY;
+
+    /** The distance held by each cell, row by row, in units */
+    private byte[] distances;
+
+    /**
+     * Creates an empty field covering a band of rows of tiles.
+     *
+     * @param widthTiles
+     *            Width of the map in tiles.
+     * @param fromRow
+     *            The first row of tiles covered.
+     * @param toRow
+     *            The row of tiles after the last one covered.
+     */
+    private WallDistanceField(int widthTiles, int fromRow, int toRow) {
+        widthCells = widthTiles * CELLS_PER_TILE;
+        heightCells = (toRow - fromRow) * CELLS_PER_TILE;
+        firstCellY = fromRow * CELLS_PER_TILE;
+        distances = new byte[widthCells * heightCells];
+    }
+
+    /**
+     * Builds the field for a band of rows from scratch. For each tile, every
+     * tile of the opposite kind within MAX_RINGS of it is found, a wall for an
+     * open tile and open track for a wall, and then each cell in the tile
+     * takes the nearest of them. Finding them once a tile rather than once a
+     * cell, and only the closest on each side in each row, is what keeps
+     * building a long map quick.
+     *
+     * @param walls
+     *            Whether each tile is a wall, row by row, for the rows of the
+     *            band and at least MAX_RINGS rows either side of it that are
+     *            on the map.
+     * @param widthTiles
+     *            Width of the map in tiles.
+     * @param wallsFromRow
+     *            The row of the map the first row of walls is.
+     * @param heightTiles
+     *            Height of the whole map in tiles.
+     * @param fromRow
+     *            The first row of tiles to build the field for.
+     * @param toRow
+     *            The row of tiles after the last one to build the field for.
+     * @return The built field.
+     */
+    public static WallDistanceField build(boolean[] walls, int widthTiles,
+            int wallsFromRow, int heightTiles, int fromRow, int toRow) {
+        WallDistanceField field = new WallDistanceField(widthTiles, fromRow,
+                toRow);
+        int[] nearX = new int[2 * (2 * MAX_RINGS + 1)];
+        int[] nearY = new int[nearX.length];
+
+        for (int tileY = fromRow; tileY < toRow; tileY++) {
+            for (int tileX = 0; tileX < widthTiles; tileX++) {
+                boolean inWall = walls[(tileY - wallsFromRow) * widthTiles
+                        + tileX];
+
+                /*
+                 * The tiles of the opposite kind that could be the nearest.
+                 * In each row, one further across than another can't be any
+                 * nearer, so only the closest on each side is kept.
+                 */
+                int numNear = 0;
+                for (int y = tileY - MAX_RINGS; y <= tileY + MAX_RINGS; y++) {
+                    for (int dir = -1; dir <= 1; dir += 2) {
+                        int x = dir < 0 ? tileX : tileX + 1;
+                        for (; Math.abs(x - tileX) <= MAX_RINGS; x += dir) {
+                            boolean wall = x < 0 || y < 0 || x >= widthTiles
+                                    || y >= heightTiles
+                                    || walls[(y - wallsFromRow) * widthTiles
+                                            + x];
+                            if (wall != inWall) {
+                                nearX[numNear] = x;
+                                nearY[numNear] = y;
+                                numNear++;
+                                break;
+                            }
+                        }
+                    }
+                }
+
+                for (int cellY = tileY * CELLS_PER_TILE; cellY < (tileY + 1)
+                        * CELLS_PER_TILE; cellY++) {
+                    for (int cellX = tileX * CELLS_PER_TILE; cellX < (tileX
+                            + 1) * CELLS_PER_TILE; cellX++) {
+                        double left = cellX * CELL_WIDTH;
+                        double top = cellY * CELL_WIDTH;
+                        // Squared until the nearest is found, to save roots.
+                        double nearest = MAX_DISTANCE * MAX_DISTANCE;
+                        for (int i = 0; i < numNear; i++) {
+                            double gapX = Math.max(0, Math.max(
+                                    nearX[i] * TILE_WIDTH
+                                            - (left + CELL_WIDTH),
+                                    left - (nearX[i] + 1) * TILE_WIDTH));
+                            double gapY = Math.max(0, Math.max(
+                                    nearY[i] * TILE_WIDTH
+                                            - (top + CELL_WIDTH),
+                                    top - (nearY[i] + 1) * TILE_WIDTH));
+                            nearest = Math.min(nearest,
+                                    gapX * gapX + gapY * gapY);
+                        }
+                        byte units = toUnits(Math.sqrt(nearest));
+                        field.distances[(cellY - field.firstCellY)
+                                * field.widthCells + cellX] = inWall
+                                        ? (byte) -units : units;
+                    }
+                }
+            }
+        }
+        return field;
+    }
+
+    /**
+     * Gets the distance from a point to the nearest wall. This is never more
+     * than the true distance, but may be less by up to the size of a cell,
+     * and by up to COARSE_STEP more beyond FINE_DISTANCE.
+     *
+     * @param x
+     *            In pixels. Horizontal x-coordinate position.
+     * @param y
+     *            In pixels. Vertical y-coordinate position.
+     * @return In pixels. The distance to the nearest wall, capped at
+     *         MAX_DISTANCE, or zero or less if the point is in a wall or
+     *         outside the rows the field covers.
+     */
+    public double getDistance(double x, double y) {
+        int cellX = (int) Math.floor(x / CELL_WIDTH);
+        int cellY = (int) Math.floor(y / CELL_WIDTH) - firstCellY;
+        if (cellX < 0 || cellY < 0 || cellX >= widthCells
+                || cellY >= heightCells) {
+            return -MAX_DISTANCE;
+        }
+        int units = distances[cellY * widthCells + cellX];
+        return units < 0 ? -toPixels(-units) : toPixels(units);
+    }
+
+    /**
+     * @param pixels
+     *            In pixels. A distance, up to MAX_DISTANCE.
+     * @return The units it is held as, rounded down.
+     */
+    private static byte toUnits(double pixels) {
+        if (pixels < FINE_DISTANCE) {
+            return (byte) Math.floor(pixels * UNITS_PER_PIXEL);
+        }
+        return (byte) (FINE_UNITS
+                + (int) Math.floor((pixels - FINE_DISTANCE) / COARSE_STEP));
+    }
+
+    /**
+     * @param units
+     *            A distance as it is held, not negative.
+     * @return In pixels. The distance.
+     */
+    private static double toPixels(int units) {
+        if (units <= FINE_UNITS) {
+            return units / UNITS_PER_PIXEL;
+        }
+        return FINE_DISTANCE + (units - FINE_UNITS) * COARSE_STEP;
+    }
+
+    /**
+     * Checks whether a circle is clear of every wall. Since the distances are
+     * never overestimated, a circle reported clear certainly is, though one
+     * just clear of a wall may be reported as touching it.
+     *
+     * @param x
+     *            In pixels. Horizontal x-coordinate of the centre.
+     * @param y
+     *            In pixels. Vertical y-coordinate of the centre.
+     * @param radius
+     *            In pixels. The radius of the circle.
+     * @return True if the circle doesn't touch a wall.
+     */
+    public boolean isClear(double x, double y, double radius) {
+        return getDistance(x, y) > radius;
+    }
+
+    /**
+     * @return In bytes. Roughly how much memory the field takes up.
+     */
+    public long getSizeBytes() {
+        return distances.length;
+    }
+
+    /**
+     * Writes the distances out, to be read back by read().
+     *
+     * @param out
+     *            Where to write them.
+     * @throws IOException
+     */
+    public void write(DataOutput out) throws IOException {
+        out.write(distances);
+    }
+
+    /**
+     * Reads back a field written by write().
+     *
+     * @param in
+     *            Where to read it from.
+     * @param widthTiles
+     *            Width of the map in tiles.
+     * @param fromRow
+     *            The first row of tiles the field covers.
+     * @param toRow
+     *            The row of tiles after the last one the field covers.
+     * @return The field.
+     * @throws IOException
+     */
+    public static WallDistanceField read(DataInput in, int widthTiles,
+            int fromRow, int toRow) throws IOException {
+        WallDistanceField field = new WallDistanceField(widthTiles, fromRow,
+                toRow);
+        in.readFully(field.distances);
+        return field;
+    }
+}
@@ -0,0 +1,171 @@
+import org.newdawn.slick.SlickException;
+
+/**
+ * <h1>WarmUp</h1>
+ * <h2>Gets the JIT to compile the game before the race starts</h2>
+ *
+ * For the first few seconds of a race, World.update() and everything it
+ * calls are still being interpreted, or run as quickly compiled code, while
+ * the JIT works out what is worth compiling properly. So those seconds have
+ * slow, uneven frames, just when the player takes control.
+ *
+ * A WarmUp runs the race ahead of time on a fork of the World, with input
+ * from a simple script of steering, accelerating and using items, while the
+ * game is still loading. It runs BATCH_TICKS at a time until the time a tick
+ * takes has settled, at least MIN_TICKS in and with STABLE_BATCHES in a row
+ * coming within STABLE_RATIO of the fastest batch so far, or until it has
+ * run MAX_TICKS or used up MAX_MILLIS. The fork is put back to the start of
+ * the race every RESTART_TICKS, so the crowded start, where the karts bump
+ * into each other, gets warmed up as well as the open track.
+ *
+ * Nothing the fork does touches the World it was forked from, so the race
+ * itself starts exactly as it would have without the warm-up. Afterwards,
+ * the WarmUp reports how long it took, how many ticks it ran, and how long
+ * a tick was taking by the end.
+ *
+ * @author Daniel Porteous porteousd 696965
+ */
+public class WarmUp {
+
+    /** Ticks run between checks of how long a tick takes */
+    private static final int BATCH_TICKS = 500;
+
+    /** Ticks after which the fork is put back to the start of the race */
+    private static final int RESTART_TICKS = 5000;
+
+    /**
+     * The fewest ticks a warm-up runs before the tick time can count as
+     * settled, since the JIT starts by compiling everything quickly and only
+     * recompiles the busiest code properly a few thousand ticks in.
+     */
+    private static final int MIN_TICKS = 5000;
+
+    /** The most ticks a warm-up runs, however unsettled */
+    public static final int MAX_TICKS = 20000;
+
+    /** In milliseconds. The most real time a warm-up takes */
+    private static final double MAX_MILLIS = 2000;
+
+    /**
+     * How many batches in a row must each be no slower than STABLE_RATIO
+     * times the fastest batch for the tick time to count as settled.
+     */
+    private static final int STABLE_BATCHES = 3;
+    private static final double STABLE_RATIO = 1.25;
+
+    /** Ticks the script steers in one direction before the next */
+    private static final int STEER_TICKS = 300;
+
+    /** Ticks between the script using the held item */
+    private static final int USE_ITEM_TICKS = 250;
+
+    /** The World being warmed up for */
+    private World world;
+
+    /** The most ticks to run */
+    private int maxTicks;
+
+    /** Ticks run, and how long they took, in milliseconds */
+    private int ticks;
+    private double elapsedMillis;
+
+    /** In milliseconds. Time per tick over the last batch run */
+    private double steadyTickMillis;
+
+    /** Whether the tick time settled before the limits were reached */
+    private boolean settled;
+
+    /**
+     * Creates a warm-up for a World, without running it yet.
+     *
+     * @param world
+     *            The World about to be raced in.
+     * @param maxTicks
+     *            The most ticks to run, up to MAX_TICKS.
+     */
+    public WarmUp(World world, int maxTicks) {
+        this.world = world;
+        this.maxTicks = Math.min(maxTicks, MAX_TICKS);
+    }
+
+    /**
+     * Runs the warm-up on a fork of the World.
+     *
+     * @throws SlickException
+     *             If the World can't be forked.
+     */
+    public void run() throws SlickException {
+        long started = System.nanoTime();
+        long deadline = started + (long) (MAX_MILLIS * 1e6);
+        World fork = world.fork();
+
+        double fastest = Double.POSITIVE_INFINITY;
+        int stableBatches = 0;
+        ticks = 0;
+        settled = false;
+        while (ticks < maxTicks && !settled
+                && System.nanoTime() < deadline) {
+            if (ticks > 0 && ticks % RESTART_TICKS == 0) {
+                fork.copyFrom(world);
+            }
+            int batch = Math.min(BATCH_TICKS, maxTicks - ticks);
+            long batchStarted = System.nanoTime();
+            for (int t = 0; t < batch; t++) {
+                long tick = ticks + t;
+                double rotateDir = tick / STEER_TICKS % 3 - 1;
+                fork.update(rotateDir, 1, tick % USE_ITEM_TICKS == 0);
+            }
+            steadyTickMillis = (System.nanoTime() - batchStarted) / 1e6
+                    / batch;
+            ticks += batch;
+
+            fastest = Math.min(fastest, steadyTickMillis);
+            if (steadyTickMillis <= fastest * STABLE_RATIO) {
+                stableBatches++;
+            } else {
+                stableBatches = 0;
+            }
+            settled = ticks >= MIN_TICKS && stableBatches >= STABLE_BATCHES;
+        }
+        elapsedMillis = (System.nanoTime() - started) / 1e6;
+    }
+
+    /**
+     * @return Number of ticks the warm-up ran.
+     */
+    public int getTicks() {
+        return ticks;
+    }
+
+    /**
+     * @return In milliseconds. How long the warm-up took, forking included.
+     */
+    public double getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * @return In milliseconds. How long a tick took by the end of the
+     *         warm-up.
+     */
+    public double getSteadyTickMillis() {
+        return steadyTickMillis;
+    }
+
+    /**
+     * @return Whether the time a tick takes settled before the warm-up ran
+     *         out of ticks or time.
+     */
+    public boolean isSettled() {
+        return settled;
+    }
+
+    /**
+     * @return How the warm-up went, in a line.
+     */
+    public String describe() {
+        return String.format("Warmed up in %.0f ms over %d ticks, %s at "
+                + "%.4f ms a tick", elapsedMillis, ticks,
+                settled ? "settled" : "still settling", steadyTickMillis);
+    }
+}
@@ -1,7 +1,7 @@
-import java.util.ArrayList;
+import java.io.IOException;
+import java.util.Arrays;
 import org.newdawn.slick.Graphics;
 import org.newdawn.slick.SlickException;
-import org.newdawn.slick.tiled.TiledMap;
 
 /**
  * <h1>World</h1>
@@ -16,44 +16,194 @@ import org.newdawn.slick.tiled.TiledMap;
  * classes, including the Player, Items and Enemies, as well as the Panel, and
  * could be considered the foundation class of the whole application.
  * 
+ * The simulation runs at a fixed tick rate, chosen when the World is created.
+ * The physics were originally tuned for exactly one update per millisecond, so
+ * every constant (accelerations, angular modifiers, item speeds and durations)
+ * is still given per millisecond and scaled by the length of a tick. Speed
+ * under a constant acceleration and friction compounds exactly the way it
+ * would over that many one millisecond updates, so the only differences from
+ * running at 1000 ticks per second come from things that can now only happen
+ * on a tick boundary: changes in input, tile or effect part way through a
+ * tick, and item pickups and collisions being checked once per tick. Each of
+ * these is bounded by the distance covered in one tick, which at 120 ticks
+ * per second is under 10 pixels even when boosting, well inside the 40 pixel
+ * radius used for pickups and collisions.
+ * 
+ * The map, waypoints and Items come from a Track, which is the bundled one
+ * unless another is given, such as a far bigger one made by TrackGenerator.
+ * The map is held by a ChunkedMap, a chunk of rows at a time, so a track can
+ * be far longer than fits in memory. Every MAP_KEEP_TICKS the World tells it
+ * where the Racers and the camera are, so the chunks they are about to reach
+ * are read in the background before any tile in them is looked up. The tiles
+ * are drawn by the map's TileSet, which also gives the friction of each.
+ *
+ * A World can also be created headless, with no display, when Sprites has
+ * been switched into headless mode. The map is then loaded without its tile
+ * images, which need OpenGL. A headless World can be updated as normal but
+ * not rendered.
+ * 
+ * A World can be forked into a copy that shares everything that never
+ * changes, the track, map, frictions and waypoints, but has Racers and Items
+ * of its own. Forking is slow the first time, but a fork can then be brought
+ * back in line with the World it came from with copyFrom(), which only copies
+ * the state that changes and allocates nothing once it has grown to fit. This
+ * lets an Enemy try out what might happen next without touching the race.
+ * Forks don't record the player's run and can't be rendered.
+ * 
  * @author Daniel Porteous porteousd
  * @since 2015-10-14
  *
  */
 public class World implements GlobalHelper {
 
-    /** Defining of other constants specific to the World class */
-    private static final String MAP_FILE = "map.tmx";
-    private final int FINISH_Y = 1026;
-
     /** Number of tiles wide to render */
     public static final int NUM_TILES_WIDE = 24;
     /** Number of tiles high to render */
     public static final int NUM_TILES_HIGH = 18;
 
-    /** Location of the file holding the waypoint information */
-    private static final String WAYPOINTS_FILE = DATA_PATH + "waypoints.txt";
+    /**
+     * Ticks per second the simulation runs at unless told otherwise. This is
+     * the rate the physics were originally written for.
+     */
+    public static final int DEFAULT_TICK_RATE = 1000;
+
+    /** Length of one tick of the simulation, in milliseconds */
+    private double tickMillis;
 
-    /** Initialising a TiledMap object in to which we will load the map. */
-    private TiledMap map;
+    /**
+     * Number of Tomato projectiles and Oil slicks to create up front in their
+     * pools. The pools grow if more than this are ever on the map at once.
+     */
+    private static final int ITEM_POOL_SIZE = 16;
+
+    /**
+     * In pixels. How far off the edge of the screen something can be and
+     * still count as on it, since sprites are drawn centred on their position.
+     */
+    private static final double ON_SCREEN_MARGIN = 2 * TILE_WIDTH;
+
+    /**
+     * In bytes. Roughly the most memory the map's chunks take up, over which
+     * only the chunks around the Racers and the camera are kept.
+     */
+    private static final long MAP_MEMORY_CAP = ChunkedMap.DEFAULT_MEMORY_CAP;
 
-    /** The player object, through which we render our kart. */
+    /** Ticks between telling the map where the Racers and camera are */
+    private static final int MAP_KEEP_TICKS = 16;
+
+    /** The files the race is run on, and its starting and finish lines */
+    private Track track;
+
+    /** The tiles of the map, held a chunk at a time */
+    private ChunkedMap map;
+
+    /** The tiles the map is drawn with */
+    private TileSet tileSet;
+
+    /**
+     * The friction of each tile id used in the map, read from the tile
+     * properties once when the map is loaded rather than parsed from a String
+     * every time friction is looked up.
+     */
+    private double[] frictionByTileId;
+
+    /** Friction at and above which a tile is a wall that can't be entered */
+    public static final double WALL_FRICTION = 1.0;
+
+    /**
+     * For each tile id, how a Racer's speed and distance travelled build up
+     * over one tick on that tile, as worked out by loadTickDecays().
+     */
+    private double[] speedDecayByTileId;
+    private double[] speedGainByTileId;
+    private double[] distanceGainByTileId;
+
+    /**
+     * Every human player in the race. There is just the one unless the race
+     * is being played over the network.
+     */
+    private Player[] players;
+
+    /**
+     * The index of the player playing on this machine, whom the camera
+     * follows and the panel describes.
+     */
+    private int localPlayer;
+
+    /** The local player object, through which we render our kart. */
     private Player player;
 
+    /**
+     * Input for each player passed through by the single player update(),
+     * which only ever sets the local player's.
+     */
+    private double[] rotateDirs;
+    private double[] moveDirs;
+    private boolean[] useItems;
+
+    /** Number of ticks the World has been updated for */
+    private long tick;
+
     /** Array holding all of the Enemies */
     private Enemy[] enemies;
 
     /**
      * An aggregate array that holds all Racers. This consists of all the
-     * Enemies plus the player.
+     * players followed by all the Enemies.
      */
     private Racer[] racers;
 
+    /**
+     * The physics state of all the Racers, held side by side in arrays. Each
+     * Racer is a view onto its own slot in here.
+     */
+    private RacerStates racerStates;
+
+    /**
+     * When true, every Racer is prepared first and then they are all moved
+     * together in one loop over racerStates, rather than each being updated in
+     * turn with the items and camera in between. Off by default.
+     */
+    private boolean batchedPhysics;
+
+    /**
+     * How often, in ticks, each Enemy decides what to do, keeping to what it
+     * decided last in between. Every tick unless the game is overloaded, as
+     * set by a FrameGovernor.
+     */
+    private int aiThinkInterval;
+
+    /**
+     * How often, in ticks, Items off the screen are updated, catching up on
+     * the ticks they missed when they are. Every tick unless the game is
+     * overloaded.
+     */
+    private int offScreenItemInterval;
+
+    /**
+     * Whether to leave the ghost and anything off the screen undrawn, to
+     * save time when the game is overloaded.
+     */
+    private boolean reducedDetail;
+
     /**
      * This holds each of the mapItems that have been instantiated on the whole
      * map, whether in the screen or not.
      */
-    private ArrayList<Item> mapItems;
+    private ItemStore mapItems;
+
+    /**
+     * The Items on the map at the start of the race, each at its serial, so a
+     * fork can find its counterpart of any of them.
+     */
+    private Item[] pickups;
+
+    /**
+     * Pools from which the active forms of Tomatoes and Oil are taken when
+     * used, so firing them doesn't create new objects.
+     */
+    private ItemPool<Tomato> tomatoPool;
+    private ItemPool<Oil> oilPool;
 
     /**
      * Array of array of doubles which will hold the waypoint information that
@@ -67,6 +217,12 @@ public class World implements GlobalHelper {
      */
     private boolean gameOver;
 
+    /**
+     * Timer wheel on which the effects of items are scheduled, so that they
+     * can be started and ended once rather than applied every tick.
+     */
+    private EffectTimerWheel effectTimers;
+
     /** The current rank of the player, to be displayed in panel */
     private int playerPos;
 
@@ -79,8 +235,23 @@ public class World implements GlobalHelper {
      */
     private Panel panel;
 
+    /** Where the state of every Racer is recorded each tick, or null */
+    private TelemetryRecorder telemetry;
+
+    /** The local player's run so far, to be replayed by a Ghost later */
+    private GhostRecording recording;
+
+    /** The Ghost replaying the best run so far, or null if there isn't one */
+    private Ghost ghost;
+
+    /** The World this is a fork of, or null if it isn't one */
+    private World forkedFrom;
+
+    /** Room to copy the extra state of an Item or Enemy into a fork */
+    private double[] scratchState;
+
     /**
-     * Create a new World object.
+     * Create a new World object, running at the default tick rate.
      * 
      * @param screenWidth
      *            The width of the screen in pixels.
@@ -89,32 +260,153 @@ public class World implements GlobalHelper {
      * @throws SlickException
      */
     public World(int screenWidth, int screenHeight) throws SlickException {
+        this(screenWidth, screenHeight, DEFAULT_TICK_RATE);
+    }
 
-        /* Creating the map object */
-        map = new TiledMap(ASSETS_PATH + MAP_FILE, ASSETS_PATH);
+    /**
+     * Create a new World object with a single player.
+     * 
+     * @param screenWidth
+     *            The width of the screen in pixels.
+     * @param screenHeight
+     *            The height of the screen in pixels.
+     * @param tickRate
+     *            The number of times update() is called per second of game
+     *            time.
+     * @throws SlickException
+     */
+    public World(int screenWidth, int screenHeight, int tickRate)
+            throws SlickException {
+        this(screenWidth, screenHeight, tickRate, 1, 0);
+    }
 
-        /* Creating the player at the given starting position. */
-        player = new Player();
+    /**
+     * Create a new World object.
+     * 
+     * @param screenWidth
+     *            The width of the screen in pixels.
+     * @param screenHeight
+     *            The height of the screen in pixels.
+     * @param tickRate
+     *            The number of times update() is called per second of game
+     *            time.
+     * @param numPlayers
+     *            The number of human players in the race.
+     * @param localPlayer
+     *            The index of the player playing on this machine.
+     * @throws SlickException
+     */
+    public World(int screenWidth, int screenHeight, int tickRate,
+            int numPlayers, int localPlayer) throws SlickException {
+        this(screenWidth, screenHeight, tickRate, numPlayers, localPlayer,
+                Roster.loadDefault(), 1);
+    }
 
-        /*
-         * Calling the static method of Enemy, createEnemies(), which creates
-         * and returns a static array holding all the enemies.
-         */
-        enemies = Enemy.createEnemies();
+    /**
+     * Create a new World object on the bundled track, with the Enemies in the
+     * given Roster.
+     * 
+     * @param screenWidth
+     *            The width of the screen in pixels.
+     * @param screenHeight
+     *            The height of the screen in pixels.
+     * @param tickRate
+     *            The number of times update() is called per second of game
+     *            time.
+     * @param numPlayers
+     *            The number of human players in the race.
+     * @param localPlayer
+     *            The index of the player playing on this machine.
+     * @param roster
+     *            The kinds of Enemy to race against, and where the players
+     *            line up among them.
+     * @param lookaheadThreads
+     *            The number of threads each LookaheadEnemy plans on.
+     * @throws SlickException
+     */
+    public World(int screenWidth, int screenHeight, int tickRate,
+            int numPlayers, int localPlayer, Roster roster,
+            int lookaheadThreads) throws SlickException {
+        this(screenWidth, screenHeight, tickRate, numPlayers, localPlayer,
+                Track.loadDefault(), roster, lookaheadThreads);
+    }
+
+    /**
+     * Create a new World object on the given Track with the Enemies in the
+     * given Roster, each starting at its place on a StartGrid big enough for
+     * the whole field.
+     * 
+     * @param screenWidth
+     *            The width of the screen in pixels.
+     * @param screenHeight
+     *            The height of the screen in pixels.
+     * @param tickRate
+     *            The number of times update() is called per second of game
+     *            time.
+     * @param numPlayers
+     *            The number of human players in the race.
+     * @param localPlayer
+     *            The index of the player playing on this machine.
+     * @param track
+     *            The track to race on.
+     * @param roster
+     *            The kinds of Enemy to race against, and where the players
+     *            line up among them.
+     * @param lookaheadThreads
+     *            The number of threads each LookaheadEnemy plans on.
+     * @throws SlickException
+     */
+    public World(int screenWidth, int screenHeight, int tickRate,
+            int numPlayers, int localPlayer, Track track, Roster roster,
+            int lookaheadThreads) throws SlickException {
+        if (localPlayer < 0 || localPlayer >= numPlayers) {
+            throw new IllegalArgumentException(
+                    "World: local player must be one of the players");
+        }
+        if (tickRate <= 0) {
+            throw new IllegalArgumentException(
+                    "World: tick rate must be positive");
+        }
+        tickMillis = 1000.0 / tickRate;
+        this.track = track;
+
+        /* Creating the map object, without its tile images if headless */
+        tileSet = TileSet.load(track.getMapFile());
+        frictionByTileId = tileSet.getFrictions();
+        map = new ChunkedMap(MapChunkFile.open(track.getMapFile(),
+                frictionByTileId, WALL_FRICTION), MAP_MEMORY_CAP);
+        loadTickDecays();
 
         /*
-         * Here we make an aggregate array of Racers that holds both the Player
-         * and the Enemies. This is useful to check, for example, whether any of
-         * the Racers have collided with one another.
+         * Lining everyone up on the starting grid, the players together at
+         * their place in the roster and the Enemies in the places around them.
          */
-        racers = new Racer[enemies.length + 1];
-        racers[0] = player;
-        for (int i = 0; i < enemies.length; i++) {
-            racers[i + 1] = enemies[i];
+        double[][] grid = StartGrid.create(this,
+                numPlayers + roster.getNumEnemies());
+        int playersAt = roster.getPlayersAt();
+        players = Player.createPlayers(
+                Arrays.copyOfRange(grid, playersAt, playersAt + numPlayers));
+        this.localPlayer = localPlayer;
+        player = players[localPlayer];
+        rotateDirs = new double[numPlayers];
+        moveDirs = new double[numPlayers];
+        useItems = new boolean[numPlayers];
+        tick = 0;
+
+        double[][] enemyStarts = new double[roster.getNumEnemies()][];
+        for (int i = 0; i < enemyStarts.length; i++) {
+            enemyStarts[i] = grid[i < playersAt ? i : i + numPlayers];
         }
+        enemies = Enemy.createEnemies(roster, enemyStarts, lookaheadThreads);
+        gatherRacers();
+        batchedPhysics = false;
+        aiThinkInterval = 1;
+        offScreenItemInterval = 1;
+        reducedDetail = false;
 
         // Here we get the raw data line by line from the waypoints file.
-        String[] waypointsData = GlobalHelper.readTextDataFile(WAYPOINTS_FILE);
+        String[] waypointsData = GlobalHelper.readTextDataFile(
+                track.getWaypointsFile());
 
         /*
          * We process the waypoint data into usable information. This involves
@@ -131,19 +423,127 @@ public class World implements GlobalHelper {
         /* Creating the camera. */
         cam = new Camera(player.getMapX(), player.getMapY(), screenWidth,
                 screenHeight, NUM_TILES_WIDE, NUM_TILES_HIGH);
+        keepMapAround();
 
-        // Creating the items on the map.
-        mapItems = Item.createItems();
+        // Creating the items on the map, and the wheel for their effects.
+        createItems();
 
         // Instantiating the Panel.
         panel = new Panel(screenWidth, screenHeight);
 
         // Indicating that the game is not yet finished.
         gameOver = false;
+
+        // Recording the run from the start, in case it's the best yet.
+        recording = new GhostRecording();
+        ghost = null;
+        forkedFrom = null;
     }
 
     /**
-     * Update the game state for a frame.
+     * Creates a fork of a World, sharing the map, frictions and waypoints but
+     * with Racers and Items of its own. Its state is left for copyFrom().
+     * 
+     * @param source
+     *            The World to fork.
+     * @throws SlickException
+     */
+    private World(World source) throws SlickException {
+        tickMillis = source.tickMillis;
+        track = source.track;
+        map = source.map;
+        tileSet = source.tileSet;
+        frictionByTileId = source.frictionByTileId;
+        speedDecayByTileId = source.speedDecayByTileId;
+        speedGainByTileId = source.speedGainByTileId;
+        distanceGainByTileId = source.distanceGainByTileId;
+        waypoints = source.waypoints;
+
+        double[][] starts = new double[source.players.length][];
+        for (int i = 0; i < starts.length; i++) {
+            starts[i] = new double[] { source.players[i].getMapX(),
+                    source.players[i].getMapY() };
+        }
+        players = Player.createPlayers(starts);
+        localPlayer = source.localPlayer;
+        player = players[localPlayer];
+        rotateDirs = new double[players.length];
+        moveDirs = new double[players.length];
+        useItems = new boolean[players.length];
+
+        enemies = new Enemy[source.enemies.length];
+        for (int i = 0; i < enemies.length; i++) {
+            enemies[i] = source.enemies[i].fork();
+        }
+        gatherRacers();
+        batchedPhysics = source.batchedPhysics;
+        aiThinkInterval = source.aiThinkInterval;
+        // Left at 1 whatever the source's, as copyFrom() explains.
+        offScreenItemInterval = 1;
+        reducedDetail = false;
+
+        createItems();
+
+        // Forks are never shown, so have no screen, and don't record a run.
+        cam = new Camera(player.getMapX(), player.getMapY(), 0, 0,
+                NUM_TILES_WIDE, NUM_TILES_HIGH);
+        panel = null;
+        recording = null;
+        ghost = null;
+        forkedFrom = source;
+    }
+
+    /**
+     * Puts every Racer into one array, the players followed by the Enemies,
+     * and binds them all to one shared store of state.
+     */
+    private void gatherRacers() {
+        /*
+         * Here we make an aggregate array of Racers that holds both the Players
+         * and the Enemies. This is useful to check, for example, whether any of
+         * the Racers have collided with one another.
+         */
+        racers = new Racer[players.length + enemies.length];
+        for (int i = 0; i < players.length; i++) {
+            racers[i] = players[i];
+        }
+        for (int i = 0; i < enemies.length; i++) {
+            racers[players.length + i] = enemies[i];
+        }
+
+        /*
+         * Moving the state of every Racer into one shared store, so they can
+         * check collisions against each other and be moved together.
+         */
+        racerStates = new RacerStates(racers.length);
+        for (Racer racer : racers) {
+            racer.bind(racerStates);
+        }
+    }
+
+    /**
+     * Creates the Items on the map, each numbered by its slot, along with the
+     * wheel for their effects and the pools for their active forms.
+     */
+    private void createItems() throws SlickException {
+        mapItems = Item.createItems(track.getItemsFile());
+        pickups = new Item[mapItems.getNumSlots()];
+        for (int i = 0; i < pickups.length; i++) {
+            pickups[i] = mapItems.get(i);
+            pickups[i].setSerial(i);
+        }
+        effectTimers = new EffectTimerWheel(tickMillis);
+
+        // Filling the pools for the active forms of the items.
+        tomatoPool = Tomato.createPool(ITEM_POOL_SIZE);
+        oilPool = Oil.createPool(ITEM_POOL_SIZE);
+        scratchState = new double[Math.max(Item.EXTRA_STATE_SIZE,
+                Enemy.EXTRA_STATE_SIZE)];
+    }
+
+    /**
+     * Update the game state for a single tick, getTickMillis() long, with
+     * input for the local player only. Any other players get no input.
      * 
      * @param rotateDir
      *            The player's direction of rotation (-1 for anti-clockwise, 1
@@ -155,64 +555,171 @@ public class World implements GlobalHelper {
      */
     public void update(double rotateDir, double moveDir, boolean useItem)
             throws SlickException {
+        rotateDirs[localPlayer] = rotateDir;
+        moveDirs[localPlayer] = moveDir;
+        useItems[localPlayer] = useItem;
+        update(rotateDirs, moveDirs, useItems);
+        rotateDirs[localPlayer] = 0.0;
+        moveDirs[localPlayer] = 0.0;
+        useItems[localPlayer] = false;
+    }
+
+    /**
+     * Update the game state for a single tick, getTickMillis() long, with
+     * input for every player. The same inputs from the same starting state
+     * always give the same result, which is what lets a LockstepSession keep
+     * several copies of a race in step by just exchanging inputs.
+     * 
+     * @param rotateDirs
+     *            Each player's direction of rotation (-1 for anti-clockwise,
+     *            1 for clockwise, or 0).
+     * @param moveDirs
+     *            Each player's movement in the car's axis (-1, 0 or 1).
+     * @param useItems
+     *            Whether each player is using their held item.
+     */
+    public void update(double[] rotateDirs, double[] moveDirs,
+            boolean[] useItems) throws SlickException {
 
         /*
-         * Checking whether the player has crossed the finish line. If so, we
-         * set the acceleration to 0 and lock the steering forwards. We also set
-         * the gameOver variable to true so we know to display the end game
-         * message in the render method of this class. If the game is not over,
-         * we keep updating the ranking of the player.
-         * 
-         * We also remove the ability from the player to use items if the race
-         * is over.
+         * Moving the effect timers on to this tick, which ends any item effects
+         * whose duration has run out before anyone moves.
          */
-        if (player.getMapY() < FINISH_Y) {
-            player.setAcceleration(0.0);
-            rotateDir = 0.0;
-            gameOver = true;
-        } else {
-            playerPos = player.getPlayerPos(enemies);
+        effectTimers.advance();
+
+        for (int i = 0; i < players.length; i++) {
+            Player current = players[i];
+            double rotateDir = rotateDirs[i];
+
             /*
-             * If the use item key is held down, left ctrl by default, it calls
-             * the player.UserHeldItem() method, which in turn activates the
-             * held item.
+             * Checking whether the player has crossed the finish line. If so,
+             * we set the acceleration to 0 and lock the steering forwards. If
+             * it's the local player we also set the gameOver variable to true
+             * so we know to display the end game message in the render method
+             * of this class. If the game is not over, we keep updating the
+             * ranking of the local player.
+             * 
+             * We also remove the ability from the player to use items if the
+             * race is over.
              */
-            if (useItem) {
-                player.useHeldItem();
+            if (current.getMapY() < track.getFinishY()) {
+                current.setAcceleration(0.0);
+                rotateDir = 0.0;
+                if (i == localPlayer) {
+                    gameOver = true;
+                }
+            } else {
+                if (i == localPlayer) {
+                    playerPos = current.getPlayerPos(racers);
+                }
+                /*
+                 * If the use item key is held down, left ctrl by default, it
+                 * calls the player.UserHeldItem() method, which in turn
+                 * activates the held item.
+                 */
+                if (useItems[i]) {
+                    current.useHeldItem(this);
+                }
+            }
+
+            if (batchedPhysics) {
+                current.prepareUpdate(rotateDir, moveDirs[i], this, mapItems);
+            } else {
+                /*
+                 * Calls the player.update method. Importantly, the world
+                 * object itself is passed into this method such that the
+                 * friction of the current player position can be calculated
+                 * from inside the player.
+                 */
+                current.update(rotateDir, moveDirs[i], this, mapItems);
             }
         }
 
         /*
-         * Calls the player.update method. Importantly, the world object itself
-         * is passed into this method such that the friction of the current
-         * player position can be calculated from inside the player.
+         * The Enemies all react to the first player, whichever player is local
+         * here, so that every copy of a networked race agrees on what they do.
          */
-        player.update(rotateDir, moveDir, this, mapItems, racers);
+        Player leader = players[0];
+
+        if (batchedPhysics) {
+            /*
+             * With every player prepared for the tick, preparing the Enemies
+             * too, then moving them all in one loop over their shared state
+             * before the Enemies decide what to do next.
+             */
+            Enemy.prepareEnemies(this, enemies, mapItems);
+            racerStates.stepAll(this);
+            Enemy.determineBehaviours(this, enemies, leader, waypoints);
+
+            cam.update(player.getMapX(), player.getMapY());
+            Item.updateItems(mapItems, this);
+        } else {
+            /*
+             * "Moving the viewport", which is essentially just updating the
+             * camera's position based on the new position of the player. This
+             * could easily follow a different Racer with a line like:
+             * cam.update(enemies[0].getMapX(), enemies[0].getMapY());
+             */
+            cam.update(player.getMapX(), player.getMapY());
+
+            /*
+             * Updates all the items on the map, active or otherwise. This
+             * generally entails calling the update method of each item, held
+             * individually for each subclass of Item. Namely, we're checking
+             * to see if any active items (e.g. tomato projectile) should be
+             * removed off the map.
+             */
+            Item.updateItems(mapItems, this);
+
+            /*
+             * Updates all the enemies. While this calls the update method from
+             * the Racer superclass, just like for player, it also handles
+             * Enemy specific behaviour such as following the waypoints, as
+             * well as the individual behaviour for each subclass of Enemy, if
+             * it has any.
+             */
+            Enemy.updateEnemies(this, enemies, leader, mapItems, waypoints);
+        }
 
         /*
-         * "Moving the viewport", which is essentially just updating the
-         * camera's position based on the new position of the player. This could
-         * easily follow a different Racer with a line like:
-         * cam.update(enemies[0].getMapX(), enemies[0].getMapY());
+         * Now that nothing else will touch the items this tick, closing up the
+         * gaps left by any that were removed from the map.
          */
-        cam.update(player.getMapX(), player.getMapY());
+        mapItems.compact();
+
+        // Recording where everyone ended up, if anyone is listening.
+        if (telemetry != null) {
+            telemetry.record(tick, racerStates, players);
+        }
+        tick++;
+
+        // Only the World itself looks after the map its forks share.
+        if (forkedFrom == null && tick % MAP_KEEP_TICKS == 0) {
+            keepMapAround();
+        }
 
         /*
-         * Updates all the items on the map, active or otherwise. This generally
-         * entails calling the update method of each item, held individually for
-         * each subclass of Item. Namely, we're checking to see if any active
-         * items (e.g. tomato projectile) should be removed off the map.
+         * Recording the local player's run until they cross the line, and
+         * moving the Ghost along the best run to the same point in the race.
          */
-        Item.updateItems(mapItems, this);
+        double millis = tick * tickMillis;
+        if (recording != null && gameOver) {
+            recording.finish(millis);
+        } else if (recording != null) {
+            recording.record(millis, player.getMapX(), player.getMapY(),
+                    racerStates.heading[localPlayer]);
+        }
+        if (ghost != null) {
+            ghost.update(millis);
+        }
 
         /*
-         * Updates all the enemies. While this calls the update method from the
-         * Racer superclass, just like for player, it also handles Enemy
-         * specific behaviour such as following the waypoints, as well as the
-         * individual behaviour for each subclass of Enemy, if it has any.
+         * With the tick over, letting any Enemy that plans ahead do so, now
+         * that the World is in a state that can be forked.
          */
-        Enemy.updateEnemies(this, racers, enemies, player, mapItems, waypoints);
-
+        for (Enemy enemy : enemies) {
+            enemy.plan(this);
+        }
     }
 
     /**
@@ -228,23 +735,45 @@ public class World implements GlobalHelper {
          * important such that nothing is rendered under something else
          * unintentionally and thereby is accidentally hidden.
          */
-        map.render((int) cam.getX(), (int) cam.getY(), cam.getSX(), cam.getSY(),
-                NUM_TILES_WIDE, NUM_TILES_HIGH);
+        tileSet.render(map, (int) cam.getX(), (int) cam.getY(), cam.getSX(),
+                cam.getSY(), NUM_TILES_WIDE, NUM_TILES_HIGH);
+
+        // Drawing the Ghost first, so the real karts go over the top of it.
+        if (ghost != null && !reducedDetail) {
+            ghost.render(cam.getMapX(), cam.getMapY());
+        }
 
-        // Calls the render method of player to draw the kart to the screen.
-        player.render(cam.getMapX(), cam.getMapY());
+        // Calls the render method of each player to draw their karts.
+        for (Player current : players) {
+            current.render(cam.getMapX(), cam.getMapY());
+        }
 
         /*
          * Calls the static method of Enemy that loops through each instantiated
-         * Enemy and renders them to the screen.
+         * Enemy and renders them to the screen. With the detail turned down,
+         * only those on the screen are drawn.
          */
-        Enemy.renderEnemies(enemies, cam.getMapX(), cam.getMapY());
+        if (reducedDetail) {
+            for (Enemy enemy : enemies) {
+                renderIfOnScreen(enemy);
+            }
+        } else {
+            Enemy.renderEnemies(enemies, cam.getMapX(), cam.getMapY());
+        }
 
         /*
          * Calls the static method of Item that loops through all the Items and
-         * renders them to the screen.
+         * renders them to the screen, or again just those on the screen.
          */
-        Item.renderItems(mapItems, cam.getMapX(), cam.getMapY());
+        if (reducedDetail) {
+            for (int i = 0; i < mapItems.getNumSlots(); i++) {
+                if (mapItems.get(i) != null) {
+                    renderIfOnScreen(mapItems.get(i));
+                }
+            }
+        } else {
+            Item.renderItems(mapItems, cam.getMapX(), cam.getMapY());
+        }
 
         // Finally, we render the panel, as this should go on top
         panel.render(g, playerPos, player.getHeldItem());
@@ -258,6 +787,523 @@ public class World implements GlobalHelper {
 
     }
 
+    /**
+     * Switches between updating each Racer in turn and moving them all at once
+     * in a single loop over their shared state.
+     * 
+     * @param batchedPhysics
+     *            True to move all the Racers at once.
+     */
+    public void setBatchedPhysics(boolean batchedPhysics) {
+        this.batchedPhysics = batchedPhysics;
+    }
+
+    /**
+     * Draws something on the map, but only if it is on the screen.
+     * 
+     * @param object
+     *            The thing to draw.
+     */
+    private void renderIfOnScreen(RenderableObject object) {
+        if (isOnScreen(object.getMapX(), object.getMapY())) {
+            object.render(cam.getMapX(), cam.getMapY());
+        }
+    }
+
+    /**
+     * @param x
+     *            In pixels. An x-coordinate on the map.
+     * @param y
+     *            In pixels. A y-coordinate on the map.
+     * @return Whether a sprite centred there would be seen on the screen.
+     */
+    public boolean isOnScreen(double x, double y) {
+        return cam.isOnScreen(x, y, ON_SCREEN_MARGIN);
+    }
+
+    /**
+     * Sets how often each Enemy decides what to do. Used by a FrameGovernor
+     * to save time when the game is overloaded.
+     * 
+     * @param aiThinkInterval
+     *            In ticks. 1 for every tick.
+     */
+    public void setAiThinkInterval(int aiThinkInterval) {
+        if (aiThinkInterval < 1) {
+            throw new IllegalArgumentException(
+                    "World: AI think interval must be at least 1");
+        }
+        this.aiThinkInterval = aiThinkInterval;
+    }
+
+    /**
+     * @return In ticks. How often each Enemy decides what to do.
+     */
+    public int getAiThinkInterval() {
+        return aiThinkInterval;
+    }
+
+    /**
+     * @param racer
+     *            A Racer in the World.
+     * @return Whether the Racer decides what to do this tick. The Racers take
+     *         turns by slot, so they don't all think on the same tick.
+     */
+    public boolean isThinkTick(Racer racer) {
+        return aiThinkInterval == 1
+                || (tick + racer.getSlot()) % aiThinkInterval == 0;
+    }
+
+    /**
+     * Sets how often Items off the screen are updated. Used by a
+     * FrameGovernor to save time when the game is overloaded.
+     * 
+     * @param offScreenItemInterval
+     *            In ticks. 1 for every tick.
+     */
+    public void setOffScreenItemInterval(int offScreenItemInterval) {
+        if (offScreenItemInterval < 1) {
+            throw new IllegalArgumentException(
+                    "World: off screen item interval must be at least 1");
+        }
+        this.offScreenItemInterval = offScreenItemInterval;
+    }
+
+    /**
+     * @return In ticks. How often Items off the screen are updated.
+     */
+    public int getOffScreenItemInterval() {
+        return offScreenItemInterval;
+    }
+
+    /**
+     * Turns drawing of the ghost and of anything off the screen off or on.
+     * Used by a FrameGovernor to save time when the game is overloaded.
+     * 
+     * @param reducedDetail
+     *            True to leave them undrawn.
+     */
+    public void setReducedDetail(boolean reducedDetail) {
+        this.reducedDetail = reducedDetail;
+    }
+
+    /**
+     * Starts or stops recording the state of every Racer at the end of each
+     * tick.
+     * 
+     * @param telemetry
+     *            The recorder to record into, or null to stop recording.
+     */
+    public void setTelemetry(TelemetryRecorder telemetry) {
+        this.telemetry = telemetry;
+    }
+
+    /**
+     * Gives every Enemy a new set of numbers to drive by.
+     * 
+     * @param parameters
+     *            The parameters, shared between all the Enemies.
+     */
+    public void setAiParameters(AiParameters parameters) {
+        for (Enemy enemy : enemies) {
+            enemy.setParameters(parameters);
+        }
+    }
+
+    /**
+     * Sets a run for a Ghost to replay alongside the race, from the current
+     * point in the race on.
+     * 
+     * @param best
+     *            The run to replay, or null for no Ghost.
+     * @throws SlickException
+     */
+    public void setGhost(GhostRecording best) throws SlickException {
+        ghost = best == null ? null : new Ghost(best);
+        if (ghost != null) {
+            ghost.update(tick * tickMillis);
+        }
+    }
+
+    /**
+     * @return The local player's run so far, which is finished once they
+     *         cross the line, or null for a fork.
+     */
+    public GhostRecording getRecording() {
+        return recording;
+    }
+
+    /**
+     * @return The local player, whose input is given to update().
+     */
+    public Player getPlayer() {
+        return player;
+    }
+
+    /**
+     * @return The number of human players in the race.
+     */
+    public int getNumPlayers() {
+        return players.length;
+    }
+
+    /**
+     * @return The number of Racers in the race, players and Enemies.
+     */
+    public int getNumRacers() {
+        return racers.length;
+    }
+
+    /**
+     * Gets a Racer by index. The players come first, in order, followed by
+     * the Enemies.
+     * 
+     * @param index
+     *            The index of the Racer, between 0 and getNumRacers() - 1.
+     * @return The Racer.
+     */
+    public Racer getRacer(int index) {
+        return racers[index];
+    }
+
+    /**
+     * @return In pixels. The y-coordinate a Racer has to get above to cross
+     *         the finish line.
+     */
+    public int getFinishY() {
+        return track.getFinishY();
+    }
+
+    /**
+     * @return The track the race is run on.
+     */
+    public Track getTrack() {
+        return track;
+    }
+
+    /**
+     * @return The waypoints the Enemies follow, in order, each an x and y
+     *         coordinate. These mustn't be changed.
+     */
+    public double[][] getWaypoints() {
+        return waypoints;
+    }
+
+    /**
+     * @return In pixels. The width of the map.
+     */
+    public int getMapWidth() {
+        return map.getWidth() * TILE_WIDTH;
+    }
+
+    /**
+     * @return In pixels. The height of the map.
+     */
+    public int getMapHeight() {
+        return map.getHeight() * TILE_WIDTH;
+    }
+
+    /**
+     * @return The state of every Racer, by slot. This is for reading between
+     *         ticks, and mustn't be changed.
+     */
+    public RacerStates getRacerStates() {
+        return racerStates;
+    }
+
+    /**
+     * @return The number of ticks the World has been updated for.
+     */
+    public long getTick() {
+        return tick;
+    }
+
+    /**
+     * Works out a checksum of everything that changes as the race goes on:
+     * the tick, the physics state of every Racer and the items on the map.
+     * Two copies of a race that have had the same inputs should always give
+     * the same checksum, so comparing them shows up a copy that has drifted.
+     * 
+     * @return The checksum.
+     */
+    public long getStateChecksum() {
+        long checksum = tick;
+        checksum = 31 * checksum + racerStates.checksum();
+        for (int i = 0; i < mapItems.getNumSlots(); i++) {
+            Item item = mapItems.get(i);
+            if (item != null) {
+                checksum = 31 * checksum
+                        + Double.doubleToLongBits(item.getMapX());
+                checksum = 31 * checksum
+                        + Double.doubleToLongBits(item.getMapY());
+            }
+        }
+        return checksum;
+    }
+
+    /**
+     * Creates an empty snapshot that this World can be saved into.
+     * 
+     * @return The new snapshot.
+     */
+    public WorldSnapshot createSnapshot() {
+        return new WorldSnapshot(racers.length, players.length,
+                enemies.length, mapItems.getNumSlots() + 2 * ITEM_POOL_SIZE,
+                tickMillis);
+    }
+
+    /**
+     * Saves everything about the World that update() changes into a
+     * snapshot, so the World can be put back to this tick with restore().
+     * This must be done between ticks, never during update(). Once the
+     * snapshot has grown to fit, nothing is allocated.
+     * 
+     * @param snapshot
+     *            A snapshot made by createSnapshot(), which is overwritten.
+     */
+    public void save(WorldSnapshot snapshot) {
+        snapshot.racerStates.copyFrom(racerStates);
+        snapshot.effectTimers.copyFrom(effectTimers);
+        snapshot.mapItems.copyFrom(mapItems);
+
+        int numSlots = mapItems.getNumSlots();
+        int size = WorldSnapshot.getItemStateSize();
+        snapshot.ensureItemCapacity(numSlots);
+        for (int i = 0; i < numSlots; i++) {
+            Item item = mapItems.get(i);
+            if (item != null) {
+                snapshot.itemStates[i * size] = item.getMapX();
+                snapshot.itemStates[i * size + 1] = item.getMapY();
+                item.saveState(snapshot.itemStates, i * size + 2);
+                snapshot.itemAngles[i] = item.getAngle();
+                snapshot.itemSkippedTicks[i] = item.getSkippedTicks();
+            }
+        }
+        snapshot.numTomatoesCreated = tomatoPool.saveFree(
+                snapshot.freeTomatoes);
+        snapshot.numOilsCreated = oilPool.saveFree(snapshot.freeOils);
+
+        for (int i = 0; i < players.length; i++) {
+            snapshot.heldItems[i] = players[i].getHeldItem();
+        }
+        for (int i = 0; i < enemies.length; i++) {
+            snapshot.waypointTargets[i] = enemies[i]
+                    .getCurrentWaypointTarget();
+            enemies[i].saveState(snapshot.enemyStates,
+                    i * Enemy.EXTRA_STATE_SIZE);
+        }
+        snapshot.tick = tick;
+        snapshot.gameOver = gameOver;
+        snapshot.playerPos = playerPos;
+        snapshot.aiThinkInterval = aiThinkInterval;
+        snapshot.offScreenItemInterval = offScreenItemInterval;
+    }
+
+    /**
+     * Puts the World back exactly as it was when saved into a snapshot, so
+     * that running the same inputs from here again gives the same result.
+     * 
+     * @param snapshot
+     *            A snapshot this World was saved into with save().
+     */
+    public void restore(WorldSnapshot snapshot) {
+        racerStates.copyFrom(snapshot.racerStates);
+        effectTimers.copyFrom(snapshot.effectTimers);
+        mapItems.copyFrom(snapshot.mapItems);
+
+        int size = WorldSnapshot.getItemStateSize();
+        for (int i = 0; i < mapItems.getNumSlots(); i++) {
+            Item item = mapItems.get(i);
+            if (item != null) {
+                item.setMapX(snapshot.itemStates[i * size]);
+                item.setMapY(snapshot.itemStates[i * size + 1]);
+                item.restoreState(snapshot.itemStates, i * size + 2);
+                item.setAngle(snapshot.itemAngles[i]);
+                item.setSkippedTicks(snapshot.itemSkippedTicks[i]);
+            }
+        }
+        tomatoPool.restoreFree(snapshot.freeTomatoes,
+                snapshot.numTomatoesCreated);
+        oilPool.restoreFree(snapshot.freeOils, snapshot.numOilsCreated);
+
+        for (int i = 0; i < players.length; i++) {
+            players[i].setHeldItem(snapshot.heldItems[i]);
+        }
+        for (int i = 0; i < enemies.length; i++) {
+            enemies[i].setCurrentWaypointTarget(snapshot.waypointTargets[i]);
+            enemies[i].restoreState(snapshot.enemyStates,
+                    i * Enemy.EXTRA_STATE_SIZE);
+        }
+        tick = snapshot.tick;
+        gameOver = snapshot.gameOver;
+        playerPos = snapshot.playerPos;
+        aiThinkInterval = snapshot.aiThinkInterval;
+        offScreenItemInterval = snapshot.offScreenItemInterval;
+        cam.update(player.getMapX(), player.getMapY());
+    }
+
+    /**
+     * Creates a fork of this World: a copy of the race as it stands, with
+     * Racers and Items of its own, which can be updated without changing
+     * anything here. The map, frictions and waypoints are shared rather than
+     * loaded again. Like save(), this must be done between ticks.
+     * 
+     * @return The fork.
+     * @throws SlickException
+     */
+    public World fork() throws SlickException {
+        World fork = new World(this);
+        fork.copyFrom(this);
+        return fork;
+    }
+
+    /**
+     * Brings a fork back in line with the World it was forked from, as it
+     * stands now, so it can be used to look ahead again. Only the state that
+     * update() changes is copied, and nothing is allocated once the fork has
+     * grown to fit. This must be done between ticks of the source, and never
+     * while the fork is being updated.
+     *
+     * The AI interval is copied, but the off-screen Item interval isn't, and
+     * stays at 1 in a fork. A fork has no screen, so with any other interval
+     * every Item would count as off it and only move every few ticks.
+     * The ticks an Item has skipped in the source are copied, and are caught
+     * up on in the fork's first update of it.
+     * 
+     * @param source
+     *            The World this was forked from.
+     */
+    public void copyFrom(World source) {
+        if (source != forkedFrom) {
+            throw new IllegalArgumentException(
+                    "World.copyFrom: not a fork of that World");
+        }
+        racerStates.copyFrom(source.racerStates);
+        effectTimers.copyCounterpartsFrom(source.effectTimers, this);
+        mapItems.copyCounterpartsFrom(source.mapItems, this);
+
+        for (int i = 0; i < mapItems.getNumSlots(); i++) {
+            Item from = source.mapItems.get(i);
+            if (from != null) {
+                Item item = mapItems.get(i);
+                item.setMapX(from.getMapX());
+                item.setMapY(from.getMapY());
+                from.saveState(scratchState, 0);
+                item.restoreState(scratchState, 0);
+                item.setAngle(from.getAngle());
+                item.setSkippedTicks(from.getSkippedTicks());
+            }
+        }
+        tomatoPool.copyFreeFrom(source.tomatoPool);
+        oilPool.copyFreeFrom(source.oilPool);
+
+        for (int i = 0; i < players.length; i++) {
+            Item held = source.players[i].getHeldItem();
+            players[i].setHeldItem(held == null ? null : getCounterpart(held));
+        }
+        for (int i = 0; i < enemies.length; i++) {
+            Enemy from = source.enemies[i];
+            enemies[i].setCurrentWaypointTarget(
+                    from.getCurrentWaypointTarget());
+            enemies[i].setParameters(from.getParameters());
+            from.saveState(scratchState, 0);
+            enemies[i].restoreState(scratchState, 0);
+        }
+        tick = source.tick;
+        aiThinkInterval = source.aiThinkInterval;
+        gameOver = source.gameOver;
+        playerPos = source.playerPos;
+        cam.update(player.getMapX(), player.getMapY());
+    }
+
+    /**
+     * Lets go of everything the World holds outside of its own memory: the
+     * map's file and the thread that streams it in, and any threads the
+     * Enemies plan on. A fork shares its map with the World it came from, so
+     * closing a fork leaves the map open. The World can't be updated after
+     * this.
+     * 
+     * @throws IOException
+     *             If the map's file can't be closed.
+     */
+    public void close() throws IOException {
+        for (Enemy enemy : enemies) {
+            enemy.close();
+        }
+        if (forkedFrom == null) {
+            map.close();
+        }
+    }
+
+    /**
+     * Finds this fork's own copy of an Item from the World it was forked
+     * from, by the Item's serial.
+     * 
+     * @param item
+     *            An Item of the World this was forked from.
+     * @return The fork's counterpart of the Item.
+     */
+    Item getCounterpart(Item item) {
+        int serial = item.getSerial();
+        if (serial < pickups.length && forkedFrom.pickups[serial] == item) {
+            return pickups[serial];
+        } else if (forkedFrom.tomatoPool.owns(item)) {
+            return tomatoPool.getItem(serial);
+        } else {
+            return oilPool.getItem(serial);
+        }
+    }
+
+    /**
+     * @return The local player's current rank, from 1 to the number of
+     *         Racers.
+     */
+    public int getPlayerPos() {
+        return playerPos;
+    }
+
+    /**
+     * @return True once the local player has crossed the finish line.
+     */
+    public boolean isGameOver() {
+        return gameOver;
+    }
+
+    /**
+     * @return The items currently on the map.
+     */
+    public ItemStore getMapItems() {
+        return mapItems;
+    }
+
+    /**
+     * @return The pool from which Tomato projectiles are taken.
+     */
+    public ItemPool<Tomato> getTomatoPool() {
+        return tomatoPool;
+    }
+
+    /**
+     * @return The pool from which Oil slicks are taken.
+     */
+    public ItemPool<Oil> getOilPool() {
+        return oilPool;
+    }
+
+    /**
+     * @return The timer wheel on which item effects are scheduled.
+     */
+    public EffectTimerWheel getEffectTimers() {
+        return effectTimers;
+    }
+
+    /**
+     * @return The length of one tick of the simulation, in milliseconds.
+     */
+    public double getTickMillis() {
+        return tickMillis;
+    }
+
     /**
      * Uses the position of the camera to find out where the player is. While
      * the player object does have some notion of where it is on a global, pixel
@@ -265,8 +1311,8 @@ public class World implements GlobalHelper {
      * as this class has greater awareness its tile based position on the map.
      * 
      * This position is then used to get the friction of the tile on which the
-     * player is using the getTileId() and getTileProperty() methods in
-     * previously instantiating TiledMap object, map.
+     * player is, from the id of the tile in the map and the friction of each
+     * tile read from the TileSet.
      * 
      * @param x
      *            In pixels. Horizontal x-coordinate position.
@@ -276,9 +1322,229 @@ public class World implements GlobalHelper {
      *         tile.
      */
     public double getFriction(double x, double y) {
-        int tileID = map.getTileId((int) (x / TILE_WIDTH),
-                (int) (y / TILE_WIDTH), 0);
-        return Double
-                .parseDouble(map.getTileProperty(tileID, "friction", null));
+        return frictionByTileId[getTileIdAt(x, y)];
+    }
+
+    /**
+     * Finds the id of the tile under a position, for looking up the
+     * per-tile values below.
+     * 
+     * @param x
+     *            In pixels. Horizontal x-coordinate position.
+     * @param y
+     *            In pixels. Vertical y-coordinate position.
+     * @return The id of the tile at that position.
+     */
+    public int getTileIdAt(double x, double y) {
+        return map.getTileId((int) (x / TILE_WIDTH), (int) (y / TILE_WIDTH));
+    }
+
+    /**
+     * @param tileID
+     *            The id of the tile the Racer is on.
+     * @return What a Racer's speed at the start of a tick is multiplied by to
+     *         give its speed at the end, ignoring acceleration.
+     */
+    public double getSpeedDecay(int tileID) {
+        return speedDecayByTileId[tileID];
+    }
+
+    /**
+     * @param tileID
+     *            The id of the tile the Racer is on.
+     * @return What a Racer's acceleration is multiplied by to give the speed
+     *         it adds over a tick, and also what its speed at the start of a
+     *         tick is multiplied by to give the distance it travels.
+     */
+    public double getSpeedGain(int tileID) {
+        return speedGainByTileId[tileID];
+    }
+
+    /**
+     * @param tileID
+     *            The id of the tile the Racer is on.
+     * @return What a Racer's acceleration is multiplied by to give the extra
+     *         distance it travels over a tick.
+     */
+    public double getDistanceGain(int tileID) {
+        return distanceGainByTileId[tileID];
+    }
+
+    /**
+     * Gets the distance from a point to the nearest wall tile, from the
+     * precomputed distance field. This never overestimates the distance, but
+     * may underestimate it by a few pixels.
+     * 
+     * @param x
+     *            In pixels. Horizontal x-coordinate position.
+     * @param y
+     *            In pixels. Vertical y-coordinate position.
+     * @return In pixels. The distance to the nearest wall, capped at
+     *         WallDistanceField.MAX_DISTANCE, or zero or less in a wall.
+     */
+    public double getWallDistance(double x, double y) {
+        return map.getWallDistance(x, y);
+    }
+
+    /**
+     * Checks whether a circle, such as a kart, is clear of every wall.
+     * 
+     * @param x
+     *            In pixels. Horizontal x-coordinate of the centre.
+     * @param y
+     *            In pixels. Vertical y-coordinate of the centre.
+     * @param radius
+     *            In pixels. The radius of the circle.
+     * @return True if the circle certainly doesn't touch a wall.
+     */
+    public boolean isClearOfWalls(double x, double y, double radius) {
+        return map.getWallDistance(x, y) > radius;
+    }
+
+    /**
+     * Checks whether a tile is a wall, i.e. has a friction of 1 or more. Tiles
+     * off the edge of the map count as walls too.
+     * 
+     * @param tileX
+     *            Horizontal tile coordinate.
+     * @param tileY
+     *            Vertical tile coordinate.
+     * @return True if the tile can't be entered.
+     */
+    public boolean isWall(int tileX, int tileY) {
+        if (tileX < 0 || tileY < 0 || tileX >= map.getWidth()
+                || tileY >= map.getHeight()) {
+            return true;
+        }
+        return frictionByTileId[map.getTileId(tileX, tileY)] >= WALL_FRICTION;
+    }
+
+    /**
+     * Casts a ray across the tile grid and finds how far along it the first
+     * wall tile is entered. This walks from tile to tile along the ray,
+     * stepping into whichever neighbouring tile boundary the ray crosses next
+     * (the Amanatides-Woo traversal), so the cost depends only on the number
+     * of tiles crossed and not on how finely the ray would otherwise be
+     * sampled.
+     * 
+     * @param x
+     *            In pixels. Horizontal x-coordinate the ray starts from.
+     * @param y
+     *            In pixels. Vertical y-coordinate the ray starts from.
+     * @param dirX
+     *            X component of the direction of the ray. Together with dirY
+     *            this must have a length of 1.
+     * @param dirY
+     *            Y component of the direction of the ray.
+     * @param maxDistance
+     *            In pixels. How far along the ray to look.
+     * @return The distance in pixels along the ray at which a wall tile is
+     *         entered, 0 if the ray starts in one, or positive infinity if
+     *         there is no wall within maxDistance.
+     */
+    public double castRay(double x, double y, double dirX, double dirY,
+            double maxDistance) {
+        int tileX = (int) Math.floor(x / TILE_WIDTH);
+        int tileY = (int) Math.floor(y / TILE_WIDTH);
+        if (isWall(tileX, tileY)) {
+            return 0.0;
+        }
+
+        /*
+         * For each axis, the direction to step in, the distance along the ray
+         * to the first tile boundary crossed, and the distance along the ray
+         * between successive boundaries.
+         */
+        int stepX = dirX > 0 ? 1 : -1;
+        int stepY = dirY > 0 ? 1 : -1;
+        double nextX = dirX == 0 ? Double.POSITIVE_INFINITY
+                : (dirX > 0 ? (tileX + 1) * TILE_WIDTH - x
+                        : x - tileX * TILE_WIDTH) / Math.abs(dirX);
+        double nextY = dirY == 0 ? Double.POSITIVE_INFINITY
+                : (dirY > 0 ? (tileY + 1) * TILE_WIDTH - y
+                        : y - tileY * TILE_WIDTH) / Math.abs(dirY);
+        double deltaX = TILE_WIDTH / Math.abs(dirX);
+        double deltaY = TILE_WIDTH / Math.abs(dirY);
+
+        double distance;
+        while (true) {
+            if (nextX < nextY) {
+                tileX += stepX;
+                distance = nextX;
+                nextX += deltaX;
+            } else {
+                tileY += stepY;
+                distance = nextY;
+                nextY += deltaY;
+            }
+            if (distance > maxDistance) {
+                return Double.POSITIVE_INFINITY;
+            }
+            if (isWall(tileX, tileY)) {
+                return distance;
+            }
+        }
+    }
+
+    /**
+     * Works out how speed and distance build up over one tick on each tile,
+     * given its friction. Every millisecond a Racer's speed v becomes
+     * (v + a) * r, where a is its acceleration and r is 1 minus the friction.
+     * Over a tick of n milliseconds that compounds to
+     * 
+     * v * r^n + a * S, where S = r + r^2 + ... + r^n = r (1 - r^n) / (1 - r),
+     * 
+     * and adding up the speed after each millisecond gives the distance
+     * travelled as
+     * 
+     * v * S + a * r / (1 - r) * (n - S).
+     * 
+     * Both of these carry on working when n isn't a whole number, and with
+     * n = 1 they come out as exactly the original per millisecond update.
+     * Since they only depend on the tile, they are worked out once here.
+     */
+    private void loadTickDecays() {
+        double n = tickMillis;
+        speedDecayByTileId = new double[frictionByTileId.length];
+        speedGainByTileId = new double[frictionByTileId.length];
+        distanceGainByTileId = new double[frictionByTileId.length];
+
+        for (int i = 0; i < frictionByTileId.length; i++) {
+            double friction = frictionByTileId[i];
+            double r = 1 - friction;
+            if (r <= 0) {
+                // Walls, which stop a Racer dead.
+                continue;
+            }
+            if (friction == 0) {
+                // No friction, so speed just adds up.
+                speedDecayByTileId[i] = 1.0;
+                speedGainByTileId[i] = n;
+                distanceGainByTileId[i] = n * (n + 1) / 2;
+                continue;
+            }
+            // StrictMath, so every machine in a networked race agrees.
+            double decay = StrictMath.pow(r, n);
+            double gain = r * (1 - decay) / friction;
+            speedDecayByTileId[i] = decay;
+            speedGainByTileId[i] = gain;
+            distanceGainByTileId[i] = r / friction * (n - gain);
+        }
+    }
+
+    /**
+     * Tells the map where the Racers are and what the camera can see, so it
+     * keeps the chunks around them in memory.
+     */
+    private void keepMapAround() {
+        map.keepAround(racerStates.y, racerStates.getNumRacers(),
+                cam.getMapY(), cam.getMapY() + NUM_TILES_HIGH * TILE_WIDTH);
+    }
+
+    /**
+     * @return The tiles of the map, for how much of it is in memory.
+     */
+    public ChunkedMap getMap() {
+        return map;
     }
 }
@@ -0,0 +1,124 @@
+import java.util.ArrayList;
+
+/**
+ * <h1>WorldSnapshot</h1>
+ * <h2>Everything about a World that changes as the race goes on</h2>
+ *
+ * A World can be saved into one of these between ticks, and later put back
+ * exactly as it was with World.restore(), which is what lets a RollbackSession
+ * go back and run ticks again once it learns it guessed another player's
+ * input wrong. Only the state that update() changes is held here; the map, the
+ * waypoints and the sprites never change, so they are shared with the World.
+ *
+ * A snapshot is made to fit one World by World.createSnapshot(), and saving
+ * into it again reuses all of its arrays, so a ring of them can be refilled
+ * every tick without allocating.
+ *
+ * @author Daniel Porteous porteousd 696965
+ */
+public class WorldSnapshot {
+
+    /** The physics state of every Racer */
+    RacerStates racerStates;
+
+    /** The item effects in place and when they end */
+    EffectTimerWheel effectTimers;
+
+    /** The Items on the map, slot for slot */
+    ItemStore mapItems;
+
+    /**
+     * The position and extra state of the Item in each slot of mapItems,
+     * 2 + Item.EXTRA_STATE_SIZE numbers per slot, and its angle.
+     */
+    double[] itemStates;
+    Angle[] itemAngles;
+
+    /** The ticks the Item in each slot has gone without being updated */
+    int[] itemSkippedTicks;
+
+    /** The Items waiting in each of the World's pools */
+    ArrayList<Tomato> freeTomatoes;
+    ArrayList<Oil> freeOils;
+
+    /** The number of Items each of the World's pools had created */
+    int numTomatoesCreated;
+    int numOilsCreated;
+
+    /** The Item each player is holding, or null */
+    Item[] heldItems;
+
+    /** The waypoint each Enemy is heading for */
+    int[] waypointTargets;
+
+    /** Any state each Enemy keeps of its own, Enemy.EXTRA_STATE_SIZE each */
+    double[] enemyStates;
+
+    /** The rest of the World's state */
+    long tick;
+    boolean gameOver;
+    int playerPos;
+
+    /** How far the World had cut back on work, as that decides what's due */
+    int aiThinkInterval;
+    int offScreenItemInterval;
+
+    /**
+     * Creates an empty snapshot to fit a World.
+     *
+     * @param numRacers
+     *            The number of Racers in the World.
+     * @param numPlayers
+     *            The number of players in the World.
+     * @param numEnemies
+     *            The number of Enemies in the World.
+     * @param numItems
+     *            The number of Items expected on the map at once. The
+     *            snapshot grows if there are ever more.
+     * @param tickMillis
+     *            The length of one of the World's ticks, in milliseconds.
+     */
+    WorldSnapshot(int numRacers, int numPlayers, int numEnemies, int numItems,
+            double tickMillis) {
+        racerStates = new RacerStates(numRacers);
+        effectTimers = new EffectTimerWheel(tickMillis);
+        mapItems = new ItemStore(numItems);
+        itemStates = new double[numItems * getItemStateSize()];
+        itemAngles = new Angle[numItems];
+        itemSkippedTicks = new int[numItems];
+        freeTomatoes = new ArrayList<Tomato>();
+        freeOils = new ArrayList<Oil>();
+        heldItems = new Item[numPlayers];
+        waypointTargets = new int[numEnemies];
+        enemyStates = new double[numEnemies * Enemy.EXTRA_STATE_SIZE];
+    }
+
+    /**
+     * Makes sure there is room to save the state of the given number of Items.
+     *
+     * @param numItems
+     *            The number of Items on the map.
+     */
+    void ensureItemCapacity(int numItems) {
+        if (itemAngles.length < numItems) {
+            int capacity = Math.max(numItems, itemAngles.length * 2);
+            itemStates = new double[capacity * getItemStateSize()];
+            itemAngles = new Angle[capacity];
+            itemSkippedTicks = new int[capacity];
+        }
+    }
+
+    /**
+     * @return The number of numbers saved for each Item on the map.
+     */
+    static int getItemStateSize() {
+        return 2 + Item.EXTRA_STATE_SIZE;
+    }
+
+    /**
+     * @return The tick the World was at when it was saved.
+     */
+    public long getTick() {
+        return tick;
+    }
+}